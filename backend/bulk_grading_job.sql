@@ -0,0 +1,43 @@
+-- ============================================
+-- CET4 教师批量重新评分任务表
+-- 说明：教师按 (班级, 试卷) 对全班已交卷的写作/翻译重新进行 AI 评分。
+--       cet4_bulk_grading_job 一行一个批量任务；cet4_bulk_grading_item 一行一道待评分的主观题，
+--       作为断点：服务重启或执行中断后由定时扫描重新领取任务，只处理仍为 PENDING 的题目。
+--       答案来源为交卷时登记的主观题评分任务（cet4_subjective_grading_job.payload_json）；
+--       没有交卷评分任务的答卷（异步评分上线前交卷）和仍在评分中的答卷不纳入，数量记在 skipped_submissions。
+-- 数据库：MySQL 5.7+
+-- ============================================
+
+CREATE TABLE IF NOT EXISTS `cet4_bulk_grading_job` (
+    `job_id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '批量任务ID',
+    `teacher_id` BIGINT NOT NULL COMMENT '发起教师的用户ID',
+    `class_id` INT NOT NULL COMMENT '班级ID',
+    `exam_paper_en_id` BIGINT NOT NULL COMMENT '试卷ID',
+    `status` VARCHAR(16) NOT NULL COMMENT 'PENDING / RUNNING / SUCCEEDED / FAILED',
+    `attempts` INT NOT NULL DEFAULT 0 COMMENT '已领取执行次数',
+    `claim_token` VARCHAR(64) DEFAULT NULL COMMENT '本次领取的标识，进度、释放和完成时校验，超时被他人重新领取后旧执行者的写入不生效',
+    `total_answers` INT NOT NULL DEFAULT 0 COMMENT '待评分答案总数',
+    `graded_answers` INT NOT NULL DEFAULT 0 COMMENT '已完成答案数',
+    `failed_answers` INT NOT NULL DEFAULT 0 COMMENT '评分失败答案数',
+    `distinct_prompts` INT NOT NULL DEFAULT 0 COMMENT '去重后的评分请求数（题目+答案相同的只评一次）',
+    `skipped_submissions` INT NOT NULL DEFAULT 0 COMMENT '未纳入的答卷数：没有可用的交卷评分记录或仍在评分中',
+    `elapsed_ms` BIGINT NOT NULL DEFAULT 0 COMMENT '累计执行耗时（毫秒，跨重启累加），用于计算吞吐',
+    `message` VARCHAR(512) DEFAULT NULL COMMENT '状态说明或失败原因',
+    `created_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '最近一次状态变更时间，RUNNING 超时判定依据',
+    `completed_at` DATETIME DEFAULT NULL COMMENT '完成时间',
+    PRIMARY KEY (`job_id`),
+    KEY `idx_status_updated` (`status`, `updated_at`),
+    KEY `idx_teacher_created` (`teacher_id`, `created_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='CET4教师批量重新评分任务';
+
+CREATE TABLE IF NOT EXISTS `cet4_bulk_grading_item` (
+    `job_id` BIGINT NOT NULL COMMENT '批量任务ID',
+    `test_en_id` BIGINT NOT NULL COMMENT '考试记录ID',
+    `segment_id` VARCHAR(64) NOT NULL COMMENT '片段ID',
+    `prompt_key` CHAR(64) NOT NULL COMMENT '题目+规范化答案的 SHA-256，相同的只调用一次 AI 评分',
+    `status` VARCHAR(16) NOT NULL DEFAULT 'PENDING' COMMENT 'PENDING / DONE / FAILED',
+    `score` DOUBLE DEFAULT NULL COMMENT '重新评分后的片段得分',
+    PRIMARY KEY (`job_id`, `test_en_id`, `segment_id`),
+    KEY `idx_job_status_prompt` (`job_id`, `status`, `prompt_key`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='CET4批量重新评分的逐题断点';
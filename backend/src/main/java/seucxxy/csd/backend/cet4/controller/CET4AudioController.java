@@ -2,6 +2,7 @@ package seucxxy.csd.backend.cet4.controller;
 
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
@@ -26,13 +27,18 @@ public class CET4AudioController {
     @Autowired
     private CET4ListeningAudioService listeningAudioService;
     
-    // 更新为新的Python服务地址
-    private static final String AUDIO_SERVICE_URL = "http://localhost:5000/api/audio";
+    // Python服务地址
+    @Value("${python.service.base-url:http://localhost:5000}")
+    private String pythonBaseUrl;
+
+    private String audioServiceUrl() {
+        return pythonBaseUrl + "/api/audio";
+    }
 
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> checkAudioService() {
         try {
-            String url = AUDIO_SERVICE_URL + "/health";
+            String url = audioServiceUrl() + "/health";
             ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
                 url,
                 HttpMethod.GET,
@@ -65,7 +71,7 @@ public class CET4AudioController {
         User user = UserSessionUtil.getCurrentUser(session);
 
         try {
-            String url = AUDIO_SERVICE_URL + "/synthesize-combined";
+            String url = audioServiceUrl() + "/synthesize-combined";
             
             // 转发请求到音频服务
             HttpHeaders headers = new HttpHeaders();
@@ -86,7 +92,7 @@ public class CET4AudioController {
                 if (Boolean.TRUE.equals(responseBody.get("success")) && responseBody.containsKey("audio_url")) {
                     String audioUrl = (String) responseBody.get("audio_url");
                     if (audioUrl != null && audioUrl.startsWith("/audio/")) {
-                        responseBody.put("audio_url", AUDIO_SERVICE_URL + audioUrl);
+                        responseBody.put("audio_url", audioServiceUrl() + audioUrl);
                     }
                 }
                 
@@ -110,7 +116,7 @@ public class CET4AudioController {
         User user = UserSessionUtil.getCurrentUser(session);
 
         try {
-            String url = AUDIO_SERVICE_URL + "/synthesize";
+            String url = audioServiceUrl() + "/synthesize";
             
             // 转发请求到音频服务
             HttpHeaders headers = new HttpHeaders();
@@ -139,7 +145,7 @@ public class CET4AudioController {
                         if (result.containsKey("url")) {
                             String url1 = (String) result.get("url");
                             if (url1 != null && url1.startsWith("/audio/")) {
-                                result.put("url", AUDIO_SERVICE_URL + url1);
+                                result.put("url", audioServiceUrl() + url1);
                             }
                         }
                     }
@@ -162,7 +168,7 @@ public class CET4AudioController {
         User user = UserSessionUtil.getCurrentUser(session);
 
         try {
-            String url = AUDIO_SERVICE_URL + "/audio/" + filename;
+            String url = audioServiceUrl() + "/audio/" + filename;
             ResponseEntity<byte[]> response = restTemplate.getForEntity(url, byte[].class);
             
             if (response.getStatusCode().is2xxSuccessful()) {
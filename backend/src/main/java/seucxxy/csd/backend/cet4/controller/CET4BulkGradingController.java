@@ -0,0 +1,81 @@
+package seucxxy.csd.backend.cet4.controller;
+
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import seucxxy.csd.backend.cet4.entity.CET4BulkGradingJob;
+import seucxxy.csd.backend.cet4.service.CET4BulkGradingService;
+import seucxxy.csd.backend.common.entity.User;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/cet4/bulk-grading")
+@CrossOrigin(origins = {"http://localhost:5002", "http://localhost:5003"}, allowCredentials = "true")
+public class CET4BulkGradingController {
+    @Autowired
+    private CET4BulkGradingService bulkGradingService;
+
+    // 教师按班级、试卷发起写作/翻译批量重新评分，立即返回任务ID
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> submit(@RequestBody Map<String, Object> request, HttpSession session) {
+        User user = (User) session.getAttribute("user");
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("success", false, "message", "用户未登录"));
+        }
+        try {
+            Integer classId = request.get("classId") != null ? Integer.valueOf(request.get("classId").toString()) : null;
+            Long examPaperEnId = request.get("examPaperEnId") != null ? Long.valueOf(request.get("examPaperEnId").toString()) : null;
+            CET4BulkGradingJob job = bulkGradingService.createJob(user.getId(), classId, examPaperEnId);
+            bulkGradingService.start(job.getJobId());
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("jobId", job.getJobId());
+            result.put("totalAnswers", job.getTotalAnswers());
+            result.put("distinctPrompts", job.getDistinctPrompts());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("success", false, "message", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "message", e.getMessage()));
+        }
+    }
+
+    // 批量评分状态：进度、失败数与吞吐（份/秒）
+    @GetMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> getStatus(@PathVariable Long jobId, HttpSession session) {
+        User user = (User) session.getAttribute("user");
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("success", false, "message", "用户未登录"));
+        }
+        Map<String, Object> status = bulkGradingService.getStatus(jobId, user.getId());
+        if (status == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("success", false, "message", "批量评分任务不存在"));
+        }
+        status.put("success", true);
+        return ResponseEntity.ok(status);
+    }
+
+    // 批量评分进度推送（SSE），完成或失败后连接关闭
+    @GetMapping(value = "/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamStatus(@PathVariable Long jobId, HttpSession session) {
+        User user = (User) session.getAttribute("user");
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (bulkGradingService.getStatus(jobId, user.getId()) == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        SseEmitter emitter = bulkGradingService.subscribe(jobId);
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+}
@@ -12,6 +12,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import seucxxy.csd.backend.cet4.dto.CET4PaperChromaBatchRequest;
 import seucxxy.csd.backend.cet4.dto.CET4SectionAChromaRecord;
 import seucxxy.csd.backend.cet4.dto.CET4SectionAChromaRequest;
 import seucxxy.csd.backend.cet4.dto.CET4SimpleChromaRequest;
@@ -283,6 +284,37 @@ public class CET4PaperAnalysisController {
         }
     }
 
+    /**
+     * 整卷写入 ChromaDB：请求体按部分携带与单独 store* 接口相同的请求，合并为一次批量写入
+     */
+    @PostMapping("/exam-paper/chroma")
+    public ResponseEntity<Map<String, Object>> storePaperInChroma(
+            @Valid @RequestBody CET4PaperChromaBatchRequest request) {
+
+        Map<String, Object> body = new HashMap<>();
+        if (request.isEmpty()) {
+            body.put("success", false);
+            body.put("message", "没有可保存的试卷内容");
+            return ResponseEntity.badRequest().body(body);
+        }
+        try {
+            int stored = cet4ChromaService.storePaper(request);
+
+            body.put("success", true);
+            body.put("storedUnits", stored);
+            body.put("message", "试卷已成功写入 ChromaDB");
+            return ResponseEntity.ok(body);
+        } catch (IllegalArgumentException e) {
+            body.put("success", false);
+            body.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(body);
+        } catch (Exception e) {
+            body.put("success", false);
+            body.put("message", "写入 ChromaDB 失败：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(body);
+        }
+    }
+
     @GetMapping("/exam-paper/units")
     public ResponseEntity<Map<String, Object>> queryExamPaperUnits(
             @RequestParam(value = "examPaperId", required = false) String examPaperId,
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -15,6 +16,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import seucxxy.csd.backend.cet4.dto.CET4AnalysisOptions;
 import seucxxy.csd.backend.cet4.entity.CET4PaperAnalysisTask;
 import seucxxy.csd.backend.cet4.service.CET4PaperAnalysisTaskRunner;
 import seucxxy.csd.backend.cet4.service.CET4PaperAnalysisTaskService;
@@ -48,6 +51,8 @@ public class CET4PaperAnalysisTaskController {
     @PostMapping
     public ResponseEntity<Map<String, Object>> submitTask(@RequestParam("file") MultipartFile file,
                                                           @RequestParam(value = "asyncMode", defaultValue = "false") boolean asyncMode,
+                                                          @RequestParam(value = "bypassCache", defaultValue = "false") boolean bypassCache,
+                                                          @RequestParam(value = "previousTaskId", required = false) Long previousTaskId,
                                                           HttpSession session) {
         Map<String, Object> response = new HashMap<>();
         CET4PaperAnalysisTask task = null;
@@ -63,10 +68,11 @@ public class CET4PaperAnalysisTaskController {
             String sourceType = resolveSourceType(fileName);
             String examPaperEnSource = "AIfromreal";
 
+            CET4AnalysisOptions options = new CET4AnalysisOptions(!bypassCache, loadPreviousResult(previousTaskId, userId));
             task = taskService.createTask(userId, fileName, sourceType, examPaperEnSource);
 
             if (asyncMode) {
-                taskRunner.executeTaskAsync(task.getId(), fileBytes, fileName, fileType);
+                taskRunner.executeTaskAsync(task.getId(), fileBytes, fileName, fileType, options);
                 response.put("success", true);
                 response.put("taskId", task.getId());
                 response.put("async", true);
@@ -74,7 +80,7 @@ public class CET4PaperAnalysisTaskController {
                 return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
             }
 
-            Map<String, Object> result = taskRunner.executeTaskSync(task, fileBytes, fileName, fileType);
+            Map<String, Object> result = taskRunner.executeTaskSync(task, fileBytes, fileName, fileType, options);
             response.putAll(result);
             response.put("taskId", task.getId());
             response.put("async", false);
@@ -128,6 +134,20 @@ public class CET4PaperAnalysisTaskController {
         }
     }
 
+    @GetMapping(value = "/{taskId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamTaskProgress(@PathVariable("taskId") Long taskId, HttpSession session) {
+        try {
+            Long userId = UserSessionUtil.getCurrentUserId(session);
+            CET4PaperAnalysisTask task = taskService.findByIdAndUser(taskId, userId);
+            if (task == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            return ResponseEntity.ok(taskService.subscribeProgress(task));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+    }
+
     @GetMapping("/{taskId}/result")
     public ResponseEntity<Map<String, Object>> getResult(@PathVariable("taskId") Long taskId, HttpSession session) {
         try {
@@ -185,6 +205,20 @@ public class CET4PaperAnalysisTaskController {
         }
     }
 
+    /**
+     * 增量解析：读取同一用户上一次成功的解析结果，未指定时返回 null（全量解析）。
+     */
+    private Map<String, Object> loadPreviousResult(Long previousTaskId, Long userId) throws Exception {
+        if (previousTaskId == null) {
+            return null;
+        }
+        CET4PaperAnalysisTask previous = taskService.findByIdAndUser(previousTaskId, userId);
+        if (previous == null || !Objects.equals("SUCCEEDED", previous.getStatus())) {
+            throw new IllegalArgumentException("上一次解析任务不存在或尚未完成，无法增量解析");
+        }
+        return parseResult(previous.getStructuredJson());
+    }
+
     private Map<String, Object> parseResult(String json) throws Exception {
         if (json == null || json.isBlank()) {
             return Map.of();
@@ -6,8 +6,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import seucxxy.csd.backend.cet4.entity.CET4Task;
 import seucxxy.csd.backend.cet4.service.CET4PaperGenTaskRunner;
 import seucxxy.csd.backend.cet4.service.CET4PaperGenTaskService;
@@ -129,6 +131,21 @@ public class CET4PaperGenTaskController {
         }
     }
 
+    @GetMapping(value = "/cet4/paper-gen/tasks/{taskId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamTaskProgress(@PathVariable("taskId") Long taskId,
+                                                         HttpSession session) {
+        try {
+            Long userId = UserSessionUtil.getCurrentUserId(session);
+            CET4Task task = taskService.findByIdAndUser(taskId, userId, CET4PaperGenTaskService.TYPE_PAPER_GEN);
+            if (task == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            return ResponseEntity.ok(taskService.subscribeProgress(task));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+    }
+
     @GetMapping("/cet4/paper-gen/tasks/{taskId}/result")
     public ResponseEntity<Map<String, Object>> getTaskResult(@PathVariable("taskId") Long taskId,
                                                              HttpSession session) {
@@ -291,6 +308,21 @@ public class CET4PaperGenTaskController {
         }
     }
 
+    @GetMapping(value = "/intensive/tasks/{taskId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamIntensiveTaskProgress(@PathVariable("taskId") Long taskId,
+                                                                  HttpSession session) {
+        try {
+            Long userId = UserSessionUtil.getCurrentUserId(session);
+            CET4Task task = taskService.findByIdAndUser(taskId, userId, CET4PaperGenTaskService.TYPE_INTENSIVE);
+            if (task == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            return ResponseEntity.ok(taskService.subscribeProgress(task));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+    }
+
     @GetMapping("/intensive/tasks/{taskId}/result")
     public ResponseEntity<Map<String, Object>> getIntensiveResult(@PathVariable("taskId") Long taskId,
                                                                   HttpSession session) {
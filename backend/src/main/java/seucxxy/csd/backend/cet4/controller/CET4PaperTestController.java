@@ -5,10 +5,13 @@ package seucxxy.csd.backend.cet4.controller;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import seucxxy.csd.backend.cet4.service.CET4PaperTestService;
+import seucxxy.csd.backend.cet4.service.CET4SubjectiveGradingJobService;
 import seucxxy.csd.backend.common.entity.User;
 
 import java.util.HashMap;
@@ -20,6 +23,8 @@ import java.util.Map;
 public class CET4PaperTestController {
     @Autowired
     private CET4PaperTestService paperTestService;
+    @Autowired
+    private CET4SubjectiveGradingJobService subjectiveGradingJobService;
 
     // 试卷列表（英文 CET4）
     @GetMapping("/papers-en")
@@ -50,6 +55,38 @@ public class CET4PaperTestController {
         return result;
     }
 
+    // 写作/翻译 AI 评分状态：交卷返回暂定成绩后轮询此接口获取最终成绩
+    @GetMapping("/grading-status/{testEnId}")
+    public ResponseEntity<Map<String, Object>> getGradingStatus(@PathVariable Long testEnId, HttpSession session) {
+        User user = (User) session.getAttribute("user");
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("success", false, "message", "用户未登录"));
+        }
+        Map<String, Object> status = subjectiveGradingJobService.getStatus(testEnId, user.getId());
+        if (status == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("success", false, "message", "测试记录不存在"));
+        }
+        status.put("success", true);
+        return ResponseEntity.ok(status);
+    }
+
+    // 评分进度推送（SSE），评分完成或失败后连接关闭
+    @GetMapping(value = "/grading-status/{testEnId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamGradingStatus(@PathVariable Long testEnId, HttpSession session) {
+        User user = (User) session.getAttribute("user");
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (subjectiveGradingJobService.getStatus(testEnId, user.getId()) == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        SseEmitter emitter = subjectiveGradingJobService.subscribe(testEnId);
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
     // 获取测试结果详情（英文试卷）添加迁移日志
     @GetMapping("/test-record-en-details/{testEnId}")
     public Map<String, Object> getTestRecordEnDetails(@PathVariable Long testEnId) {
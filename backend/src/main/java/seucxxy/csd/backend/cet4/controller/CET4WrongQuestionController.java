@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import seucxxy.csd.backend.cet4.dto.CET4WrongQuestionPage;
 import seucxxy.csd.backend.cet4.dto.CET4WrongQuestionRecordDTO;
 import seucxxy.csd.backend.cet4.service.CET4WrongQuestionService;
 import seucxxy.csd.backend.common.entity.User;
@@ -38,6 +39,7 @@ public class CET4WrongQuestionController {
      * @param sortOrder 排序顺序: ASC(正序) 或 DESC(倒序)
      * @param page 页码（从1开始，默认为1）
      * @param pageSize 每页大小（默认为10）
+     * @param cursor 上一页返回的 nextCursor，传入时按游标继续翻页并忽略 page
      * @param session HTTP会话，用于获取当前用户
      * @return 错题列表（包含分页信息）
      */
@@ -47,6 +49,7 @@ public class CET4WrongQuestionController {
             @RequestParam(defaultValue = "DESC") String sortOrder,
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "10") int pageSize,
+            @RequestParam(required = false) String cursor,
             HttpSession session) {
         
         Map<String, Object> response = new HashMap<>();
@@ -75,8 +78,9 @@ public class CET4WrongQuestionController {
             int total = wrongQuestionService.countWrongQuestions(userId);
             
             // 分页查询错题列表
-            List<CET4WrongQuestionRecordDTO> wrongQuestions = wrongQuestionService.getWrongQuestionsWithPagination(
-                    userId, sortBy, sortOrder, page, pageSize);
+            CET4WrongQuestionPage wrongQuestionPage = wrongQuestionService.getWrongQuestionsPage(
+                    userId, sortBy, sortOrder, page, pageSize, cursor);
+            List<CET4WrongQuestionRecordDTO> wrongQuestions = wrongQuestionPage.records();
             
             // 计算总页数
             int totalPages = (int) Math.ceil((double) total / pageSize);
@@ -90,9 +94,14 @@ public class CET4WrongQuestionController {
             response.put("page", page);
             response.put("pageSize", pageSize);
             response.put("totalPages", totalPages);
+            response.put("nextCursor", wrongQuestionPage.nextCursor());
             
             return ResponseEntity.ok(response);
             
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
             logger.error("[WrongQuestionList] 获取错题列表失败", e);
             
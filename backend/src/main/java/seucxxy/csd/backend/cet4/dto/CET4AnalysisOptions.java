@@ -0,0 +1,18 @@
+package seucxxy.csd.backend.cet4.dto;
+
+import java.util.Map;
+
+/**
+ * 试卷解析选项。
+ *
+ * @param useCache       是否读取解析磁盘缓存（结果总会写入）
+ * @param previousResult 同一试卷上一次的解析结果，非空时为增量解析：规范化文本未变化的分段直接复用其结果
+ */
+public record CET4AnalysisOptions(boolean useCache, Map<String, Object> previousResult) {
+
+    public static final CET4AnalysisOptions DEFAULT = new CET4AnalysisOptions(true, null);
+
+    public boolean incremental() {
+        return previousResult != null && !previousResult.isEmpty();
+    }
+}
@@ -0,0 +1,48 @@
+package seucxxy.csd.backend.cet4.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次 ChromaDB 批量写入的累积缓冲：store* 方法只负责组装单元并追加到这里，
+ * 由 CET4ChromaEngExamPaperService#flushBatch 分块发送。非线程安全。
+ */
+public class CET4ChromaWriteBatch {
+
+    private final List<String> ids = new ArrayList<>();
+    private final List<String> documents = new ArrayList<>();
+    private final List<Map<String, Object>> metadatas = new ArrayList<>();
+    private final List<List<Float>> embeddings = new ArrayList<>();
+
+    public void add(String id, String document, Map<String, Object> metadata, List<Float> embedding) {
+        ids.add(id);
+        documents.add(document);
+        metadatas.add(metadata);
+        embeddings.add(embedding);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public boolean isEmpty() {
+        return ids.isEmpty();
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public List<String> getDocuments() {
+        return documents;
+    }
+
+    public List<Map<String, Object>> getMetadatas() {
+        return metadatas;
+    }
+
+    public List<List<Float>> getEmbeddings() {
+        return embeddings;
+    }
+}
@@ -0,0 +1,40 @@
+package seucxxy.csd.backend.cet4.dto;
+
+import jakarta.validation.Valid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 整卷写入 ChromaDB 的请求：各部分与单独的 store* 接口请求体相同，服务端合并为一次批量写入。
+ */
+public class CET4PaperChromaBatchRequest {
+
+    private List<@Valid CET4SimpleChromaRequest> writing = new ArrayList<>();
+    private List<@Valid CET4SectionAChromaRequest> part2AB = new ArrayList<>();
+    private List<@Valid CET4SectionAChromaRequest> part2C = new ArrayList<>();
+    private List<@Valid CET4SectionAChromaRequest> sectionA = new ArrayList<>();
+    private List<@Valid CET4SectionAChromaRequest> sectionB = new ArrayList<>();
+    private List<@Valid CET4SectionAChromaRequest> sectionC = new ArrayList<>();
+    private List<@Valid CET4SimpleChromaRequest> translation = new ArrayList<>();
+
+    public boolean isEmpty() {
+        return writing.isEmpty() && part2AB.isEmpty() && part2C.isEmpty() && sectionA.isEmpty()
+                && sectionB.isEmpty() && sectionC.isEmpty() && translation.isEmpty();
+    }
+
+    public List<CET4SimpleChromaRequest> getWriting() { return writing; }
+    public void setWriting(List<CET4SimpleChromaRequest> writing) { this.writing = writing != null ? writing : new ArrayList<>(); }
+    public List<CET4SectionAChromaRequest> getPart2AB() { return part2AB; }
+    public void setPart2AB(List<CET4SectionAChromaRequest> part2AB) { this.part2AB = part2AB != null ? part2AB : new ArrayList<>(); }
+    public List<CET4SectionAChromaRequest> getPart2C() { return part2C; }
+    public void setPart2C(List<CET4SectionAChromaRequest> part2C) { this.part2C = part2C != null ? part2C : new ArrayList<>(); }
+    public List<CET4SectionAChromaRequest> getSectionA() { return sectionA; }
+    public void setSectionA(List<CET4SectionAChromaRequest> sectionA) { this.sectionA = sectionA != null ? sectionA : new ArrayList<>(); }
+    public List<CET4SectionAChromaRequest> getSectionB() { return sectionB; }
+    public void setSectionB(List<CET4SectionAChromaRequest> sectionB) { this.sectionB = sectionB != null ? sectionB : new ArrayList<>(); }
+    public List<CET4SectionAChromaRequest> getSectionC() { return sectionC; }
+    public void setSectionC(List<CET4SectionAChromaRequest> sectionC) { this.sectionC = sectionC != null ? sectionC : new ArrayList<>(); }
+    public List<CET4SimpleChromaRequest> getTranslation() { return translation; }
+    public void setTranslation(List<CET4SimpleChromaRequest> translation) { this.translation = translation != null ? translation : new ArrayList<>(); }
+}
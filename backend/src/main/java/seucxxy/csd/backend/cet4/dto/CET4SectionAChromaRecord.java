@@ -1,9 +1,18 @@
 package seucxxy.csd.backend.cet4.dto;
 
-import java.util.Map;
-
-public record CET4SectionAChromaRecord(String document, Map<String, Object> metadata) {
-}
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
 
+import java.util.Map;
 
+/**
+ * ChromaDB 中的一条试卷单元。
+ * documentNode 为 document 预解析后的 JSON（由缓存共享，只读；解析失败时为 null）。
+ */
+public record CET4SectionAChromaRecord(String document, Map<String, Object> metadata,
+                                       @JsonIgnore JsonNode documentNode) {
 
+    public CET4SectionAChromaRecord(String document, Map<String, Object> metadata) {
+        this(document, metadata, null);
+    }
+}
@@ -0,0 +1,12 @@
+package seucxxy.csd.backend.cet4.dto;
+
+import java.util.List;
+
+/**
+ * 错题列表的一页。
+ *
+ * @param records    本页错题
+ * @param nextCursor 下一页游标，已是最后一页时为 null
+ */
+public record CET4WrongQuestionPage(List<CET4WrongQuestionRecordDTO> records, String nextCursor) {
+}
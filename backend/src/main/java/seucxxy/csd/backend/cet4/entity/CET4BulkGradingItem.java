@@ -0,0 +1,62 @@
+package seucxxy.csd.backend.cet4.entity;
+
+/**
+ * 批量重新评分中的一道主观题（一次交卷的一个写作/翻译片段），即任务的断点。
+ */
+public class CET4BulkGradingItem {
+
+    private Long jobId;
+    private Long testEnId;
+    private String segmentId;
+    private String promptKey;
+    private String status;
+    private Double score;
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(Long jobId) {
+        this.jobId = jobId;
+    }
+
+    public Long getTestEnId() {
+        return testEnId;
+    }
+
+    public void setTestEnId(Long testEnId) {
+        this.testEnId = testEnId;
+    }
+
+    public String getSegmentId() {
+        return segmentId;
+    }
+
+    public void setSegmentId(String segmentId) {
+        this.segmentId = segmentId;
+    }
+
+    public String getPromptKey() {
+        return promptKey;
+    }
+
+    public void setPromptKey(String promptKey) {
+        this.promptKey = promptKey;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Double getScore() {
+        return score;
+    }
+
+    public void setScore(Double score) {
+        this.score = score;
+    }
+}
@@ -0,0 +1,154 @@
+package seucxxy.csd.backend.cet4.entity;
+
+import java.time.LocalDateTime;
+
+/**
+ * 教师按班级、试卷发起的批量重新评分任务。
+ */
+public class CET4BulkGradingJob {
+
+    private Long jobId;
+    private Long teacherId;
+    private Integer classId;
+    private Long examPaperEnId;
+    private String status;
+    private Integer attempts;
+    private Integer totalAnswers;
+    private Integer gradedAnswers;
+    private Integer failedAnswers;
+    private Integer distinctPrompts;
+    private Integer skippedSubmissions;
+    private Long elapsedMs;
+    private String message;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime completedAt;
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(Long jobId) {
+        this.jobId = jobId;
+    }
+
+    public Long getTeacherId() {
+        return teacherId;
+    }
+
+    public void setTeacherId(Long teacherId) {
+        this.teacherId = teacherId;
+    }
+
+    public Integer getClassId() {
+        return classId;
+    }
+
+    public void setClassId(Integer classId) {
+        this.classId = classId;
+    }
+
+    public Long getExamPaperEnId() {
+        return examPaperEnId;
+    }
+
+    public void setExamPaperEnId(Long examPaperEnId) {
+        this.examPaperEnId = examPaperEnId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public Integer getTotalAnswers() {
+        return totalAnswers;
+    }
+
+    public void setTotalAnswers(Integer totalAnswers) {
+        this.totalAnswers = totalAnswers;
+    }
+
+    public Integer getGradedAnswers() {
+        return gradedAnswers;
+    }
+
+    public void setGradedAnswers(Integer gradedAnswers) {
+        this.gradedAnswers = gradedAnswers;
+    }
+
+    public Integer getFailedAnswers() {
+        return failedAnswers;
+    }
+
+    public void setFailedAnswers(Integer failedAnswers) {
+        this.failedAnswers = failedAnswers;
+    }
+
+    public Integer getDistinctPrompts() {
+        return distinctPrompts;
+    }
+
+    public void setDistinctPrompts(Integer distinctPrompts) {
+        this.distinctPrompts = distinctPrompts;
+    }
+
+    public Integer getSkippedSubmissions() {
+        return skippedSubmissions;
+    }
+
+    public void setSkippedSubmissions(Integer skippedSubmissions) {
+        this.skippedSubmissions = skippedSubmissions;
+    }
+
+    public Long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public void setElapsedMs(Long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+}
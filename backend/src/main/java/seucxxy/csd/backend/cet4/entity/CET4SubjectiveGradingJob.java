@@ -0,0 +1,109 @@
+package seucxxy.csd.backend.cet4.entity;
+
+import java.time.LocalDateTime;
+
+/**
+ * 交卷后写作/翻译 AI 评分的后台任务，一次交卷对应一条。
+ */
+public class CET4SubjectiveGradingJob {
+
+    private Long testEnId;
+    private Long userId;
+    private String status;
+    private Integer attempts;
+    private String payloadJson;
+    private String message;
+    private Double provisionalScore;
+    private Double finalScore;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime completedAt;
+
+    public Long getTestEnId() {
+        return testEnId;
+    }
+
+    public void setTestEnId(Long testEnId) {
+        this.testEnId = testEnId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getPayloadJson() {
+        return payloadJson;
+    }
+
+    public void setPayloadJson(String payloadJson) {
+        this.payloadJson = payloadJson;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public Double getProvisionalScore() {
+        return provisionalScore;
+    }
+
+    public void setProvisionalScore(Double provisionalScore) {
+        this.provisionalScore = provisionalScore;
+    }
+
+    public Double getFinalScore() {
+        return finalScore;
+    }
+
+    public void setFinalScore(Double finalScore) {
+        this.finalScore = finalScore;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+}
@@ -0,0 +1,135 @@
+package seucxxy.csd.backend.cet4.mapper;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import seucxxy.csd.backend.cet4.entity.CET4BulkGradingItem;
+import seucxxy.csd.backend.cet4.entity.CET4BulkGradingJob;
+import seucxxy.csd.backend.cet4.entity.CET4SubjectiveGradingJob;
+
+import java.util.List;
+
+@Mapper
+public interface CET4BulkGradingJobMapper {
+
+    @Insert("INSERT INTO cet4_bulk_grading_job (teacher_id, class_id, exam_paper_en_id, status, attempts, total_answers, distinct_prompts, " +
+            "skipped_submissions, message) " +
+            "VALUES(#{teacherId}, #{classId}, #{examPaperEnId}, 'PENDING', 0, #{totalAnswers}, #{distinctPrompts}, #{skippedSubmissions}, #{message})")
+    @Options(useGeneratedKeys = true, keyProperty = "jobId")
+    int insert(CET4BulkGradingJob job);
+
+    @Select("SELECT job_id AS jobId, teacher_id AS teacherId, class_id AS classId, exam_paper_en_id AS examPaperEnId, status, attempts, " +
+            "total_answers AS totalAnswers, graded_answers AS gradedAnswers, failed_answers AS failedAnswers, " +
+            "distinct_prompts AS distinctPrompts, skipped_submissions AS skippedSubmissions, elapsed_ms AS elapsedMs, message, " +
+            "created_at AS createdAt, updated_at AS updatedAt, completed_at AS completedAt " +
+            "FROM cet4_bulk_grading_job WHERE job_id = #{jobId}")
+    CET4BulkGradingJob findByJobId(@Param("jobId") Long jobId);
+
+    /**
+     * 班级学生在该试卷上的交卷评分任务（只取已结束的，进行中的由交卷评分任务自行完成）
+     */
+    @Select("SELECT j.test_en_id AS testEnId, j.user_id AS userId, j.payload_json AS payloadJson " +
+            "FROM cet4_subjective_grading_job j " +
+            "INNER JOIN user_test_record_en r ON r.test_en_id = j.test_en_id " +
+            "INNER JOIN students s ON s.student_id = r.user_id " +
+            "WHERE s.class_id = #{classId} AND r.exam_paper_en_id = #{examPaperEnId} " +
+            "AND j.status IN ('SUCCEEDED', 'FAILED')")
+    List<CET4SubjectiveGradingJob> findClassSubmissions(@Param("classId") Integer classId,
+                                                        @Param("examPaperEnId") Long examPaperEnId);
+
+    /**
+     * {@link #findClassSubmissions} 之外、有写作/翻译但无法纳入批量评分的答卷数：交卷评分仍在进行，
+     * 或没有交卷评分任务（异步评分上线前交卷，只有片段得分，没有可重新评分的答案与题目）
+     */
+    @Select("SELECT COUNT(*) FROM user_test_record_en r " +
+            "INNER JOIN students s ON s.student_id = r.user_id " +
+            "LEFT JOIN cet4_subjective_grading_job j ON j.test_en_id = r.test_en_id " +
+            "WHERE s.class_id = #{classId} AND r.exam_paper_en_id = #{examPaperEnId} " +
+            "AND (j.status IN ('PENDING', 'RUNNING') OR (j.test_en_id IS NULL AND EXISTS (" +
+            "SELECT 1 FROM user_test_record_segment_en g WHERE g.test_en_id = r.test_en_id " +
+            "AND g.question_type IN ('Writing', 'Translation'))))")
+    int countSkippedSubmissions(@Param("classId") Integer classId, @Param("examPaperEnId") Long examPaperEnId);
+
+    @Select("<script>" +
+            "SELECT test_en_id AS testEnId, payload_json AS payloadJson FROM cet4_subjective_grading_job WHERE test_en_id IN " +
+            "<foreach collection='testEnIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    List<CET4SubjectiveGradingJob> findSubmissionPayloads(@Param("testEnIds") List<Long> testEnIds);
+
+    @Insert("<script>" +
+            "INSERT IGNORE INTO cet4_bulk_grading_item (job_id, test_en_id, segment_id, prompt_key, status) VALUES " +
+            "<foreach collection='items' item='i' separator=','>" +
+            "(#{jobId}, #{i.testEnId}, #{i.segmentId}, #{i.promptKey}, 'PENDING')" +
+            "</foreach>" +
+            "</script>")
+    int insertItems(@Param("jobId") Long jobId, @Param("items") List<CET4BulkGradingItem> items);
+
+    @Select("SELECT job_id AS jobId, test_en_id AS testEnId, segment_id AS segmentId, prompt_key AS promptKey, status, score " +
+            "FROM cet4_bulk_grading_item WHERE job_id = #{jobId} AND status = 'PENDING' ORDER BY prompt_key")
+    List<CET4BulkGradingItem> findPendingItems(@Param("jobId") Long jobId);
+
+    @Select("SELECT COUNT(*) FROM cet4_bulk_grading_item WHERE job_id = #{jobId} AND status = #{status}")
+    int countItems(@Param("jobId") Long jobId, @Param("status") String status);
+
+    @Select("SELECT DISTINCT test_en_id FROM cet4_bulk_grading_item WHERE job_id = #{jobId}")
+    List<Long> findTestEnIds(@Param("jobId") Long jobId);
+
+    @Update("UPDATE cet4_bulk_grading_item SET status = #{status}, score = #{score} " +
+            "WHERE job_id = #{jobId} AND test_en_id = #{testEnId} AND segment_id = #{segmentId}")
+    int updateItem(@Param("jobId") Long jobId, @Param("testEnId") Long testEnId, @Param("segmentId") String segmentId,
+                   @Param("status") String status, @Param("score") Double score);
+
+    /**
+     * 待领取的任务：PENDING，或 RUNNING 但超过 staleSeconds 未更新（执行实例已退出）
+     */
+    @Select("SELECT job_id FROM cet4_bulk_grading_job " +
+            "WHERE status = 'PENDING' " +
+            "OR (status = 'RUNNING' AND updated_at < DATE_SUB(NOW(), INTERVAL #{staleSeconds} SECOND)) " +
+            "ORDER BY updated_at LIMIT #{limit}")
+    List<Long> findClaimable(@Param("staleSeconds") long staleSeconds, @Param("limit") int limit);
+
+    /**
+     * 领取任务，条件与 {@link #findClaimable} 一致，多实例同时领取时只有一个能更新成功
+     */
+    @Update("UPDATE cet4_bulk_grading_job SET status = 'RUNNING', attempts = attempts + 1, claim_token = #{claimToken}, " +
+            "message = #{message}, updated_at = NOW() " +
+            "WHERE job_id = #{jobId} AND (status = 'PENDING' " +
+            "OR (status = 'RUNNING' AND updated_at < DATE_SUB(NOW(), INTERVAL #{staleSeconds} SECOND)))")
+    int claim(@Param("jobId") Long jobId, @Param("staleSeconds") long staleSeconds,
+              @Param("claimToken") String claimToken, @Param("message") String message);
+
+    // 以下状态变更只对本次领取生效：超时后被重新领取的任务，旧执行者的更新返回 0
+
+    @Update("UPDATE cet4_bulk_grading_job SET graded_answers = #{graded}, failed_answers = #{failed}, elapsed_ms = #{elapsedMs}, " +
+            "message = #{message}, updated_at = NOW() WHERE job_id = #{jobId} AND status = 'RUNNING' AND claim_token = #{claimToken}")
+    int updateProgress(@Param("jobId") Long jobId, @Param("claimToken") String claimToken, @Param("graded") int graded,
+                       @Param("failed") int failed, @Param("elapsedMs") long elapsedMs, @Param("message") String message);
+
+    @Select("SELECT COUNT(*) FROM cet4_bulk_grading_job WHERE job_id = #{jobId} AND status = 'RUNNING' AND claim_token = #{claimToken}")
+    int countClaimed(@Param("jobId") Long jobId, @Param("claimToken") String claimToken);
+
+    /**
+     * 把重算后的总分写回考试记录，并在同一条语句内校验领取令牌、续期任务（刷新 updated_at），
+     * 旧执行者不能覆盖成绩，写回期间任务也不会因超时被重新领取
+     */
+    @Update("UPDATE user_test_record_en r INNER JOIN cet4_bulk_grading_job j ON j.job_id = #{jobId} " +
+            "SET r.test_en_score = #{score}, j.updated_at = NOW() " +
+            "WHERE r.test_en_id = #{testEnId} AND j.status = 'RUNNING' AND j.claim_token = #{claimToken}")
+    int updateTestScore(@Param("jobId") Long jobId, @Param("claimToken") String claimToken,
+                        @Param("testEnId") Long testEnId, @Param("score") Double score);
+
+    @Update("UPDATE cet4_bulk_grading_job SET status = 'PENDING', claim_token = NULL, message = #{message}, updated_at = NOW() " +
+            "WHERE job_id = #{jobId} AND status = 'RUNNING' AND claim_token = #{claimToken}")
+    int release(@Param("jobId") Long jobId, @Param("claimToken") String claimToken, @Param("message") String message);
+
+    @Update("UPDATE cet4_bulk_grading_job SET status = 'SUCCEEDED', message = #{message}, completed_at = NOW(), updated_at = NOW() " +
+            "WHERE job_id = #{jobId} AND status = 'RUNNING' AND claim_token = #{claimToken}")
+    int markSucceeded(@Param("jobId") Long jobId, @Param("claimToken") String claimToken, @Param("message") String message);
+
+    @Update("UPDATE cet4_bulk_grading_job SET status = 'FAILED', message = #{message}, completed_at = NOW(), updated_at = NOW() " +
+            "WHERE job_id = #{jobId} AND status = 'RUNNING' AND claim_token = #{claimToken}")
+    int markFailed(@Param("jobId") Long jobId, @Param("claimToken") String claimToken, @Param("message") String message);
+}
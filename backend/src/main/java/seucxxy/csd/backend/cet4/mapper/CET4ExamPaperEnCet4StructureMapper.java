@@ -5,6 +5,8 @@ import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import seucxxy.csd.backend.cet4.entity.CET4ExamPaperEnCet4Structure;
 
+import java.util.List;
+
 @Mapper
 public interface CET4ExamPaperEnCet4StructureMapper {
 
@@ -16,4 +18,20 @@ public interface CET4ExamPaperEnCet4StructureMapper {
             "segment_total_score as segmentTotalScore " +
             "FROM exam_paper_en_cet4_structure WHERE segment_id = #{segmentId}")
     CET4ExamPaperEnCet4Structure findBySegmentId(@Param("segmentId") String segmentId);
+
+    /**
+     * 全表结构信息，供启动时加载到内存目录
+     */
+    @Select("SELECT part_id as partId, section_id as sectionId, segment_id as segmentId, " +
+            "number_of_questions as numberOfQuestions, score_per_question as scorePerQuestion, " +
+            "segment_total_score as segmentTotalScore " +
+            "FROM exam_paper_en_cet4_structure")
+    List<CET4ExamPaperEnCet4Structure> findAll();
+
+    /**
+     * 表内容指纹（行数:行校验和之和），用于判断内存目录是否过期
+     */
+    @Select("SELECT CONCAT(COUNT(*), ':', COALESCE(SUM(CRC32(CONCAT_WS('|', part_id, section_id, segment_id, " +
+            "number_of_questions, score_per_question, segment_total_score))), 0)) FROM exam_paper_en_cet4_structure")
+    String fingerprint();
 }
@@ -0,0 +1,67 @@
+package seucxxy.csd.backend.cet4.mapper;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import seucxxy.csd.backend.cet4.entity.CET4SubjectiveGradingJob;
+
+import java.util.List;
+
+@Mapper
+public interface CET4SubjectiveGradingJobMapper {
+
+    @Insert("INSERT INTO cet4_subjective_grading_job (test_en_id, user_id, status, attempts, payload_json, message, provisional_score) " +
+            "VALUES(#{testEnId}, #{userId}, 'PENDING', 0, #{payloadJson}, #{message}, #{provisionalScore})")
+    int insert(CET4SubjectiveGradingJob job);
+
+    @Select("SELECT test_en_id AS testEnId, user_id AS userId, status, attempts, payload_json AS payloadJson, message, " +
+            "provisional_score AS provisionalScore, final_score AS finalScore, " +
+            "created_at AS createdAt, updated_at AS updatedAt, completed_at AS completedAt " +
+            "FROM cet4_subjective_grading_job WHERE test_en_id = #{testEnId}")
+    CET4SubjectiveGradingJob findByTestEnId(@Param("testEnId") Long testEnId);
+
+    /**
+     * 待领取的任务：PENDING，或 RUNNING 但超过 staleSeconds 未更新（执行实例已退出）
+     */
+    @Select("SELECT test_en_id FROM cet4_subjective_grading_job " +
+            "WHERE status = 'PENDING' " +
+            "OR (status = 'RUNNING' AND updated_at < DATE_SUB(NOW(), INTERVAL #{staleSeconds} SECOND)) " +
+            "ORDER BY updated_at LIMIT #{limit}")
+    List<Long> findClaimable(@Param("staleSeconds") long staleSeconds, @Param("limit") int limit);
+
+    /**
+     * 领取任务，条件与 {@link #findClaimable} 一致，多实例同时领取时只有一个能更新成功
+     */
+    @Update("UPDATE cet4_subjective_grading_job SET status = 'RUNNING', attempts = attempts + 1, claim_token = #{claimToken}, " +
+            "message = #{message}, updated_at = NOW() " +
+            "WHERE test_en_id = #{testEnId} AND (status = 'PENDING' " +
+            "OR (status = 'RUNNING' AND updated_at < DATE_SUB(NOW(), INTERVAL #{staleSeconds} SECOND)))")
+    int claim(@Param("testEnId") Long testEnId, @Param("staleSeconds") long staleSeconds,
+              @Param("claimToken") String claimToken, @Param("message") String message);
+
+    // 以下状态变更只对本次领取生效：超时后被重新领取的任务，旧执行者的更新返回 0
+
+    @Update("UPDATE cet4_subjective_grading_job SET updated_at = NOW(), message = #{message} " +
+            "WHERE test_en_id = #{testEnId} AND status = 'RUNNING' AND claim_token = #{claimToken}")
+    int touch(@Param("testEnId") Long testEnId, @Param("claimToken") String claimToken, @Param("message") String message);
+
+    @Update("UPDATE cet4_subjective_grading_job SET status = 'PENDING', claim_token = NULL, message = #{message}, updated_at = NOW() " +
+            "WHERE test_en_id = #{testEnId} AND status = 'RUNNING' AND claim_token = #{claimToken}")
+    int release(@Param("testEnId") Long testEnId, @Param("claimToken") String claimToken, @Param("message") String message);
+
+    /**
+     * 任务完成并把最终成绩写回考试记录，同一条语句内校验领取令牌：旧执行者既不能结束任务，也不能覆盖成绩
+     */
+    @Update("UPDATE cet4_subjective_grading_job j LEFT JOIN user_test_record_en r ON r.test_en_id = j.test_en_id " +
+            "SET j.status = 'SUCCEEDED', j.final_score = #{finalScore}, j.message = #{message}, " +
+            "j.completed_at = NOW(), j.updated_at = NOW(), r.test_en_score = #{finalScore} " +
+            "WHERE j.test_en_id = #{testEnId} AND j.status = 'RUNNING' AND j.claim_token = #{claimToken}")
+    int markSucceeded(@Param("testEnId") Long testEnId, @Param("claimToken") String claimToken,
+                      @Param("finalScore") Double finalScore, @Param("message") String message);
+
+    @Update("UPDATE cet4_subjective_grading_job SET status = 'FAILED', message = #{message}, completed_at = NOW(), updated_at = NOW() " +
+            "WHERE test_en_id = #{testEnId} AND status = 'RUNNING' AND claim_token = #{claimToken}")
+    int markFailed(@Param("testEnId") Long testEnId, @Param("claimToken") String claimToken, @Param("message") String message);
+}
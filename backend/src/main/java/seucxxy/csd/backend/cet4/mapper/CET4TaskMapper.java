@@ -38,7 +38,11 @@ public interface CET4TaskMapper {
     @Update("UPDATE cet4_paper_gen_task SET status = 'RUNNING', progress = 5, message = NULL, updated_at = NOW() WHERE id = #{id}")
     int markRunning(@Param("id") Long id);
 
-    @Update("UPDATE cet4_paper_gen_task SET progress = #{progress}, message = COALESCE(#{message}, message), updated_at = NOW() WHERE id = #{id}")
+    /**
+     * 只更新运行中的任务且进度不回退，避免延迟到达的合并写覆盖已落库的终态。
+     */
+    @Update("UPDATE cet4_paper_gen_task SET progress = #{progress}, message = COALESCE(#{message}, message), updated_at = NOW() " +
+            "WHERE id = #{id} AND status = 'RUNNING' AND progress <= #{progress}")
     int updateProgress(@Param("id") Long id, @Param("progress") int progress, @Param("message") String message);
 
     @Update("UPDATE cet4_paper_gen_task SET status = 'SUCCEEDED', progress = 100, message = #{message}, exam_paper_en_id = #{examPaperEnId}, " +
@@ -13,6 +13,18 @@ public interface CET4UserTestRecordDetailEnMapper {
     @Options(useGeneratedKeys = true, keyProperty = "id")
     void insertUserTestRecordDetailEn(CET4UserTestRecordDetailEn detail);
 
+    /**
+     * 一次交卷的答题明细多行插入，主键按顺序回填到各 detail
+     */
+    @Insert("<script>" +
+            "INSERT INTO user_test_record_detail_en (correct_answer, questions_en_number, segment_id, questions_type, user_answer, test_en_id) VALUES " +
+            "<foreach collection='details' item='d' separator=','>" +
+            "(#{d.correctAnswer}, #{d.questionsEnNumber}, #{d.segmentId}, #{d.questionsType}, #{d.userAnswer}, #{d.testEnId})" +
+            "</foreach>" +
+            "</script>")
+    @Options(useGeneratedKeys = true, keyProperty = "details.id")
+    int batchInsertUserTestRecordDetailEn(@Param("details") List<CET4UserTestRecordDetailEn> details);
+
     @Select("SELECT * FROM user_test_record_detail_en WHERE test_en_id = #{testEnId}")
     @Results({
             @Result(property = "id", column = "id"),
@@ -36,26 +48,4 @@ public interface CET4UserTestRecordDetailEnMapper {
             @Result(property = "testEnId", column = "test_en_id")
     })
     CET4UserTestRecordDetailEn getUserTestRecordDetailEn(@Param("testEnId") Long testEnId, @Param("questionsEnNumber") int questionsEnNumber);
-    
-    /**
-     * 查询某个用户某个题型的错题(答案不一致的记录)
-     * 注意: Writing和Translation题型不需要查错题
-     */
-    @Select("SELECT d.* FROM user_test_record_detail_en d " +
-            "INNER JOIN user_test_record_en r ON d.test_en_id = r.test_en_id " +
-            "WHERE r.user_id = #{userId} " +
-            "AND d.questions_type = #{questionType} " +
-            "AND d.correct_answer != d.user_answer " +
-            "ORDER BY RAND() " +
-            "LIMIT 1")
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "correctAnswer", column = "correct_answer"),
-            @Result(property = "questionsEnNumber", column = "questions_en_number"),
-            @Result(property = "segmentId", column = "segment_id"),
-            @Result(property = "questionsType", column = "questions_type"),
-            @Result(property = "userAnswer", column = "user_answer"),
-            @Result(property = "testEnId", column = "test_en_id")
-    })
-    CET4UserTestRecordDetailEn getRandomWrongQuestion(@Param("userId") Long userId, @Param("questionType") String questionType);
 }
@@ -0,0 +1,77 @@
+package seucxxy.csd.backend.cet4.mapper;
+
+import org.apache.ibatis.annotations.*;
+import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordDetailEn;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 错题索引表 user_wrong_question_en，交卷时写入答错的客观题，供专项训练按题型随机抽取错题。
+ * 每个 (用户, 题型) 内的序号 ord 连续，计数在 user_wrong_question_count_en。
+ */
+@Mapper
+public interface CET4UserWrongQuestionEnMapper {
+
+    /**
+     * 写入错题，序号从 baseOrdinal 起按列表顺序连续分配；调用方须已通过 {@link #lockQuestionCount} 锁住计数行
+     */
+    @Insert("<script>" +
+            "INSERT INTO user_wrong_question_en (user_id, questions_type, detail_id, test_en_id, segment_id, questions_en_number, ord) VALUES " +
+            "<foreach collection='details' item='d' index='i' separator=','>" +
+            "(#{userId}, #{questionType}, #{d.id}, #{d.testEnId}, #{d.segmentId}, #{d.questionsEnNumber}, #{baseOrdinal} + #{i})" +
+            "</foreach>" +
+            "</script>")
+    int batchInsert(@Param("userId") Long userId,
+                    @Param("questionType") String questionType,
+                    @Param("baseOrdinal") int baseOrdinal,
+                    @Param("details") List<CET4UserTestRecordDetailEn> details);
+
+    /**
+     * 已在索引中的明细ID（同一份明细重复写入时跳过）
+     */
+    @Select("<script>" +
+            "SELECT detail_id FROM user_wrong_question_en WHERE detail_id IN " +
+            "<foreach collection='detailIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+            "</script>")
+    List<Long> findExistingDetailIds(@Param("detailIds") List<Long> detailIds);
+
+    @Insert("INSERT IGNORE INTO user_wrong_question_count_en (user_id, questions_type, question_count) " +
+            "VALUES (#{userId}, #{questionType}, 0)")
+    int ensureQuestionCount(@Param("userId") Long userId, @Param("questionType") String questionType);
+
+    /**
+     * 锁住计数行并返回当前错题数，同一 (用户, 题型) 的序号分配在此串行
+     */
+    @Select("SELECT question_count FROM user_wrong_question_count_en " +
+            "WHERE user_id = #{userId} AND questions_type = #{questionType} FOR UPDATE")
+    Integer lockQuestionCount(@Param("userId") Long userId, @Param("questionType") String questionType);
+
+    @Update("UPDATE user_wrong_question_count_en SET question_count = #{count} " +
+            "WHERE user_id = #{userId} AND questions_type = #{questionType}")
+    int updateQuestionCount(@Param("userId") Long userId, @Param("questionType") String questionType,
+                            @Param("count") int count);
+
+    @Select("SELECT question_count FROM user_wrong_question_count_en " +
+            "WHERE user_id = #{userId} AND questions_type = #{questionType}")
+    Integer findQuestionCount(@Param("userId") Long userId, @Param("questionType") String questionType);
+
+    /**
+     * 按序号取错题，(user_id, questions_type, ord) 唯一索引上的等值查找
+     */
+    @Select("<script>" +
+            "SELECT detail_id, test_en_id, segment_id, questions_type, questions_en_number FROM user_wrong_question_en " +
+            "WHERE user_id = #{userId} AND questions_type = #{questionType} AND ord IN " +
+            "<foreach collection='ordinals' item='o' open='(' separator=',' close=')'>#{o}</foreach>" +
+            "</script>")
+    @Results({
+            @Result(property = "id", column = "detail_id"),
+            @Result(property = "testEnId", column = "test_en_id"),
+            @Result(property = "segmentId", column = "segment_id"),
+            @Result(property = "questionsType", column = "questions_type"),
+            @Result(property = "questionsEnNumber", column = "questions_en_number")
+    })
+    List<CET4UserTestRecordDetailEn> findByOrdinals(@Param("userId") Long userId,
+                                                    @Param("questionType") String questionType,
+                                                    @Param("ordinals") List<Integer> ordinals);
+}
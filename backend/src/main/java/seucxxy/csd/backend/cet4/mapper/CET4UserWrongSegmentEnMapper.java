@@ -0,0 +1,131 @@
+package seucxxy.csd.backend.cet4.mapper;
+
+import org.apache.ibatis.annotations.*;
+import seucxxy.csd.backend.cet4.dto.CET4WrongQuestionRecordDTO;
+import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordSegmentEn;
+
+import java.util.List;
+
+/**
+ * 错题列表表 user_wrong_segment_en 与用户错题数 user_wrong_count_en。
+ * 列表查询只读这一张表并按游标分页，不再联 user_test_record_en 和 exam_paper_en。
+ * 写入统一经 CET4WrongQuestionIndexService#syncWrongSegments。
+ */
+@Mapper
+public interface CET4UserWrongSegmentEnMapper {
+
+    /**
+     * 写入错题片段，考试时间、用户和试卷名从考试记录带出；同一片段重复写入时忽略。
+     *
+     * @return 实际新增的行数
+     */
+    @Insert("<script>" +
+            "INSERT IGNORE INTO user_wrong_segment_en (user_id, test_en_id, segment_id, question_type, correct_answers_number, " +
+            "number_of_questions, correct_answers_percent, score, test_en_time, exam_paper_en_name) " +
+            "SELECT r.user_id, r.test_en_id, x.segment_id, x.question_type, x.correct_answers_number, " +
+            "x.number_of_questions, x.correct_answers_percent, x.score, r.test_en_time, p.exam_paper_en_name " +
+            "FROM (" +
+            "<foreach collection='segments' item='s' separator=' UNION ALL '>" +
+            "SELECT #{s.testEnId} AS test_en_id, #{s.segmentId} AS segment_id, #{s.questionType} AS question_type, " +
+            "#{s.correctAnswersNumber} AS correct_answers_number, #{s.numberOfQuestions} AS number_of_questions, " +
+            "#{s.correctAnswersPercent} AS correct_answers_percent, #{s.score} AS score" +
+            "</foreach>" +
+            ") x " +
+            "INNER JOIN user_test_record_en r ON r.test_en_id = x.test_en_id " +
+            "INNER JOIN exam_paper_en p ON r.exam_paper_en_id = p.id" +
+            "</script>")
+    int insertWrongSegments(@Param("segments") List<CET4UserTestRecordSegmentEn> segments);
+
+    /**
+     * 重新评分后仍低于 100 的片段：覆盖得分与正确率
+     */
+    @Update("UPDATE user_wrong_segment_en SET score = #{score}, correct_answers_number = #{correctAnswersNumber}, " +
+            "number_of_questions = #{numberOfQuestions}, correct_answers_percent = #{correctAnswersPercent} " +
+            "WHERE test_en_id = #{testEnId} AND segment_id = #{segmentId}")
+    int updateWrongSegment(CET4UserTestRecordSegmentEn segment);
+
+    /**
+     * 删除已不再是错题的片段（重新评分后正确率达到 100）
+     *
+     * @return 实际删除的行数
+     */
+    @Delete("<script>" +
+            "DELETE FROM user_wrong_segment_en WHERE user_id = #{userId} AND (test_en_id, segment_id) IN " +
+            "<foreach collection='segments' item='s' open='(' separator=',' close=')'>(#{s.testEnId}, #{s.segmentId})</foreach>" +
+            "</script>")
+    int deleteWrongSegments(@Param("userId") Long userId, @Param("segments") List<CET4UserTestRecordSegmentEn> segments);
+
+    @Insert("INSERT IGNORE INTO user_wrong_count_en (user_id, wrong_count) VALUES (#{userId}, 0)")
+    int ensureWrongCount(@Param("userId") Long userId);
+
+    /**
+     * 锁住用户错题数行，同一用户的错题列表增删在此串行，计数与列表保持一致
+     */
+    @Select("SELECT wrong_count FROM user_wrong_count_en WHERE user_id = #{userId} FOR UPDATE")
+    Integer lockWrongCount(@Param("userId") Long userId);
+
+    @Insert("INSERT INTO user_wrong_count_en (user_id, wrong_count) VALUES (#{userId}, #{delta}) " +
+            "ON DUPLICATE KEY UPDATE wrong_count = wrong_count + #{delta}")
+    int incrementWrongCount(@Param("userId") Long userId, @Param("delta") int delta);
+
+    @Select("SELECT wrong_count FROM user_wrong_count_en WHERE user_id = #{userId}")
+    Integer findWrongCount(@Param("userId") Long userId);
+
+    /**
+     * 按时间分页：after 为上一页最后一条时按 (test_en_time, test_en_id, segment_id) 定位，否则按 offset 跳过
+     */
+    @Select("<script>" +
+            "SELECT test_en_id, segment_id, question_type, correct_answers_number, number_of_questions, " +
+            "correct_answers_percent, score, test_en_time, exam_paper_en_name " +
+            "FROM user_wrong_segment_en WHERE user_id = #{userId} " +
+            "<if test='after != null'>" +
+            "AND (test_en_time, test_en_id, segment_id) " +
+            "<choose><when test='sortOrder == \"ASC\"'>&gt;</when><otherwise>&lt;</otherwise></choose> " +
+            "(#{after.testEnTime}, #{after.testEnId}, #{after.segmentId}) " +
+            "</if>" +
+            "ORDER BY test_en_time ${sortOrder}, test_en_id ${sortOrder}, segment_id ${sortOrder} " +
+            "LIMIT #{limit}" +
+            "<if test='after == null and offset &gt; 0'> OFFSET #{offset}</if>" +
+            "</script>")
+    @Results(id = "wrongSegmentMap", value = {
+            @Result(property = "testEnId", column = "test_en_id"),
+            @Result(property = "segmentId", column = "segment_id"),
+            @Result(property = "questionType", column = "question_type"),
+            @Result(property = "correctAnswersNumber", column = "correct_answers_number"),
+            @Result(property = "numberOfQuestions", column = "number_of_questions"),
+            @Result(property = "correctAnswersPercent", column = "correct_answers_percent"),
+            @Result(property = "score", column = "score"),
+            @Result(property = "testEnTime", column = "test_en_time"),
+            @Result(property = "examPaperEnName", column = "exam_paper_en_name")
+    })
+    List<CET4WrongQuestionRecordDTO> findPageOrderByTime(@Param("userId") Long userId,
+                                                         @Param("sortOrder") String sortOrder,
+                                                         @Param("after") CET4WrongQuestionRecordDTO after,
+                                                         @Param("limit") int limit,
+                                                         @Param("offset") int offset);
+
+    /**
+     * 按正确率分页，正确率相同时按时间倒序；after 的含义同 {@link #findPageOrderByTime}
+     */
+    @Select("<script>" +
+            "SELECT test_en_id, segment_id, question_type, correct_answers_number, number_of_questions, " +
+            "correct_answers_percent, score, test_en_time, exam_paper_en_name " +
+            "FROM user_wrong_segment_en WHERE user_id = #{userId} " +
+            "<if test='after != null'>" +
+            "AND (correct_answers_percent " +
+            "<choose><when test='sortOrder == \"ASC\"'>&gt;</when><otherwise>&lt;</otherwise></choose> " +
+            "#{after.correctAnswersPercent} " +
+            "OR (correct_answers_percent = #{after.correctAnswersPercent} " +
+            "AND (test_en_time, test_en_id, segment_id) &lt; (#{after.testEnTime}, #{after.testEnId}, #{after.segmentId}))) " +
+            "</if>" +
+            "ORDER BY correct_answers_percent ${sortOrder}, test_en_time DESC, test_en_id DESC, segment_id DESC " +
+            "LIMIT #{limit}" +
+            "<if test='after == null and offset &gt; 0'> OFFSET #{offset}</if>" +
+            "</script>")
+    @ResultMap("wrongSegmentMap")
+    List<CET4WrongQuestionRecordDTO> findPageOrderByPercent(@Param("userId") Long userId,
+                                                            @Param("sortOrder") String sortOrder,
+                                                            @Param("after") CET4WrongQuestionRecordDTO after,
+                                                            @Param("limit") int limit,
+                                                            @Param("offset") int offset);
+}
@@ -0,0 +1,218 @@
+package seucxxy.csd.backend.cet4.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 试卷解析结果的内容寻址磁盘缓存。
+ * 键为内容的 SHA-256（OCR 文本按文件字节 + OCR 配置，Coze 结果按分段文本 + 工作流ID），
+ * 相同文件重复上传、不同试卷中相同的分段都能直接命中；总大小超过上限时按最近访问时间淘汰。
+ */
+@Component
+public class CET4AnalysisDiskCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CET4AnalysisDiskCache.class);
+
+    public static final String NAMESPACE_OCR = "ocr";
+    public static final String NAMESPACE_COZE = "coze";
+
+    private final boolean enabled;
+    private final Path baseDir;
+    private final long maxBytes;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private final MeterRegistry meterRegistry;
+
+    public CET4AnalysisDiskCache(MeterRegistry meterRegistry,
+                                 @Value("${analysis.cache.enabled:true}") boolean enabled,
+                                 @Value("${analysis.cache.dir:data/analysis-cache}") String dir,
+                                 @Value("${analysis.cache.max-size-mb:512}") long maxSizeMb) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.baseDir = Paths.get(dir);
+        this.maxBytes = Math.max(1, maxSizeMb) * 1024 * 1024;
+        if (enabled) {
+            totalBytes.set(scanSize());
+        }
+        Gauge.builder("analysis.cache.size.bytes", totalBytes, AtomicLong::get)
+                .description("试卷解析磁盘缓存占用字节数")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 计算内容键：各部分依次计入 SHA-256。
+     */
+    public static String key(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] part : parts) {
+                digest.update(part);
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 JDK 不支持 SHA-256", e);
+        }
+    }
+
+    public static String key(String... parts) {
+        byte[][] bytes = new byte[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            bytes[i] = parts[i] == null ? new byte[0] : parts[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return key(bytes);
+    }
+
+    /**
+     * 读取缓存，未命中或读取失败时返回 null；命中时刷新访问时间。
+     */
+    public String get(String namespace, String key) {
+        if (!enabled) {
+            return null;
+        }
+        Path file = pathOf(namespace, key);
+        try {
+            if (!Files.exists(file)) {
+                counter(namespace, "miss").increment();
+                return null;
+            }
+            String value = Files.readString(file, StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            counter(namespace, "hit").increment();
+            return value;
+        } catch (IOException e) {
+            logger.warn("读取解析缓存失败 {}/{}: {}", namespace, key, e.getMessage());
+            counter(namespace, "miss").increment();
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存（先写临时文件再原子替换），超出总大小上限时淘汰最久未访问的条目。
+     */
+    public void put(String namespace, String key, String value) {
+        if (!enabled || value == null) {
+            return;
+        }
+        Path file = pathOf(namespace, key);
+        try {
+            Files.createDirectories(file.getParent());
+            long previousSize = Files.exists(file) ? Files.size(file) : 0;
+            Path temp = Files.createTempFile(file.getParent(), key, ".tmp");
+            Files.writeString(temp, value, StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            totalBytes.addAndGet(Files.size(file) - previousSize);
+        } catch (IOException e) {
+            logger.warn("写入解析缓存失败 {}/{}: {}", namespace, key, e.getMessage());
+            return;
+        }
+        if (totalBytes.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            if (totalBytes.get() <= maxBytes) {
+                return;
+            }
+            List<Path> files = listEntries();
+            files.sort(Comparator.comparingLong(this::lastModifiedQuietly));
+            long target = maxBytes * 9 / 10;
+            int removed = 0;
+            for (Path file : files) {
+                if (totalBytes.get() <= target) {
+                    break;
+                }
+                try {
+                    long size = Files.size(file);
+                    if (Files.deleteIfExists(file)) {
+                        totalBytes.addAndGet(-size);
+                        removed++;
+                    }
+                } catch (IOException e) {
+                    logger.debug("淘汰解析缓存失败 {}: {}", file, e.getMessage());
+                }
+            }
+            meterRegistry.counter("analysis.cache.evictions").increment(removed);
+            logger.info("解析缓存超过上限，已淘汰 {} 条，当前 {} 字节", removed, totalBytes.get());
+        }
+    }
+
+    private long scanSize() {
+        long size = 0;
+        for (Path file : listEntries()) {
+            try {
+                size += Files.size(file);
+            } catch (IOException ignored) {
+                // 并发删除
+            }
+        }
+        return size;
+    }
+
+    private List<Path> listEntries() {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(baseDir)) {
+            return files;
+        }
+        try (Stream<Path> stream = Files.walk(baseDir)) {
+            stream.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().endsWith(".tmp"))
+                    .forEach(files::add);
+        } catch (IOException e) {
+            logger.warn("扫描解析缓存目录失败: {}", e.getMessage());
+        }
+        return files;
+    }
+
+    private long lastModifiedQuietly(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private Path pathOf(String namespace, String key) {
+        return baseDir.resolve(namespace).resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private Counter counter(String namespace, String result) {
+        return Counter.builder("analysis.cache.requests")
+                .description("试卷解析磁盘缓存查询次数")
+                .tag("namespace", namespace)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
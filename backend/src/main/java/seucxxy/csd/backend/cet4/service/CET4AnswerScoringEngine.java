@@ -0,0 +1,210 @@
+package seucxxy.csd.backend.cet4.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import seucxxy.csd.backend.common.util.GenerationalCache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * 英文试卷交卷判分。
+ * 试卷的题目与标准答案按 examPaperEnId 编译一次为按下标寻址的数组（答案键、所属答题分组、片段序号预先算好），
+ * 交卷时各答题分组的 Map 只解析一次，之后单次遍历完成取答案、判对错与按片段计数。
+ */
+@Component
+public class CET4AnswerScoringEngine {
+
+    static final byte GROUP_OTHER = -1;
+    static final byte GROUP_LISTENING = 0;
+    static final byte GROUP_SECTION_A = 1;
+    static final byte GROUP_SECTION_B = 2;
+    static final byte GROUP_SECTION_C = 3;
+    static final byte GROUP_WRITING = 4;
+    static final byte GROUP_TRANSLATION = 5;
+    private static final String[] GROUP_KEYS = {"listening", "sectionA", "sectionB", "sectionC", "writing", "translation"};
+
+    /**
+     * 编译后的试卷答案，创建后只读，可被并发交卷共享。
+     * 题目按原顺序排列；客观题所在片段按首次出现顺序编号。
+     */
+    public static final class CompiledAnswerKey {
+        private final int size;
+        private final byte[] groups;
+        private final String[] types;
+        private final String[] segmentIds;
+        private final int[] numbers;
+        private final String[] correctAnswers;
+        private final String[] answerKeys;
+        private final String[] fallbackKeys;
+        private final String[] documents;
+        private final int[] segmentOrdinals;
+        private final String[] segments;
+        private final String[] segmentTypes;
+        private final int[] segmentTotals;
+
+        private CompiledAnswerKey(List<Map<String, Object>> questions) {
+            size = questions.size();
+            groups = new byte[size];
+            types = new String[size];
+            segmentIds = new String[size];
+            numbers = new int[size];
+            correctAnswers = new String[size];
+            answerKeys = new String[size];
+            fallbackKeys = new String[size];
+            documents = new String[size];
+            segmentOrdinals = new int[size];
+
+            Map<String, Integer> ordinals = new LinkedHashMap<>();
+            Map<String, String> typeBySegment = new LinkedHashMap<>();
+            Map<String, Integer> totalBySegment = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                Map<String, Object> q = questions.get(i);
+                types[i] = (String) q.get("type");
+                segmentIds[i] = (String) q.get("segment_id");
+                numbers[i] = (Integer) q.get("number");
+                correctAnswers[i] = (String) q.get("correctAnswer");
+                groups[i] = groupOf(types[i]);
+                if (groups[i] == GROUP_WRITING || groups[i] == GROUP_TRANSLATION) {
+                    documents[i] = (String) q.get("document");
+                    segmentOrdinals[i] = -1;
+                    continue;
+                }
+                answerKeys[i] = segmentIds[i] + "-" + numbers[i];
+                fallbackKeys[i] = String.valueOf(numbers[i]);
+                segmentOrdinals[i] = ordinals.computeIfAbsent(segmentIds[i], k -> ordinals.size());
+                typeBySegment.put(segmentIds[i], types[i]);
+                totalBySegment.merge(segmentIds[i], 1, Integer::sum);
+            }
+            segments = ordinals.keySet().toArray(new String[0]);
+            segmentTypes = new String[segments.length];
+            segmentTotals = new int[segments.length];
+            for (int s = 0; s < segments.length; s++) {
+                segmentTypes[s] = typeBySegment.get(segments[s]);
+                segmentTotals[s] = totalBySegment.get(segments[s]);
+            }
+        }
+
+        public int size() { return size; }
+        public String type(int i) { return types[i]; }
+        public String segmentId(int i) { return segmentIds[i]; }
+        public int number(int i) { return numbers[i]; }
+        public String correctAnswer(int i) { return correctAnswers[i]; }
+        public String document(int i) { return documents[i]; }
+        public boolean isSubjective(int i) { return groups[i] == GROUP_WRITING || groups[i] == GROUP_TRANSLATION; }
+
+        public int segmentCount() { return segments.length; }
+        public String segment(int s) { return segments[s]; }
+        public String segmentType(int s) { return segmentTypes[s]; }
+        public int segmentTotal(int s) { return segmentTotals[s]; }
+    }
+
+    /**
+     * 一次交卷的判分结果，下标与 {@link CompiledAnswerKey} 一致。
+     */
+    public static final class ScoreSheet {
+        private final String[] userAnswers;
+        private final int[] segmentCorrect;
+        private int correctNumber;
+
+        private ScoreSheet(CompiledAnswerKey key) {
+            userAnswers = new String[key.size];
+            segmentCorrect = new int[key.segments.length];
+        }
+
+        public String userAnswer(int i) { return userAnswers[i]; }
+        public int correctNumber() { return correctNumber; }
+        public int segmentCorrect(int s) { return segmentCorrect[s]; }
+    }
+
+    private final CET4AnswerMapper answerMapper;
+    private final GenerationalCache<Long, CompiledAnswerKey> answerKeyCache;
+
+    public CET4AnswerScoringEngine(CET4AnswerMapper answerMapper,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${grading.answer-key-cache.max-size:256}") long maxSize,
+                                   @Value("${grading.answer-key-cache.ttl-minutes:30}") long ttlMinutes) {
+        this.answerMapper = answerMapper;
+        // 题目为空时不缓存
+        this.answerKeyCache = new GenerationalCache<>(maxSize, Duration.ofMinutes(ttlMinutes),
+                key -> key.size > 0, meterRegistry, "cet4.answer.key");
+    }
+
+    /**
+     * 取试卷的编译答案，未缓存时由 loader 加载题目列表后编译；题目为空时不缓存
+     */
+    public CompiledAnswerKey answerKey(Long examPaperEnId, Callable<List<Map<String, Object>>> loader) throws Exception {
+        return answerKeyCache.get(examPaperEnId, () -> new CompiledAnswerKey(loader.call()));
+    }
+
+    /**
+     * 试卷内容写入前后各整体失效一次，写入期间编译的旧答案不会在写入完成后被命中
+     */
+    public void invalidateAll() {
+        answerKeyCache.invalidateAll();
+    }
+
+    /**
+     * 单次遍历判分：客观题先按 "片段ID-题号" 取答案，取不到再按题号取；写作/翻译按片段ID或 answer 取，不判分
+     */
+    public ScoreSheet score(CompiledAnswerKey key, Map<String, Object> answers) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object>[] groupAnswers = (Map<String, Object>[]) new Map<?, ?>[GROUP_KEYS.length];
+        for (int g = 0; g < GROUP_KEYS.length; g++) {
+            groupAnswers[g] = answerMapper.getChildAnswerMap(answers, GROUP_KEYS[g]);
+        }
+
+        ScoreSheet sheet = new ScoreSheet(key);
+        for (int i = 0; i < key.size; i++) {
+            byte group = key.groups[i];
+            if (group == GROUP_OTHER) {
+                sheet.userAnswers[i] = "";
+                continue;
+            }
+            Map<String, Object> groupMap = groupAnswers[group];
+            if (group == GROUP_WRITING || group == GROUP_TRANSLATION) {
+                String segmentId = key.segmentIds[i];
+                sheet.userAnswers[i] = groupMap.containsKey(segmentId)
+                        ? String.valueOf(groupMap.get(segmentId))
+                        : String.valueOf(groupMap.getOrDefault("answer", ""));
+                continue;
+            }
+            String userAnswer = text(groupMap.get(key.answerKeys[i]));
+            if (isMissing(userAnswer)) {
+                userAnswer = text(groupMap.get(key.fallbackKeys[i]));
+            }
+            sheet.userAnswers[i] = userAnswer;
+            if (!isMissing(userAnswer) && userAnswer.equals(key.correctAnswers[i])) {
+                sheet.correctNumber++;
+                sheet.segmentCorrect[key.segmentOrdinals[i]]++;
+            }
+        }
+        return sheet;
+    }
+
+    private static String text(Object value) {
+        if (value == null) return "";
+        return value instanceof String s ? s : String.valueOf(value);
+    }
+
+    private static boolean isMissing(String answer) {
+        return answer.isBlank() || "null".equals(answer);
+    }
+
+    private static byte groupOf(String questionType) {
+        if (questionType == null) return GROUP_OTHER;
+        return switch (questionType) {
+            case "NewsReport", "Conversation", "ListeningPassage" -> GROUP_LISTENING;
+            case "BlankedCloze" -> GROUP_SECTION_A;
+            case "Matching" -> GROUP_SECTION_B;
+            case "ReadingPassage" -> GROUP_SECTION_C;
+            case "Writing" -> GROUP_WRITING;
+            case "Translation" -> GROUP_TRANSLATION;
+            default -> GROUP_OTHER;
+        };
+    }
+}
@@ -0,0 +1,449 @@
+package seucxxy.csd.backend.cet4.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import seucxxy.csd.backend.cet4.entity.CET4BulkGradingItem;
+import seucxxy.csd.backend.cet4.entity.CET4BulkGradingJob;
+import seucxxy.csd.backend.cet4.entity.CET4SubjectiveGradingJob;
+import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordSegmentEn;
+import seucxxy.csd.backend.cet4.mapper.CET4BulkGradingJobMapper;
+import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordSegmentEnMapper;
+import seucxxy.csd.backend.common.entity.User;
+import seucxxy.csd.backend.common.mapper.TeacherMapper;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 教师批量重新评分：按 (班级, 试卷) 对全班已交卷的写作/翻译重新调用 AI 评分并回写成绩。
+ * 题目与规范化答案相同的只评一次，结果共用；任务调度在独立的 bulkGradingJobExecutor，评分调用在共享的 gradingExecutor 中执行，
+ * 单个任务同时在途的调用数受 grading.bulk.max-in-flight 限制，Coze 下游另有全局自适应限流。
+ * 每道题评完即在 cet4_bulk_grading_item 落断点，实例退出后由定时扫描重新领取，只处理未完成的题目。
+ * 答案只取自交卷评分任务，没有任务或仍在评分中的答卷不纳入，数量记入任务结果。
+ */
+@Service
+public class CET4BulkGradingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CET4BulkGradingService.class);
+
+    private static final String ITEM_DONE = "DONE";
+    private static final String ITEM_FAILED = "FAILED";
+
+    private final CET4BulkGradingJobMapper jobMapper;
+    private final TeacherMapper teacherMapper;
+    private final CET4SubjectiveGradingService subjectiveGradingService;
+    private final CET4UserTestRecordSegmentEnMapper segmentMapper;
+    private final CET4TaskProgressBus progressBus;
+    private final ObjectMapper objectMapper;
+    private final Executor gradingExecutor;
+    private final Executor jobExecutor;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final long staleSeconds;
+    private final int sweepBatchSize;
+    /** 本实例已提交到线程池、尚未结束的任务，避免定时扫描重复提交 */
+    private final Set<Long> dispatched = ConcurrentHashMap.newKeySet();
+
+    public CET4BulkGradingService(CET4BulkGradingJobMapper jobMapper,
+                                  TeacherMapper teacherMapper,
+                                  CET4SubjectiveGradingService subjectiveGradingService,
+                                  CET4UserTestRecordSegmentEnMapper segmentMapper,
+                                  CET4TaskProgressBus progressBus,
+                                  ObjectMapper objectMapper,
+                                  @Qualifier("gradingExecutor") Executor gradingExecutor,
+                                  @Qualifier("bulkGradingJobExecutor") Executor jobExecutor,
+                                  @Value("${grading.bulk.max-in-flight:4}") int maxInFlight,
+                                  @Value("${grading.bulk.max-attempts:3}") int maxAttempts,
+                                  @Value("${grading.bulk.stale-seconds:600}") long staleSeconds,
+                                  @Value("${grading.bulk.sweep-batch-size:5}") int sweepBatchSize) {
+        this.jobMapper = jobMapper;
+        this.teacherMapper = teacherMapper;
+        this.subjectiveGradingService = subjectiveGradingService;
+        this.segmentMapper = segmentMapper;
+        this.progressBus = progressBus;
+        this.objectMapper = objectMapper;
+        this.gradingExecutor = gradingExecutor;
+        this.jobExecutor = jobExecutor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.staleSeconds = Math.max(60, staleSeconds);
+        this.sweepBatchSize = Math.max(1, sweepBatchSize);
+    }
+
+    /**
+     * 登记批量任务及其逐题断点（同一事务），提交后再调用 {@link #start(Long)}。
+     * 只收录交卷评分任务已结束的答卷，仍在评分中的由交卷评分任务自行完成；
+     * 这些答卷、没有交卷评分任务的答卷和任务内容无法解析的答卷计入 skippedSubmissions。
+     */
+    @Transactional
+    public CET4BulkGradingJob createJob(Long teacherId, Integer classId, Long examPaperEnId) {
+        if (classId == null || examPaperEnId == null) {
+            throw new IllegalArgumentException("班级ID和试卷ID不能为空");
+        }
+        if (!teacherMapper.findClassIds(teacherId).contains(classId)) {
+            throw new IllegalStateException("只能批量评分本人任教班级的答卷");
+        }
+
+        List<CET4BulkGradingItem> items = new ArrayList<>();
+        Set<String> prompts = new HashSet<>();
+        int skipped = jobMapper.countSkippedSubmissions(classId, examPaperEnId);
+        for (CET4SubjectiveGradingJob submission : jobMapper.findClassSubmissions(classId, examPaperEnId)) {
+            CET4SubjectiveGradingJobService.GradingPayload payload;
+            try {
+                payload = readPayload(submission.getPayloadJson());
+            } catch (IllegalStateException e) {
+                logger.warn("跳过无法解析的答卷 testEnId={}: {}", submission.getTestEnId(), e.getMessage());
+                skipped++;
+                continue;
+            }
+            for (CET4SubjectiveGradingJobService.SubjectiveItem subjective : payload.items()) {
+                CET4BulkGradingItem item = new CET4BulkGradingItem();
+                item.setTestEnId(submission.getTestEnId());
+                item.setSegmentId(subjective.segmentId());
+                item.setPromptKey(promptKey(subjective));
+                items.add(item);
+                prompts.add(item.getPromptKey());
+            }
+        }
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("该班级在此试卷上没有可重新评分的写作/翻译答案"
+                    + (skipped > 0 ? "（" + skipped + " 份答卷没有可用的交卷评分记录或仍在评分中，已跳过）" : ""));
+        }
+
+        CET4BulkGradingJob job = new CET4BulkGradingJob();
+        job.setTeacherId(teacherId);
+        job.setClassId(classId);
+        job.setExamPaperEnId(examPaperEnId);
+        job.setTotalAnswers(items.size());
+        job.setDistinctPrompts(prompts.size());
+        job.setSkippedSubmissions(skipped);
+        job.setMessage(skipped > 0 ? "等待批量评分，跳过 " + skipped + " 份答卷" : "等待批量评分");
+        jobMapper.insert(job);
+        jobMapper.insertItems(job.getJobId(), items);
+        return job;
+    }
+
+    /**
+     * 提交任务执行，立即返回；线程池已满时由定时扫描领取
+     */
+    public void start(Long jobId) {
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_BULK_GRADING, jobId, CET4TaskProgressBus.STATUS_RUNNING, 0, "等待批量评分");
+        dispatch(jobId);
+    }
+
+    /**
+     * 定时领取排队未提交、执行失败待重试或执行实例已退出的任务。
+     */
+    @Scheduled(fixedDelayString = "${grading.bulk.sweep-interval-ms:30000}",
+            initialDelayString = "${grading.bulk.sweep-interval-ms:30000}")
+    public void sweep() {
+        List<Long> claimable;
+        try {
+            claimable = jobMapper.findClaimable(staleSeconds, sweepBatchSize);
+        } catch (Exception e) {
+            logger.warn("扫描批量评分任务失败: {}", e.getMessage());
+            return;
+        }
+        claimable.forEach(this::dispatch);
+    }
+
+    private void dispatch(Long jobId) {
+        if (!dispatched.add(jobId)) {
+            return;
+        }
+        try {
+            jobExecutor.execute(() -> claimAndRun(jobId));
+        } catch (RejectedExecutionException e) {
+            dispatched.remove(jobId);
+            logger.warn("评分任务队列已满，等待定时扫描领取批量任务 jobId={}", jobId);
+        }
+    }
+
+    private void claimAndRun(Long jobId) {
+        String claimToken = UUID.randomUUID().toString();
+        CET4BulkGradingJob job = null;
+        try {
+            if (jobMapper.claim(jobId, staleSeconds, claimToken, "批量评分中") == 0) {
+                return;
+            }
+            job = jobMapper.findByJobId(jobId);
+            if (job.getAttempts() != null && job.getAttempts() > maxAttempts) {
+                fail(jobId, claimToken, "批量评分多次中断，已放弃");
+                return;
+            }
+            run(job, claimToken);
+        } catch (Exception e) {
+            logger.error("批量评分任务执行失败 jobId={}", jobId, e);
+            int attempts = job == null || job.getAttempts() == null ? maxAttempts : job.getAttempts();
+            if (attempts < maxAttempts) {
+                jobMapper.release(jobId, claimToken, "批量评分中断，等待重试: " + e.getMessage());
+            } else {
+                fail(jobId, claimToken, "批量评分失败: " + e.getMessage());
+            }
+        } finally {
+            dispatched.remove(jobId);
+        }
+    }
+
+    private void run(CET4BulkGradingJob job, String claimToken) throws Exception {
+        Long jobId = job.getJobId();
+        int total = job.getTotalAnswers();
+        long baseElapsedMs = job.getElapsedMs() != null ? job.getElapsedMs() : 0L;
+        long startedAt = System.nanoTime();
+        AtomicInteger graded = new AtomicInteger(jobMapper.countItems(jobId, ITEM_DONE));
+        AtomicInteger failed = new AtomicInteger(jobMapper.countItems(jobId, ITEM_FAILED));
+
+        // 断点之后只剩未完成的题目，按 prompt_key 分组，每组调用一次 AI 评分
+        Map<String, List<CET4BulkGradingItem>> groups = new LinkedHashMap<>();
+        for (CET4BulkGradingItem item : jobMapper.findPendingItems(jobId)) {
+            groups.computeIfAbsent(item.getPromptKey(), k -> new ArrayList<>()).add(item);
+        }
+        if (!groups.isEmpty()) {
+            List<Long> testEnIds = groups.values().stream()
+                    .flatMap(List::stream)
+                    .map(CET4BulkGradingItem::getTestEnId)
+                    .distinct()
+                    .toList();
+            Map<Long, CET4SubjectiveGradingJobService.GradingPayload> payloads = new HashMap<>();
+            for (CET4SubjectiveGradingJob submission : jobMapper.findSubmissionPayloads(testEnIds)) {
+                payloads.put(submission.getTestEnId(), readPayload(submission.getPayloadJson()));
+            }
+
+            Semaphore inFlight = new Semaphore(maxInFlight);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (List<CET4BulkGradingItem> members : groups.values()) {
+                inFlight.acquire();
+                CompletableFuture<Void> future;
+                try {
+                    future = CompletableFuture.runAsync(() -> gradeGroup(jobId, members, payloads, graded, failed), gradingExecutor);
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                futures.add(future.whenComplete((ignored, throwable) -> {
+                    inFlight.release();
+                    long elapsedMs = baseElapsedMs + (System.nanoTime() - startedAt) / 1_000_000;
+                    int done = graded.get() + failed.get();
+                    String message = "批量评分中 " + done + "/" + total + "，" + formatRate(graded.get(), elapsedMs) + " 份/秒";
+                    jobMapper.updateProgress(jobId, claimToken, graded.get(), failed.get(), elapsedMs, message);
+                    progressBus.publish(CET4TaskProgressBus.CHANNEL_BULK_GRADING, jobId, CET4TaskProgressBus.STATUS_RUNNING,
+                            done * 95 / Math.max(1, total), message);
+                }));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        }
+
+        // 断点续跑时也重算全部答卷，总分只由片段得分决定，可重复执行；写回时校验领取令牌
+        for (Long testEnId : jobMapper.findTestEnIds(jobId)) {
+            double finalScore = 0.0;
+            for (CET4UserTestRecordSegmentEn seg : segmentMapper.findByTestEnId(testEnId)) {
+                finalScore += seg.getScore() != null ? seg.getScore() : 0.0;
+            }
+            double rounded = BigDecimal.valueOf(finalScore).setScale(2, RoundingMode.HALF_UP).doubleValue();
+            if (jobMapper.updateTestScore(jobId, claimToken, testEnId, rounded) == 0
+                    && !claimHeld(jobId, claimToken)) {
+                logger.warn("批量评分任务已被重新领取或已结束，停止写回成绩 jobId={}", jobId);
+                return;
+            }
+        }
+
+        long elapsedMs = baseElapsedMs + (System.nanoTime() - startedAt) / 1_000_000;
+        int skipped = job.getSkippedSubmissions() != null ? job.getSkippedSubmissions() : 0;
+        String message = "批量评分完成：" + graded.get() + "/" + total + " 份，失败 " + failed.get()
+                + " 份，" + formatRate(graded.get(), elapsedMs) + " 份/秒"
+                + (skipped > 0 ? "；跳过 " + skipped + " 份没有交卷评分记录或仍在评分中的答卷" : "");
+        jobMapper.updateProgress(jobId, claimToken, graded.get(), failed.get(), elapsedMs, message);
+        if (jobMapper.markSucceeded(jobId, claimToken, message) == 0) {
+            logger.warn("批量评分任务已被重新领取或已结束，忽略本次结果 jobId={}", jobId);
+            return;
+        }
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_BULK_GRADING, jobId, CET4TaskProgressBus.STATUS_SUCCEEDED, 100, message);
+        logger.info("批量评分完成 jobId={}, answers={}, failed={}, elapsedMs={}", jobId, graded.get(), failed.get(), elapsedMs);
+    }
+
+    /**
+     * 一组相同题目+答案：调用一次 AI 评分（空答案不调用，按 0 分），结果写回组内每份答卷并落断点
+     */
+    private void gradeGroup(Long jobId,
+                            List<CET4BulkGradingItem> members,
+                            Map<Long, CET4SubjectiveGradingJobService.GradingPayload> payloads,
+                            AtomicInteger graded,
+                            AtomicInteger failed) {
+        Map<String, Object> gradeResult = null;
+        boolean graderFailed = false;
+        CET4SubjectiveGradingJobService.SubjectiveItem sample = findItem(payloads, members.get(0));
+        if (sample != null && sample.userAnswer() != null && !sample.userAnswer().isBlank()) {
+            try {
+                gradeResult = subjectiveGradingService.gradeAnswer(sample.questionType(), sample.document(), sample.userAnswer());
+            } catch (Exception e) {
+                logger.warn("批量评分调用失败 jobId={}, prompt={}: {}", jobId, members.get(0).getPromptKey(), e.getMessage());
+                graderFailed = true;
+            }
+        }
+
+        for (CET4BulkGradingItem member : members) {
+            CET4SubjectiveGradingJobService.GradingPayload payload = payloads.get(member.getTestEnId());
+            CET4SubjectiveGradingJobService.SubjectiveItem item = findItem(payloads, member);
+            if (graderFailed || item == null) {
+                jobMapper.updateItem(jobId, member.getTestEnId(), member.getSegmentId(), ITEM_FAILED, null);
+                failed.incrementAndGet();
+                continue;
+            }
+            try {
+                User user = new User();
+                user.setId(payload.userId());
+                user.setUsername(payload.username());
+                user.setRealName(payload.realName());
+                double score = subjectiveGradingService.applyRegrade(gradeResult, item.questionType(), item.userAnswer(),
+                        item.segmentId(), item.questionNumber(), payload.shouldCalculateScore(), member.getTestEnId(),
+                        payload.subjectEnId(), payload.examPaperEnId(), payload.examPaperEnName(), user);
+                jobMapper.updateItem(jobId, member.getTestEnId(), member.getSegmentId(), ITEM_DONE, score);
+                graded.incrementAndGet();
+            } catch (Exception e) {
+                logger.warn("批量评分写回失败 jobId={}, testEnId={}, segmentId={}: {}",
+                        jobId, member.getTestEnId(), member.getSegmentId(), e.getMessage());
+                jobMapper.updateItem(jobId, member.getTestEnId(), member.getSegmentId(), ITEM_FAILED, null);
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    private void fail(Long jobId, String claimToken, String message) {
+        if (jobMapper.markFailed(jobId, claimToken, message) == 0) {
+            logger.warn("批量评分任务已被重新领取或已结束，忽略失败状态 jobId={}", jobId);
+            return;
+        }
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_BULK_GRADING, jobId, CET4TaskProgressBus.STATUS_FAILED, 100, message);
+    }
+
+    /**
+     * 批量任务状态与吞吐（份/秒，按累计执行耗时计算）。
+     *
+     * @return 任务不存在或不属于该教师时返回 null
+     */
+    public Map<String, Object> getStatus(Long jobId, Long teacherId) {
+        CET4BulkGradingJob job = jobMapper.findByJobId(jobId);
+        if (job == null || !job.getTeacherId().equals(teacherId)) {
+            return null;
+        }
+        int graded = job.getGradedAnswers() != null ? job.getGradedAnswers() : 0;
+        long elapsedMs = job.getElapsedMs() != null ? job.getElapsedMs() : 0L;
+        Map<String, Object> status = new HashMap<>();
+        status.put("jobId", jobId);
+        status.put("classId", job.getClassId());
+        status.put("examPaperEnId", job.getExamPaperEnId());
+        status.put("status", job.getStatus());
+        status.put("message", job.getMessage());
+        status.put("attempts", job.getAttempts());
+        status.put("totalAnswers", job.getTotalAnswers());
+        status.put("gradedAnswers", graded);
+        status.put("failedAnswers", job.getFailedAnswers());
+        status.put("distinctPrompts", job.getDistinctPrompts());
+        status.put("skippedSubmissions", job.getSkippedSubmissions());
+        status.put("elapsedMs", elapsedMs);
+        status.put("answersPerSecond", elapsedMs > 0 ? graded * 1000.0 / elapsedMs : 0.0);
+        status.put("createdAt", job.getCreatedAt());
+        status.put("completedAt", job.getCompletedAt());
+        return status;
+    }
+
+    /**
+     * 订阅批量评分进度，先推送任务当前状态。
+     *
+     * @return 任务不存在时返回 null
+     */
+    public SseEmitter subscribe(Long jobId) {
+        CET4BulkGradingJob job = jobMapper.findByJobId(jobId);
+        if (job == null) {
+            return null;
+        }
+        boolean terminal = CET4SubjectiveGradingJobService.STATUS_SUCCEEDED.equals(job.getStatus())
+                || CET4SubjectiveGradingJobService.STATUS_FAILED.equals(job.getStatus());
+        CET4TaskProgressBus.ProgressEvent snapshot = new CET4TaskProgressBus.ProgressEvent(
+                jobId,
+                terminal ? job.getStatus() : CET4TaskProgressBus.STATUS_RUNNING,
+                terminal ? 100 : 0,
+                job.getMessage(),
+                System.currentTimeMillis());
+        return progressBus.subscribe(CET4TaskProgressBus.CHANNEL_BULK_GRADING, jobId, snapshot);
+    }
+
+    private boolean claimHeld(Long jobId, String claimToken) {
+        return jobMapper.countClaimed(jobId, claimToken) > 0;
+    }
+
+    private CET4SubjectiveGradingJobService.SubjectiveItem findItem(
+            Map<Long, CET4SubjectiveGradingJobService.GradingPayload> payloads, CET4BulkGradingItem member) {
+        CET4SubjectiveGradingJobService.GradingPayload payload = payloads.get(member.getTestEnId());
+        if (payload == null) {
+            return null;
+        }
+        for (CET4SubjectiveGradingJobService.SubjectiveItem item : payload.items()) {
+            if (member.getSegmentId().equals(item.segmentId())) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 题型、题目原文与规范化答案（去首尾空白、连续空白合并）的摘要，相同即视为同一评分请求
+     */
+    private static String promptKey(CET4SubjectiveGradingJobService.SubjectiveItem item) {
+        String answer = item.userAnswer() == null ? "" : item.userAnswer().strip().replaceAll("\\s+", " ");
+        return sha256(item.questionType(), item.document() == null ? "" : item.document(), answer);
+    }
+
+    /**
+     * 各部分依次计入 SHA-256（部分之间以 0 字节分隔）
+     */
+    private static String sha256(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update((part == null ? "" : part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 JDK 不支持 SHA-256", e);
+        }
+    }
+
+    private static String formatRate(int answers, long elapsedMs) {
+        return String.format("%.2f", elapsedMs > 0 ? answers * 1000.0 / elapsedMs : 0.0);
+    }
+
+    private CET4SubjectiveGradingJobService.GradingPayload readPayload(String json) {
+        try {
+            return objectMapper.readValue(json, CET4SubjectiveGradingJobService.GradingPayload.class);
+        } catch (Exception e) {
+            throw new IllegalStateException("评分任务内容解析失败", e);
+        }
+    }
+}
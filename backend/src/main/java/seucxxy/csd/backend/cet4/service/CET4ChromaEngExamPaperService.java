@@ -1,14 +1,18 @@
 package seucxxy.csd.backend.cet4.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.validation.constraints.NotNull;
+import seucxxy.csd.backend.cet4.dto.CET4ChromaWriteBatch;
+import seucxxy.csd.backend.cet4.dto.CET4PaperChromaBatchRequest;
 import seucxxy.csd.backend.cet4.dto.CET4SectionAChromaRecord;
 import seucxxy.csd.backend.cet4.dto.CET4SectionAChromaRequest;
 import seucxxy.csd.backend.cet4.dto.CET4SimpleChromaRequest;
+import seucxxy.csd.backend.common.service.ChromaCollectionResolver;
+import seucxxy.csd.backend.common.util.GenerationalCache;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,9 +23,12 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.net.URI;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -33,7 +40,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.Optional;
 
 @Service("cet4ChromaEngExamPaperService")
@@ -44,7 +50,7 @@ public class CET4ChromaEngExamPaperService {
 
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final AtomicReference<String> collectionIdCache = new AtomicReference<>();
+    private final ChromaCollectionResolver collectionResolver;
 
     @Value("${chromadb.base-url:http://localhost:8000/api/v2}")
     private String chromaBaseUrl;
@@ -58,11 +64,154 @@ public class CET4ChromaEngExamPaperService {
     @Value("${chromadb.collection.eng-exam-papers:eng_exam_papers_cet4}")
     private String collectionName;
 
-    public CET4ChromaEngExamPaperService(RestTemplate restTemplate) {
+    @Value("${chromadb.write.chunk-size:100}")
+    private int writeChunkSize;
+
+    @Value("${chromadb.write.max-attempts:3}")
+    private int writeMaxAttempts;
+
+    /** 试卷内容缓存：key 为 "试卷编号|试卷名称"，value 为不可变的单元快照 */
+    private final GenerationalCache<String, List<CET4SectionAChromaRecord>> paperUnitsCache;
+    private final CET4AnswerScoringEngine answerScoringEngine;
+
+    public CET4ChromaEngExamPaperService(RestTemplate restTemplate,
+                                         ChromaCollectionResolver collectionResolver,
+                                         MeterRegistry meterRegistry,
+                                         CET4AnswerScoringEngine answerScoringEngine,
+                                         @Value("${chromadb.paper-cache.max-size:256}") long cacheMaxSize,
+                                         @Value("${chromadb.paper-cache.ttl-minutes:30}") long cacheTtlMinutes) {
         this.restTemplate = restTemplate;
+        this.collectionResolver = collectionResolver;
+        this.answerScoringEngine = answerScoringEngine;
+        // 空结果不缓存
+        this.paperUnitsCache = new GenerationalCache<>(cacheMaxSize, Duration.ofMinutes(cacheTtlMinutes),
+                units -> !units.isEmpty(), meterRegistry, "cet4.paper.units");
+    }
+
+    /**
+     * 试卷内容写入后整体失效缓存（按名称查询的条目无法按ID精确定位，写入频率很低），编译好的判分答案一并失效。
+     */
+    public void invalidatePaperCache() {
+        paperUnitsCache.invalidateAll();
+        answerScoringEngine.invalidateAll();
+    }
+
+    /**
+     * 将批量缓冲中的单元写入 ChromaDB：按 chromadb.write.chunk-size 分块，每块一次 upsert 请求，
+     * 单块失败时按 chromadb.write.max-attempts 重试（单元ID由试卷ID+片段ID确定，upsert 重试幂等；重新保存的试卷覆盖原单元）。
+     */
+    public void flushBatch(@NotNull CET4ChromaWriteBatch batch) throws JsonProcessingException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int chunkSize = Math.max(1, writeChunkSize);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        // 写入前后各失效一次，写入期间加载到的旧单元不会在写入完成后被命中
+        invalidatePaperCache();
+        try {
+            withCollection(collectionId -> {
+                String url = collectionUpsertUrl(collectionId);
+                for (int from = 0; from < batch.size(); from += chunkSize) {
+                    int to = Math.min(from + chunkSize, batch.size());
+                    Map<String, Object> requestBody = new LinkedHashMap<>();
+                    requestBody.put("ids", batch.getIds().subList(from, to));
+                    requestBody.put("documents", batch.getDocuments().subList(from, to));
+                    requestBody.put("metadatas", batch.getMetadatas().subList(from, to));
+                    requestBody.put("embeddings", batch.getEmbeddings().subList(from, to));
+                    HttpEntity<String> entity = new HttpEntity<>(objectMapper.writeValueAsString(requestBody), headers);
+                    sendChunkWithRetry(url, entity, from, to);
+                }
+                return null;
+            });
+            logger.info("ChromaDB 批量写入完成，共 {} 个单元", batch.size());
+        } finally {
+            invalidatePaperCache();
+        }
+    }
+
+    private void sendChunkWithRetry(String url, HttpEntity<String> entity, int from, int to) {
+        int maxAttempts = Math.max(1, writeMaxAttempts);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, entity, String.class);
+                if (response.getStatusCode().is2xxSuccessful()) {
+                    return;
+                }
+                logger.warn("写入 ChromaDB 失败，单元 [{}, {})，attempt={}，status={}，body={}",
+                        from, to, attempt, response.getStatusCode(), response.getBody());
+                if (attempt >= maxAttempts) {
+                    throw new IllegalStateException("写入 ChromaDB 失败，状态码：" + response.getStatusCode());
+                }
+            } catch (HttpClientErrorException.NotFound e) {
+                // 集合已被删除重建，交给 withCollectionId 刷新集合ID后重试
+                throw e;
+            } catch (RestClientException e) {
+                logger.warn("写入 ChromaDB 异常，单元 [{}, {})，attempt={}，error={}", from, to, attempt, e.getMessage());
+                if (attempt >= maxAttempts) {
+                    throw new IllegalStateException("写入 ChromaDB 失败，已重试" + maxAttempts + "次", e);
+                }
+            }
+            try {
+                Thread.sleep(500L * attempt);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("写入 ChromaDB 重试被中断", ie);
+            }
+        }
+    }
+
+    /**
+     * 整卷写入：各部分按与单独 store* 接口相同的默认值组装到同一个批量缓冲，只发送一次批量写入。
+     *
+     * @return 写入的单元数
+     */
+    public int storePaper(@NotNull CET4PaperChromaBatchRequest request) throws JsonProcessingException {
+        CET4ChromaWriteBatch batch = new CET4ChromaWriteBatch();
+        for (CET4SimpleChromaRequest writing : request.getWriting()) {
+            writing.setPartId(1);
+            writing.setQuestionType("写作");
+            storePartSimple(writing, batch);
+        }
+        for (CET4SectionAChromaRequest listening : request.getPart2AB()) {
+            listening.setSectionId("AB");
+            listening.setPartId(2);
+            listening.setQuestionType("听力");
+            storeListeningPart2AB(listening, batch);
+        }
+        for (CET4SectionAChromaRequest listening : request.getPart2C()) {
+            listening.setSectionId("C");
+            listening.setPartId(2);
+            listening.setQuestionType("听力");
+            storeListeningPart2C(listening, batch);
+        }
+        for (CET4SectionAChromaRequest section : request.getSectionA()) {
+            storeSectionA(section, batch);
+        }
+        for (CET4SectionAChromaRequest section : request.getSectionB()) {
+            section.setQuestionType("段落匹配");
+            storeSectionB(section, batch);
+        }
+        for (CET4SectionAChromaRequest section : request.getSectionC()) {
+            section.setSectionId("C");
+            storeSectionC(section, batch);
+        }
+        for (CET4SimpleChromaRequest translation : request.getTranslation()) {
+            translation.setPartId(4);
+            translation.setQuestionType("翻译");
+            storePartSimple(translation, batch);
+        }
+        flushBatch(batch);
+        return batch.size();
     }
 
     public void storeSectionA(@NotNull CET4SectionAChromaRequest request) throws JsonProcessingException {
+        CET4ChromaWriteBatch batch = new CET4ChromaWriteBatch();
+        storeSectionA(request, batch);
+        flushBatch(batch);
+    }
+
+    public void storeSectionA(@NotNull CET4SectionAChromaRequest request, @NotNull CET4ChromaWriteBatch batch) throws JsonProcessingException {
         // 强制默认：Section A 选词填空
         if (request.getSectionId() == null || request.getSectionId().isBlank()) {
             request.setSectionId("A");
@@ -70,28 +219,40 @@ public class CET4ChromaEngExamPaperService {
         if (request.getQuestionType() == null || request.getQuestionType().isBlank()) {
             request.setQuestionType("选词填空");
         }
-        storeSectionGeneric(request);
+        storeSectionGeneric(request, batch);
     }
 
     public void storeSectionB(@NotNull CET4SectionAChromaRequest request) throws JsonProcessingException {
+        CET4ChromaWriteBatch batch = new CET4ChromaWriteBatch();
+        storeSectionB(request, batch);
+        flushBatch(batch);
+    }
+
+    public void storeSectionB(@NotNull CET4SectionAChromaRequest request, @NotNull CET4ChromaWriteBatch batch) throws JsonProcessingException {
         // 强制默认：Section B 段落匹配
         request.setSectionId("B");
         if (request.getQuestionType() == null || request.getQuestionType().isBlank()) {
             request.setQuestionType("段落匹配");
         }
-        storeSectionGeneric(request);
+        storeSectionGeneric(request, batch);
     }
 
     public void storeSectionC(@NotNull CET4SectionAChromaRequest request) throws JsonProcessingException {
+        CET4ChromaWriteBatch batch = new CET4ChromaWriteBatch();
+        storeSectionC(request, batch);
+        flushBatch(batch);
+    }
+
+    public void storeSectionC(@NotNull CET4SectionAChromaRequest request, @NotNull CET4ChromaWriteBatch batch) throws JsonProcessingException {
         // Section C现在分为C1和C2，需要分别存储
         request.setQuestionType("篇章阅读");
-        storeSectionCGeneric(request);
+        storeSectionCGeneric(request, batch);
     }
 
     /**
      * Section C专用存储方法，处理section_c1和section_c2，分别存储为两个独立单元
      */
-    private void storeSectionCGeneric(@NotNull CET4SectionAChromaRequest request) throws JsonProcessingException {
+    private void storeSectionCGeneric(@NotNull CET4SectionAChromaRequest request, CET4ChromaWriteBatch batch) throws JsonProcessingException {
         String document = normalizeString(request.getDocument());
         if (document.isEmpty()) {
             throw new IllegalArgumentException("存储文档内容不能为空");
@@ -332,32 +493,8 @@ public class CET4ChromaEngExamPaperService {
                 throw new IllegalArgumentException("未找到有效的Section C1或C2数据");
             }
 
-            // 批量存储到ChromaDB
-            Map<String, Object> requestBody = new LinkedHashMap<>();
-            requestBody.put("ids", ids);
-            requestBody.put("documents", documents);
-            requestBody.put("metadatas", metadatas);
-            requestBody.put("embeddings", embeddings);
-
-            String collectionId = ensureCollectionId();
-            String url = collectionAddUrl(collectionId);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            String jsonBody = objectMapper.writeValueAsString(requestBody);
-            HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-            ResponseEntity<String> response = restTemplate.exchange(
-                java.util.Objects.requireNonNull(java.net.URI.create(url)),
-                java.util.Objects.requireNonNull(org.springframework.http.HttpMethod.POST),
-                entity,
-                String.class);
-            if (response.getStatusCode().is2xxSuccessful()) {
-                logger.info("Section C 数据已写入 ChromaDB，共 {} 个单元（C1和C2）", ids.size());
-            } else {
-                logger.warn("写入 Section C 数据到 ChromaDB 失败，status={}, body={}",
-                        response.getStatusCode(), response.getBody());
-                throw new IllegalStateException("写入 ChromaDB 失败，状态码：" + response.getStatusCode());
+            for (int i = 0; i < ids.size(); i++) {
+                batch.add(ids.get(i), documents.get(i), metadatas.get(i), embeddings.get(i));
             }
         } catch (JsonProcessingException e) {
             throw new IllegalArgumentException("解析document JSON失败: " + e.getMessage(), e);
@@ -401,23 +538,35 @@ public class CET4ChromaEngExamPaperService {
 
     // ==================== Part II Listening 存储（AB / C） ====================
     public void storeListeningPart2AB(@NotNull CET4SectionAChromaRequest request) throws JsonProcessingException {
+        CET4ChromaWriteBatch batch = new CET4ChromaWriteBatch();
+        storeListeningPart2AB(request, batch);
+        flushBatch(batch);
+    }
+
+    public void storeListeningPart2AB(@NotNull CET4SectionAChromaRequest request, @NotNull CET4ChromaWriteBatch batch) throws JsonProcessingException {
         request.setSectionId("AB");
         request.setPartId(2);
         request.setQuestionType("听力");
-        storeListeningPart2Generic(request);
+        storeListeningPart2Generic(request, batch);
     }
 
     public void storeListeningPart2C(@NotNull CET4SectionAChromaRequest request) throws JsonProcessingException {
+        CET4ChromaWriteBatch batch = new CET4ChromaWriteBatch();
+        storeListeningPart2C(request, batch);
+        flushBatch(batch);
+    }
+
+    public void storeListeningPart2C(@NotNull CET4SectionAChromaRequest request, @NotNull CET4ChromaWriteBatch batch) throws JsonProcessingException {
         request.setSectionId("C");
         request.setPartId(2);
         request.setQuestionType("听力");
-        storeListeningPart2Generic(request);
+        storeListeningPart2Generic(request, batch);
     }
 
     /**
      * Part II Listening专用存储方法，处理units数组，为每个unit单独存储
      */
-    private void storeListeningPart2Generic(@NotNull CET4SectionAChromaRequest request) throws JsonProcessingException {
+    private void storeListeningPart2Generic(@NotNull CET4SectionAChromaRequest request, CET4ChromaWriteBatch batch) throws JsonProcessingException {
         String document = normalizeString(request.getDocument());
         if (document.isEmpty()) {
             throw new IllegalArgumentException("存储文档内容不能为空");
@@ -581,14 +730,7 @@ public class CET4ChromaEngExamPaperService {
                 throw new IllegalArgumentException("未找到有效的unit数据");
             }
 
-            // 批量存储到ChromaDB
-            Map<String, Object> requestBody = new LinkedHashMap<>();
-            requestBody.put("ids", ids);
-            requestBody.put("documents", documents);
-            requestBody.put("metadatas", metadatas);
-            requestBody.put("embeddings", embeddings);
-
-            logger.info("========== 准备发送Part II {}到ChromaDB ==========", sectionId);
+            logger.info("========== Part II {} 加入批量写入 ==========", sectionId);
             logger.info("ids数量: {}", ids.size());
             for (int i = 0; i < metadatas.size(); i++) {
                 Map<String, Object> meta = metadatas.get(i);
@@ -596,26 +738,8 @@ public class CET4ChromaEngExamPaperService {
                     i, meta.get("question_id"), meta.get("segment_id"), meta.get("topic"));
             }
             logger.info("================================================");
-
-            String collectionId = ensureCollectionId();
-            String url = collectionAddUrl(collectionId);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            String jsonBody = objectMapper.writeValueAsString(requestBody);
-            HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-            ResponseEntity<String> response = restTemplate.exchange(
-                java.util.Objects.requireNonNull(java.net.URI.create(url)),
-                java.util.Objects.requireNonNull(org.springframework.http.HttpMethod.POST),
-                entity,
-                String.class);
-            if (response.getStatusCode().is2xxSuccessful()) {
-                logger.info("Part II {} 数据已写入 ChromaDB，共 {} 个units", sectionId, ids.size());
-            } else {
-                logger.warn("写入 Part II {} 数据到 ChromaDB 失败，status={}, body={}",
-                        sectionId, response.getStatusCode(), response.getBody());
-                throw new IllegalStateException("写入 ChromaDB 失败，状态码：" + response.getStatusCode());
+            for (int i = 0; i < ids.size(); i++) {
+                batch.add(ids.get(i), documents.get(i), metadatas.get(i), embeddings.get(i));
             }
         } catch (JsonProcessingException e) {
             throw new IllegalArgumentException("解析document JSON失败: " + e.getMessage(), e);
@@ -623,6 +747,12 @@ public class CET4ChromaEngExamPaperService {
     }
 
     public void storePartSimple(@NotNull CET4SimpleChromaRequest request) throws JsonProcessingException {
+        CET4ChromaWriteBatch batch = new CET4ChromaWriteBatch();
+        storePartSimple(request, batch);
+        flushBatch(batch);
+    }
+
+    public void storePartSimple(@NotNull CET4SimpleChromaRequest request, @NotNull CET4ChromaWriteBatch batch) throws JsonProcessingException {
         String document = normalizeString(request.getDocument());
         if (document.isEmpty()) {
             throw new IllegalArgumentException("存储文档内容不能为空");
@@ -752,35 +882,10 @@ public class CET4ChromaEngExamPaperService {
         // System.out.println("[ChromaDB存储] Part " + partId + " - question_source = " + request.getQuestionSource() + ", question_id = " + questionId);
         // System.out.println("[SQL语句] INSERT INTO chroma_collection (id, document, metadata) VALUES ('" + questionId + "', ..., '" + objectMapper.writeValueAsString(metadata) + "')");
         
-        // 构建请求体：documents字段使用清理后的数据
-        Map<String, Object> requestBody = new LinkedHashMap<>();
-        requestBody.put("ids", Collections.singletonList(questionId));
-        requestBody.put("documents", Collections.singletonList(cleanedDocument));
-        requestBody.put("metadatas", Collections.singletonList(metadata));
-        requestBody.put("embeddings", Collections.singletonList(generateDeterministicEmbedding(questionId)));
-
-        String collectionId = ensureCollectionId();
-        String url = collectionAddUrl(collectionId);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(requestBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-        ResponseEntity<String> response = restTemplate.exchange(
-            java.util.Objects.requireNonNull(java.net.URI.create(url)),
-            java.util.Objects.requireNonNull(org.springframework.http.HttpMethod.POST),
-            entity,
-            String.class);
-        if (response.getStatusCode().is2xxSuccessful()) {
-            // 成功，不输出
-        } else {
-            logger.warn("写入 Part {} 数据到 ChromaDB 失败，status={}, body={}", partId, response.getStatusCode(), response.getBody());
-            throw new IllegalStateException("写入 ChromaDB 失败，状态码：" + response.getStatusCode());
-        }
+        batch.add(questionId, cleanedDocument, metadata, generateDeterministicEmbedding(questionId));
     }
 
-    private void storeSectionGeneric(@NotNull CET4SectionAChromaRequest request) throws JsonProcessingException {
+    private void storeSectionGeneric(@NotNull CET4SectionAChromaRequest request, CET4ChromaWriteBatch batch) throws JsonProcessingException {
         String document = normalizeString(request.getDocument());
         if (document.isEmpty()) {
             throw new IllegalArgumentException("存储文档内容不能为空");
@@ -898,33 +1003,7 @@ public class CET4ChromaEngExamPaperService {
         // System.out.println("[ChromaDB存储] Section " + sectionId + " - question_source = " + request.getQuestionSource() + ", question_id = " + questionId);
         // System.out.println("[SQL语句] INSERT INTO chroma_collection (id, document, metadata) VALUES ('" + questionId + "', ..., '" + objectMapper.writeValueAsString(metadata) + "')");
 
-        // 构建请求体：documents字段使用清理后的数据
-        Map<String, Object> requestBody = new LinkedHashMap<>();
-        requestBody.put("ids", Collections.singletonList(questionId));
-        requestBody.put("documents", Collections.singletonList(cleanedDocument));
-        requestBody.put("metadatas", Collections.singletonList(metadata));
-        requestBody.put("embeddings", Collections.singletonList(generateDeterministicEmbedding(questionId)));
-
-        String collectionId = ensureCollectionId();
-        String url = collectionAddUrl(collectionId);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(requestBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-        ResponseEntity<String> response = restTemplate.exchange(
-            java.util.Objects.requireNonNull(java.net.URI.create(url)),
-            java.util.Objects.requireNonNull(org.springframework.http.HttpMethod.POST),
-            entity,
-            String.class);
-        if (response.getStatusCode().is2xxSuccessful()) {
-            // 成功，不输出
-        } else {
-            logger.warn("写入 Section {} 数据到 ChromaDB 失败，status={}, body={}",
-                    sectionId, response.getStatusCode(), response.getBody());
-            throw new IllegalStateException("写入 ChromaDB 失败，状态码：" + response.getStatusCode());
-        }
+        batch.add(questionId, cleanedDocument, metadata, generateDeterministicEmbedding(questionId));
     }
 
     public Optional<CET4SectionAChromaRecord> fetchSectionARecord(String examPaperId, String questionType) throws JsonProcessingException {
@@ -934,9 +1013,6 @@ public class CET4ChromaEngExamPaperService {
         }
         String normalizedType = normalizeQuestionType(questionType);
 
-        String collectionId = ensureCollectionId();
-        String url = collectionGetUrl(collectionId);
-
         Map<String, Object> requestBody = new LinkedHashMap<>();
         requestBody.put("limit", 1000);
         requestBody.put("include", List.of("documents", "metadatas"));
@@ -946,7 +1022,7 @@ public class CET4ChromaEngExamPaperService {
         String jsonBody = objectMapper.writeValueAsString(requestBody);
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
 
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, entity, String.class);
+        ResponseEntity<String> response = postCollectionGet(entity);
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             logger.warn("从 ChromaDB 查询 Section A 失败，status={}", response.getStatusCode());
             return Optional.empty();
@@ -995,8 +1071,18 @@ public class CET4ChromaEngExamPaperService {
             throw new IllegalArgumentException("试卷编号和试卷名称至少提供一个");
         }
 
-        String collectionId = ensureCollectionId();
-        String url = collectionGetUrl(collectionId);
+        String cacheKey = normalizedId + "|" + normalizedName;
+        List<CET4SectionAChromaRecord> cached =
+                paperUnitsCache.get(cacheKey, () -> loadExamPaperUnits(normalizedId, normalizedName));
+        // 调用方可能排序列表或修改 metadata，返回浅拷贝；documentNode 只读共享
+        List<CET4SectionAChromaRecord> copy = new ArrayList<>(cached.size());
+        for (CET4SectionAChromaRecord rec : cached) {
+            copy.add(new CET4SectionAChromaRecord(rec.document(), new LinkedHashMap<>(rec.metadata()), rec.documentNode()));
+        }
+        return copy;
+    }
+
+    private List<CET4SectionAChromaRecord> loadExamPaperUnits(String normalizedId, String normalizedName) throws JsonProcessingException {
 
         Map<String, Object> requestBody = new LinkedHashMap<>();
         requestBody.put("limit", 1000);
@@ -1007,7 +1093,7 @@ public class CET4ChromaEngExamPaperService {
         String jsonBody = objectMapper.writeValueAsString(requestBody);
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
 
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, entity, String.class);
+        ResponseEntity<String> response = postCollectionGet(entity);
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             logger.warn("从 ChromaDB 查询试卷单元失败，status={}", response.getStatusCode());
             return Collections.emptyList();
@@ -1068,7 +1154,7 @@ public class CET4ChromaEngExamPaperService {
                     metadata.put("id", id);
                 }
                 
-                records.add(new CET4SectionAChromaRecord(document, metadata));
+                records.add(new CET4SectionAChromaRecord(document, Collections.unmodifiableMap(metadata), parseDocumentQuietly(document)));
             }
         }
         
@@ -1088,9 +1174,96 @@ public class CET4ChromaEngExamPaperService {
             return sectionIdA.compareTo(sectionIdB);
         });
         
+        return Collections.unmodifiableList(records);
+    }
+
+    private JsonNode parseDocumentQuietly(String document) {
+        if (document == null || document.isBlank()) {
+            return null;
+        }
+        try {
+            return objectMapper.readTree(document);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按试卷编号 + 片段在 ChromaDB 服务端过滤查询单元，只返回需要的字段。
+     * exam_paper_en_id 历史数据中既有整数也有字符串，两种类型都匹配；segmentId / questionType 为空时不参与过滤。
+     * Chroma 元数据过滤不支持子串匹配，题型仍按原语义（忽略大小写相等或包含）在本地过滤，此时 limit 在本地生效。
+     *
+     * @param examPaperId 试卷编号
+     * @param segmentId 片段ID（可选）
+     * @param questionType 题型（可选）
+     * @param withMetadata 是否返回元数据（仅需文档时传 false 以减少传输量）
+     * @param limit 最多返回条数
+     * @return 匹配的单元列表，未命中时为空列表
+     */
+    public List<CET4SectionAChromaRecord> queryExamPaperUnits(String examPaperId, String segmentId, String questionType,
+                                                              boolean withMetadata, int limit) throws JsonProcessingException {
+        String normalizedId = normalizeString(examPaperId);
+        if (normalizedId.isEmpty()) {
+            throw new IllegalArgumentException("examPaperId 不能为空");
+        }
+        int maxResults = Math.max(1, limit);
+        String normalizedType = normalizeString(questionType);
+        boolean filterType = !normalizedType.isEmpty();
+
+        List<Map<String, Object>> conditions = new ArrayList<>();
+        // $in 要求列表元素类型一致，整数与字符串两种取值用 $or 组合
+        conditions.add(Collections.singletonMap("$or", List.of(
+                Collections.singletonMap("exam_paper_en_id", parseIntegerSafely(normalizedId, "exam_paper_id")),
+                Collections.singletonMap("exam_paper_en_id", normalizedId))));
+        String normalizedSegment = normalizeString(segmentId);
+        if (!normalizedSegment.isEmpty()) {
+            conditions.add(Collections.singletonMap("segment_id", normalizedSegment));
+        }
+
+        Map<String, Object> requestBody = new LinkedHashMap<>();
+        requestBody.put("where", conditions.size() == 1
+                ? conditions.get(0)
+                : Collections.singletonMap("$and", conditions));
+        if (!filterType) {
+            requestBody.put("limit", maxResults);
+        }
+        requestBody.put("include", withMetadata || filterType ? List.of("documents", "metadatas") : List.of("documents"));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> entity = new HttpEntity<>(objectMapper.writeValueAsString(requestBody), headers);
+
+        ResponseEntity<String> response = postCollectionGet(entity);
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            logger.warn("从 ChromaDB 过滤查询试卷单元失败，status={}", response.getStatusCode());
+            return Collections.emptyList();
+        }
+
+        JsonNode root = objectMapper.readTree(response.getBody());
+        JsonNode documents = root.path("documents");
+        JsonNode metadatas = root.path("metadatas");
+        if (!documents.isArray()) {
+            return Collections.emptyList();
+        }
+
+        List<CET4SectionAChromaRecord> records = new ArrayList<>(Math.min(documents.size(), maxResults));
+        for (int i = 0; i < documents.size() && records.size() < maxResults; i++) {
+            JsonNode metaNode = metadatas.isArray() ? metadatas.get(i) : null;
+            Map<String, Object> metadata = metaNode != null && metaNode.isObject()
+                    ? jsonNodeToMap(metaNode)
+                    : new LinkedHashMap<>();
+            if (filterType) {
+                Object qt = metadata.get("question_type");
+                String qtStr = qt == null ? "" : String.valueOf(qt);
+                if (!qtStr.equalsIgnoreCase(normalizedType) && !qtStr.contains(normalizedType)) {
+                    continue;
+                }
+            }
+            records.add(new CET4SectionAChromaRecord(documents.get(i).asText(""), metadata));
+        }
         return records;
     }
-    
+
     private int getIntValue(Map<String, Object> map, String key, int defaultValue) {
         Object value = map.get(key);
         if (value == null) {
@@ -1132,52 +1305,25 @@ public class CET4ChromaEngExamPaperService {
         return value != null ? value.asText("") : "";
     }
 
-    public String ensureCollectionId() throws JsonProcessingException {
-        String cached = collectionIdCache.get();
-        if (cached != null) {
-            return cached;
-        }
-        synchronized (collectionIdCache) {
-            cached = collectionIdCache.get();
-            if (cached != null) {
-                return cached;
-            }
-            String collectionId = fetchCollectionId();
-            if (collectionId == null) {
-                throw new IllegalStateException(
-                        String.format("ChromaDB 集合不存在: %s (tenant=%s, database=%s)",
-                                collectionName, tenant, database));
-            }
-            collectionIdCache.set(collectionId);
-            return collectionId;
-        }
+    /**
+     * 向本集合的 get 接口发送查询
+     */
+    private ResponseEntity<String> postCollectionGet(HttpEntity<String> entity) throws JsonProcessingException {
+        return withCollection(collectionId ->
+                restTemplate.exchange(URI.create(collectionGetUrl(collectionId)), HttpMethod.POST, entity, String.class));
     }
 
-    private String fetchCollectionId() throws JsonProcessingException {
-        String url = collectionsBaseUrl();
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.GET, entity, String.class);
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            logger.warn("获取 ChromaDB 集合列表失败，status={}", response.getStatusCode());
-            return null;
-        }
-
-        List<Map<String, Object>> collections =
-                objectMapper.readValue(response.getBody(),
-                        new TypeReference<List<Map<String, Object>>>() {});
-        if (collections == null) {
-            return null;
-        }
-
-        for (Map<String, Object> collection : collections) {
-            if (collectionName.equals(collection.get("name"))) {
-                return String.valueOf(collection.get("id"));
-            }
+    /**
+     * 以本集合的ID执行调用；集合被删除重建（404）时由解析器刷新缓存的ID并重试一次
+     */
+    private <T> T withCollection(ChromaCollectionResolver.CollectionCall<T> call) throws JsonProcessingException {
+        try {
+            return collectionResolver.withCollectionId(collectionName, false, null, call);
+        } catch (JsonProcessingException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("访问 ChromaDB 集合失败: " + collectionName, e);
         }
-        return null;
     }
 
     private List<Float> generateDeterministicEmbedding(String seed) {
@@ -1196,8 +1342,8 @@ public class CET4ChromaEngExamPaperService {
                 Objects.requireNonNull(database, "chromadb.database 未配置"));
     }
 
-    private String collectionAddUrl(String collectionId) {
-        return collectionsBaseUrl() + "/" + collectionId + "/add";
+    private String collectionUpsertUrl(String collectionId) {
+        return collectionsBaseUrl() + "/" + collectionId + "/upsert";
     }
 
     public String collectionGetUrl(String collectionId) {
@@ -1208,9 +1354,6 @@ public class CET4ChromaEngExamPaperService {
      * 查询指定科目且来源为 real 的试卷ID集合。
      */
     public Set<String> findRealPaperIdsBySubject(String subject) throws Exception {
-        String collectionId = ensureCollectionId();
-        String url = collectionGetUrl(collectionId);
-
         Map<String, Object> requestBody = new java.util.HashMap<>();
         requestBody.put("limit", 10000);
         requestBody.put("include", java.util.List.of("metadatas"));
@@ -1228,7 +1371,7 @@ public class CET4ChromaEngExamPaperService {
         String jsonBody = objectMapper.writeValueAsString(requestBody);
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
 
-        ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
+        ResponseEntity<String> response = postCollectionGet(entity);
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             throw new RuntimeException("从ChromaDB查询失败");
         }
@@ -1252,9 +1395,6 @@ public class CET4ChromaEngExamPaperService {
      * 按试卷ID取出文档+元数据列表，用于生成模板。
      */
     public java.util.List<java.util.Map<String, Object>> fetchPaperUnitsWithMeta(String examPaperId) throws Exception {
-        String collectionId = ensureCollectionId();
-        String url = collectionGetUrl(collectionId);
-
         Map<String, Object> requestBody = new java.util.HashMap<>();
         requestBody.put("limit", 10000);
         requestBody.put("include", java.util.List.of("documents", "metadatas"));
@@ -1268,7 +1408,7 @@ public class CET4ChromaEngExamPaperService {
         String jsonBody = objectMapper.writeValueAsString(requestBody);
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
 
-        ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
+        ResponseEntity<String> response = postCollectionGet(entity);
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             throw new RuntimeException("从ChromaDB查询失败");
         }
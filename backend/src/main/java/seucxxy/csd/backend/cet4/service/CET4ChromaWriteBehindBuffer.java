@@ -0,0 +1,388 @@
+package seucxxy.csd.backend.cet4.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.common.service.ChromaCollectionResolver;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * 学生答案 / AI 评分写入 ChromaDB 的后写缓冲。
+ * 记录先追加到本地日志文件并 fsync 落盘后才确认入队（进程或机器崩溃后重启会重放），再由定时任务按集合分组、分块 upsert；
+ * 同一集合同一ID的多次写入在一个批次内合并为最后一次。
+ * 缓冲超过 chromadb.write-behind.capacity 时拒绝入队，由调用方同步写入。
+ */
+@Component
+public class CET4ChromaWriteBehindBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CET4ChromaWriteBehindBuffer.class);
+    private static final int EMBEDDING_DIMENSION = 384;
+    private static final String JOURNAL_FILE = "journal.jsonl";
+    private static final String INFLIGHT_PREFIX = "inflight-";
+    private static final String INFLIGHT_SUFFIX = ".jsonl";
+
+    /**
+     * 一条待写入记录。
+     */
+    public record PendingRecord(String collectionName,
+                                String collectionDescription,
+                                String id,
+                                String document,
+                                Map<String, Object> metadata) {
+
+        String key() {
+            return collectionName + "/" + id;
+        }
+    }
+
+    private final RestTemplate restTemplate;
+    private final ChromaCollectionResolver collectionResolver;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path spillDir;
+    private final int capacity;
+    private final int chunkSize;
+    private final int maxAttempts;
+
+    private final Object journalLock = new Object();
+    private final Object flushLock = new Object();
+    private final Map<String, PendingRecord> pending = new LinkedHashMap<>();
+    private final List<Path> unsentFiles = new ArrayList<>();
+    private FileChannel journal;
+    /**
+     * 下一个轮转日志的序号：启动时取目录中已有最大序号 + 1，跨重启单调递增，重放按序号从旧到新
+     */
+    private long nextInflightSeq;
+
+    private final Counter flushedCounter;
+    private final Counter flushFailureCounter;
+    private final Counter overflowCounter;
+
+    public CET4ChromaWriteBehindBuffer(RestTemplate restTemplate,
+                                       ChromaCollectionResolver collectionResolver,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${chromadb.write-behind.spill-dir:data/chroma-write-behind}") String spillDir,
+                                       @Value("${chromadb.write-behind.capacity:10000}") int capacity,
+                                       @Value("${chromadb.write.chunk-size:100}") int chunkSize,
+                                       @Value("${chromadb.write.max-attempts:3}") int maxAttempts) throws IOException {
+        this.restTemplate = restTemplate;
+        this.collectionResolver = collectionResolver;
+        this.spillDir = Paths.get(spillDir);
+        this.capacity = Math.max(1, capacity);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+
+        this.flushedCounter = Counter.builder("chroma.write_behind.flushed")
+                .description("已写入 ChromaDB 的记录数")
+                .register(meterRegistry);
+        this.flushFailureCounter = Counter.builder("chroma.write_behind.flush.failures")
+                .description("批次写入失败次数（记录保留待下次重试）")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("chroma.write_behind.overflow")
+                .description("缓冲已满、改为同步写入的记录数")
+                .register(meterRegistry);
+        Gauge.builder("chroma.write_behind.pending", this, CET4ChromaWriteBehindBuffer::pendingCount)
+                .description("尚未写入 ChromaDB 的记录数")
+                .register(meterRegistry);
+
+        Files.createDirectories(this.spillDir);
+        recoverSpilledRecords();
+        this.journal = openJournal();
+    }
+
+    /**
+     * 记录写入本地日志并 fsync 后入队；缓冲已满或日志不可写时返回 false。
+     */
+    public boolean enqueue(PendingRecord record) {
+        synchronized (journalLock) {
+            if (pending.size() >= capacity && !pending.containsKey(record.key())) {
+                overflowCounter.increment();
+                return false;
+            }
+            try {
+                ByteBuffer line = ByteBuffer.wrap(
+                        (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8));
+                while (line.hasRemaining()) {
+                    journal.write(line);
+                }
+                // 返回 true 后调用方即视为已持久化，必须先落盘
+                journal.force(false);
+            } catch (IOException e) {
+                logger.warn("写入 ChromaDB 后写日志失败，改为同步写入: {}", e.getMessage());
+                return false;
+            }
+            pending.put(record.key(), record);
+            return true;
+        }
+    }
+
+    /**
+     * 立即写入（缓冲已满或日志不可写时的兜底路径）。
+     */
+    public void writeNow(PendingRecord record) throws Exception {
+        send(List.of(record));
+    }
+
+    /**
+     * 返回指定集合中满足条件、尚未落到 ChromaDB 的记录，用于读取时合并，保证提交后立即可见。
+     */
+    public List<PendingRecord> pendingRecords(String collectionName, Predicate<Map<String, Object>> metadataFilter) {
+        List<PendingRecord> matched = new ArrayList<>();
+        synchronized (journalLock) {
+            for (PendingRecord record : pending.values()) {
+                if (record.collectionName().equals(collectionName) && metadataFilter.test(record.metadata())) {
+                    matched.add(record);
+                }
+            }
+        }
+        return matched;
+    }
+
+    public int pendingCount() {
+        synchronized (journalLock) {
+            return pending.size();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chromadb.write-behind.flush-interval-ms:2000}")
+    public void flush() {
+        synchronized (flushLock) {
+            List<PendingRecord> snapshot;
+            synchronized (journalLock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                snapshot = new ArrayList<>(pending.values());
+                try {
+                    unsentFiles.add(rotateJournal());
+                } catch (IOException e) {
+                    logger.warn("轮转 ChromaDB 后写日志失败，本次跳过: {}", e.getMessage());
+                    return;
+                }
+            }
+            try {
+                send(snapshot);
+            } catch (Exception e) {
+                flushFailureCounter.increment();
+                logger.warn("ChromaDB 后写批次失败，{} 条记录保留待下次重试: {}", snapshot.size(), e.getMessage());
+                return;
+            }
+            flushedCounter.increment(snapshot.size());
+            synchronized (journalLock) {
+                // 发送期间被再次写入的同ID记录保留，等下个批次
+                for (PendingRecord record : snapshot) {
+                    pending.remove(record.key(), record);
+                }
+                deleteSentFiles();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        synchronized (journalLock) {
+            try {
+                journal.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响已落盘的日志
+            }
+        }
+    }
+
+    private void send(List<PendingRecord> records) throws Exception {
+        Map<String, List<PendingRecord>> byCollection = new LinkedHashMap<>();
+        for (PendingRecord record : records) {
+            byCollection.computeIfAbsent(record.collectionName(), k -> new ArrayList<>()).add(record);
+        }
+        for (Map.Entry<String, List<PendingRecord>> entry : byCollection.entrySet()) {
+            List<PendingRecord> group = entry.getValue();
+            String description = group.get(0).collectionDescription();
+            for (int from = 0; from < group.size(); from += chunkSize) {
+                List<PendingRecord> chunk = group.subList(from, Math.min(from + chunkSize, group.size()));
+                collectionResolver.withCollectionId(entry.getKey(), true, description, collectionId -> {
+                    upsertWithRetry(collectionId, chunk);
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void upsertWithRetry(String collectionId, List<PendingRecord> chunk) throws Exception {
+        List<String> ids = new ArrayList<>(chunk.size());
+        List<String> documents = new ArrayList<>(chunk.size());
+        List<Map<String, Object>> metadatas = new ArrayList<>(chunk.size());
+        List<List<Float>> embeddings = new ArrayList<>(chunk.size());
+        for (PendingRecord record : chunk) {
+            ids.add(record.id());
+            documents.add(record.document());
+            metadatas.add(record.metadata());
+            embeddings.add(generateDeterministicEmbedding(record.id()));
+        }
+        Map<String, Object> requestBody = new LinkedHashMap<>();
+        requestBody.put("ids", ids);
+        requestBody.put("documents", documents);
+        requestBody.put("metadatas", metadatas);
+        requestBody.put("embeddings", embeddings);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> entity = new HttpEntity<>(objectMapper.writeValueAsString(requestBody), headers);
+        URI uri = URI.create(collectionResolver.collectionsBaseUrl() + "/" + collectionId + "/upsert");
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ResponseEntity<String> response = restTemplate.exchange(uri, HttpMethod.POST, entity, String.class);
+                if (response.getStatusCode().is2xxSuccessful()) {
+                    return;
+                }
+                if (attempt >= maxAttempts) {
+                    throw new IllegalStateException("写入 ChromaDB 失败，状态码：" + response.getStatusCode());
+                }
+            } catch (HttpClientErrorException.NotFound e) {
+                // 交给 withCollectionId 刷新集合ID后重试
+                throw e;
+            } catch (RestClientException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+            }
+            Thread.sleep(500L * attempt);
+        }
+    }
+
+    /**
+     * 按写入先后重放：轮转日志按序号从小到大，当前日志最后，同一记录以最新版本为准。
+     */
+    private void recoverSpilledRecords() throws IOException {
+        List<Path> inflight = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spillDir, INFLIGHT_PREFIX + "*" + INFLIGHT_SUFFIX)) {
+            for (Path file : stream) {
+                if (inflightSeq(file) >= 0) {
+                    inflight.add(file);
+                }
+            }
+        }
+        inflight.sort(Comparator.comparingLong(CET4ChromaWriteBehindBuffer::inflightSeq));
+        nextInflightSeq = inflight.isEmpty() ? 1 : inflightSeq(inflight.get(inflight.size() - 1)) + 1;
+
+        int recovered = 0;
+        for (Path file : inflight) {
+            recovered += replay(file);
+            unsentFiles.add(file);
+        }
+        Path current = spillDir.resolve(JOURNAL_FILE);
+        if (Files.exists(current)) {
+            recovered += replay(current);
+            unsentFiles.add(Files.move(current, nextInflightPath()));
+        }
+        if (recovered > 0) {
+            logger.info("从本地日志恢复 {} 条未写入 ChromaDB 的记录", recovered);
+        }
+    }
+
+    private int replay(Path file) throws IOException {
+        int replayed = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                PendingRecord record = objectMapper.readValue(line, PendingRecord.class);
+                pending.put(record.key(), record);
+                replayed++;
+            } catch (IOException e) {
+                // 崩溃时最后一行可能只写了一半
+                logger.warn("跳过无法解析的后写日志行: {}", file.getFileName());
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * 轮转日志文件名中的序号，不是本类生成的文件返回 -1
+     */
+    static long inflightSeq(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(INFLIGHT_PREFIX) || !name.endsWith(INFLIGHT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(INFLIGHT_PREFIX.length(), name.length() - INFLIGHT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Path nextInflightPath() {
+        return spillDir.resolve(String.format("%s%019d%s", INFLIGHT_PREFIX, nextInflightSeq++, INFLIGHT_SUFFIX));
+    }
+
+    private FileChannel openJournal() throws IOException {
+        return FileChannel.open(spillDir.resolve(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path rotateJournal() throws IOException {
+        journal.close();
+        Path rotated = nextInflightPath();
+        Files.move(spillDir.resolve(JOURNAL_FILE), rotated, StandardCopyOption.ATOMIC_MOVE);
+        journal = openJournal();
+        return rotated;
+    }
+
+    /**
+     * 批次成功后删除所有已轮转的日志：其中的记录要么已写入，要么已被当前日志中的新版本覆盖。
+     */
+    private void deleteSentFiles() {
+        for (Path file : new ArrayList<>(unsentFiles)) {
+            try {
+                Files.deleteIfExists(file);
+                unsentFiles.remove(file);
+            } catch (IOException e) {
+                logger.warn("删除已写入的后写日志失败: {}", file.getFileName());
+            }
+        }
+    }
+
+    private List<Float> generateDeterministicEmbedding(String id) {
+        List<Float> embedding = new ArrayList<>(EMBEDDING_DIMENSION);
+        Random random = new Random(id.hashCode());
+        for (int i = 0; i < EMBEDDING_DIMENSION; i++) {
+            embedding.add(random.nextFloat());
+        }
+        return embedding;
+    }
+}
@@ -29,8 +29,8 @@ public class CET4CozeAIGradingService {
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
 
-    public CET4CozeAIGradingService() {
-        this.restTemplate = new RestTemplate();
+    public CET4CozeAIGradingService(RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
         this.objectMapper = new ObjectMapper();
     }
 
@@ -0,0 +1,175 @@
+package seucxxy.csd.backend.cet4.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import seucxxy.csd.backend.cet4.entity.CET4ExamPaperEnCet4Structure;
+import seucxxy.csd.backend.cet4.mapper.CET4ExamPaperEnCet4StructureMapper;
+import seucxxy.csd.backend.common.mapper.ExamPaperEnStructureMapper;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 试卷结构的内存目录：片段计分信息（exam_paper_en_cet4_structure）与题型/学科对应关系（exam_paper_en_structure）。
+ * 启动时整表加载为不可变快照，之后定时比对表指纹，变化时整体替换；管理端修改结构后也可直接调用 {@link #refresh()}。
+ * 交卷、AI 评分、专项训练题型列表均只读快照，不再访问数据库。
+ */
+@Component
+public class CET4ExamStructureCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(CET4ExamStructureCatalog.class);
+
+    /**
+     * 一个片段的计分信息。
+     */
+    public record SegmentScoring(String partId,
+                                 String sectionId,
+                                 String segmentId,
+                                 Integer numberOfQuestions,
+                                 Double scorePerQuestion,
+                                 Double segmentTotalScore) {
+
+        public double scorePerQuestionOr(double fallback) {
+            return scorePerQuestion != null ? scorePerQuestion : fallback;
+        }
+
+        public double segmentTotalScoreOr(double fallback) {
+            return segmentTotalScore != null ? segmentTotalScore : fallback;
+        }
+    }
+
+    private record Snapshot(String version,
+                            Map<String, SegmentScoring> segments,
+                            List<String> questionTypes,
+                            Map<String, Integer> subjectByQuestionType) {
+    }
+
+    private final CET4ExamPaperEnCet4StructureMapper cet4StructureMapper;
+    private final ExamPaperEnStructureMapper structureMapper;
+    private final Object loadLock = new Object();
+    private volatile Snapshot snapshot;
+
+    public CET4ExamStructureCatalog(CET4ExamPaperEnCet4StructureMapper cet4StructureMapper,
+                                    ExamPaperEnStructureMapper structureMapper) {
+        this.cet4StructureMapper = cet4StructureMapper;
+        this.structureMapper = structureMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            // 数据库暂不可用时不阻塞启动，首次访问时再加载
+            logger.warn("[结构目录] 启动加载失败，将在首次访问时重试: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 片段计分信息，不存在时返回 null
+     */
+    public SegmentScoring findSegment(String segmentId) {
+        return segmentId == null ? null : current().segments().get(segmentId);
+    }
+
+    /**
+     * 全部题型（去重，不可修改）
+     */
+    public List<String> listQuestionTypes() {
+        return current().questionTypes();
+    }
+
+    /**
+     * 题型对应的一个学科ID，不存在时返回 null
+     */
+    public Integer findSubjectEnIdByQuestionType(String questionType) {
+        return questionType == null ? null : current().subjectByQuestionType().get(questionType);
+    }
+
+    /**
+     * 当前快照的版本（两张表的指纹），未加载时为 null
+     */
+    public String version() {
+        Snapshot s = snapshot;
+        return s != null ? s.version() : null;
+    }
+
+    /**
+     * 重新整表加载并替换快照
+     */
+    public void refresh() {
+        synchronized (loadLock) {
+            String version = currentVersion();
+            snapshot = load(version);
+            logger.info("[结构目录] 已加载 version={}, segments={}, questionTypes={}",
+                    version, snapshot.segments().size(), snapshot.questionTypes().size());
+        }
+    }
+
+    /**
+     * 定时比对表指纹，有变化才重新加载
+     */
+    @Scheduled(fixedDelayString = "${cet4.structure-catalog.check-interval-ms:60000}",
+            initialDelayString = "${cet4.structure-catalog.check-interval-ms:60000}")
+    public void checkVersion() {
+        try {
+            Snapshot s = snapshot;
+            if (s == null || !Objects.equals(s.version(), currentVersion())) {
+                refresh();
+            }
+        } catch (Exception e) {
+            logger.warn("[结构目录] 版本检查失败，继续使用当前快照: {}", e.getMessage());
+        }
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (loadLock) {
+                if (snapshot == null) {
+                    refresh();
+                }
+                s = snapshot;
+            }
+        }
+        return s;
+    }
+
+    private String currentVersion() {
+        return cet4StructureMapper.fingerprint() + "/" + structureMapper.fingerprint();
+    }
+
+    private Snapshot load(String version) {
+        Map<String, SegmentScoring> segments = new HashMap<>();
+        for (CET4ExamPaperEnCet4Structure row : cet4StructureMapper.findAll()) {
+            if (row.getSegmentId() == null) {
+                continue;
+            }
+            segments.putIfAbsent(row.getSegmentId(), new SegmentScoring(row.getPartId(), row.getSectionId(),
+                    row.getSegmentId(), row.getNumberOfQuestions(), row.getScorePerQuestion(), row.getSegmentTotalScore()));
+        }
+
+        // 与原查询的 LIMIT 1 一致：同一题型取扫描到的第一个学科ID
+        Set<String> questionTypes = new LinkedHashSet<>();
+        Map<String, Integer> subjectByQuestionType = new HashMap<>();
+        for (Map<String, Object> row : structureMapper.listQuestionTypeSubjects()) {
+            Object type = row.get("questionType");
+            if (type == null) {
+                continue;
+            }
+            questionTypes.add(type.toString());
+            if (row.get("subjectEnId") instanceof Number subjectEnId) {
+                subjectByQuestionType.putIfAbsent(type.toString(), subjectEnId.intValue());
+            }
+        }
+
+        return new Snapshot(version, Map.copyOf(segments), List.copyOf(questionTypes), Map.copyOf(subjectByQuestionType));
+    }
+}
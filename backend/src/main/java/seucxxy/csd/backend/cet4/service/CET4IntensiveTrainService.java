@@ -1,73 +1,75 @@
 package seucxxy.csd.backend.cet4.service;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import seucxxy.csd.backend.cet4.dto.CET4ChromaWriteBatch;
 import seucxxy.csd.backend.cet4.dto.CET4SectionAChromaRequest;
 import seucxxy.csd.backend.cet4.dto.CET4SimpleChromaRequest;
 import seucxxy.csd.backend.cet4.entity.CET4ExamPaperEn;
 import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordDetailEn;
 import seucxxy.csd.backend.cet4.mapper.CET4EExamPaperEnMapper;
-import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordDetailEnMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordEnMapper;
-import seucxxy.csd.backend.common.mapper.ExamPaperEnStructureMapper;
+import seucxxy.csd.backend.cet4.mapper.CET4UserWrongQuestionEnMapper;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class CET4IntensiveTrainService {
-    private final ExamPaperEnStructureMapper structureMapper;
+    private final CET4ExamStructureCatalog examStructureCatalog;
     private final CET4EExamPaperEnMapper examPaperEnMapper;
     private final CET4ChromaEngExamPaperService chromaService;
     private final CET4PaperGenService paperGenService;
     private final CET4PaperGenerationCommonService paperGenerationCommonService;
-    private final CET4UserTestRecordDetailEnMapper userTestRecordDetailEnMapper;
     private final CET4UserTestRecordEnMapper userTestRecordEnMapper;
+    private final CET4UserWrongQuestionEnMapper userWrongQuestionEnMapper;
     private final ObjectMapper objectMapper;
+    private final Executor unitExecutor;
     private final Random random = new Random();
     private static final int MAX_ATTEMPTS_PER_QUESTION = 3;
 
-    public CET4IntensiveTrainService(ExamPaperEnStructureMapper structureMapper,
+    public CET4IntensiveTrainService(CET4ExamStructureCatalog examStructureCatalog,
                                  CET4EExamPaperEnMapper examPaperEnMapper,
                                  CET4ChromaEngExamPaperService chromaService,
                                  CET4PaperGenService paperGenService,
                                  CET4PaperGenerationCommonService paperGenerationCommonService,
-                                 CET4UserTestRecordDetailEnMapper userTestRecordDetailEnMapper,
-                                 CET4UserTestRecordEnMapper userTestRecordEnMapper) {
-        this.structureMapper = structureMapper;
+                                 CET4UserTestRecordEnMapper userTestRecordEnMapper,
+                                 CET4UserWrongQuestionEnMapper userWrongQuestionEnMapper,
+                                 @Qualifier("intensiveUnitExecutor") Executor unitExecutor) {
+        this.examStructureCatalog = examStructureCatalog;
         this.examPaperEnMapper = examPaperEnMapper;
         this.chromaService = chromaService;
         this.paperGenService = paperGenService;
         this.paperGenerationCommonService = paperGenerationCommonService;
-        this.userTestRecordDetailEnMapper = userTestRecordDetailEnMapper;
         this.userTestRecordEnMapper = userTestRecordEnMapper;
+        this.userWrongQuestionEnMapper = userWrongQuestionEnMapper;
         this.objectMapper = new ObjectMapper();
+        this.unitExecutor = unitExecutor;
     }
 
     public List<String> getQuestionTypes() {
-        return structureMapper.listQuestionTypes();
+        return examStructureCatalog.listQuestionTypes();
     }
 
     /**
      * 从错题库或ChromaDB获取样本文档
+     *
+     * @param wrongQuestions 预先抽好的错题，为空或已取完时改从ChromaDB随机取真题
      */
-    private String getSampleDocument(Long userId, String questionType, boolean fromWrongBank) {
-        String qtUpper = questionType == null ? "" : questionType.toUpperCase();
-        boolean isWritingOrTranslation = "WRITING".equals(qtUpper) || qtUpper.contains("写作")
-                                       || "TRANSLATION".equals(qtUpper) || qtUpper.contains("翻译");
-
-        if (!fromWrongBank || isWritingOrTranslation) {
+    private String getSampleDocument(String questionType, Queue<CET4UserTestRecordDetailEn> wrongQuestions) {
+        if (wrongQuestions == null) {
             return getRandomRealQuestionFromChromaByType(questionType);
         }
 
         try {
-            CET4UserTestRecordDetailEn wrongQuestion = userTestRecordDetailEnMapper.getRandomWrongQuestion(userId, questionType);
+            CET4UserTestRecordDetailEn wrongQuestion = wrongQuestions.poll();
             if (wrongQuestion != null) {
                 Long testEnId = wrongQuestion.getTestEnId();
                 var userTestRecord = userTestRecordEnMapper.getUserTestRecordEnById(testEnId);
@@ -86,6 +88,61 @@ public class CET4IntensiveTrainService {
         return getRandomRealQuestionFromChromaByType(questionType);
     }
 
+    private boolean isWritingOrTranslation(String questionType) {
+        String qtUpper = questionType == null ? "" : questionType.toUpperCase();
+        return "WRITING".equals(qtUpper) || qtUpper.contains("写作")
+                || "TRANSLATION".equals(qtUpper) || qtUpper.contains("翻译");
+    }
+
+    /**
+     * 按题型一次抽取本次训练要用的错题，写作和翻译不查错题。
+     */
+    private Map<String, Queue<CET4UserTestRecordDetailEn>> prefetchWrongQuestions(Long userId, List<String> types, List<Integer> counts) {
+        Map<String, Integer> countByType = new LinkedHashMap<>();
+        for (int i = 0; i < types.size(); i++) {
+            int count = counts.get(i) == null ? 0 : counts.get(i);
+            if (count > 0) {
+                countByType.merge(String.valueOf(types.get(i)), count, Integer::sum);
+            }
+        }
+        Map<String, Queue<CET4UserTestRecordDetailEn>> pools = new HashMap<>();
+        countByType.forEach((questionType, count) -> {
+            if (isWritingOrTranslation(questionType)) {
+                return;
+            }
+            List<CET4UserTestRecordDetailEn> sampled;
+            try {
+                sampled = sampleWrongQuestions(userId, questionType, count);
+            } catch (Exception e) {
+                sampled = Collections.emptyList();
+            }
+            pools.put(questionType, new ConcurrentLinkedQueue<>(sampled));
+        });
+        return pools;
+    }
+
+    /**
+     * 随机抽取至多 k 道不同的错题：在 [0, 错题数) 内不放回地取 k 个序号，按 (用户, 题型, 序号) 唯一索引等值查找，
+     * 每道错题被抽中的概率相同，耗时只与 k 有关，与做题历史的长度无关。
+     */
+    private List<CET4UserTestRecordDetailEn> sampleWrongQuestions(Long userId, String questionType, int k) {
+        Integer total = userWrongQuestionEnMapper.findQuestionCount(userId, questionType);
+        if (total == null || total <= 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        int n = total;
+        Set<Integer> ordinals = new LinkedHashSet<>();
+        // Floyd 抽样：k 次随机数得到 k 个不重复序号
+        for (int j = n - Math.min(k, n); j < n; j++) {
+            int t = random.nextInt(j + 1);
+            ordinals.add(ordinals.contains(t) ? j : t);
+        }
+        List<CET4UserTestRecordDetailEn> result = new ArrayList<>(
+                userWrongQuestionEnMapper.findByOrdinals(userId, questionType, new ArrayList<>(ordinals)));
+        Collections.shuffle(result, random);
+        return result;
+    }
+
     /**
      * 从ChromaDB随机选择一道real来源且题型匹配的题目
      */
@@ -147,6 +204,9 @@ public class CET4IntensiveTrainService {
         }
 
         String finalExamPaperEnSource = resolveExamPaperEnSource(fromWrongBank, examPaperEnSource);
+        Map<String, Queue<CET4UserTestRecordDetailEn>> wrongQuestionPools = fromWrongBank
+                ? prefetchWrongQuestions(userId, types, counts)
+                : Collections.emptyMap();
         List<String> taskTypes = new ArrayList<>();
         for (int i = 0; i < types.size(); i++) {
             String questionType = String.valueOf(types.get(i));
@@ -162,36 +222,29 @@ public class CET4IntensiveTrainService {
         AtomicInteger completedTasks = new AtomicInteger(0);
         final int totalTasks = taskTypes.size();
 
-        int poolSize = Math.max(1, Math.min(taskTypes.size(), Runtime.getRuntime().availableProcessors() * 2));
-        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
-        try {
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-            for (String questionType : taskTypes) {
-                CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                    int segmentIndex = segmentCounter.getAndIncrement();
-                    Map<String, Object> question = generateQuestionTaskWithRetry(
-                            userId,
-                            questionType,
-                            fromWrongBank,
-                            finalExamPaperEnSource,
-                            segmentIndex,
-                            MAX_ATTEMPTS_PER_QUESTION
-                    );
-
-                    if (question != null) {
-                        generatedQuestions.add(question);
-                    } else {
-                        failedTypes.add(questionType);
-                    }
-                }, executor).whenComplete((ignored, throwable) -> notifyProgress(progressListener, completedTasks.incrementAndGet(), totalTasks));
-                futures.add(future);
-            }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String questionType : taskTypes) {
+            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                int segmentIndex = segmentCounter.getAndIncrement();
+                Map<String, Object> question = generateQuestionTaskWithRetry(
+                        questionType,
+                        wrongQuestionPools.get(questionType),
+                        finalExamPaperEnSource,
+                        segmentIndex,
+                        MAX_ATTEMPTS_PER_QUESTION
+                );
 
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
-        } finally {
-            executor.shutdown();
+                if (question != null) {
+                    generatedQuestions.add(question);
+                } else {
+                    failedTypes.add(questionType);
+                }
+            }, unitExecutor).whenComplete((ignored, throwable) -> notifyProgress(progressListener, completedTasks.incrementAndGet(), totalTasks));
+            futures.add(future);
         }
 
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
         if (generatedQuestions.isEmpty()) {
             throw new RuntimeException("未能生成任何题目, 请稍后重试");
         }
@@ -218,9 +271,8 @@ public class CET4IntensiveTrainService {
         }
     }
 
-    private Map<String, Object> generateQuestionTaskWithRetry(Long userId,
-                                                              String questionType,
-                                                              boolean fromWrongBank,
+    private Map<String, Object> generateQuestionTaskWithRetry(String questionType,
+                                                              Queue<CET4UserTestRecordDetailEn> wrongQuestions,
                                                               String finalExamPaperEnSource,
                                                               int segmentIndex,
                                                               int maxAttempts) {
@@ -230,9 +282,8 @@ public class CET4IntensiveTrainService {
         for (int attempt = 1; attempt <= maxAttempts; attempt++) {
             try {
                 Map<String, Object> question = buildSingleQuestion(
-                        userId,
                         safeQuestionType,
-                        fromWrongBank,
+                        wrongQuestions,
                         finalExamPaperEnSource,
                         segmentIndex,
                         segmentIdSelf
@@ -247,13 +298,12 @@ public class CET4IntensiveTrainService {
         return null;
     }
 
-    private Map<String, Object> buildSingleQuestion(Long userId,
-                                                    String questionType,
-                                                    boolean fromWrongBank,
+    private Map<String, Object> buildSingleQuestion(String questionType,
+                                                    Queue<CET4UserTestRecordDetailEn> wrongQuestions,
                                                     String finalExamPaperEnSource,
                                                     int segmentIndex,
                                                     String segmentIdSelf) throws Exception {
-        String srcDocument = getSampleDocument(userId, questionType, fromWrongBank);
+        String srcDocument = getSampleDocument(questionType, wrongQuestions);
         if (srcDocument == null || srcDocument.isEmpty()) {
             throw new RuntimeException("无法获取题型 " + questionType + " 的样本文档");
         }
@@ -375,12 +425,19 @@ public class CET4IntensiveTrainService {
         String examPaperEnName = exam.getExamPaperEnName();
         paperGenerationCommonService.bindExamPaperToUser(userId, examPaperEnId);
 
+        // 整卷单元先累积到批量缓冲，再一次（或分块）写入 ChromaDB
+        CET4ChromaWriteBatch batch = new CET4ChromaWriteBatch();
         for (Map<String, Object> questionData : questionsData) {
             String qtMeta = (String) questionData.get("questionType");
             String segmentIdSelf = (String) questionData.get("segmentIdSelf");
             String generatedJson = (String) questionData.get("documentJson");
             String source = (String) questionData.get("examPaperEnSource");
-            storeGeneratedUnit(examPaperEnId, examPaperEnName, qtMeta, segmentIdSelf, generatedJson, source, true);
+            storeGeneratedUnit(batch, examPaperEnId, examPaperEnName, qtMeta, segmentIdSelf, generatedJson, source, true);
+        }
+        try {
+            chromaService.flushBatch(batch);
+        } catch (Exception e) {
+            throw new RuntimeException("写入Chroma失败: " + e.getMessage(), e);
         }
 
         // Paper saved successfully; caller can log details if needed
@@ -388,7 +445,7 @@ public class CET4IntensiveTrainService {
         return examPaperEnId;
     }
 
-    private void storeGeneratedUnit(Long examPaperEnId, String examPaperEnName, String questionTypeMeta, String segmentIdSelf, String documentJson, String examPaperEnSource, boolean isIntensiveTrain) {
+    private void storeGeneratedUnit(CET4ChromaWriteBatch batch, Long examPaperEnId, String examPaperEnName, String questionTypeMeta, String segmentIdSelf, String documentJson, String examPaperEnSource, boolean isIntensiveTrain) {
         String qt = questionTypeMeta == null ? "" : questionTypeMeta.trim();
         String qtUpper = qt.toUpperCase();
 
@@ -456,7 +513,7 @@ public class CET4IntensiveTrainService {
                 req.setPartId(1);
                 req.setQuestionSource("AI");
                 req.setExamPaperEnSource(examPaperEnSource);
-                chromaService.storePartSimple(req);
+                chromaService.storePartSimple(req, batch);
                 return;
             }
             if ("TRANSLATION".equals(qtUpper) || qt.contains("翻译")) {
@@ -469,7 +526,7 @@ public class CET4IntensiveTrainService {
                 req.setPartId(4);
                 req.setQuestionSource("AI");
                 req.setExamPaperEnSource(examPaperEnSource);
-                chromaService.storePartSimple(req);
+                chromaService.storePartSimple(req, batch);
                 return;
             }
             if ("BLANKEDCLOZE".equals(qtUpper) || qt.contains("选词填空")) {
@@ -483,7 +540,7 @@ public class CET4IntensiveTrainService {
                 req.setSectionId("A");
                 req.setQuestionSource("AI");
                 req.setExamPaperEnSource(examPaperEnSource);
-                chromaService.storeSectionA(req);
+                chromaService.storeSectionA(req, batch);
                 return;
             }
             if ("MATCHING".equals(qtUpper) || qt.contains("段落匹配") || qt.contains("匹配")) {
@@ -497,7 +554,7 @@ public class CET4IntensiveTrainService {
                 req.setSectionId("B");
                 req.setQuestionSource("AI");
                 req.setExamPaperEnSource(examPaperEnSource);
-                chromaService.storeSectionB(req);
+                chromaService.storeSectionB(req, batch);
                 return;
             }
             if ("READINGPASSAGE".equals(qtUpper) || qt.contains("篇章阅读") || qt.contains("阅读")) {
@@ -511,7 +568,7 @@ public class CET4IntensiveTrainService {
                 req.setSectionId("C1");
                 req.setQuestionSource("AI");
                 req.setExamPaperEnSource(examPaperEnSource);
-                chromaService.storeSectionC(req);
+                chromaService.storeSectionC(req, batch);
                 return;
             }
             if ("NEWSREPORT".equals(qtUpper) || "CONVERSATION".equals(qtUpper) || "LISTENINGPASSAGE".equals(qtUpper) || qt.contains("听力")) {
@@ -524,9 +581,9 @@ public class CET4IntensiveTrainService {
                 req.setQuestionSource("AI");
                 req.setExamPaperEnSource(examPaperEnSource);
                 if (segmentIdSelf != null && segmentIdSelf.toUpperCase().contains("LISTENINGPASSAGE")) {
-                    chromaService.storeListeningPart2C(req);
+                    chromaService.storeListeningPart2C(req, batch);
                 } else {
-                    chromaService.storeListeningPart2AB(req);
+                    chromaService.storeListeningPart2AB(req, batch);
                 }
                 return;
             }
@@ -540,7 +597,7 @@ public class CET4IntensiveTrainService {
             req.setSectionId("A");
             req.setQuestionSource("AI");
             req.setExamPaperEnSource(examPaperEnSource);
-            chromaService.storeSectionA(req);
+            chromaService.storeSectionA(req, batch);
         } catch (Exception e) {
             throw new RuntimeException("写入Chroma失败: " + e.getMessage(), e);
         }
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
@@ -19,8 +20,7 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -45,6 +45,10 @@ public class CET4ListeningAudioService {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    @Qualifier("listeningAudioExecutor")
+    private Executor audioExecutor;
+
     @Value("${coze.api.url}")
     private String cozeApiUrl;
 
@@ -54,8 +58,13 @@ public class CET4ListeningAudioService {
     @Value("${coze.workflow.listening-audio}")
     private String listeningAudioWorkflowId;
 
-    // 更新为新的Python服务地址
-    private static final String AUDIO_SERVICE_URL = "http://localhost:5000/api/audio";
+    // Python服务地址
+    @Value("${python.service.base-url:http://localhost:5000}")
+    private String pythonBaseUrl;
+
+    private String audioServiceUrl() {
+        return pythonBaseUrl + "/api/audio";
+    }
 
     /**
      * 根据前端传入的多个听力segment生成完整音频（逐段调用Coze，最后合并）
@@ -68,37 +77,28 @@ public class CET4ListeningAudioService {
         AtomicInteger newsReportCounter = new AtomicInteger(0);
         AtomicInteger passageCounter = new AtomicInteger(0);
 
-        int parallelism = Math.max(2, Math.min(segments.size(), 4));
-        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
-
-        try {
-            List<CompletableFuture<SegmentResult>> futures = new ArrayList<>();
-            for (int i = 0; i < segments.size(); i++) {
-                int idx = i;
-                Map<String, Object> segment = segments.get(i);
-                futures.add(CompletableFuture.supplyAsync(() -> {
-                    try {
-                        return processSegment(segment, idx, examPaperEnSource, newsReportCounter, passageCounter);
-                    } catch (Exception ex) {
-                        throw new RuntimeException(ex);
-                    }
-                }, pool));
-            }
+        List<CompletableFuture<SegmentResult>> futures = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            int idx = i;
+            Map<String, Object> segment = segments.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return processSegment(segment, idx, examPaperEnSource, newsReportCounter, passageCounter);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }, audioExecutor));
+        }
 
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
 
-            List<String> tempAudioFiles = futures.stream()
-                    .map(CompletableFuture::join)
-                    .sorted(Comparator.comparingInt(SegmentResult::index))
-                    .map(SegmentResult::filePath)
-                    .collect(Collectors.toList());
+        List<String> tempAudioFiles = futures.stream()
+                .map(CompletableFuture::join)
+                .sorted(Comparator.comparingInt(SegmentResult::index))
+                .map(SegmentResult::filePath)
+                .collect(Collectors.toList());
 
-            return mergeAudioFiles(tempAudioFiles);
-        } catch (Exception e) {
-            throw e;
-        } finally {
-            pool.shutdown();
-        }
+        return mergeAudioFiles(tempAudioFiles);
     }
 
     private SegmentResult processSegment(Map<String, Object> segment,
@@ -158,8 +158,8 @@ public class CET4ListeningAudioService {
      * 调用Python服务合并多个音频文件
      */
     private String mergeAudioFiles(List<String> audioFilePaths) throws Exception {
-        // AUDIO_SERVICE_URL 已包含 /api/audio
-        String url = AUDIO_SERVICE_URL + "/merge-audios";
+        // audioServiceUrl() 已包含 /api/audio
+        String url = audioServiceUrl() + "/merge-audios";
 
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("audio_files", audioFilePaths);
@@ -194,9 +194,9 @@ public class CET4ListeningAudioService {
         logger.info("[ListeningAudio][Merge] Python returned merged audio_url: '{}'", audioUrl);
         
         // Python服务返回的路径格式：/api/audio/file/xxx.wav
-        // 转换为完整URL：http://localhost:5000/api/audio/file/xxx.wav
+        // 转换为完整URL：{python.service.base-url}/api/audio/file/xxx.wav
         if (audioUrl.startsWith("/api/audio/")) {
-            audioUrl = "http://localhost:5000" + audioUrl;
+            audioUrl = pythonBaseUrl + audioUrl;
         }
         
         logger.info("[ListeningAudio][Merge] Final merged audioUrl: '{}'", audioUrl);
@@ -476,8 +476,8 @@ public class CET4ListeningAudioService {
      * 调用Python服务合成音频
      */
     private String synthesizeCombinedAudio(List<Map<String, Object>> segments) throws Exception {
-        // AUDIO_SERVICE_URL 已包含 /api/audio
-        String url = AUDIO_SERVICE_URL + "/synthesize-combined";
+        // audioServiceUrl() 已包含 /api/audio
+        String url = audioServiceUrl() + "/synthesize-combined";
 
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("segments", segments);
@@ -512,9 +512,9 @@ public class CET4ListeningAudioService {
         logger.info("[ListeningAudio] Python returned audio_url: '{}'", audioUrl);
         
         // Python服务返回的路径格式：/api/audio/file/xxx.wav
-        // 转换为完整URL：http://localhost:5000/api/audio/file/xxx.wav
+        // 转换为完整URL：{python.service.base-url}/api/audio/file/xxx.wav
         if (audioUrl.startsWith("/api/audio/")) {
-            audioUrl = "http://localhost:5000" + audioUrl;
+            audioUrl = pythonBaseUrl + audioUrl;
         }
         
         logger.info("[ListeningAudio] Final complete audioUrl: '{}'", audioUrl);
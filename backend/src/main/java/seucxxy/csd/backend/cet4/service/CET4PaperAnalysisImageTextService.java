@@ -1,25 +1,63 @@
 package seucxxy.csd.backend.cet4.service;
 
-import net.sourceforge.tess4j.ITesseract;
-import net.sourceforge.tess4j.Tesseract;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import com.sun.jna.Pointer;
+import jakarta.annotation.PreDestroy;
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.TessAPI;
+import net.sourceforge.tess4j.util.ImageIOHelper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
+/**
+ * OCR 服务。
+ * 直接使用 Tesseract 原生句柄（TessBaseAPI），每个句柄创建时 Init3 一次加载语言模型，之后每页只做 SetImage/GetUTF8Text。
+ * 句柄非线程安全，这里维护一个大小为 analysis.concurrent.ocr-pool 的句柄池，每次识别借出一个、用完 Clear 后归还。
+ * 原生库在第一次创建句柄时才加载，本机未安装 tesseract 不影响应用启动。
+ */
 @Service
 public class CET4PaperAnalysisImageTextService {
 
+    /**
+     * 识别流程版本：图像传入方式、引擎变量等影响识别结果的改动需递增，使旧的 OCR 缓存失效
+     */
+    private static final int OCR_PIPELINE_VERSION = 2;
+
     private final String tesseractDataPath;
     private final String tesseractLanguage;
+    private final int enginePoolSize;
+    private final long borrowTimeoutSeconds;
+
+    private final BlockingQueue<ITessAPI.TessBaseAPI> idleEngines;
+    private final AtomicInteger createdEngines = new AtomicInteger(0);
+    private volatile String resolvedDataPath;
+
+    private final Timer borrowWaitTimer;
+    private final Timer engineInitTimer;
+    private final Counter borrowCounter;
 
     public CET4PaperAnalysisImageTextService(
             @Value("${tesseract.data-path:}") String tesseractDataPath,
-            @Value("${tesseract.language:eng+chi_sim}") String tesseractLanguage
+            @Value("${tesseract.language:eng+chi_sim}") String tesseractLanguage,
+            @Value("${analysis.concurrent.ocr-pool:4}") int enginePoolSize,
+            @Value("${analysis.ocr.engine-borrow-timeout-seconds:120}") long borrowTimeoutSeconds,
+            MeterRegistry meterRegistry
     ) {
         String envPrefix = System.getenv("TESSDATA_PREFIX");
         String fallback = "E:/xmj/tessdata";
@@ -29,16 +67,45 @@ public class CET4PaperAnalysisImageTextService {
         this.tesseractLanguage = (tesseractLanguage == null || tesseractLanguage.isBlank())
                 ? "eng+chi_sim"
                 : tesseractLanguage;
+        this.enginePoolSize = Math.max(1, enginePoolSize);
+        this.borrowTimeoutSeconds = Math.max(1, borrowTimeoutSeconds);
+        this.idleEngines = new ArrayBlockingQueue<>(this.enginePoolSize);
+
+        this.borrowWaitTimer = Timer.builder("ocr.engine.borrow.wait")
+                .description("等待空闲 Tesseract 引擎的时间")
+                .register(meterRegistry);
+        this.engineInitTimer = Timer.builder("ocr.engine.init")
+                .description("创建 Tesseract 引擎的耗时")
+                .register(meterRegistry);
+        this.borrowCounter = Counter.builder("ocr.engine.borrow")
+                .description("引擎借出次数")
+                .register(meterRegistry);
+        Gauge.builder("ocr.engine.idle", idleEngines, BlockingQueue::size)
+                .description("池中空闲引擎数")
+                .register(meterRegistry);
+        Gauge.builder("ocr.engine.created", createdEngines, AtomicInteger::get)
+                .description("已创建的引擎数")
+                .register(meterRegistry);
     }
 
     public String ocrImage(BufferedImage image) {
+        return ocrImage(image, 0);
+    }
+
+    /**
+     * @param sourceDpi 图像的实际分辨率（如 PDF 渲染 DPI），不大于 0 时由 Tesseract 自行估计
+     */
+    public String ocrImage(BufferedImage image, int sourceDpi) {
         if (image == null) {
             return "";
         }
+        ITessAPI.TessBaseAPI engine = borrowEngine();
         try {
-            return createTesseract().doOCR(image).trim();
+            return recognize(engine, image, sourceDpi).trim();
         } catch (Exception e) {
             throw new IllegalArgumentException("OCR 识别失败，请检查图片是否清晰", e);
+        } finally {
+            returnEngine(engine);
         }
     }
 
@@ -51,20 +118,152 @@ public class CET4PaperAnalysisImageTextService {
         }
     }
 
-    @SuppressWarnings("deprecation")
-    private ITesseract createTesseract() {
-        Tesseract tesseract = new Tesseract();
+    /**
+     * 优先复用空闲引擎；池未满时新建；池满则阻塞等待归还。
+     */
+    private ITessAPI.TessBaseAPI borrowEngine() {
+        long start = System.nanoTime();
+        try {
+            ITessAPI.TessBaseAPI engine = idleEngines.poll();
+            if (engine == null) {
+                engine = tryCreateEngine();
+            }
+            if (engine == null) {
+                engine = idleEngines.poll(borrowTimeoutSeconds, TimeUnit.SECONDS);
+                if (engine == null) {
+                    throw new IllegalStateException("OCR 引擎繁忙，请稍后重试");
+                }
+            }
+            borrowCounter.increment();
+            return engine;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待 OCR 引擎时被中断", e);
+        } finally {
+            borrowWaitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void returnEngine(ITessAPI.TessBaseAPI engine) {
+        if (engine == null) {
+            return;
+        }
+        // 释放本页图像与识别结果，语言模型保留
+        api().TessBaseAPIClear(engine);
+        if (!idleEngines.offer(engine)) {
+            // 理论上不会发生（队列容量等于池大小），兜底释放
+            destroy(engine);
+            createdEngines.decrementAndGet();
+        }
+    }
+
+    /**
+     * 用已初始化的句柄识别一页：图像按原始像素传入，不再经过 tess4j 的 doOCR（其每次调用都会重新 Init/End）。
+     * 与 tess4j 的 setImage 一致：非字节栅格（如 PDFBox 渲染的 TYPE_INT_RGB）会被 convertImageData 转成 8 位灰度，
+     * 此时必须按每像素 1 字节告知 Tesseract，否则会越界读取缓冲区。
+     */
+    private String recognize(ITessAPI.TessBaseAPI engine, BufferedImage image, int sourceDpi) {
+        TessAPI api = api();
+        int bpp = image.getRaster().getDataBuffer() instanceof DataBufferByte
+                ? image.getColorModel().getPixelSize()
+                : 8;
+        ByteBuffer buffer = ImageIOHelper.convertImageData(image);
+        int bytesPerLine = (int) Math.ceil(image.getWidth() * bpp / 8.0);
+        api.TessBaseAPISetImage(engine, buffer, image.getWidth(), image.getHeight(), bpp / 8, bytesPerLine);
+        if (sourceDpi > 0) {
+            api.TessBaseAPISetSourceResolution(engine, sourceDpi);
+        }
+        Pointer text = api.TessBaseAPIGetUTF8Text(engine);
+        if (text == null) {
+            return "";
+        }
+        try {
+            return text.getString(0, StandardCharsets.UTF_8.name());
+        } finally {
+            api.TessDeleteText(text);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ITessAPI.TessBaseAPI engine;
+        while ((engine = idleEngines.poll()) != null) {
+            destroy(engine);
+        }
+    }
+
+    private void destroy(ITessAPI.TessBaseAPI engine) {
+        TessAPI api = api();
+        api.TessBaseAPIEnd(engine);
+        api.TessBaseAPIDelete(engine);
+    }
+
+    private ITessAPI.TessBaseAPI tryCreateEngine() {
+        while (true) {
+            int current = createdEngines.get();
+            if (current >= enginePoolSize) {
+                return null;
+            }
+            if (createdEngines.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        try {
+            return engineInitTimer.record(this::createTesseract);
+        } catch (RuntimeException e) {
+            createdEngines.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 创建并初始化一个原生句柄，语言模型只在这里加载一次
+     */
+    private ITessAPI.TessBaseAPI createTesseract() {
+        String dataPath = resolveDataPath();
+        TessAPI api = api();
+        ITessAPI.TessBaseAPI handle = api.TessBaseAPICreate();
+        if (api.TessBaseAPIInit3(handle, dataPath, tesseractLanguage) != 0) {
+            api.TessBaseAPIDelete(handle);
+            throw new IllegalStateException("Tesseract 初始化失败，请检查语言包: " + tesseractLanguage);
+        }
+        // 某些版本不支持该变量，返回值忽略
+        api.TessBaseAPISetVariable(handle, "preserve_interword_spaces", "1");
+        return handle;
+    }
+
+    /**
+     * 影响识别结果的配置摘要（流程版本、语言、数据目录），OCR 文本缓存键需包含它
+     */
+    public String configFingerprint() {
+        return "v" + OCR_PIPELINE_VERSION
+                + ";lang=" + tesseractLanguage
+                + ";tessdata=" + tesseractDataPath
+                + ";preserve_interword_spaces=1";
+    }
+
+    private static TessAPI api() {
+        return NativeHolder.API;
+    }
+
+    /**
+     * 首次访问时才触发 TessAPI.INSTANCE 的本地库加载
+     */
+    private static final class NativeHolder {
+        private static final TessAPI API = TessAPI.INSTANCE;
+    }
+
+    private String resolveDataPath() {
+        String path = resolvedDataPath;
+        if (path != null) {
+            return path;
+        }
         Path dataPath = Paths.get(tesseractDataPath);
         if (!Files.exists(dataPath)) {
             throw new IllegalArgumentException("Tesseract 数据目录不存在: " + tesseractDataPath);
         }
-        tesseract.setDatapath(dataPath.toAbsolutePath().toString());
-        tesseract.setLanguage(tesseractLanguage);
-        try {
-            tesseract.setTessVariable("preserve_interword_spaces", "1");
-        } catch (Exception ignored) {
-            // 某些版本不支持，可忽略
-        }
-        return tesseract;
+        path = dataPath.toAbsolutePath().toString();
+        resolvedDataPath = path;
+        return path;
     }
 }
@@ -16,7 +16,10 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.cet4.dto.CET4AnalysisOptions;
 import seucxxy.csd.backend.cet4.mapper.CET4TopicMapper;
+import seucxxy.csd.backend.common.service.CozeCallGuard;
+import seucxxy.csd.backend.common.service.CozeHedgingService;
 
 import java.io.IOException;
 import java.util.*;
@@ -46,17 +49,29 @@ public class CET4PaperAnalysisSegmentService {
     @Value("${coze.workflow.listening:7573112248694276148}")
     private String listeningWorkflowId;
 
-    @Value("${python.cet4.analysis.url:http://localhost:5000/api/cet4/analyze-exam}")
+    @Value("${python.cet4.analysis.url:${python.service.base-url:http://localhost:5000}/api/cet4/analyze-exam}")
     private String pythonAnalysisUrl;
 
-    @Value("${python.cet4.listening.url:http://localhost:5000/api/cet4/analyze-listening}")
+    @Value("${python.cet4.listening.url:${python.service.base-url:http://localhost:5000}/api/cet4/analyze-listening}")
     private String pythonListeningUrl;
 
     private final RestTemplate restTemplate;
     private final CET4TopicMapper topicMapper;
+    private final CozeCallGuard cozeCallGuard;
+    private final CozeHedgingService cozeHedgingService;
+    private final CET4AnalysisDiskCache analysisCache;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     public Map<String, Object> processFullText(String fullText, Executor cozeExecutor) throws IOException {
+        return processFullText(fullText, cozeExecutor, CET4AnalysisOptions.DEFAULT);
+    }
+
+    /**
+     * 拆分各部分并发调用 Coze。增量模式下，规范化文本摘要与上次结果一致的分段直接复用上次的结构化结果，
+     * 只重新解析有变化的分段；本次各分段的摘要记录在结果的 sectionDigests 中，供下次增量使用。
+     */
+    public Map<String, Object> processFullText(String fullText, Executor cozeExecutor, CET4AnalysisOptions options) throws IOException {
+        boolean useCache = options.useCache();
         if (fullText == null || fullText.isBlank()) {
             throw new IllegalArgumentException("未读取到试卷文本内容，请检查文件是否为扫描版或是否损坏");
         }
@@ -82,13 +97,21 @@ public class CET4PaperAnalysisSegmentService {
         String part2B = part2Split[1];
         String part2C = part2Split[2];
 
-        CompletableFuture<JsonNode> writingFuture = submitIfNotBlank(part1, () -> callWorkflow(part1, workflowId), cozeExecutor);
-        CompletableFuture<JsonNode> translationFuture = submitIfNotBlank(part4, () -> callWorkflow(part4, workflowId), cozeExecutor);
-        CompletableFuture<ObjectNode> listeningABFuture = submitIfNotBlank(part2A + part2B, () -> callListeningAB(part2A, part2B), cozeExecutor);
-        CompletableFuture<JsonNode> listeningCFuture = submitIfNotBlank(part2C, () -> callListening(part2C), cozeExecutor);
-        CompletableFuture<JsonNode> sectionAFuture = submitIfNotBlank(sectionAText, () -> callWorkflow(sectionAText, workflowId), cozeExecutor);
-        CompletableFuture<JsonNode> sectionBFuture = submitIfNotBlank(sectionBText, () -> callWorkflow(sectionBText, workflowId), cozeExecutor);
-        CompletableFuture<JsonNode> sectionCFuture = submitIfNotBlank(sectionCText, () -> callWorkflow(sectionCText, workflowId), cozeExecutor);
+        SectionPlan plan = new SectionPlan(options.previousResult());
+        CompletableFuture<JsonNode> writingFuture = plan.submit("structuredWriting", part1, JsonNode.class,
+                () -> callWorkflow(part1, workflowId, useCache), cozeExecutor);
+        CompletableFuture<JsonNode> translationFuture = plan.submit("structuredTranslation", part4, JsonNode.class,
+                () -> callWorkflow(part4, workflowId, useCache), cozeExecutor);
+        CompletableFuture<ObjectNode> listeningABFuture = plan.submit("structuredListeningAB", part2A + "\n" + part2B, ObjectNode.class,
+                () -> callListeningAB(part2A, part2B, useCache), cozeExecutor);
+        CompletableFuture<JsonNode> listeningCFuture = plan.submit("structuredListeningC", part2C, JsonNode.class,
+                () -> callListening(part2C, useCache), cozeExecutor);
+        CompletableFuture<JsonNode> sectionAFuture = plan.submit("structured", sectionAText, JsonNode.class,
+                () -> callWorkflow(sectionAText, workflowId, useCache), cozeExecutor);
+        CompletableFuture<JsonNode> sectionBFuture = plan.submit("structuredB", sectionBText, JsonNode.class,
+                () -> callWorkflow(sectionBText, workflowId, useCache), cozeExecutor);
+        CompletableFuture<JsonNode> sectionCFuture = plan.submit("structuredC", sectionCText, JsonNode.class,
+                () -> callWorkflow(sectionCText, workflowId, useCache), cozeExecutor);
 
         CompletableFuture.allOf(
                 safeFuture(writingFuture),
@@ -164,9 +187,90 @@ public class CET4PaperAnalysisSegmentService {
             }
         }
 
+        response.put("sectionDigests", plan.digests());
+        if (options.incremental()) {
+            response.put("incremental", Map.of("reused", plan.reused, "reanalyzed", plan.reanalyzed));
+            logger.info("增量解析完成，复用分段 {}，重新解析分段 {}", plan.reused, plan.reanalyzed);
+        }
         return response;
     }
 
+    /**
+     * 一次解析中各分段的提交计划：记录分段文本摘要，增量模式下摘要未变的分段复用上次结果。
+     */
+    private final class SectionPlan {
+
+        private final Map<String, Object> previousResult;
+        private final Map<String, Object> previousDigests;
+        private final Map<String, String> currentDigests = new LinkedHashMap<>();
+        private final Map<String, CompletableFuture<? extends JsonNode>> futures = new LinkedHashMap<>();
+        private final List<String> reused = new ArrayList<>();
+        private final List<String> reanalyzed = new ArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        private SectionPlan(Map<String, Object> previousResult) {
+            this.previousResult = previousResult;
+            Object digests = previousResult == null ? null : previousResult.get("sectionDigests");
+            this.previousDigests = digests instanceof Map<?, ?> map ? (Map<String, Object>) map : Collections.emptyMap();
+        }
+
+        private <T extends JsonNode> CompletableFuture<T> submit(String resultKey, String text, Class<T> type,
+                                                                 SupplierWithException<T> supplier, Executor executor) {
+            if (text == null || text.isBlank()) {
+                return null;
+            }
+            String digest = CET4AnalysisDiskCache.key(normalizeForDigest(text));
+            currentDigests.put(resultKey, digest);
+            Object previousValue = previousResult == null ? null : previousResult.get(resultKey);
+            if (previousValue != null && digest.equals(previousDigests.get(resultKey))) {
+                try {
+                    T previousNode = objectMapper.convertValue(previousValue, type);
+                    reused.add(resultKey);
+                    CompletableFuture<T> future = CompletableFuture.completedFuture(previousNode);
+                    futures.put(resultKey, future);
+                    return future;
+                } catch (IllegalArgumentException e) {
+                    logger.warn("上次解析结果 {} 无法复用，重新解析: {}", resultKey, e.getMessage());
+                }
+            }
+            if (previousResult != null) {
+                reanalyzed.add(resultKey);
+            }
+            CompletableFuture<T> future = submitIfNotBlank(text, supplier, executor);
+            futures.put(resultKey, future);
+            return future;
+        }
+
+        /**
+         * 只记录实际拿到结构化结果的分段，失败或使用默认结构的分段下次仍会重新解析。
+         */
+        private Map<String, String> digests() {
+            Map<String, String> result = new LinkedHashMap<>();
+            currentDigests.forEach((key, digest) -> {
+                JsonNode node = joinOrNull(futures.get(key));
+                if (node == null || node.isNull()) {
+                    return;
+                }
+                JsonNode units = node.get("units");
+                if (key.startsWith("structuredListening") && (units == null || units.isEmpty())) {
+                    return;
+                }
+                result.put(key, digest);
+            });
+            return result;
+        }
+    }
+
+    /**
+     * 分段文本规范化：统一换行与空白、去掉零宽字符，排版变化不视为内容修改。
+     */
+    private static String normalizeForDigest(String text) {
+        return text.replace("\u200B", "")
+                .replace("\uFEFF", "")
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+
     private <T> CompletableFuture<T> submitIfNotBlank(String text, SupplierWithException<T> supplier, Executor executor) {
         if (text == null || text.isBlank()) {
             return null;
@@ -194,18 +298,18 @@ public class CET4PaperAnalysisSegmentService {
         }
     }
 
-    private ObjectNode callListeningAB(String part2A, String part2B) throws IOException {
+    private ObjectNode callListeningAB(String part2A, String part2B, boolean useCache) throws IOException {
         HttpHeaders headers = buildHeaders();
         ArrayNode units = objectMapper.createArrayNode();
 
         if (part2A != null && !part2A.isBlank()) {
-            JsonNode structuredA = callListening(part2A);
+            JsonNode structuredA = callListening(part2A, useCache);
             if (structuredA != null && structuredA.has("units")) {
                 structuredA.get("units").forEach(units::add);
             }
         }
         if (part2B != null && !part2B.isBlank()) {
-            JsonNode structuredB = callListening(part2B);
+            JsonNode structuredB = callListening(part2B, useCache);
             if (structuredB != null && structuredB.has("units")) {
                 structuredB.get("units").forEach(units::add);
             }
@@ -216,8 +320,8 @@ public class CET4PaperAnalysisSegmentService {
         return result;
     }
 
-    private JsonNode callListening(String text) throws IOException {
-        return callWithRetry(text, true, () -> {
+    private JsonNode callListening(String text, boolean useCache) throws IOException {
+        return callWithRetry(text, true, listeningWorkflowId, useCache, () -> {
             HttpHeaders headers = buildHeaders();
             String requestBody = buildWorkflowRequestPart2(text);
             ResponseEntity<String> resp = restTemplate.exchange(cozeApiUrl, HttpMethod.POST, new HttpEntity<>(requestBody, headers), String.class);
@@ -225,8 +329,8 @@ public class CET4PaperAnalysisSegmentService {
         });
     }
 
-    private JsonNode callWorkflow(String text, String workflow) throws IOException {
-        return callWithRetry(text, false, () -> {
+    private JsonNode callWorkflow(String text, String workflow, boolean useCache) throws IOException {
+        return callWithRetry(text, false, workflow, useCache, () -> {
             HttpHeaders headers = buildHeaders();
             String requestBody = buildWorkflowRequest(text, workflow);
             ResponseEntity<String> resp = restTemplate.exchange(cozeApiUrl, HttpMethod.POST, new HttpEntity<>(requestBody, headers), String.class);
@@ -234,27 +338,49 @@ public class CET4PaperAnalysisSegmentService {
         });
     }
 
-    private JsonNode callWithRetry(String text, boolean listening, SupplierWithException<String> bodySupplier) throws IOException {
+    private JsonNode callWithRetry(String text, boolean listening, String workflow, boolean useCache,
+                                   SupplierWithException<String> bodySupplier) throws IOException {
         String segmentId = resolveSegmentIdFromText(text);
-        String body = null;
-        for (int attempt = 1; attempt <= 10; attempt++) {
-            try {
-                logger.info("coze开始解析 segment_id={} (第{}次)", segmentId, attempt);
-                body = bodySupplier.get();
-            } catch (Exception e) {
-                logger.warn("Coze调用异常，第{}次尝试: {}", attempt, e.getMessage());
-            }
-            if (body != null && !body.isBlank()) {
-                logger.info("coze解析结束 segment_id={}", segmentId);
-                return listening ? parseWorkflowResponsePart2(body) : parseWorkflowResponse(body);
+        // 相同分段文本 + 工作流直接复用之前的 Coze 结果（只缓存 Coze 结果，不缓存 Python 回退）
+        String cacheKey = CET4AnalysisDiskCache.key(workflow, text);
+        if (useCache) {
+            String cached = analysisCache.get(CET4AnalysisDiskCache.NAMESPACE_COZE, cacheKey);
+            if (cached != null) {
+                try {
+                    logger.info("coze解析命中缓存 segment_id={}", segmentId);
+                    return objectMapper.readTree(cached);
+                } catch (IOException e) {
+                    logger.warn("解析缓存内容损坏，重新调用Coze segment_id={}", segmentId);
+                }
             }
         }
-        logger.warn("Coze返回为空，已重试10次，触发Python回退(听力: {})", listening);
-        JsonNode fallback = callPythonFallback(text, listening);
-        if (fallback == null) {
-            logger.warn("Python回退也未获得结果");
+        try {
+            // Coze 响应解析失败同样视为无效结果，交给 Python 回退
+            return cozeHedgingService.call(workflow, () -> {
+                String body = cozeCallGuard.execute(workflow, attempt -> {
+                    logger.info("coze开始解析 segment_id={} (第{}次)", segmentId, attempt);
+                    String respBody = bodySupplier.get();
+                    return respBody == null || respBody.isBlank() ? null : respBody;
+                });
+                logger.info("coze解析结束 segment_id={}", segmentId);
+                JsonNode parsed = listening ? parseWorkflowResponsePart2(body) : parseWorkflowResponse(body);
+                if (parsed != null && !parsed.isNull() && !parsed.isMissingNode()) {
+                    analysisCache.put(CET4AnalysisDiskCache.NAMESPACE_COZE, cacheKey, objectMapper.writeValueAsString(parsed));
+                }
+                return parsed;
+            }, () -> {
+                logger.warn("触发Python回退 segment_id={} (听力: {})", segmentId, listening);
+                JsonNode fallback = callPythonFallback(text, listening);
+                if (fallback == null) {
+                    logger.warn("Python回退也未获得结果");
+                }
+                return fallback;
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
         }
-        return fallback;
     }
 
     private JsonNode callPythonFallback(String text, boolean listening) {
@@ -1,75 +1,81 @@
 package seucxxy.csd.backend.cet4.service;
 
-import lombok.RequiredArgsConstructor;
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import seucxxy.csd.backend.cet4.dto.CET4AnalysisOptions;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 @Service
-@RequiredArgsConstructor
 public class CET4PaperAnalysisService {
 
     @Value("${pdf.render.dpi:300}")
     private int pdfRenderDpi;
 
-    @Value("${analysis.concurrent.ocr-pool:4}")
-    private int ocrPoolSize;
-
-    @Value("${analysis.concurrent.coze-pool:8}")
-    private int cozePoolSize;
+    @Value("${analysis.ocr.max-buffered-pages:6}")
+    private int maxBufferedPages;
 
     private final CET4PaperAnalysisImageTextService imageTextService;
     private final CET4PaperAnalysisSegmentService segmentService;
+    private final Executor ocrExecutor;
+    private final Executor cozeExecutor;
+    private final CET4AnalysisDiskCache analysisCache;
+
+    public CET4PaperAnalysisService(CET4PaperAnalysisImageTextService imageTextService,
+                                    CET4PaperAnalysisSegmentService segmentService,
+                                    @Qualifier("ocrExecutor") Executor ocrExecutor,
+                                    @Qualifier("analysisCozeExecutor") Executor cozeExecutor,
+                                    CET4AnalysisDiskCache analysisCache) {
+        this.imageTextService = imageTextService;
+        this.segmentService = segmentService;
+        this.ocrExecutor = ocrExecutor;
+        this.cozeExecutor = cozeExecutor;
+        this.analysisCache = analysisCache;
+    }
 
     public Map<String, Object> extractFromPdf(MultipartFile file) throws IOException {
+        return extractFromPdf(file, CET4AnalysisOptions.DEFAULT);
+    }
+
+    /**
+     * @param options useCache 为 false 时跳过解析缓存（仍会写入新结果），用于强制重新 OCR 和调用 Coze；
+     *                带上次解析结果时只重新解析文本有变化的分段
+     */
+    public Map<String, Object> extractFromPdf(MultipartFile file, CET4AnalysisOptions options) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("上传文件不能为空");
         }
-        try (PDDocument document = Loader.loadPDF(file.getBytes())) {
+        byte[] bytes = file.getBytes();
+        String ocrKey = CET4AnalysisDiskCache.key(bytes,
+                ("pdf-dpi=" + pdfRenderDpi).getBytes(StandardCharsets.UTF_8),
+                imageTextService.configFingerprint().getBytes(StandardCharsets.UTF_8));
+        String cachedText = options.useCache() ? analysisCache.get(CET4AnalysisDiskCache.NAMESPACE_OCR, ocrKey) : null;
+        if (cachedText != null && !cachedText.isBlank()) {
+            return processWithSegments(cachedText, options);
+        }
+        try (PDDocument document = Loader.loadPDF(bytes)) {
             if (document.isEncrypted()) {
                 throw new IllegalArgumentException("该 PDF 文件已加密，无法解析");
             }
             PDFRenderer renderer = new PDFRenderer(document);
-            ExecutorService ocrExecutor = Executors.newFixedThreadPool(ocrPoolSize);
-            List<CompletableFuture<PageText>> futures = new ArrayList<>();
-            List<PageImage> renderedPages = new ArrayList<>(document.getNumberOfPages());
-            for (int i = 0; i < document.getNumberOfPages(); i++) {
-                try {
-                    BufferedImage pageImage = renderer.renderImageWithDPI(i, pdfRenderDpi, ImageType.RGB);
-                    renderedPages.add(new PageImage(i, pageImage));
-                } catch (IOException e) {
-                    throw new IllegalArgumentException("第 " + (i + 1) + " 页渲染失败", e);
-                }
-            }
-
-            for (PageImage page : renderedPages) {
-                futures.add(CompletableFuture.supplyAsync(() -> {
-                    try {
-                        String text = imageTextService.ocrImage(page.image);
-                        return new PageText(page.index, text);
-                    } catch (Exception e) {
-                        throw new RuntimeException("PDF 第 " + (page.index + 1) + " 页 OCR 失败", e);
-                    }
-                }, ocrExecutor));
-            }
-            List<PageText> pages = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
-            shutdownQuietly(ocrExecutor);
+            List<PageText> pages = renderAndOcrPages(renderer, document.getNumberOfPages());
             String fullText = pages.stream()
                     .sorted((a, b) -> Integer.compare(a.index, b.index))
                     .map(p -> p.text)
@@ -79,23 +85,104 @@ public class CET4PaperAnalysisService {
             if (fullText.isBlank()) {
                 throw new IllegalArgumentException("OCR 未识别到文本内容，请确认 PDF 是否清晰可读");
             }
-            return processWithSegments(fullText);
+            analysisCache.put(CET4AnalysisDiskCache.NAMESPACE_OCR, ocrKey, fullText);
+            return processWithSegments(fullText, options);
+        }
+    }
+
+    /**
+     * 边渲染边识别：渲染在当前线程顺序进行（PDFBox 文档非线程安全），
+     * 每渲染一页即交给 OCR 线程池；通过信号量限制同时驻留内存的页图数量，
+     * 某页识别完成后立即释放许可，位图随任务结束被回收。
+     */
+    private List<PageText> renderAndOcrPages(PDFRenderer renderer, int pageCount) {
+        Semaphore bufferedPages = new Semaphore(Math.max(1, maxBufferedPages));
+        List<CompletableFuture<PageText>> futures = new ArrayList<>(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            acquirePageSlot(bufferedPages);
+            CompletableFuture<PageText> failed = firstFailed(futures);
+            if (failed != null) {
+                bufferedPages.release();
+                failed.join();
+            }
+            BufferedImage pageImage;
+            try {
+                pageImage = renderer.renderImageWithDPI(i, pdfRenderDpi, ImageType.RGB);
+            } catch (IOException e) {
+                bufferedPages.release();
+                throw new IllegalArgumentException("第 " + (i + 1) + " 页渲染失败", e);
+            }
+            futures.add(submitOcr(new PageImage(i, pageImage), bufferedPages));
+        }
+        return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    private CompletableFuture<PageText> submitOcr(PageImage page, Semaphore bufferedPages) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    String text = imageTextService.ocrImage(page.image, pdfRenderDpi);
+                    return new PageText(page.index, text);
+                } catch (Exception e) {
+                    throw new RuntimeException("PDF 第 " + (page.index + 1) + " 页 OCR 失败", e);
+                } finally {
+                    page.image.flush();
+                    bufferedPages.release();
+                }
+            }, ocrExecutor);
+        } catch (RuntimeException e) {
+            bufferedPages.release();
+            throw e;
         }
     }
 
+    private void acquirePageSlot(Semaphore bufferedPages) {
+        try {
+            bufferedPages.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("PDF 解析被中断", e);
+        }
+    }
+
+    private CompletableFuture<PageText> firstFailed(List<CompletableFuture<PageText>> futures) {
+        for (CompletableFuture<PageText> future : futures) {
+            if (future.isCompletedExceptionally()) {
+                return future;
+            }
+        }
+        return null;
+    }
+
     public Map<String, Object> extractFromPlain(MultipartFile file) throws IOException {
+        return extractFromPlain(file, CET4AnalysisOptions.DEFAULT);
+    }
+
+    public Map<String, Object> extractFromPlain(MultipartFile file, CET4AnalysisOptions options) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("上传文件不能为空");
         }
         String text = new String(file.getBytes());
-        return processWithSegments(text);
+        return processWithSegments(text, options);
     }
 
     public Map<String, Object> extractFromImage(MultipartFile file) throws IOException {
+        return extractFromImage(file, CET4AnalysisOptions.DEFAULT);
+    }
+
+    public Map<String, Object> extractFromImage(MultipartFile file, CET4AnalysisOptions options) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("上传文件不能为空");
         }
-        BufferedImage image = ImageIO.read(file.getInputStream());
+        byte[] bytes = file.getBytes();
+        String ocrKey = CET4AnalysisDiskCache.key(bytes,
+                "image".getBytes(StandardCharsets.UTF_8),
+                imageTextService.configFingerprint().getBytes(StandardCharsets.UTF_8));
+        String cachedText = options.useCache() ? analysisCache.get(CET4AnalysisDiskCache.NAMESPACE_OCR, ocrKey) : null;
+        if (cachedText != null && !cachedText.isBlank()) {
+            return processWithSegments(cachedText, options);
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
         if (image == null) {
             throw new IllegalArgumentException("无法读取图片，请检查文件格式");
         }
@@ -103,25 +190,12 @@ public class CET4PaperAnalysisService {
         if (fullText == null || fullText.isBlank()) {
             throw new IllegalArgumentException("OCR 未识别到文本内容，请确认图片是否清晰可读");
         }
-        return processWithSegments(fullText);
-    }
-
-    private Map<String, Object> processWithSegments(String fullText) throws IOException {
-        ExecutorService cozeExecutor = Executors.newFixedThreadPool(cozePoolSize);
-        try {
-            return segmentService.processFullText(fullText, cozeExecutor);
-        } finally {
-            shutdownQuietly(cozeExecutor);
-        }
+        analysisCache.put(CET4AnalysisDiskCache.NAMESPACE_OCR, ocrKey, fullText);
+        return processWithSegments(fullText, options);
     }
 
-    private void shutdownQuietly(ExecutorService executor) {
-        executor.shutdown();
-        try {
-            executor.awaitTermination(30, TimeUnit.SECONDS);
-        } catch (InterruptedException ignored) {
-            Thread.currentThread().interrupt();
-        }
+    private Map<String, Object> processWithSegments(String fullText, CET4AnalysisOptions options) throws IOException {
+        return segmentService.processFullText(fullText, cozeExecutor, options);
     }
 
     private record PageText(int index, String text) { }
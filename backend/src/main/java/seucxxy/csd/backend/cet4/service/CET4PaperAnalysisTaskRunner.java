@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import seucxxy.csd.backend.cet4.dto.CET4AnalysisOptions;
 import seucxxy.csd.backend.cet4.entity.CET4PaperAnalysisTask;
 
 import java.util.HashMap;
@@ -28,21 +29,23 @@ public class CET4PaperAnalysisTaskRunner {
     public Map<String, Object> executeTaskSync(CET4PaperAnalysisTask task,
                                                byte[] fileBytes,
                                                String fileName,
-                                               String contentType) throws Exception {
-        return execute(task, fileBytes, fileName, contentType);
+                                               String contentType,
+                                               CET4AnalysisOptions options) throws Exception {
+        return execute(task, fileBytes, fileName, contentType, options);
     }
 
     @Async("paperAnalysisTaskExecutor")
     public void executeTaskAsync(Long taskId,
                                  byte[] fileBytes,
                                  String fileName,
-                                 String contentType) {
+                                 String contentType,
+                                 CET4AnalysisOptions options) {
         CET4PaperAnalysisTask task = taskService.findById(taskId);
         if (task == null) {
             return;
         }
         try {
-            execute(task, fileBytes, fileName, contentType);
+            execute(task, fileBytes, fileName, contentType, options);
         } catch (Exception ex) {
             log.error("异步解析任务执行失败, taskId={}", taskId, ex);
         }
@@ -51,11 +54,12 @@ public class CET4PaperAnalysisTaskRunner {
     private Map<String, Object> execute(CET4PaperAnalysisTask task,
                                         byte[] fileBytes,
                                         String fileName,
-                                        String contentType) throws Exception {
+                                        String contentType,
+                                        CET4AnalysisOptions options) throws Exception {
         taskService.markRunning(task.getId());
         taskService.updateProgress(task.getId(), 10, "正在解析文件...");
         try {
-            Map<String, Object> result = processFile(fileBytes, fileName, contentType);
+            Map<String, Object> result = processFile(fileBytes, fileName, contentType, options);
             if (result == null) {
                 throw new IllegalStateException("未获取到解析结果");
             }
@@ -74,7 +78,7 @@ public class CET4PaperAnalysisTaskRunner {
         }
     }
 
-    private Map<String, Object> processFile(byte[] fileBytes, String fileName, String contentType) throws Exception {
+    private Map<String, Object> processFile(byte[] fileBytes, String fileName, String contentType, CET4AnalysisOptions options) throws Exception {
         if (fileBytes == null || fileBytes.length == 0) {
             throw new IllegalArgumentException("文件内容为空，无法解析");
         }
@@ -92,16 +96,16 @@ public class CET4PaperAnalysisTaskRunner {
         );
 
         if (isPdf) {
-            return concurrenceService.extractFromPdf(multipartFile);
+            return concurrenceService.extractFromPdf(multipartFile, options);
         }
         if (isImage) {
-            return concurrenceService.extractFromImage(multipartFile);
+            return concurrenceService.extractFromImage(multipartFile, options);
         }
         if (isTxt || isDoc) {
-            return concurrenceService.extractFromPlain(multipartFile);
+            return concurrenceService.extractFromPlain(multipartFile, options);
         }
         // 默认按纯文本处理
-        return concurrenceService.extractFromPlain(multipartFile);
+        return concurrenceService.extractFromPlain(multipartFile, options);
     }
 
     private String safeContentType(String contentType, boolean pdf, boolean image) {
@@ -2,11 +2,16 @@ package seucxxy.csd.backend.cet4.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import seucxxy.csd.backend.cet4.entity.CET4PaperAnalysisTask;
 import seucxxy.csd.backend.cet4.mapper.CET4PaperAnalysisTaskMapper;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -17,10 +22,24 @@ public class CET4PaperAnalysisTaskService {
 
     private final CET4PaperAnalysisTaskMapper taskMapper;
     private final ObjectMapper objectMapper;
-
-    public CET4PaperAnalysisTaskService(CET4PaperAnalysisTaskMapper taskMapper, ObjectMapper objectMapper) {
+    private final CET4TaskProgressBus progressBus;
+    private final int milestoneStep;
+    /** 每个运行中任务最近一次落库的进度，终态时移除；任务异常中断未到终态时按访问过期，避免常驻 */
+    private final Cache<Long, Integer> persistedProgress;
+
+    public CET4PaperAnalysisTaskService(CET4PaperAnalysisTaskMapper taskMapper,
+                                        ObjectMapper objectMapper,
+                                        CET4TaskProgressBus progressBus,
+                                        @Value("${task.progress.milestone-step:25}") int milestoneStep,
+                                        @Value("${task.progress.retention-minutes:30}") long retentionMinutes) {
         this.taskMapper = taskMapper;
         this.objectMapper = objectMapper;
+        this.progressBus = progressBus;
+        this.milestoneStep = Math.max(1, milestoneStep);
+        // 过期后最多多落库一次里程碑进度
+        this.persistedProgress = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(retentionMinutes))
+                .build();
     }
 
     public CET4PaperAnalysisTask createTask(Long userId, String fileName, String sourceType, String examPaperEnSource) {
@@ -34,19 +53,33 @@ public class CET4PaperAnalysisTaskService {
 
     public void markRunning(Long taskId) {
         taskMapper.markRunning(taskId);
+        persistedProgress.put(taskId, 5);
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_ANALYSIS, taskId, CET4TaskProgressBus.STATUS_RUNNING, 5, null);
     }
 
+    /**
+     * 进度实时推送给订阅方；数据库只在跨过里程碑或带有提示信息时写入。
+     */
     public void updateProgress(Long taskId, int progress, String message) {
-        taskMapper.updateProgress(taskId, progress, message);
+        CET4TaskProgressBus.ProgressEvent event = progressBus.publish(
+                CET4TaskProgressBus.CHANNEL_ANALYSIS, taskId, CET4TaskProgressBus.STATUS_RUNNING, progress, message);
+        Integer persisted = persistedProgress.getIfPresent(taskId);
+        int last = persisted != null ? persisted : 0;
+        if (message != null || event.progress() / milestoneStep > last / milestoneStep) {
+            persistedProgress.put(taskId, event.progress());
+            taskMapper.updateProgress(taskId, event.progress(), message);
+        }
     }
 
     public void markSuccess(Long taskId, Map<String, Object> result) {
         String structuredJson = writeJson(result);
         taskMapper.markSuccess(taskId, structuredJson, "解析完成");
+        finish(taskId, CET4TaskProgressBus.STATUS_SUCCEEDED, "解析完成");
     }
 
     public void markFailed(Long taskId, String message) {
         taskMapper.markFailed(taskId, message);
+        finish(taskId, CET4TaskProgressBus.STATUS_FAILED, message);
     }
 
     public CET4PaperAnalysisTask findById(Long taskId) {
@@ -58,9 +91,23 @@ public class CET4PaperAnalysisTaskService {
         if (task == null || task.getUserId() == null || !task.getUserId().equals(userId)) {
             return null;
         }
+        applyLiveProgress(task);
         return task;
     }
 
+    /**
+     * 订阅任务进度（SSE），内存中没有进度时以数据库中的状态作为初始快照。
+     */
+    public SseEmitter subscribeProgress(CET4PaperAnalysisTask task) {
+        CET4TaskProgressBus.ProgressEvent snapshot = new CET4TaskProgressBus.ProgressEvent(
+                task.getId(),
+                task.getStatus(),
+                task.getProgress() == null ? 0 : task.getProgress(),
+                task.getMessage(),
+                System.currentTimeMillis());
+        return progressBus.subscribe(CET4TaskProgressBus.CHANNEL_ANALYSIS, task.getId(), snapshot);
+    }
+
     public List<CET4PaperAnalysisTask> listRecentTasks(Long userId, int limit) {
         if (userId == null) {
             return Collections.emptyList();
@@ -76,6 +123,24 @@ public class CET4PaperAnalysisTaskService {
         return taskMapper.deleteByIdAndUser(taskId, userId) > 0;
     }
 
+    private void finish(Long taskId, String status, String message) {
+        persistedProgress.invalidate(taskId);
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_ANALYSIS, taskId, status, 100, message);
+    }
+
+    private void applyLiveProgress(CET4PaperAnalysisTask task) {
+        CET4TaskProgressBus.ProgressEvent live = progressBus.latest(CET4TaskProgressBus.CHANNEL_ANALYSIS, task.getId());
+        if (live == null || !"RUNNING".equals(task.getStatus()) || live.isTerminal()) {
+            return;
+        }
+        if (task.getProgress() == null || live.progress() > task.getProgress()) {
+            task.setProgress(live.progress());
+        }
+        if (live.message() != null) {
+            task.setMessage(live.message());
+        }
+    }
+
     private CET4PaperAnalysisTask baseTask(Long userId, String fileName, String sourceType, String examPaperEnSource, Map<String, Object> payload) {
         CET4PaperAnalysisTask task = new CET4PaperAnalysisTask();
         task.setUserId(userId);
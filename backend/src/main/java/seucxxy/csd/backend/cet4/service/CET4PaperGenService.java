@@ -1,6 +1,7 @@
 package seucxxy.csd.backend.cet4.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import seucxxy.csd.backend.cet4.entity.CET4ExamPaperEn;
 import seucxxy.csd.backend.cet4.mapper.CET4EExamPaperEnMapper;
@@ -15,8 +16,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -29,15 +29,18 @@ public class CET4PaperGenService {
     private final CET4EExamPaperEnMapper examPaperEnMapper;
     private final CET4ChromaEngExamPaperService chromaService;
     private final CET4PaperGenerationCommonService paperGenerationCommonService;
+    private final Executor unitExecutor;
     private final Random random = new Random();
 
     @Autowired
     public CET4PaperGenService(CET4EExamPaperEnMapper examPaperEnMapper,
                                CET4ChromaEngExamPaperService chromaService,
-                               CET4PaperGenerationCommonService paperGenerationCommonService) {
+                               CET4PaperGenerationCommonService paperGenerationCommonService,
+                               @Qualifier("paperGenUnitExecutor") Executor unitExecutor) {
         this.examPaperEnMapper = examPaperEnMapper;
         this.chromaService = chromaService;
         this.paperGenerationCommonService = paperGenerationCommonService;
+        this.unitExecutor = unitExecutor;
     }
 
     /**
@@ -148,8 +151,6 @@ public class CET4PaperGenService {
             assignedTopics.add(allTopics.get(i % allTopics.size()));
         }
 
-        int poolSize = Math.max(1, Math.min(templateUnits.size(), Runtime.getRuntime().availableProcessors()));
-        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
         List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
         AtomicInteger unitIndex = new AtomicInteger(0);
         AtomicInteger completedUnits = new AtomicInteger(0);
@@ -159,40 +160,36 @@ public class CET4PaperGenService {
 
         final String sourceForGeneration = examPaperEnSource;
 
+        for (Map<String, Object> unit : templateUnits) {
+            final int currentIndex = unitIndex.getAndIncrement();
+            final String topic = assignedTopics.get(currentIndex);
+            final Map<String, Object> unitSnapshot = new HashMap<>(unit);
+            CompletableFuture<Map<String, Object>> future = CompletableFuture
+                    .supplyAsync(() -> generateSingleUnit(unitSnapshot, topic, sourceForGeneration, currentIndex), unitExecutor)
+                    .whenComplete((ignored, throwable) -> notifyProgress(progressListener, completedUnits.incrementAndGet(), totalUnits));
+            futures.add(future);
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
         try {
-            for (Map<String, Object> unit : templateUnits) {
-                final int currentIndex = unitIndex.getAndIncrement();
-                final String topic = assignedTopics.get(currentIndex);
-                final Map<String, Object> unitSnapshot = new HashMap<>(unit);
-                CompletableFuture<Map<String, Object>> future = CompletableFuture
-                        .supplyAsync(() -> generateSingleUnit(unitSnapshot, topic, sourceForGeneration, currentIndex), executor)
-                        .whenComplete((ignored, throwable) -> notifyProgress(progressListener, completedUnits.incrementAndGet(), totalUnits));
-                futures.add(future);
-            }
-
-            CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
-            try {
-                all.join();
-            } catch (CompletionException ex) {
-                throw unwrap(ex);
-            }
-
-            List<Map<String, Object>> generatedUnits = new ArrayList<>();
-            for (CompletableFuture<Map<String, Object>> future : futures) {
-                generatedUnits.add(future.join());
-            }
-            generatedUnits.sort((a, b) -> Integer.compare((Integer) a.get("unit_index"), (Integer) b.get("unit_index")));
-
-            
-
-            Map<String, Object> result = new HashMap<>();
-            result.put("examPaperEnId", examPaperEnId);
-            result.put("units", generatedUnits);
-            result.put("exam_paper_en_source", sourceForGeneration);
-            return result;
-        } finally {
-            executor.shutdown();
+            all.join();
+        } catch (CompletionException ex) {
+            throw unwrap(ex);
         }
+
+        List<Map<String, Object>> generatedUnits = new ArrayList<>();
+        for (CompletableFuture<Map<String, Object>> future : futures) {
+            generatedUnits.add(future.join());
+        }
+        generatedUnits.sort((a, b) -> Integer.compare((Integer) a.get("unit_index"), (Integer) b.get("unit_index")));
+
+        
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("examPaperEnId", examPaperEnId);
+        result.put("units", generatedUnits);
+        result.put("exam_paper_en_source", sourceForGeneration);
+        return result;
     }
 
     private void notifyProgress(CET4PaperGenerationProgressListener listener, int completed, int total) {
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import seucxxy.csd.backend.cet4.entity.CET4Task;
 import seucxxy.csd.backend.cet4.mapper.CET4TaskMapper;
 
@@ -21,10 +22,17 @@ public class CET4PaperGenTaskService {
 
     private final CET4TaskMapper taskMapper;
     private final ObjectMapper objectMapper;
+    private final CET4TaskProgressBus progressBus;
+    private final CET4TaskProgressAggregator progressAggregator;
 
-    public CET4PaperGenTaskService(CET4TaskMapper taskMapper, ObjectMapper objectMapper) {
+    public CET4PaperGenTaskService(CET4TaskMapper taskMapper,
+                                   ObjectMapper objectMapper,
+                                   CET4TaskProgressBus progressBus,
+                                   CET4TaskProgressAggregator progressAggregator) {
         this.taskMapper = taskMapper;
         this.objectMapper = objectMapper;
+        this.progressBus = progressBus;
+        this.progressAggregator = progressAggregator;
     }
 
     public CET4Task createPaperTask(Long userId,
@@ -65,10 +73,16 @@ public class CET4PaperGenTaskService {
 
     public void markRunning(Long taskId) {
         taskMapper.markRunning(taskId);
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_PAPER_GEN, taskId, CET4TaskProgressBus.STATUS_RUNNING, 5, null);
     }
 
+    /**
+     * 进度实时推送给订阅方；数据库写入交给合并写入器定时批量完成，避免每个单元完成都 UPDATE 一次。
+     */
     public void updateProgress(Long taskId, int progress, String message) {
-        taskMapper.updateProgress(taskId, progress, message);
+        CET4TaskProgressBus.ProgressEvent event = progressBus.publish(
+                CET4TaskProgressBus.CHANNEL_PAPER_GEN, taskId, CET4TaskProgressBus.STATUS_RUNNING, progress, message);
+        progressAggregator.submit(taskId, event.progress(), message);
     }
 
     public void markPaperSuccess(Long taskId, Long examPaperEnId, Object units, String examPaperEnSource) {
@@ -76,7 +90,9 @@ public class CET4PaperGenTaskService {
         result.put("examPaperEnId", examPaperEnId);
         result.put("units", units);
         result.put("exam_paper_en_source", examPaperEnSource);
+        progressAggregator.discard(taskId);
         taskMapper.markPaperSuccess(taskId, examPaperEnId, writeJson(result), "生成完成");
+        finish(taskId, CET4TaskProgressBus.STATUS_SUCCEEDED, "生成完成");
     }
 
     public void markIntensiveSuccess(Long taskId,
@@ -91,6 +107,7 @@ public class CET4PaperGenTaskService {
         result.put("failedCount", failedCount);
         result.put("failedTypes", failedTypes);
         result.put("examPaperEnSource", examPaperEnSource);
+        progressAggregator.discard(taskId);
         taskMapper.markIntensiveSuccess(
                 taskId,
                 generatedCount,
@@ -98,10 +115,13 @@ public class CET4PaperGenTaskService {
                 writeJson(failedTypes),
                 writeJson(result),
                 "生成完成");
+        finish(taskId, CET4TaskProgressBus.STATUS_SUCCEEDED, "生成完成");
     }
 
     public void markFailed(Long taskId, String message) {
+        progressAggregator.discard(taskId);
         taskMapper.markFailed(taskId, message);
+        finish(taskId, CET4TaskProgressBus.STATUS_FAILED, message);
     }
 
     public CET4Task findById(Long taskId) {
@@ -116,9 +136,23 @@ public class CET4PaperGenTaskService {
         if (taskType != null && !taskType.equalsIgnoreCase(task.getTaskType())) {
             return null;
         }
+        applyLiveProgress(task);
         return task;
     }
 
+    /**
+     * 订阅任务进度（SSE），内存中没有进度时以数据库中的状态作为初始快照。
+     */
+    public SseEmitter subscribeProgress(CET4Task task) {
+        CET4TaskProgressBus.ProgressEvent snapshot = new CET4TaskProgressBus.ProgressEvent(
+                task.getId(),
+                task.getStatus(),
+                task.getProgress() == null ? 0 : task.getProgress(),
+                task.getMessage(),
+                System.currentTimeMillis());
+        return progressBus.subscribe(CET4TaskProgressBus.CHANNEL_PAPER_GEN, task.getId(), snapshot);
+    }
+
     public List<CET4Task> listRecentTasks(Long userId, int limit, String taskType) {
         if (userId == null) {
             return Collections.emptyList();
@@ -134,6 +168,26 @@ public class CET4PaperGenTaskService {
         return taskMapper.deleteByIdAndUser(taskId, userId) > 0;
     }
 
+    private void finish(Long taskId, String status, String message) {
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_PAPER_GEN, taskId, status, 100, message);
+    }
+
+    /**
+     * 运行中的任务数据库里只有里程碑进度，用内存中的最新进度覆盖。
+     */
+    private void applyLiveProgress(CET4Task task) {
+        CET4TaskProgressBus.ProgressEvent live = progressBus.latest(CET4TaskProgressBus.CHANNEL_PAPER_GEN, task.getId());
+        if (live == null || !"RUNNING".equals(task.getStatus()) || live.isTerminal()) {
+            return;
+        }
+        if (task.getProgress() == null || live.progress() > task.getProgress()) {
+            task.setProgress(live.progress());
+        }
+        if (live.message() != null) {
+            task.setMessage(live.message());
+        }
+    }
+
     private CET4Task baseTask(Long userId, String taskType, boolean asyncMode, String examPaperEnSource, Map<String, Object> payload) {
         CET4Task task = new CET4Task();
         task.setUserId(userId);
@@ -16,6 +16,8 @@ import seucxxy.csd.backend.cet4.dto.CET4SectionAChromaRecord;
 import seucxxy.csd.backend.cet4.entity.CET4UserExamPaperEn;
 import seucxxy.csd.backend.cet4.mapper.CET4TopicMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserExamPaperEnMapper;
+import seucxxy.csd.backend.common.service.CozeCallGuard;
+import seucxxy.csd.backend.common.service.CozeHedgingService;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -48,11 +50,15 @@ public class CET4PaperGenerationCommonService {
     private final Random random = new Random();
     private final CET4UserExamPaperEnMapper userExamPaperEnMapper;
     private final CET4PythonDeepSeekService pythonDeepSeekService;
+    private final CozeCallGuard cozeCallGuard;
+    private final CozeHedgingService cozeHedgingService;
 
     // Coze工作流配置
     private static final String COZE_WORKFLOW_ID = "7577681716829126656";
     private static final Path COZE_HTTP_LOG = Paths.get("logs", "coze-http.log");
     private static final DateTimeFormatter TS_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    /** 单卷单题型最多取回的单元数，远大于实际题量 */
+    private static final int EXISTING_UNITS_LIMIT = 100;
 
     @Value("${coze.api.url}")
     private String cozeApiUrl;
@@ -65,12 +71,16 @@ public class CET4PaperGenerationCommonService {
                                            CET4ChromaEngExamPaperService chromaService,
                                            RestTemplate restTemplate,
                                            CET4UserExamPaperEnMapper userExamPaperEnMapper,
-                                           CET4PythonDeepSeekService pythonDeepSeekService) {
+                                           CET4PythonDeepSeekService pythonDeepSeekService,
+                                           CozeCallGuard cozeCallGuard,
+                                           CozeHedgingService cozeHedgingService) {
         this.topicMapper = topicMapper;
         this.chromaService = chromaService;
         this.restTemplate = restTemplate;
         this.userExamPaperEnMapper = userExamPaperEnMapper;
         this.pythonDeepSeekService = pythonDeepSeekService;
+        this.cozeCallGuard = cozeCallGuard;
+        this.cozeHedgingService = cozeHedgingService;
         this.objectMapper = new ObjectMapper();
     }
 
@@ -154,28 +164,16 @@ public class CET4PaperGenerationCommonService {
      */
     public String getDocumentFromChroma(String examPaperId, String segmentId, String questionType) {
         try {
-            List<CET4SectionAChromaRecord> records = chromaService.fetchExamPaperUnits(examPaperId, null);
-            if (records == null) return null;
-            
-            for (CET4SectionAChromaRecord rec : records) {
-                Map<String, Object> meta = rec.metadata();
-                Object seg = meta.get("segment_id");
-                Object qt = meta.get("question_type");
-                String segStr = seg == null ? "" : String.valueOf(seg);
-                String qtStr = qt == null ? "" : String.valueOf(qt);
-                
-                if (segStr.equals(segmentId) && (qtStr.equalsIgnoreCase(questionType) || qtStr.contains(questionType))) {
-                    return rec.document();
-                }
-            }
-            return null;
+            List<CET4SectionAChromaRecord> records =
+                    chromaService.queryExamPaperUnits(examPaperId, segmentId, questionType, false, 1);
+            return records.isEmpty() ? null : records.get(0).document();
         } catch (Exception e) {
             return null;
         }
     }
 
     /**
-     * 查询某题型下已有的Unit
+     * 查询某题型下已有的Unit（试卷与题型过滤在 ChromaDB 服务端完成）
      * 
      * @param examPaperId 试卷ID
      * @param questionType 题型
@@ -183,20 +181,14 @@ public class CET4PaperGenerationCommonService {
      */
     public List<Map<String, Object>> queryExistingUnits(String examPaperId, String questionType) {
         try {
-            var allUnits = chromaService.fetchExamPaperUnits(examPaperId, null);
-            if (allUnits == null) return Collections.emptyList();
-            
-            List<Map<String, Object>> list = new ArrayList<>();
-            for (var rec : allUnits) {
-                Map<String, Object> meta = rec.metadata();
-                Object qt = meta.get("question_type");
-                String qtStr = qt == null ? "" : String.valueOf(qt);
-                if (qtStr.equalsIgnoreCase(questionType) || qtStr.contains(questionType)) {
-                    Map<String, Object> row = new HashMap<>();
-                    row.put("document", rec.document());
-                    row.putAll(meta);
-                    list.add(row);
-                }
+            List<CET4SectionAChromaRecord> units =
+                    chromaService.queryExamPaperUnits(examPaperId, null, questionType, true, EXISTING_UNITS_LIMIT);
+            List<Map<String, Object>> list = new ArrayList<>(units.size());
+            for (CET4SectionAChromaRecord rec : units) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("document", rec.document());
+                row.putAll(rec.metadata());
+                list.add(row);
             }
             return list;
         } catch (Exception e) {
@@ -211,7 +203,7 @@ public class CET4PaperGenerationCommonService {
     // ==================== Coze Workflow 调用 ====================
 
     /**
-     * 调用Coze工作流生成题目（带重试机制和降级）
+     * 调用Coze工作流生成题目（退避重试、熔断，失败后降级到 DeepSeek；开启对冲时慢请求会并行调用 DeepSeek）
      * 
      * @param examTopic 考试主题
      * @param inputExamPaperSamp 输入的样本试卷
@@ -222,45 +214,26 @@ public class CET4PaperGenerationCommonService {
      */
     public Map<String, Object> callCozeWorkflow(String examTopic, String inputExamPaperSamp, 
                                                 String examPaperEnSource, String segmentIdSelf) throws Exception {
-        int maxAttempts = 10;
-        Exception lastException = null;
-
-        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+        return cozeHedgingService.call(COZE_WORKFLOW_ID, () -> cozeCallGuard.execute(COZE_WORKFLOW_ID, attempt -> {
+            logger.info("coze开始解析 segment_id={} (第{}次)", segmentIdSelf, attempt);
+            Map<String, Object> attemptResult = callCozeWorkflowOnce(examTopic, inputExamPaperSamp,
+                                                                     examPaperEnSource, segmentIdSelf, attempt);
+            logger.info("coze解析结束 segment_id={}", segmentIdSelf);
+            // output为空视为失败，继续重试
+            return attemptResult.get("output") != null ? attemptResult : null;
+        }), () -> {
+            // Coze失败、熔断中或慢于近期耗时（对冲模式），调用DeepSeek作为保底方案
+            logger.warn("使用DeepSeek生成 segment_id={}", segmentIdSelf);
             try {
-                logger.info("coze开始解析 segment_id={} (第{}次)", segmentIdSelf, attempt);
-                Map<String, Object> result = callCozeWorkflowOnce(examTopic, inputExamPaperSamp, 
-                                                                  examPaperEnSource, segmentIdSelf, attempt);
-                logger.info("coze解析结束 segment_id={}", segmentIdSelf);
-                
-                // 检查output是否为空
-                Object output = result.get("output");
-                if (output != null) {
-                    // output不为空，返回结果
-                    return result;
-                }
-                
-                // output为空，记录日志并继续重试
-                
-            } catch (Exception e) {
-                lastException = e;
-                
-                if (attempt < maxAttempts) {
-                    Thread.sleep(2000);
-                }
+                Map<String, Object> deepSeekResult = pythonDeepSeekService.callPythonDeepSeek(
+                        examTopic, inputExamPaperSamp, examPaperEnSource, segmentIdSelf);
+                logger.info("DeepSeek降级生成成功 segment_id={}", segmentIdSelf);
+                return deepSeekResult;
+            } catch (Exception deepSeekEx) {
+                logger.error("DeepSeek降级也失败 segment_id={}: {}", segmentIdSelf, deepSeekEx.getMessage());
+                throw new RuntimeException("生成题目失败：Coze和DeepSeek均不可用", deepSeekEx);
             }
-        }
-
-        // 所有Coze重试都失败，调用DeepSeek作为保底方案
-        logger.warn("Coze调用{}次均失败，降级使用DeepSeek生成 segment_id={}", maxAttempts, segmentIdSelf);
-        try {
-            Map<String, Object> deepSeekResult = pythonDeepSeekService.callPythonDeepSeek(
-                    examTopic, inputExamPaperSamp, examPaperEnSource, segmentIdSelf);
-            logger.info("DeepSeek降级生成成功 segment_id={}", segmentIdSelf);
-            return deepSeekResult;
-        } catch (Exception deepSeekEx) {
-            logger.error("DeepSeek降级也失败 segment_id={}: {}", segmentIdSelf, deepSeekEx.getMessage());
-            throw new RuntimeException("生成题目失败：Coze(重试" + maxAttempts + "次)和DeepSeek均不可用", deepSeekEx);
-        }
+        });
     }
 
     /**
@@ -6,18 +6,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 import seucxxy.csd.backend.cet4.dto.CET4SectionAChromaRecord;
 import seucxxy.csd.backend.cet4.entity.CET4ExamPaperEn;
-import seucxxy.csd.backend.cet4.entity.CET4ExamPaperEnCet4Structure;
 import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordDetailEn;
 import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordEn;
 import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordSegmentEn;
-import seucxxy.csd.backend.cet4.mapper.CET4ExamPaperEnCet4StructureMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordDetailEnMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordEnMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordSegmentEnMapper;
 import seucxxy.csd.backend.common.entity.User;
-import seucxxy.csd.backend.common.mapper.ExamPaperEnStructureMapper;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -27,9 +27,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 @Service
@@ -40,14 +37,17 @@ public class CET4PaperTestService {
     private final CET4UserTestRecordEnMapper userTestRecordEnMapper;
     private final CET4UserTestRecordDetailEnMapper userTestRecordDetailEnMapper;
     private final ObjectMapper objectMapper;
-    private final ExamPaperEnStructureMapper examPaperEnStructureMapper;
     private final CET4CozeAIGradingService cozeAIGradingService;
-    private final CET4ExamPaperEnCet4StructureMapper examPaperEnCet4StructureMapper;
+    private final CET4ExamStructureCatalog examStructureCatalog;
     private final CET4UserTestRecordChromaService userTestRecordChromaService;
     private final CET4UserTestRecordSegmentEnMapper userTestRecordSegmentEnMapper;
+    private final CET4WrongQuestionIndexService wrongQuestionIndexService;
     private final CET4ExamPaperQuestionExtractor questionExtractor;
     private final CET4AnswerMapper answerMapper;
+    private final CET4AnswerScoringEngine answerScoringEngine;
     private final CET4SubjectiveGradingService subjectiveGradingService;
+    private final CET4SubjectiveGradingJobService subjectiveGradingJobService;
+    private final PlatformTransactionManager transactionManager;
 
     @Autowired
     public CET4PaperTestService(
@@ -56,27 +56,33 @@ public class CET4PaperTestService {
             CET4UserTestRecordEnMapper userTestRecordEnMapper,
             CET4UserTestRecordDetailEnMapper userTestRecordDetailEnMapper,
             ObjectMapper objectMapper,
-            ExamPaperEnStructureMapper examPaperEnStructureMapper,
             CET4CozeAIGradingService cozeAIGradingService,
-            CET4ExamPaperEnCet4StructureMapper examPaperEnCet4StructureMapper,
+            CET4ExamStructureCatalog examStructureCatalog,
             CET4UserTestRecordChromaService userTestRecordChromaService,
             CET4UserTestRecordSegmentEnMapper userTestRecordSegmentEnMapper,
+            CET4WrongQuestionIndexService wrongQuestionIndexService,
             CET4ExamPaperQuestionExtractor questionExtractor,
             CET4AnswerMapper answerMapper,
-            CET4SubjectiveGradingService subjectiveGradingService) {
+            CET4AnswerScoringEngine answerScoringEngine,
+            CET4SubjectiveGradingService subjectiveGradingService,
+            CET4SubjectiveGradingJobService subjectiveGradingJobService,
+            PlatformTransactionManager transactionManager) {
         this.examPaperEnService = examPaperEnService;
         this.chromaEngExamPaperService = chromaEngExamPaperService;
         this.userTestRecordEnMapper = userTestRecordEnMapper;
         this.userTestRecordDetailEnMapper = userTestRecordDetailEnMapper;
         this.objectMapper = objectMapper;
-        this.examPaperEnStructureMapper = examPaperEnStructureMapper;
         this.cozeAIGradingService = cozeAIGradingService;
-        this.examPaperEnCet4StructureMapper = examPaperEnCet4StructureMapper;
+        this.examStructureCatalog = examStructureCatalog;
         this.userTestRecordChromaService = userTestRecordChromaService;
         this.userTestRecordSegmentEnMapper = userTestRecordSegmentEnMapper;
+        this.wrongQuestionIndexService = wrongQuestionIndexService;
         this.questionExtractor = questionExtractor;
         this.answerMapper = answerMapper;
+        this.answerScoringEngine = answerScoringEngine;
         this.subjectiveGradingService = subjectiveGradingService;
+        this.subjectiveGradingJobService = subjectiveGradingJobService;
+        this.transactionManager = transactionManager;
     }
 
     /**
@@ -98,10 +104,12 @@ public class CET4PaperTestService {
     }
 
     /**
-     * 提交答案（英文试卷）
+     * 提交答案（英文试卷）。考试记录、答题明细、片段统计与主观题评分任务在同一事务中写入，
+     * 读取试卷答案在事务开始之前完成。
      */
     public Map<String, Object> submitAnswerEn(Map<String, Object> request, User user) {
         Map<String, Object> result = new HashMap<>();
+        TransactionStatus tx = null;
         try {
             Long examPaperEnId = Long.parseLong(request.get("examPaperEnId").toString());
                 Map<String, Object> answers = (request.get("answers") instanceof Map)
@@ -113,45 +121,23 @@ public class CET4PaperTestService {
                     .findFirst()
                     .orElseThrow(() -> new IllegalArgumentException("试卷不存在"));
 
-            List<CET4SectionAChromaRecord> records = chromaEngExamPaperService.fetchExamPaperUnits(
-                    String.valueOf(examPaperEnId), examPaperEn.getExamPaperEnName());
-
-            List<Map<String, Object>> allQuestions = new ArrayList<>();
-            for (CET4SectionAChromaRecord record : records) {
-                String document = record.document();
-                Map<String, Object> metadata = record.metadata();
-                String questionType = (String) metadata.get("question_type");
-                try {
-                    JsonNode docNode = objectMapper.readTree(document);
-                    List<Map<String, Object>> questions = questionExtractor.parseQuestionsFromDocument(docNode, metadata, questionType, document);
-                    for (Map<String, Object> question : questions) {
-                        question.put("segment_id", metadata.get("segment_id"));
-                        question.put("document", document);
-                        question.put("metadata", metadata);
-                    }
-                    allQuestions.addAll(questions);
-                } catch (Exception parseEx) {
-                }
-            }
+            CET4AnswerScoringEngine.CompiledAnswerKey answerKey = answerScoringEngine.answerKey(examPaperEnId,
+                    () -> loadPaperQuestions(examPaperEnId, examPaperEn.getExamPaperEnName()));
 
             Integer subjectEnId = mapSubjectNameToId(examPaperEn.getExamPaperEnSubject());
             if (subjectEnId == null) {
                 try {
-                    List<String> types = examPaperEnStructureMapper.listQuestionTypes();
-                    if (types != null && !types.isEmpty()) {
-                        subjectEnId = examPaperEnStructureMapper.findSubjectEnIdByQuestionType(types.get(0));
+                    List<String> types = examStructureCatalog.listQuestionTypes();
+                    if (!types.isEmpty()) {
+                        subjectEnId = examStructureCatalog.findSubjectEnIdByQuestionType(types.get(0));
                     }
                 } catch (Exception ignore) {
                 }
             }
             if (subjectEnId == null) subjectEnId = 17;
 
-            int correctNumber = 0;
-            Map<String, Integer> correctCountByType = new HashMap<>();
-            Map<String, Integer> totalCountByType = new HashMap<>();
-
-            ExecutorService gradingExecutor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
-            List<CompletableFuture<Void>> gradingTasks = new ArrayList<>();
+            List<CET4SubjectiveGradingJobService.SubjectiveItem> subjectiveItems = new ArrayList<>();
+            List<CET4UserTestRecordDetailEn> savedDetails = new ArrayList<>();
 
             CET4UserTestRecordEn testRecord = new CET4UserTestRecordEn();
             testRecord.setExamPaperEnId(examPaperEnId);
@@ -159,6 +145,7 @@ public class CET4PaperTestService {
             testRecord.setTestEnTime(LocalDateTime.now());
             testRecord.setCorrectNumber(0);
             testRecord.setTestEnScore(0.0);
+            tx = transactionManager.getTransaction(new DefaultTransactionDefinition());
             userTestRecordEnMapper.insertUserTestRecordEn(testRecord);
             Long testEnId = testRecord.getTestEnId();
 
@@ -171,179 +158,39 @@ public class CET4PaperTestService {
             final Long finalTestEnId = testEnId;
             final User finalUser = user;
 
-            for (Map<String, Object> question : allQuestions) {
-                int questionNumber = (Integer) question.get("number");
-                String questionType = (String) question.get("type");
-                String correctAnswer = (String) question.get("correctAnswer");
-                String segmentId = (String) question.get("segment_id");
-
-                CET4UserTestRecordDetailEn detail = new CET4UserTestRecordDetailEn();
-                detail.setQuestionsEnNumber(questionNumber);
-                detail.setQuestionsType(questionType);
-                detail.setCorrectAnswer(correctAnswer);
-                detail.setSegmentId(segmentId);
-                detail.setTestEnId(testEnId);
-
-                String userAnswer = "";
-
-                if (questionType.equals("Writing")) {
-                    Map<String, Object> writingAnswers = answerMapper.getChildAnswerMap(answers, "writing");
-                    userAnswer = writingAnswers.containsKey(segmentId)
-                            ? String.valueOf(writingAnswers.get(segmentId))
-                            : String.valueOf(writingAnswers.getOrDefault("answer", ""));
-
-                    gradingTasks.add(subjectiveGradingService.gradeWritingAsync(
-                            userAnswer,
-                            segmentId,
-                            questionNumber,
-                            (String) question.get("document"),
-                            shouldCalculateScore,
-                            testEnId,
-                            subjectEnId,
-                            examPaperEnId,
-                            examPaperEn.getExamPaperEnName(),
-                            user,
-                            gradingExecutor));
-                    continue;
-                }
-
-                if (questionType.equals("Translation")) {
-                    Map<String, Object> translationAnswers = answerMapper.getChildAnswerMap(answers, "translation");
-                    userAnswer = translationAnswers.containsKey(segmentId)
-                            ? String.valueOf(translationAnswers.get(segmentId))
-                            : String.valueOf(translationAnswers.getOrDefault("answer", ""));
-
-                    gradingTasks.add(subjectiveGradingService.gradeTranslationAsync(
-                            userAnswer,
-                            segmentId,
-                            questionNumber,
-                            (String) question.get("document"),
-                            shouldCalculateScore,
-                            testEnId,
-                            subjectEnId,
-                            examPaperEnId,
-                            examPaperEn.getExamPaperEnName(),
-                            user,
-                            gradingExecutor));
+            CET4AnswerScoringEngine.ScoreSheet sheet = answerScoringEngine.score(answerKey, answers);
+            int correctNumber = sheet.correctNumber();
+            for (int i = 0; i < answerKey.size(); i++) {
+                if (answerKey.isSubjective(i)) {
+                    subjectiveItems.add(new CET4SubjectiveGradingJobService.SubjectiveItem(
+                            answerKey.type(i), sheet.userAnswer(i), answerKey.segmentId(i), answerKey.number(i), answerKey.document(i)));
                     continue;
                 }
-
-                if (questionType.equals("NewsReport") || questionType.equals("Conversation") || questionType.equals("ListeningPassage")) {
-                    Map<String, Object> listeningAnswers = answerMapper.getChildAnswerMap(answers, "listening");
-                    String answerKey = segmentId + "-" + questionNumber;
-                    userAnswer = String.valueOf(listeningAnswers.getOrDefault(answerKey, ""));
-                    if (userAnswer == null || userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
-                        userAnswer = String.valueOf(listeningAnswers.getOrDefault(String.valueOf(questionNumber), ""));
-                    }
-                    totalCountByType.put(questionType, totalCountByType.getOrDefault(questionType, 0) + 1);
-                    if (userAnswer != null && !userAnswer.trim().isEmpty() && !"null".equals(userAnswer) && userAnswer.equals(correctAnswer)) {
-                        correctNumber++;
-                        correctCountByType.put(questionType, correctCountByType.getOrDefault(questionType, 0) + 1);
-                    }
-                } else if (questionType.equals("BlankedCloze")) {
-                    Map<String, Object> sectionAAnswers = answerMapper.getChildAnswerMap(answers, "sectionA");
-                    String answerKey = segmentId + "-" + questionNumber;
-                    userAnswer = String.valueOf(sectionAAnswers.getOrDefault(answerKey, ""));
-                    if (userAnswer == null || userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
-                        userAnswer = String.valueOf(sectionAAnswers.getOrDefault(String.valueOf(questionNumber), ""));
-                    }
-                    totalCountByType.put(questionType, totalCountByType.getOrDefault(questionType, 0) + 1);
-                    if (userAnswer != null && !userAnswer.trim().isEmpty() && userAnswer.equals(correctAnswer)) {
-                        correctNumber++;
-                        correctCountByType.put(questionType, correctCountByType.getOrDefault(questionType, 0) + 1);
-                    }
-                } else if (questionType.equals("Matching")) {
-                    Map<String, Object> sectionBAnswers = answerMapper.getChildAnswerMap(answers, "sectionB");
-                    String answerKey = segmentId + "-" + questionNumber;
-                    userAnswer = String.valueOf(sectionBAnswers.getOrDefault(answerKey, ""));
-                    if (userAnswer == null || userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
-                        userAnswer = String.valueOf(sectionBAnswers.getOrDefault(String.valueOf(questionNumber), ""));
-                    }
-                    totalCountByType.put(questionType, totalCountByType.getOrDefault(questionType, 0) + 1);
-                    if (userAnswer != null && !userAnswer.trim().isEmpty() && userAnswer.equals(correctAnswer)) {
-                        correctNumber++;
-                        correctCountByType.put(questionType, correctCountByType.getOrDefault(questionType, 0) + 1);
-                    }
-                } else if (questionType.equals("ReadingPassage")) {
-                    Map<String, Object> sectionCAnswers = answerMapper.getChildAnswerMap(answers, "sectionC");
-                    String answerKey = segmentId + "-" + questionNumber;
-                    userAnswer = String.valueOf(sectionCAnswers.getOrDefault(answerKey, ""));
-                    if (userAnswer == null || userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
-                        userAnswer = String.valueOf(sectionCAnswers.getOrDefault(String.valueOf(questionNumber), ""));
-                    }
-                    totalCountByType.put(questionType, totalCountByType.getOrDefault(questionType, 0) + 1);
-                    if (userAnswer != null && !userAnswer.trim().isEmpty() && userAnswer.equals(correctAnswer)) {
-                        correctNumber++;
-                        correctCountByType.put(questionType, correctCountByType.getOrDefault(questionType, 0) + 1);
-                    }
-                }
-
-                detail.setUserAnswer(userAnswer != null ? userAnswer : "");
-                userTestRecordDetailEnMapper.insertUserTestRecordDetailEn(detail);
-            }
-
-            Map<String, Integer> segmentCorrectCount = new HashMap<>();
-            Map<String, Integer> segmentTotalCount = new HashMap<>();
-            Map<String, String> segmentQuestionType = new HashMap<>();
-
-            for (Map<String, Object> question : allQuestions) {
-                String segmentId = (String) question.get("segment_id");
-                String questionType = (String) question.get("type");
-                if ("Writing".equals(questionType) || "Translation".equals(questionType)) continue;
-                int questionNumber = (Integer) question.get("number");
-                String correctAnswer = (String) question.get("correctAnswer");
-                segmentQuestionType.put(segmentId, questionType);
-                segmentTotalCount.put(segmentId, segmentTotalCount.getOrDefault(segmentId, 0) + 1);
-                String userAnswer = "";
-                if ("NewsReport".equals(questionType) || "Conversation".equals(questionType) || "ListeningPassage".equals(questionType)) {
-                    Map<String, Object> listeningAnswers = answerMapper.getChildAnswerMap(answers, "listening");
-                    String answerKey = segmentId + "-" + questionNumber;
-                    userAnswer = String.valueOf(listeningAnswers.getOrDefault(answerKey, ""));
-                    if (userAnswer == null || userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
-                        userAnswer = String.valueOf(listeningAnswers.getOrDefault(String.valueOf(questionNumber), ""));
-                    }
-                } else if ("BlankedCloze".equals(questionType)) {
-                    Map<String, Object> sectionAAnswers = answerMapper.getChildAnswerMap(answers, "sectionA");
-                    String answerKey = segmentId + "-" + questionNumber;
-                    userAnswer = String.valueOf(sectionAAnswers.getOrDefault(answerKey, ""));
-                    if (userAnswer == null || userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
-                        userAnswer = String.valueOf(sectionAAnswers.getOrDefault(String.valueOf(questionNumber), ""));
-                    }
-                } else if ("Matching".equals(questionType)) {
-                    Map<String, Object> sectionBAnswers = answerMapper.getChildAnswerMap(answers, "sectionB");
-                    String answerKey = segmentId + "-" + questionNumber;
-                    userAnswer = String.valueOf(sectionBAnswers.getOrDefault(answerKey, ""));
-                    if (userAnswer == null || userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
-                        userAnswer = String.valueOf(sectionBAnswers.getOrDefault(String.valueOf(questionNumber), ""));
-                    }
-                } else if ("ReadingPassage".equals(questionType)) {
-                    Map<String, Object> sectionCAnswers = answerMapper.getChildAnswerMap(answers, "sectionC");
-                    String answerKey = segmentId + "-" + questionNumber;
-                    userAnswer = String.valueOf(sectionCAnswers.getOrDefault(answerKey, ""));
-                    if (userAnswer == null || userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
-                        userAnswer = String.valueOf(sectionCAnswers.getOrDefault(String.valueOf(questionNumber), ""));
-                    }
-                }
-                if (userAnswer != null && !userAnswer.trim().isEmpty() && userAnswer.equals(correctAnswer)) {
-                    segmentCorrectCount.put(segmentId, segmentCorrectCount.getOrDefault(segmentId, 0) + 1);
-                }
+                CET4UserTestRecordDetailEn detail = new CET4UserTestRecordDetailEn();
+                detail.setQuestionsEnNumber(answerKey.number(i));
+                detail.setQuestionsType(answerKey.type(i));
+                detail.setCorrectAnswer(answerKey.correctAnswer(i));
+                detail.setSegmentId(answerKey.segmentId(i));
+                detail.setTestEnId(testEnId);
+                detail.setUserAnswer(sheet.userAnswer(i));
+                savedDetails.add(detail);
             }
-
-            try {
-                CompletableFuture.allOf(gradingTasks.toArray(new CompletableFuture<?>[0])).join();
-            } finally {
-                gradingExecutor.shutdown();
+            // 答题明细一条多行 INSERT 写入，主键回填后供错题索引使用
+            if (!savedDetails.isEmpty()) {
+                userTestRecordDetailEnMapper.batchInsertUserTestRecordDetailEn(savedDetails);
             }
-
-            for (String segmentId : segmentTotalCount.keySet()) {
-                String questionType = segmentQuestionType.get(segmentId);
-                int correct = segmentCorrectCount.getOrDefault(segmentId, 0);
-                int segmentQuestionCount = segmentTotalCount.get(segmentId);
+            wrongQuestionIndexService.recordWrongAnswers(user.getId(), savedDetails);
+
+            List<CET4UserTestRecordSegmentEn> savedSegments = new ArrayList<>();
+            for (int seg = 0; seg < answerKey.segmentCount(); seg++) {
+                String segmentId = answerKey.segment(seg);
+                String questionType = answerKey.segmentType(seg);
+                int correct = sheet.segmentCorrect(seg);
+                int segmentQuestionCount = answerKey.segmentTotal(seg);
                 double segmentScore = 0.0;
                 if (shouldCalculateScore) {
-                    CET4ExamPaperEnCet4Structure structure = examPaperEnCet4StructureMapper.findBySegmentId(segmentId);
-                    double perQuestionScore = (structure != null && structure.getScorePerQuestion() != null)
-                            ? structure.getScorePerQuestion() : 0.0;
+                    CET4ExamStructureCatalog.SegmentScoring structure = examStructureCatalog.findSegment(segmentId);
+                    double perQuestionScore = structure != null ? structure.scorePerQuestionOr(0.0) : 0.0;
                     segmentScore = correct * perQuestionScore;
                 }
                 double correctPercent = segmentQuestionCount > 0 ? (correct / (double) segmentQuestionCount) * 100.0 : 0.0;
@@ -355,11 +202,16 @@ public class CET4PaperTestService {
                 rec.setNumberOfQuestions(segmentQuestionCount);
                 rec.setCorrectAnswersPercent(BigDecimal.valueOf(correctPercent).setScale(2, RoundingMode.HALF_UP).doubleValue());
                 rec.setTestEnId(testEnId);
-                userTestRecordSegmentEnMapper.insert(rec);
+                savedSegments.add(rec);
+            }
+            if (!savedSegments.isEmpty()) {
+                userTestRecordSegmentEnMapper.batchInsert(savedSegments);
             }
+            wrongQuestionIndexService.syncWrongSegments(user.getId(), savedSegments);
 
+            // 暂定成绩直接由本次写入的片段得分求和，不再回查
             double finalScore = 0.0;
-            List<CET4UserTestRecordSegmentEn> segments = userTestRecordSegmentEnMapper.findByTestEnId(testEnId);
+            List<CET4UserTestRecordSegmentEn> segments = savedSegments;
             for (CET4UserTestRecordSegmentEn seg : segments) {
                 finalScore += seg.getScore() != null ? seg.getScore() : 0.0;
             }
@@ -368,10 +220,30 @@ public class CET4PaperTestService {
             testRecord.setTestEnScore(finalScore2);
             userTestRecordEnMapper.updateUserTestRecordEn(testRecord);
 
+            // 写作/翻译 AI 评分转入后台任务，本次只返回客观题的暂定成绩，最终成绩通过评分状态接口获取
+            boolean gradingPending = !subjectiveItems.isEmpty();
+            if (gradingPending) {
+                subjectiveGradingJobService.enqueue(testEnId, new CET4SubjectiveGradingJobService.GradingPayload(
+                        shouldCalculateScore,
+                        subjectEnId,
+                        examPaperEnId,
+                        examPaperEn.getExamPaperEnName(),
+                        user.getId(),
+                        user.getUsername(),
+                        user.getRealName(),
+                        subjectiveItems), finalScore2);
+            }
+            transactionManager.commit(tx);
+            tx = null;
+
             result.put("success", true);
-            result.put("message", "提交成功");
+            result.put("message", gradingPending ? "提交成功，写作/翻译正在AI评分" : "提交成功");
             result.put("testEnId", testEnId);
             result.put("finalScore", finalScore2);
+            result.put("provisional", gradingPending);
+            result.put("gradingStatus", gradingPending
+                    ? CET4SubjectiveGradingJobService.STATUS_PENDING
+                    : CET4SubjectiveGradingJobService.STATUS_NONE);
             result.put("segmentCount", segments.size());
             List<Map<String, Object>> segmentScoreList = new ArrayList<>();
             for (CET4UserTestRecordSegmentEn seg : segments) {
@@ -383,6 +255,9 @@ public class CET4PaperTestService {
             }
             result.put("segmentScores", segmentScoreList);
         } catch (Exception e) {
+            if (tx != null && !tx.isCompleted()) {
+                transactionManager.rollback(tx);
+            }
             String errorMsg = e.getMessage();
             if (errorMsg == null || errorMsg.trim().isEmpty()) {
                 errorMsg = "提交答案失败，后端发生未知异常";
@@ -393,6 +268,33 @@ public class CET4PaperTestService {
         return result;
     }
 
+    /**
+     * 读取试卷全部题目（按单元顺序），供判分引擎编译答案
+     */
+    private List<Map<String, Object>> loadPaperQuestions(Long examPaperEnId, String examPaperEnName) throws Exception {
+        List<CET4SectionAChromaRecord> records = chromaEngExamPaperService.fetchExamPaperUnits(
+                String.valueOf(examPaperEnId), examPaperEnName);
+
+        List<Map<String, Object>> allQuestions = new ArrayList<>();
+        for (CET4SectionAChromaRecord record : records) {
+            String document = record.document();
+            Map<String, Object> metadata = record.metadata();
+            String questionType = (String) metadata.get("question_type");
+            try {
+                JsonNode docNode = record.documentNode() != null ? record.documentNode() : objectMapper.readTree(document);
+                List<Map<String, Object>> questions = questionExtractor.parseQuestionsFromDocument(docNode, metadata, questionType, document);
+                for (Map<String, Object> question : questions) {
+                    question.put("segment_id", metadata.get("segment_id"));
+                    question.put("document", document);
+                    question.put("metadata", metadata);
+                }
+                allQuestions.addAll(questions);
+            } catch (Exception parseEx) {
+            }
+        }
+        return allQuestions;
+    }
+
     /**
      * 获取测试结果详情（英文试卷）
      */
@@ -488,8 +390,7 @@ public class CET4PaperTestService {
                         questionDetail.put("aiFeedback", chromaAnswerData.get("feedback"));
                         questionDetail.put("aiReasoning", chromaAnswerData.get("reasoning"));
                     } else {
-                        String cacheKey = subjectiveGradingService.buildCacheKey(testEnId, segmentId, 1);
-                        Map<String, Object> cachedAiScore = subjectiveGradingService.getCachedAiScore(cacheKey);
+                        Map<String, Object> cachedAiScore = subjectiveGradingService.getAiScore(testEnId, examPaperEnId, segmentId, 1);
                         if (cachedAiScore != null) {
                             questionDetail.put("userAnswer", cachedAiScore.get("userAnswer"));
                             questionDetail.put("aiScore", cachedAiScore.get("score"));
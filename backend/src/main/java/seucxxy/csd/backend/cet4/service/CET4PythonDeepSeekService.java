@@ -3,6 +3,7 @@ package seucxxy.csd.backend.cet4.service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -21,15 +22,17 @@ import java.util.Map;
 @Service
 public class CET4PythonDeepSeekService {
 
-    private static final String PYTHON_API_URL = "http://localhost:5000/api/cet4/generate-exam";
+    private final String pythonApiUrl;
     
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
 
     @Autowired
-    public CET4PythonDeepSeekService(RestTemplate restTemplate) {
+    public CET4PythonDeepSeekService(RestTemplate restTemplate,
+                                     @Value("${python.service.base-url:http://localhost:5000}") String pythonBaseUrl) {
         this.restTemplate = restTemplate;
         this.objectMapper = new ObjectMapper();
+        this.pythonApiUrl = pythonBaseUrl + "/api/cet4/generate-exam";
     }
 
     /**
@@ -71,7 +74,7 @@ public class CET4PythonDeepSeekService {
             HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
 
             // 发送POST请求
-            ResponseEntity<String> response = restTemplate.postForEntity(PYTHON_API_URL, entity, String.class);
+            ResponseEntity<String> response = restTemplate.postForEntity(pythonApiUrl, entity, String.class);
 
             // 解析响应
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
@@ -0,0 +1,323 @@
+package seucxxy.csd.backend.cet4.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import seucxxy.csd.backend.cet4.entity.CET4SubjectiveGradingJob;
+import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordEn;
+import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordSegmentEn;
+import seucxxy.csd.backend.cet4.mapper.CET4SubjectiveGradingJobMapper;
+import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordEnMapper;
+import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordSegmentEnMapper;
+import seucxxy.csd.backend.common.entity.User;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 交卷后写作/翻译 AI 评分的后台任务。
+ * 交卷接口只做客观题判分并登记任务，评分在 subjectiveGradingJobExecutor 中执行，完成后回写片段得分和最终成绩；
+ * 任务持久化在 cet4_subjective_grading_job，排队已满、执行失败或实例退出时由定时扫描重新领取，
+ * 重新执行时跳过已落库的片段（只有评分成功的片段才会落库）。每次领取生成一个标识，状态变更都校验它，
+ * 超时被重新领取后旧执行者不会覆盖新结果。前端通过状态接口轮询或订阅 SSE（进度总线 grading 通道）获取结果。
+ */
+@Service
+public class CET4SubjectiveGradingJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CET4SubjectiveGradingJobService.class);
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_SUCCEEDED = "SUCCEEDED";
+    public static final String STATUS_FAILED = "FAILED";
+    /** 该次交卷没有主观题 */
+    public static final String STATUS_NONE = "NONE";
+
+    /**
+     * 一道待评分的主观题。
+     */
+    public record SubjectiveItem(String questionType,
+                                 String userAnswer,
+                                 String segmentId,
+                                 int questionNumber,
+                                 String document) {
+    }
+
+    /**
+     * 评分任务的持久化内容，重新执行时不依赖交卷请求和会话。
+     */
+    public record GradingPayload(boolean shouldCalculateScore,
+                                 Integer subjectEnId,
+                                 Long examPaperEnId,
+                                 String examPaperEnName,
+                                 Long userId,
+                                 String username,
+                                 String realName,
+                                 List<SubjectiveItem> items) {
+    }
+
+    private final CET4SubjectiveGradingJobMapper jobMapper;
+    private final CET4SubjectiveGradingService subjectiveGradingService;
+    private final CET4UserTestRecordSegmentEnMapper segmentMapper;
+    private final CET4UserTestRecordEnMapper testRecordMapper;
+    private final CET4TaskProgressBus progressBus;
+    private final ObjectMapper objectMapper;
+    private final Executor gradingExecutor;
+    private final Executor jobExecutor;
+    private final int maxAttempts;
+    private final long staleSeconds;
+    private final int sweepBatchSize;
+    /** 本实例已提交到线程池、尚未结束的任务，避免定时扫描重复提交 */
+    private final Set<Long> dispatched = ConcurrentHashMap.newKeySet();
+
+    public CET4SubjectiveGradingJobService(CET4SubjectiveGradingJobMapper jobMapper,
+                                           CET4SubjectiveGradingService subjectiveGradingService,
+                                           CET4UserTestRecordSegmentEnMapper segmentMapper,
+                                           CET4UserTestRecordEnMapper testRecordMapper,
+                                           CET4TaskProgressBus progressBus,
+                                           ObjectMapper objectMapper,
+                                           @Qualifier("gradingExecutor") Executor gradingExecutor,
+                                           @Qualifier("subjectiveGradingJobExecutor") Executor jobExecutor,
+                                           @Value("${grading.job.max-attempts:3}") int maxAttempts,
+                                           @Value("${grading.job.stale-seconds:600}") long staleSeconds,
+                                           @Value("${grading.job.sweep-batch-size:50}") int sweepBatchSize) {
+        this.jobMapper = jobMapper;
+        this.subjectiveGradingService = subjectiveGradingService;
+        this.segmentMapper = segmentMapper;
+        this.testRecordMapper = testRecordMapper;
+        this.progressBus = progressBus;
+        this.objectMapper = objectMapper;
+        this.gradingExecutor = gradingExecutor;
+        this.jobExecutor = jobExecutor;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.staleSeconds = Math.max(60, staleSeconds);
+        this.sweepBatchSize = Math.max(1, sweepBatchSize);
+    }
+
+    /**
+     * 登记评分任务并提交执行，立即返回。
+     * 在交卷事务中调用时任务行随考试记录一起提交，提交后才开始执行；事务回滚则任务也不存在。
+     *
+     * @param provisionalScore 交卷时只含客观题的暂定成绩
+     */
+    public void enqueue(Long testEnId, GradingPayload payload, double provisionalScore) {
+        CET4SubjectiveGradingJob job = new CET4SubjectiveGradingJob();
+        job.setTestEnId(testEnId);
+        job.setUserId(payload.userId());
+        job.setPayloadJson(writeJson(payload));
+        job.setMessage("等待AI评分");
+        job.setProvisionalScore(provisionalScore);
+        jobMapper.insert(job);
+        Runnable start = () -> {
+            progressBus.publish(CET4TaskProgressBus.CHANNEL_GRADING, testEnId, CET4TaskProgressBus.STATUS_RUNNING, 0, "等待AI评分");
+            dispatch(testEnId);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    start.run();
+                }
+            });
+        } else {
+            start.run();
+        }
+    }
+
+    /**
+     * 定时领取排队已满未提交、执行失败待重试或执行实例已退出的任务。
+     */
+    @Scheduled(fixedDelayString = "${grading.job.sweep-interval-ms:30000}",
+            initialDelayString = "${grading.job.sweep-interval-ms:30000}")
+    public void sweep() {
+        List<Long> claimable;
+        try {
+            claimable = jobMapper.findClaimable(staleSeconds, sweepBatchSize);
+        } catch (Exception e) {
+            logger.warn("扫描待评分任务失败: {}", e.getMessage());
+            return;
+        }
+        claimable.forEach(this::dispatch);
+    }
+
+    private void dispatch(Long testEnId) {
+        if (!dispatched.add(testEnId)) {
+            return;
+        }
+        try {
+            jobExecutor.execute(() -> claimAndRun(testEnId));
+        } catch (RejectedExecutionException e) {
+            dispatched.remove(testEnId);
+            logger.warn("评分任务队列已满，等待定时扫描领取 testEnId={}", testEnId);
+        }
+    }
+
+    private void claimAndRun(Long testEnId) {
+        String claimToken = UUID.randomUUID().toString();
+        CET4SubjectiveGradingJob job = null;
+        try {
+            if (jobMapper.claim(testEnId, staleSeconds, claimToken, "AI评分中") == 0) {
+                return;
+            }
+            job = jobMapper.findByTestEnId(testEnId);
+            if (job.getAttempts() != null && job.getAttempts() > maxAttempts) {
+                fail(testEnId, claimToken, "AI评分多次中断，已放弃");
+                return;
+            }
+            run(job, claimToken);
+        } catch (Exception e) {
+            logger.error("主观题评分任务执行失败 testEnId={}", testEnId, e);
+            int attempts = job == null || job.getAttempts() == null ? maxAttempts : job.getAttempts();
+            String reason = e instanceof CompletionException && e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            if (attempts < maxAttempts) {
+                jobMapper.release(testEnId, claimToken, "评分失败，等待重试: " + reason);
+            } else {
+                fail(testEnId, claimToken, "AI评分失败: " + reason);
+            }
+        } finally {
+            dispatched.remove(testEnId);
+        }
+    }
+
+    /**
+     * 评分失败的题目不落库，其 future 异常完成；等全部题目结束后整体失败，由重试只补评失败的题目。
+     */
+    private void run(CET4SubjectiveGradingJob job, String claimToken) throws Exception {
+        Long testEnId = job.getTestEnId();
+        GradingPayload payload = objectMapper.readValue(job.getPayloadJson(), GradingPayload.class);
+        User user = new User();
+        user.setId(payload.userId());
+        user.setUsername(payload.username());
+        user.setRealName(payload.realName());
+
+        // 中断后重新执行时跳过已写入片段得分的题目
+        Set<String> gradedSegments = segmentMapper.findByTestEnId(testEnId).stream()
+                .map(CET4UserTestRecordSegmentEn::getSegmentId)
+                .collect(Collectors.toSet());
+        List<SubjectiveItem> pending = payload.items().stream()
+                .filter(item -> !gradedSegments.contains(item.segmentId()))
+                .toList();
+
+        int total = pending.size();
+        AtomicInteger completed = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (SubjectiveItem item : pending) {
+            CompletableFuture<Void> future = "Writing".equals(item.questionType())
+                    ? subjectiveGradingService.gradeWritingAsync(item.userAnswer(), item.segmentId(), item.questionNumber(),
+                    item.document(), payload.shouldCalculateScore(), testEnId, payload.subjectEnId(),
+                    payload.examPaperEnId(), payload.examPaperEnName(), user, gradingExecutor)
+                    : subjectiveGradingService.gradeTranslationAsync(item.userAnswer(), item.segmentId(), item.questionNumber(),
+                    item.document(), payload.shouldCalculateScore(), testEnId, payload.subjectEnId(),
+                    payload.examPaperEnId(), payload.examPaperEnName(), user, gradingExecutor);
+            futures.add(future.whenComplete((ignored, throwable) -> {
+                int done = completed.incrementAndGet();
+                String message = "AI评分中 " + done + "/" + total;
+                progressBus.publish(CET4TaskProgressBus.CHANNEL_GRADING, testEnId, CET4TaskProgressBus.STATUS_RUNNING,
+                        done * 90 / total, message);
+                jobMapper.touch(testEnId, claimToken, message);
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        double finalScore = 0.0;
+        for (CET4UserTestRecordSegmentEn seg : segmentMapper.findByTestEnId(testEnId)) {
+            finalScore += seg.getScore() != null ? seg.getScore() : 0.0;
+        }
+        finalScore = BigDecimal.valueOf(finalScore).setScale(2, RoundingMode.HALF_UP).doubleValue();
+        if (jobMapper.markSucceeded(testEnId, claimToken, finalScore, "评分完成") == 0) {
+            logger.warn("评分任务已被重新领取或已结束，忽略本次结果 testEnId={}", testEnId);
+            return;
+        }
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_GRADING, testEnId, CET4TaskProgressBus.STATUS_SUCCEEDED, 100, "评分完成");
+    }
+
+    private void fail(Long testEnId, String claimToken, String message) {
+        if (jobMapper.markFailed(testEnId, claimToken, message) == 0) {
+            logger.warn("评分任务已被重新领取或已结束，忽略失败状态 testEnId={}", testEnId);
+            return;
+        }
+        progressBus.publish(CET4TaskProgressBus.CHANNEL_GRADING, testEnId, CET4TaskProgressBus.STATUS_FAILED, 100, message);
+    }
+
+    /**
+     * 评分状态：任务状态、暂定/最终成绩和当前各片段得分。
+     *
+     * @return 考试记录不存在或不属于该用户时返回 null
+     */
+    public Map<String, Object> getStatus(Long testEnId, Long userId) {
+        CET4UserTestRecordEn testRecord = testRecordMapper.getUserTestRecordEnById(testEnId);
+        if (testRecord == null || !userId.equals(testRecord.getUserId())) {
+            return null;
+        }
+        CET4SubjectiveGradingJob job = jobMapper.findByTestEnId(testEnId);
+        Map<String, Object> status = new HashMap<>();
+        status.put("testEnId", testEnId);
+        status.put("gradingStatus", job == null ? STATUS_NONE : job.getStatus());
+        status.put("testEnScore", testRecord.getTestEnScore());
+        if (job != null) {
+            status.put("message", job.getMessage());
+            status.put("attempts", job.getAttempts());
+            status.put("provisionalScore", job.getProvisionalScore());
+            status.put("finalScore", job.getFinalScore());
+        }
+        List<Map<String, Object>> segmentScores = new ArrayList<>();
+        for (CET4UserTestRecordSegmentEn seg : segmentMapper.findByTestEnId(testEnId)) {
+            Map<String, Object> segMap = new HashMap<>();
+            segMap.put("segmentId", seg.getSegmentId());
+            segMap.put("questionType", seg.getQuestionType());
+            segMap.put("score", seg.getScore());
+            segmentScores.add(segMap);
+        }
+        status.put("segmentScores", segmentScores);
+        return status;
+    }
+
+    /**
+     * 订阅评分进度，先推送任务当前状态。
+     *
+     * @return 任务不存在时返回 null
+     */
+    public SseEmitter subscribe(Long testEnId) {
+        CET4SubjectiveGradingJob job = jobMapper.findByTestEnId(testEnId);
+        if (job == null) {
+            return null;
+        }
+        boolean terminal = STATUS_SUCCEEDED.equals(job.getStatus()) || STATUS_FAILED.equals(job.getStatus());
+        CET4TaskProgressBus.ProgressEvent snapshot = new CET4TaskProgressBus.ProgressEvent(
+                testEnId,
+                terminal ? job.getStatus() : CET4TaskProgressBus.STATUS_RUNNING,
+                terminal ? 100 : 0,
+                job.getMessage(),
+                System.currentTimeMillis());
+        return progressBus.subscribe(CET4TaskProgressBus.CHANNEL_GRADING, testEnId, snapshot);
+    }
+
+    private String writeJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("评分任务序列化失败", e);
+        }
+    }
+}
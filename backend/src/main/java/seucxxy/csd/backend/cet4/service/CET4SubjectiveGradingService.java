@@ -2,42 +2,77 @@ package seucxxy.csd.backend.cet4.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import seucxxy.csd.backend.cet4.entity.CET4ExamPaperEnCet4Structure;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordSegmentEn;
-import seucxxy.csd.backend.cet4.mapper.CET4ExamPaperEnCet4StructureMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordSegmentEnMapper;
 import seucxxy.csd.backend.common.entity.User;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 
 @Service
 public class CET4SubjectiveGradingService {
 
+    private static final Logger logger = LoggerFactory.getLogger(CET4SubjectiveGradingService.class);
+
     // AI评分结果缓存: key = "testEnId_segmentId_questionNumber", value = AI评分结果Map
-    private static final ConcurrentHashMap<String, Map<String, Object>> aiScoreCache = new ConcurrentHashMap<>();
+    // 按内容大小（近似字符数）计权重，总权重与存活时间均有上限，W-TinyLFU 淘汰
+    private final Cache<String, Map<String, Object>> aiScoreCache;
+    private final boolean chromaFallback;
 
     private final ObjectMapper objectMapper;
     private final CET4CozeAIGradingService cozeAIGradingService;
-    private final CET4ExamPaperEnCet4StructureMapper examPaperEnCet4StructureMapper;
+    private final CET4ExamStructureCatalog examStructureCatalog;
     private final CET4UserTestRecordChromaService userTestRecordChromaService;
     private final CET4UserTestRecordSegmentEnMapper userTestRecordSegmentEnMapper;
+    private final CET4WrongQuestionIndexService wrongQuestionIndexService;
 
     public CET4SubjectiveGradingService(ObjectMapper objectMapper,
                                     CET4CozeAIGradingService cozeAIGradingService,
-                                    CET4ExamPaperEnCet4StructureMapper examPaperEnCet4StructureMapper,
+                                    CET4ExamStructureCatalog examStructureCatalog,
                                     CET4UserTestRecordChromaService userTestRecordChromaService,
-                                    CET4UserTestRecordSegmentEnMapper userTestRecordSegmentEnMapper) {
+                                    CET4UserTestRecordSegmentEnMapper userTestRecordSegmentEnMapper,
+                                    CET4WrongQuestionIndexService wrongQuestionIndexService,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${grading.ai-score-cache.max-weight-chars:20000000}") long maxWeightChars,
+                                    @Value("${grading.ai-score-cache.ttl-hours:24}") long ttlHours,
+                                    @Value("${grading.ai-score-cache.chroma-fallback:true}") boolean chromaFallback) {
+        this.aiScoreCache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightChars)
+                .weigher((String key, Map<String, Object> value) -> key.length() + estimateChars(value))
+                .expireAfterWrite(Duration.ofHours(ttlHours))
+                .recordStats()
+                .build();
+        this.chromaFallback = chromaFallback;
+        CaffeineCacheMetrics.monitor(meterRegistry, aiScoreCache, "cet4.ai.score");
+        Gauge.builder("cet4.ai.score.cache.weight", aiScoreCache,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .description("AI评分缓存当前总权重（近似字符数）")
+                .register(meterRegistry);
         this.objectMapper = objectMapper;
         this.cozeAIGradingService = cozeAIGradingService;
-        this.examPaperEnCet4StructureMapper = examPaperEnCet4StructureMapper;
+        this.examStructureCatalog = examStructureCatalog;
         this.userTestRecordChromaService = userTestRecordChromaService;
         this.userTestRecordSegmentEnMapper = userTestRecordSegmentEnMapper;
+        this.wrongQuestionIndexService = wrongQuestionIndexService;
     }
 
     public CompletableFuture<Void> gradeWritingAsync(String userAnswer,
@@ -50,52 +85,54 @@ public class CET4SubjectiveGradingService {
                                                      Long examPaperEnId,
                                                      String examPaperEnName,
                                                      User user,
-                                                     ExecutorService executor) {
+                                                     Executor executor) {
         return CompletableFuture.runAsync(() -> {
             double writingSegScore = 0.0;
-            try {
-                if (userAnswer != null && !userAnswer.trim().isEmpty()) {
+            // 空答案直接记 0 分；评分失败时抛出异常、不写片段得分，由评分任务重试
+            if (userAnswer != null && !userAnswer.trim().isEmpty()) {
+                Map<String, Object> gradeResult;
+                try {
                     JsonNode docNode = objectMapper.readTree(document);
                     JsonNode writingNode = docNode.path("writing");
                     Map<String, Object> questionInfo = Map.of("writing", objectMapper.convertValue(writingNode, Map.class));
-                    Map<String, Object> gradeResult = cozeAIGradingService.gradeSubjectiveQuestion(questionInfo, userAnswer);
-                    Double score = gradeResult.get("score") != null ? Double.valueOf(gradeResult.get("score").toString()) : 0.0;
-                    if (shouldCalculateScore) {
-                        CET4ExamPaperEnCet4Structure structure = examPaperEnCet4StructureMapper.findBySegmentId(segmentId);
-                        double segmentTotalScore = (structure != null && structure.getSegmentTotalScore() != null)
-                                ? structure.getSegmentTotalScore() : 106.5;
-                        writingSegScore = (score / 100.0) * segmentTotalScore;
-                    }
-                    String cacheKey = buildCacheKey(testEnId, segmentId, questionNumber);
-                    gradeResult.put("userAnswer", userAnswer);
-                    aiScoreCache.put(cacheKey, gradeResult);
-                    try {
-                        userTestRecordChromaService.storeUserAnswer(userAnswer, subjectEnId, testEnId,
-                                user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
-                                "Writing", examPaperEnId, examPaperEnName, 1, segmentId, score);
-                    } catch (Exception ignore) {
-                    }
-                    try {
-                        userTestRecordChromaService.storeAIGradeResult(gradeResult, subjectEnId, testEnId,
-                                user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
-                                "Writing", examPaperEnId, examPaperEnName, 1, segmentId, score);
-                    } catch (Exception ignore) {
-                    }
+                    gradeResult = cozeAIGradingService.gradeSubjectiveQuestion(questionInfo, userAnswer);
+                } catch (Exception e) {
+                    throw new IllegalStateException("写作AI评分失败 segment_id=" + segmentId + ": " + e.getMessage(), e);
+                }
+                Double score = gradeResult.get("score") != null ? Double.valueOf(gradeResult.get("score").toString()) : 0.0;
+                if (shouldCalculateScore) {
+                    CET4ExamStructureCatalog.SegmentScoring structure = examStructureCatalog.findSegment(segmentId);
+                    double segmentTotalScore = structure != null ? structure.segmentTotalScoreOr(106.5) : 106.5;
+                    writingSegScore = (score / 100.0) * segmentTotalScore;
+                }
+                String cacheKey = buildCacheKey(testEnId, segmentId, questionNumber);
+                gradeResult.put("userAnswer", userAnswer);
+                aiScoreCache.put(cacheKey, gradeResult);
+                try {
+                    userTestRecordChromaService.storeUserAnswer(userAnswer, subjectEnId, testEnId,
+                            user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
+                            "Writing", examPaperEnId, examPaperEnName, 1, segmentId, score);
+                } catch (Exception ignore) {
+                }
+                try {
+                    userTestRecordChromaService.storeAIGradeResult(gradeResult, subjectEnId, testEnId,
+                            user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
+                            "Writing", examPaperEnId, examPaperEnName, 1, segmentId, score);
+                } catch (Exception ignore) {
                 }
-            } catch (Exception ignore) {
-            } finally {
-                CET4UserTestRecordSegmentEn writingRec = new CET4UserTestRecordSegmentEn();
-                writingRec.setSegmentId(segmentId);
-                writingRec.setQuestionType("Writing");
-                writingRec.setScore(BigDecimal.valueOf(writingSegScore).setScale(2, RoundingMode.HALF_UP).doubleValue());
-                int writingCorrectNum = writingSegScore > 0 ? 1 : 0;
-                writingRec.setCorrectAnswersNumber(writingCorrectNum);
-                writingRec.setNumberOfQuestions(1);
-                double writingPercent = writingCorrectNum * 100.0;
-                writingRec.setCorrectAnswersPercent(BigDecimal.valueOf(writingPercent).setScale(2, RoundingMode.HALF_UP).doubleValue());
-                writingRec.setTestEnId(testEnId);
-                userTestRecordSegmentEnMapper.insert(writingRec);
             }
+            CET4UserTestRecordSegmentEn writingRec = new CET4UserTestRecordSegmentEn();
+            writingRec.setSegmentId(segmentId);
+            writingRec.setQuestionType("Writing");
+            writingRec.setScore(BigDecimal.valueOf(writingSegScore).setScale(2, RoundingMode.HALF_UP).doubleValue());
+            int writingCorrectNum = writingSegScore > 0 ? 1 : 0;
+            writingRec.setCorrectAnswersNumber(writingCorrectNum);
+            writingRec.setNumberOfQuestions(1);
+            double writingPercent = writingCorrectNum * 100.0;
+            writingRec.setCorrectAnswersPercent(BigDecimal.valueOf(writingPercent).setScale(2, RoundingMode.HALF_UP).doubleValue());
+            writingRec.setTestEnId(testEnId);
+            userTestRecordSegmentEnMapper.insert(writingRec);
+            wrongQuestionIndexService.syncWrongSegments(user.getId(), List.of(writingRec));
         }, executor);
     }
 
@@ -109,60 +146,187 @@ public class CET4SubjectiveGradingService {
                                                          Long examPaperEnId,
                                                          String examPaperEnName,
                                                          User user,
-                                                         ExecutorService executor) {
+                                                         Executor executor) {
         return CompletableFuture.runAsync(() -> {
             double translationSegScore = 0.0;
-            try {
-                if (userAnswer != null && !userAnswer.trim().isEmpty()) {
+            // 空答案直接记 0 分；评分失败时抛出异常、不写片段得分，由评分任务重试
+            if (userAnswer != null && !userAnswer.trim().isEmpty()) {
+                Map<String, Object> translationGradeResult;
+                try {
                     JsonNode translationDocNode = objectMapper.readTree(document);
                     JsonNode translationNodeObj = translationDocNode.path("translation");
                     Map<String, Object> translationQuestionInfo = Map.of("translation", objectMapper.convertValue(translationNodeObj, Map.class));
-                    Map<String, Object> translationGradeResult = cozeAIGradingService.gradeSubjectiveQuestion(translationQuestionInfo, userAnswer);
-                    Double translationScore = translationGradeResult.get("score") != null ? Double.valueOf(translationGradeResult.get("score").toString()) : 0.0;
-                    if (shouldCalculateScore) {
-                        CET4ExamPaperEnCet4Structure structure = examPaperEnCet4StructureMapper.findBySegmentId(segmentId);
-                        double segmentTotalScore = (structure != null && structure.getSegmentTotalScore() != null)
-                                ? structure.getSegmentTotalScore() : 106.5;
-                        translationSegScore = (translationScore / 100.0) * segmentTotalScore;
-                    }
-                    String cacheKey = buildCacheKey(testEnId, segmentId, questionNumber);
-                    translationGradeResult.put("userAnswer", userAnswer);
-                    aiScoreCache.put(cacheKey, translationGradeResult);
-                    try {
-                        userTestRecordChromaService.storeUserAnswer(userAnswer, subjectEnId, testEnId,
-                                user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
-                                "Translation", examPaperEnId, examPaperEnName, 4, segmentId, translationScore);
-                    } catch (Exception ignore) {
-                    }
-                    try {
-                        userTestRecordChromaService.storeAIGradeResult(translationGradeResult, subjectEnId, testEnId,
-                                user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
-                                "Translation", examPaperEnId, examPaperEnName, 4, segmentId, translationScore);
-                    } catch (Exception ignore) {
-                    }
+                    translationGradeResult = cozeAIGradingService.gradeSubjectiveQuestion(translationQuestionInfo, userAnswer);
+                } catch (Exception e) {
+                    throw new IllegalStateException("翻译AI评分失败 segment_id=" + segmentId + ": " + e.getMessage(), e);
+                }
+                Double translationScore = translationGradeResult.get("score") != null ? Double.valueOf(translationGradeResult.get("score").toString()) : 0.0;
+                if (shouldCalculateScore) {
+                    CET4ExamStructureCatalog.SegmentScoring structure = examStructureCatalog.findSegment(segmentId);
+                    double segmentTotalScore = structure != null ? structure.segmentTotalScoreOr(106.5) : 106.5;
+                    translationSegScore = (translationScore / 100.0) * segmentTotalScore;
+                }
+                String cacheKey = buildCacheKey(testEnId, segmentId, questionNumber);
+                translationGradeResult.put("userAnswer", userAnswer);
+                aiScoreCache.put(cacheKey, translationGradeResult);
+                try {
+                    userTestRecordChromaService.storeUserAnswer(userAnswer, subjectEnId, testEnId,
+                            user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
+                            "Translation", examPaperEnId, examPaperEnName, 4, segmentId, translationScore);
+                } catch (Exception ignore) {
+                }
+                try {
+                    userTestRecordChromaService.storeAIGradeResult(translationGradeResult, subjectEnId, testEnId,
+                            user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
+                            "Translation", examPaperEnId, examPaperEnName, 4, segmentId, translationScore);
+                } catch (Exception ignore) {
                 }
-            } catch (Exception ignore) {
-            } finally {
-                CET4UserTestRecordSegmentEn translationRec = new CET4UserTestRecordSegmentEn();
-                translationRec.setSegmentId(segmentId);
-                translationRec.setQuestionType("Translation");
-                translationRec.setScore(BigDecimal.valueOf(translationSegScore).setScale(2, RoundingMode.HALF_UP).doubleValue());
-                int translationCorrectNum = translationSegScore > 0 ? 1 : 0;
-                translationRec.setCorrectAnswersNumber(translationCorrectNum);
-                translationRec.setNumberOfQuestions(1);
-                double translationPercent = translationCorrectNum * 100.0;
-                translationRec.setCorrectAnswersPercent(BigDecimal.valueOf(translationPercent).setScale(2, RoundingMode.HALF_UP).doubleValue());
-                translationRec.setTestEnId(testEnId);
-                userTestRecordSegmentEnMapper.insert(translationRec);
             }
+            CET4UserTestRecordSegmentEn translationRec = new CET4UserTestRecordSegmentEn();
+            translationRec.setSegmentId(segmentId);
+            translationRec.setQuestionType("Translation");
+            translationRec.setScore(BigDecimal.valueOf(translationSegScore).setScale(2, RoundingMode.HALF_UP).doubleValue());
+            int translationCorrectNum = translationSegScore > 0 ? 1 : 0;
+            translationRec.setCorrectAnswersNumber(translationCorrectNum);
+            translationRec.setNumberOfQuestions(1);
+            double translationPercent = translationCorrectNum * 100.0;
+            translationRec.setCorrectAnswersPercent(BigDecimal.valueOf(translationPercent).setScale(2, RoundingMode.HALF_UP).doubleValue());
+            translationRec.setTestEnId(testEnId);
+            userTestRecordSegmentEnMapper.insert(translationRec);
+            wrongQuestionIndexService.syncWrongSegments(user.getId(), List.of(translationRec));
         }, executor);
     }
 
+    /**
+     * 对一份写作/翻译答案调用一次 AI 评分，返回评分结果（score 为百分制）
+     */
+    public Map<String, Object> gradeAnswer(String questionType, String document, String userAnswer) throws Exception {
+        String node = "Writing".equals(questionType) ? "writing" : "translation";
+        JsonNode docNode = objectMapper.readTree(document);
+        Map<String, Object> questionInfo = Map.of(node, objectMapper.convertValue(docNode.path(node), Map.class));
+        return cozeAIGradingService.gradeSubjectiveQuestion(questionInfo, userAnswer);
+    }
+
+    /**
+     * 重新评分的结果写回：覆盖片段得分（片段不存在时新增）并同步错题列表（同一事务），
+     * 事务提交后再更新评分缓存与 ChromaDB 评分记录。
+     *
+     * @param gradeResult 空答案未调用评分时为 null，按 0 分处理
+     * @return 片段得分
+     */
+    @Transactional
+    public double applyRegrade(Map<String, Object> gradeResult,
+                               String questionType,
+                               String userAnswer,
+                               String segmentId,
+                               int questionNumber,
+                               boolean shouldCalculateScore,
+                               Long testEnId,
+                               Integer subjectEnId,
+                               Long examPaperEnId,
+                               String examPaperEnName,
+                               User user) {
+        double rawScore = gradeResult != null && gradeResult.get("score") != null
+                ? Double.parseDouble(gradeResult.get("score").toString()) : 0.0;
+        double segScore = 0.0;
+        if (shouldCalculateScore) {
+            CET4ExamStructureCatalog.SegmentScoring structure = examStructureCatalog.findSegment(segmentId);
+            double segmentTotalScore = structure != null ? structure.segmentTotalScoreOr(106.5) : 106.5;
+            segScore = (rawScore / 100.0) * segmentTotalScore;
+        }
+
+        CET4UserTestRecordSegmentEn rec = new CET4UserTestRecordSegmentEn();
+        rec.setSegmentId(segmentId);
+        rec.setQuestionType(questionType);
+        rec.setScore(BigDecimal.valueOf(segScore).setScale(2, RoundingMode.HALF_UP).doubleValue());
+        int correctNum = segScore > 0 ? 1 : 0;
+        rec.setCorrectAnswersNumber(correctNum);
+        rec.setNumberOfQuestions(1);
+        rec.setCorrectAnswersPercent(BigDecimal.valueOf(correctNum * 100.0).setScale(2, RoundingMode.HALF_UP).doubleValue());
+        rec.setTestEnId(testEnId);
+        if (userTestRecordSegmentEnMapper.updateScore(rec) == 0) {
+            userTestRecordSegmentEnMapper.insert(rec);
+        }
+        wrongQuestionIndexService.syncWrongSegments(user.getId(), List.of(rec));
+
+        if (gradeResult != null) {
+            // 相同答案共用一次评分结果，各自保存一份带本人答案的副本
+            Map<String, Object> own = new HashMap<>(gradeResult);
+            own.put("userAnswer", userAnswer);
+            Runnable publish = () -> {
+                aiScoreCache.put(buildCacheKey(testEnId, segmentId, questionNumber), own);
+                try {
+                    userTestRecordChromaService.storeAIGradeResult(own, subjectEnId, testEnId,
+                            user.getId(), user.getRealName() != null ? user.getRealName() : user.getUsername(),
+                            questionType, examPaperEnId, examPaperEnName, "Writing".equals(questionType) ? 1 : 4, segmentId, rawScore);
+                } catch (Exception e) {
+                    logger.warn("重新评分结果写入 ChromaDB 失败 testEnId={}, segmentId={}: {}", testEnId, segmentId, e.getMessage());
+                }
+            };
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        publish.run();
+                    }
+                });
+            } else {
+                publish.run();
+            }
+        }
+        return rec.getScore();
+    }
+
     public Map<String, Object> getCachedAiScore(String cacheKey) {
-        return aiScoreCache.get(cacheKey);
+        return aiScoreCache.getIfPresent(cacheKey);
+    }
+
+    /**
+     * 查询AI评分：先查本地缓存，未命中且开启回源时从 ChromaDB 评分集合按ID读取并回填缓存。
+     */
+    public Map<String, Object> getAiScore(Long testEnId, Long examPaperEnId, String segmentId, int questionNumber) {
+        String cacheKey = buildCacheKey(testEnId, segmentId, questionNumber);
+        Map<String, Object> cached = aiScoreCache.getIfPresent(cacheKey);
+        if (cached != null || !chromaFallback) {
+            return cached;
+        }
+        try {
+            Map<String, Object> grade = userTestRecordChromaService.fetchAIGrade(testEnId, examPaperEnId, segmentId);
+            if (grade != null) {
+                aiScoreCache.put(cacheKey, grade);
+            }
+            return grade;
+        } catch (Exception e) {
+            logger.warn("从 ChromaDB 回源AI评分失败, key={}: {}", cacheKey, e.getMessage());
+            return null;
+        }
     }
 
     public String buildCacheKey(Long testEnId, String segmentId, int questionNumber) {
         return testEnId + "_" + segmentId + "_" + questionNumber;
     }
+
+    private static int estimateChars(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence text) {
+            return text.length();
+        }
+        if (value instanceof Map<?, ?> map) {
+            int total = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                total += estimateChars(entry.getKey()) + estimateChars(entry.getValue());
+            }
+            return total;
+        }
+        if (value instanceof Collection<?> items) {
+            int total = 0;
+            for (Object item : items) {
+                total += estimateChars(item);
+            }
+            return total;
+        }
+        return 16;
+    }
 }
@@ -0,0 +1,107 @@
+package seucxxy.csd.backend.cet4.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import seucxxy.csd.backend.cet4.mapper.CET4TaskMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 试卷生成任务进度的合并写入器。
+ * 各单元完成时只在内存中记录每个任务的最新进度（只增不减），定时把所有任务的待写进度
+ * 用一个 JDBC 批次写入 cet4_paper_gen_task；终态由调用方直接落库，并丢弃该任务的待写进度。
+ */
+@Component
+public class CET4TaskProgressAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(CET4TaskProgressAggregator.class);
+
+    private record PendingProgress(int progress, String message) {
+    }
+
+    private final SqlSessionFactory sqlSessionFactory;
+    private final Map<Long, PendingProgress> pending = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+
+    private final Counter submittedCounter;
+    private final Counter writtenCounter;
+
+    public CET4TaskProgressAggregator(SqlSessionFactory sqlSessionFactory, MeterRegistry meterRegistry) {
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.submittedCounter = Counter.builder("task.progress.submitted")
+                .description("提交到合并写入器的进度更新次数")
+                .register(meterRegistry);
+        this.writtenCounter = Counter.builder("task.progress.written")
+                .description("实际写入数据库的进度行数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录任务最新进度，等待下次定时刷新。message 为空时沿用之前未写入的提示信息。
+     */
+    public void submit(Long taskId, int progress, String message) {
+        if (taskId == null) {
+            return;
+        }
+        submittedCounter.increment();
+        pending.merge(taskId, new PendingProgress(progress, message), (previous, current) -> new PendingProgress(
+                Math.max(previous.progress(), current.progress()),
+                current.message() != null ? current.message() : previous.message()));
+    }
+
+    /**
+     * 任务进入终态时调用，丢弃尚未写入的中间进度。
+     */
+    public void discard(Long taskId) {
+        if (taskId != null) {
+            pending.remove(taskId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${task.progress.flush-interval-ms:1000}")
+    public void flush() {
+        synchronized (flushLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<Map.Entry<Long, PendingProgress>> snapshot = new ArrayList<>();
+            for (Long taskId : new ArrayList<>(pending.keySet())) {
+                PendingProgress value = pending.remove(taskId);
+                if (value != null) {
+                    snapshot.add(Map.entry(taskId, value));
+                }
+            }
+            if (snapshot.isEmpty()) {
+                return;
+            }
+            try (SqlSession session = sqlSessionFactory.openSession(ExecutorType.BATCH, false)) {
+                CET4TaskMapper batchMapper = session.getMapper(CET4TaskMapper.class);
+                for (Map.Entry<Long, PendingProgress> entry : snapshot) {
+                    batchMapper.updateProgress(entry.getKey(), entry.getValue().progress(), entry.getValue().message());
+                }
+                session.flushStatements();
+                session.commit();
+                writtenCounter.increment(snapshot.size());
+            } catch (Exception e) {
+                // 进度只是展示用途，失败不重试，下一次更新或终态会覆盖
+                logger.warn("批量写入任务进度失败，共 {} 条: {}", snapshot.size(), e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,164 @@
+package seucxxy.csd.backend.cet4.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 任务进度的进程内消息总线。
+ * 任务执行线程发布进度，SSE 订阅方实时收到推送；最新进度保存在内存中（终态后保留一段时间），
+ * 轮询接口也可直接读取，不必每次查询数据库。
+ */
+@Component
+public class CET4TaskProgressBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(CET4TaskProgressBus.class);
+
+    public static final String CHANNEL_PAPER_GEN = "paper-gen";
+    public static final String CHANNEL_ANALYSIS = "analysis";
+    /** 交卷后主观题评分，taskId 为 testEnId */
+    public static final String CHANNEL_GRADING = "grading";
+    /** 教师批量重新评分，taskId 为批量任务ID */
+    public static final String CHANNEL_BULK_GRADING = "bulk-grading";
+
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_SUCCEEDED = "SUCCEEDED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    /**
+     * 一次进度事件，作为 SSE 的 progress 事件数据发送给前端。
+     */
+    public record ProgressEvent(Long taskId, String status, int progress, String message, long timestamp) {
+
+        public boolean isTerminal() {
+            return STATUS_SUCCEEDED.equals(status) || STATUS_FAILED.equals(status);
+        }
+    }
+
+    private final long emitterTimeoutMs;
+    private final Cache<String, ProgressEvent> latestEvents;
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    public CET4TaskProgressBus(MeterRegistry meterRegistry,
+                               @Value("${task.progress.sse-timeout-ms:1800000}") long emitterTimeoutMs,
+                               @Value("${task.progress.retention-minutes:30}") long retentionMinutes) {
+        this.emitterTimeoutMs = emitterTimeoutMs;
+        this.latestEvents = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(retentionMinutes))
+                .maximumSize(10_000)
+                .build();
+        Gauge.builder("task.progress.subscribers", subscribers,
+                        s -> s.values().stream().mapToInt(List::size).sum())
+                .description("当前 SSE 进度订阅连接数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 发布进度。非终态下进度只增不减（各单元完成顺序不固定）。
+     */
+    public ProgressEvent publish(String channel, Long taskId, String status, int progress, String message) {
+        String key = key(channel, taskId);
+        ProgressEvent event = latestEvents.asMap().compute(key, (k, previous) -> {
+            int value = progress;
+            String text = message;
+            if (previous != null && !STATUS_SUCCEEDED.equals(status) && !STATUS_FAILED.equals(status)) {
+                value = Math.max(value, previous.progress());
+                if (text == null) {
+                    text = previous.message();
+                }
+            }
+            return new ProgressEvent(taskId, status, value, text, System.currentTimeMillis());
+        });
+        List<SseEmitter> emitters = subscribers.get(key);
+        if (emitters != null) {
+            for (SseEmitter emitter : emitters) {
+                send(key, emitter, event);
+            }
+        }
+        if (event.isTerminal()) {
+            List<SseEmitter> finished = subscribers.remove(key);
+            if (finished != null) {
+                finished.forEach(SseEmitter::complete);
+            }
+        }
+        return event;
+    }
+
+    /**
+     * 内存中的最新进度，没有时返回 null（如服务重启后）。
+     */
+    public ProgressEvent latest(String channel, Long taskId) {
+        return latestEvents.getIfPresent(key(channel, taskId));
+    }
+
+    /**
+     * 订阅任务进度。先推送一次当前快照（内存中没有时使用调用方从数据库读到的快照），
+     * 已是终态则推送后立即结束。
+     */
+    public SseEmitter subscribe(String channel, Long taskId, ProgressEvent snapshot) {
+        String key = key(channel, taskId);
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        ProgressEvent current = latestEvents.getIfPresent(key);
+        if (current == null) {
+            current = snapshot;
+        }
+        if (current != null && current.isTerminal()) {
+            send(key, emitter, current);
+            emitter.complete();
+            return emitter;
+        }
+        List<SseEmitter> emitters = subscribers.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>());
+        emitters.add(emitter);
+        Runnable remove = () -> removeEmitter(key, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        if (current != null) {
+            send(key, emitter, current);
+        }
+        // 订阅期间任务可能已结束
+        ProgressEvent afterRegister = latestEvents.getIfPresent(key);
+        if (afterRegister != null && afterRegister.isTerminal()) {
+            send(key, emitter, afterRegister);
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    private void send(String key, SseEmitter emitter, ProgressEvent event) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("progress")
+                    .id(String.valueOf(event.timestamp()))
+                    .data(event));
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开
+            removeEmitter(key, emitter);
+            logger.debug("SSE 推送失败，移除订阅 key={}: {}", key, e.getMessage());
+        }
+    }
+
+    private void removeEmitter(String key, SseEmitter emitter) {
+        subscribers.computeIfPresent(key, (k, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+
+    private String key(String channel, Long taskId) {
+        return channel + ":" + taskId;
+    }
+}
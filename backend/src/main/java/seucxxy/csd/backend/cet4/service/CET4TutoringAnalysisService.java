@@ -22,6 +22,7 @@ import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordEn;
 import seucxxy.csd.backend.cet4.mapper.CET4EExamPaperEnMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordDetailEnMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordEnMapper;
+import seucxxy.csd.backend.common.service.ChromaCollectionResolver;
 
 import java.net.URI;
 import java.time.LocalDateTime;
@@ -32,7 +33,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -48,10 +48,9 @@ public class CET4TutoringAnalysisService {
     private final CET4UserTestRecordEnMapper userTestRecordEnMapper;
     private final CET4UserTestRecordDetailEnMapper userTestRecordDetailEnMapper;
     private final CET4EExamPaperEnMapper examPaperEnMapper;
+    private final ChromaCollectionResolver collectionResolver;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private final AtomicReference<String> tutoringCollectionIdCache = new AtomicReference<>();
-
     @Value("${coze.api.url}")
     private String cozeApiUrl;
 
@@ -261,9 +260,6 @@ public class CET4TutoringAnalysisService {
     }
 
     private void storeAnalysisResult(Long userId, String analysisContent, List<Long> testIds) throws JsonProcessingException {
-        String collectionId = ensureTutoringCollectionId();
-        String url = collectionAddUrl(collectionId);
-
         Map<String, Object> metadata = new LinkedHashMap<>();
         metadata.put("user_id", userId);
         // Chroma metadata 要求简单标量，改为逗号分隔字符串避免反序列化错误
@@ -280,78 +276,28 @@ public class CET4TutoringAnalysisService {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         String jsonBody = objectMapper.writeValueAsString(requestBody);
-        log.info("[TutoringAnalysis] 即将写入 Chroma 分析结果，userId={}, collection={}, collectionId={}, payloadLength={}",
-            userId, tutoringCollectionName, collectionId, jsonBody.length());
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, new HttpEntity<>(jsonBody, headers), String.class);
-        log.info("[TutoringAnalysis] 已写入 Chroma 分析结果，userId={}, collection={}, collectionId={}, status={}, bodyLength={}, metadata={}",
-            userId, tutoringCollectionName, collectionId, response.getStatusCodeValue(), response.getBody() == null ? 0 : response.getBody().length(), metadata);
-    }
-
-    private String ensureTutoringCollectionId() throws JsonProcessingException {
-        String cached = tutoringCollectionIdCache.get();
-        if (cached != null) {
-            return cached;
-        }
-        synchronized (tutoringCollectionIdCache) {
-            cached = tutoringCollectionIdCache.get();
-            if (cached != null) {
-                return cached;
-            }
-            String collectionId = fetchCollectionId(tutoringCollectionName);
-            if (collectionId == null) {
-                collectionId = createCollection(tutoringCollectionName, "CET4 tutoring analysis content");
-            }
-            tutoringCollectionIdCache.set(collectionId);
-            return collectionId;
-        }
+        withTutoringCollection(collectionId -> {
+            log.info("[TutoringAnalysis] 即将写入 Chroma 分析结果，userId={}, collection={}, collectionId={}, payloadLength={}",
+                userId, tutoringCollectionName, collectionId, jsonBody.length());
+            ResponseEntity<String> response = restTemplate.exchange(URI.create(collectionAddUrl(collectionId)),
+                HttpMethod.POST, new HttpEntity<>(jsonBody, headers), String.class);
+            log.info("[TutoringAnalysis] 已写入 Chroma 分析结果，userId={}, collection={}, collectionId={}, status={}, bodyLength={}, metadata={}",
+                userId, tutoringCollectionName, collectionId, response.getStatusCodeValue(), response.getBody() == null ? 0 : response.getBody().length(), metadata);
+            return null;
+        });
     }
 
-    private String fetchCollectionId(String collectionName) throws JsonProcessingException {
-        String url = chromaBaseUrl + "/tenants/" + tenant + "/databases/" + database + "/collections";
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
+    /**
+     * 以辅导分析集合的ID执行调用（不存在时创建）；集合被删除重建（404）时刷新缓存的ID并重试一次
+     */
+    private <T> T withTutoringCollection(ChromaCollectionResolver.CollectionCall<T> call) throws JsonProcessingException {
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-                return null;
-            }
-            JsonNode collections = objectMapper.readTree(response.getBody());
-            if (collections.isArray()) {
-                for (JsonNode collection : collections) {
-                    if (collectionName.equals(collection.get("name").asText())) {
-                        return collection.get("id").asText();
-                    }
-                }
-            }
+            return collectionResolver.withCollectionId(tutoringCollectionName, true, "CET4 tutoring analysis content", call);
+        } catch (JsonProcessingException | RuntimeException e) {
+            throw e;
         } catch (Exception e) {
-            log.warn("获取 ChromaDB 集合失败: {}", e.getMessage());
+            throw new IllegalStateException("访问 ChromaDB 集合失败: " + tutoringCollectionName, e);
         }
-        return null;
-    }
-
-    private String createCollection(String collectionName, String description) throws JsonProcessingException {
-        String url = chromaBaseUrl + "/tenants/" + tenant + "/databases/" + database + "/collections";
-
-        Map<String, Object> requestBody = new LinkedHashMap<>();
-        requestBody.put("name", collectionName);
-        requestBody.put("metadata", Collections.singletonMap("description", description));
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(requestBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            throw new IllegalStateException("创建 ChromaDB 集合失败: " + collectionName);
-        }
-
-        JsonNode responseNode = objectMapper.readTree(response.getBody());
-        String collectionId = responseNode.get("id").asText();
-        log.info("创建 ChromaDB 集合成功: {} (id: {})", collectionName, collectionId);
-        return collectionId;
     }
 
     private String collectionAddUrl(String collectionId) {
@@ -13,12 +13,12 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.common.service.ChromaCollectionResolver;
 
 import java.net.URI;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * CET4用户测试记录ChromaDB存储服务
@@ -28,12 +28,13 @@ import java.util.concurrent.atomic.AtomicReference;
 public class CET4UserTestRecordChromaService {
 
     private static final Logger logger = LoggerFactory.getLogger(CET4UserTestRecordChromaService.class);
-    private static final int EMBEDDING_DIMENSION = 384;
+    private static final String ANSWER_COLLECTION_DESC = "CET4用户测试记录 - 学生答案";
+    private static final String GRADE_COLLECTION_DESC = "CET4用户测试记录 - AI评分结果";
 
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final AtomicReference<String> answerCollectionIdCache = new AtomicReference<>();
-    private final AtomicReference<String> gradeCollectionIdCache = new AtomicReference<>();
+    private final ChromaCollectionResolver collectionResolver;
+    private final CET4ChromaWriteBehindBuffer writeBehindBuffer;
 
     @Value("${chromadb.base-url:http://localhost:8000/api/v2}")
     private String chromaBaseUrl;
@@ -53,8 +54,12 @@ public class CET4UserTestRecordChromaService {
     @Autowired
     private seucxxy.csd.backend.common.mapper.SubjectsEnMapper subjectsEnMapper;
 
-    public CET4UserTestRecordChromaService(RestTemplate restTemplate) {
+    public CET4UserTestRecordChromaService(RestTemplate restTemplate,
+                                           ChromaCollectionResolver collectionResolver,
+                                           CET4ChromaWriteBehindBuffer writeBehindBuffer) {
         this.restTemplate = restTemplate;
+        this.collectionResolver = collectionResolver;
+        this.writeBehindBuffer = writeBehindBuffer;
     }
 
     /**
@@ -116,28 +121,8 @@ public class CET4UserTestRecordChromaService {
         }
         metadata.put("subjectEnName", subjectEnName);
 
-        // 构建请求体
-        Map<String, Object> requestBody = new LinkedHashMap<>();
-        requestBody.put("ids", Collections.singletonList(answerId));
-        requestBody.put("documents", Collections.singletonList(userAnswer));
-        requestBody.put("metadatas", Collections.singletonList(metadata));
-        requestBody.put("embeddings", Collections.singletonList(generateDeterministicEmbedding(answerId)));
-
-        // 发送到ChromaDB
-        String collectionId = ensureAnswerCollectionId();
-        String url = collectionAddUrl(collectionId);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(requestBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, entity, String.class);
-        if (!response.getStatusCode().is2xxSuccessful()) {
-            logger.warn("写入学生答案到 ChromaDB 失败，status={}, body={}",
-                    response.getStatusCode(), response.getBody());
-            throw new IllegalStateException("写入 ChromaDB 失败，状态码：" + response.getStatusCode());
-        }
+        enqueueOrWrite(new CET4ChromaWriteBehindBuffer.PendingRecord(
+                answerCollectionName, ANSWER_COLLECTION_DESC, answerId, userAnswer, metadata));
     }
 
     /**
@@ -190,151 +175,34 @@ public class CET4UserTestRecordChromaService {
         // 将AI评分结果转换为JSON字符串作为document
         String aiGradeResultJson = objectMapper.writeValueAsString(aiGradeResult);
 
-        // 构建请求体
-        Map<String, Object> requestBody = new LinkedHashMap<>();
-        requestBody.put("ids", Collections.singletonList(gradeId));
-        requestBody.put("documents", Collections.singletonList(aiGradeResultJson));
-        requestBody.put("metadatas", Collections.singletonList(metadata));
-        requestBody.put("embeddings", Collections.singletonList(generateDeterministicEmbedding(gradeId)));
-
-        // 发送到ChromaDB
-        String collectionId = ensureGradeCollectionId();
-        String url = collectionAddUrl(collectionId);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(requestBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, entity, String.class);
-        if (!response.getStatusCode().is2xxSuccessful()) {
-            logger.warn("写入AI评分结果到 ChromaDB 失败，status={}, body={}",
-                    response.getStatusCode(), response.getBody());
-            throw new IllegalStateException("写入 ChromaDB 失败，状态码：" + response.getStatusCode());
-        }
+        enqueueOrWrite(new CET4ChromaWriteBehindBuffer.PendingRecord(
+                gradeCollectionName, GRADE_COLLECTION_DESC, gradeId, aiGradeResultJson, metadata));
     }
 
     /**
-     * 确保答案集合存在并返回集合ID
+     * 交给后写缓冲异步批量写入；缓冲已满时同步写入。
      */
-    private String ensureAnswerCollectionId() throws JsonProcessingException {
-        String cached = answerCollectionIdCache.get();
-        if (cached != null) {
-            return cached;
-        }
-        synchronized (answerCollectionIdCache) {
-            cached = answerCollectionIdCache.get();
-            if (cached != null) {
-                return cached;
-            }
-            String collectionId = fetchCollectionId(answerCollectionName);
-            if (collectionId == null) {
-                // 集合不存在，创建集合
-                collectionId = createCollection(answerCollectionName, "CET4用户测试记录 - 学生答案");
-            }
-            answerCollectionIdCache.set(collectionId);
-            return collectionId;
-        }
-    }
-
-    /**
-     * 确保评分集合存在并返回集合ID
-     */
-    private String ensureGradeCollectionId() throws JsonProcessingException {
-        String cached = gradeCollectionIdCache.get();
-        if (cached != null) {
-            return cached;
-        }
-        synchronized (gradeCollectionIdCache) {
-            cached = gradeCollectionIdCache.get();
-            if (cached != null) {
-                return cached;
-            }
-            String collectionId = fetchCollectionId(gradeCollectionName);
-            if (collectionId == null) {
-                // 集合不存在，创建集合
-                collectionId = createCollection(gradeCollectionName, "CET4用户测试记录 - AI评分结果");
-            }
-            gradeCollectionIdCache.set(collectionId);
-            return collectionId;
+    private void enqueueOrWrite(CET4ChromaWriteBehindBuffer.PendingRecord record) {
+        if (writeBehindBuffer.enqueue(record)) {
+            return;
         }
-    }
-
-    /**
-     * 获取集合ID
-     */
-    private String fetchCollectionId(String collectionName) throws JsonProcessingException {
-        String url = chromaBaseUrl + "/tenants/" + tenant + "/databases/" + database + "/collections";
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-                return null;
-            }
-
-            com.fasterxml.jackson.databind.JsonNode collections = objectMapper.readTree(response.getBody());
-            if (collections.isArray()) {
-                for (com.fasterxml.jackson.databind.JsonNode collection : collections) {
-                    if (collectionName.equals(collection.get("name").asText())) {
-                        return collection.get("id").asText();
-                    }
-                }
-            }
+            writeBehindBuffer.writeNow(record);
         } catch (Exception e) {
-            logger.warn("获取 ChromaDB 集合失败: {}", e.getMessage());
-        }
-        return null;
-    }
-
-    /**
-     * 创建新集合
-     */
-    private String createCollection(String collectionName, String description) throws JsonProcessingException {
-        String url = chromaBaseUrl + "/tenants/" + tenant + "/databases/" + database + "/collections";
-        
-        Map<String, Object> requestBody = new LinkedHashMap<>();
-        requestBody.put("name", collectionName);
-        requestBody.put("metadata", Collections.singletonMap("description", description));
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(requestBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            throw new IllegalStateException("创建 ChromaDB 集合失败: " + collectionName);
+            logger.warn("写入 ChromaDB 失败，collection={}, id={}: {}", record.collectionName(), record.id(), e.getMessage());
+            throw new IllegalStateException("写入 ChromaDB 失败: " + e.getMessage(), e);
         }
-
-        com.fasterxml.jackson.databind.JsonNode responseNode = objectMapper.readTree(response.getBody());
-        String collectionId = responseNode.get("id").asText();
-        logger.info("创建 ChromaDB 集合成功: {} (id: {})", collectionName, collectionId);
-        return collectionId;
     }
 
     /**
-     * 构建添加数据的URL
+     * 查询集合（不存在时创建）中的全部记录；集合被删除重建（404）时由解析器刷新缓存的ID并重试一次
      */
-    private String collectionAddUrl(String collectionId) {
-        return chromaBaseUrl + "/tenants/" + tenant + "/databases/" + database + 
-               "/collections/" + collectionId + "/add";
+    private ResponseEntity<String> postCollectionGet(String collectionName, String description,
+                                                     HttpEntity<String> entity) throws Exception {
+        return collectionResolver.withCollectionId(collectionName, true, description, collectionId ->
+                restTemplate.exchange(URI.create(collectionGetUrl(collectionId)), HttpMethod.POST, entity, String.class));
     }
 
-    /**
-     * 生成确定性的嵌入向量（基于ID的哈希）
-     */
-    private List<Float> generateDeterministicEmbedding(String id) {
-        List<Float> embedding = new ArrayList<>(EMBEDDING_DIMENSION);
-        Random random = new Random(id.hashCode());
-        for (int i = 0; i < EMBEDDING_DIMENSION; i++) {
-            embedding.add(random.nextFloat());
-        }
-        return embedding;
-    }
-    
     /**
      * 从ChromaDB查询学生答案和AI评分结果
      * 
@@ -377,9 +245,6 @@ public class CET4UserTestRecordChromaService {
     private Map<String, String> fetchUserAnswersByTestId(Long testEnId, Long examPaperEnId) throws Exception {
         Map<String, String> answers = new HashMap<>();
         
-        String collectionId = ensureAnswerCollectionId();
-        String url = collectionGetUrl(collectionId);
-        
         Map<String, Object> requestBody = new LinkedHashMap<>();
         requestBody.put("limit", 1000);
         requestBody.put("include", List.of("documents", "metadatas"));
@@ -389,7 +254,7 @@ public class CET4UserTestRecordChromaService {
         String jsonBody = objectMapper.writeValueAsString(requestBody);
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
         
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, entity, String.class);
+        ResponseEntity<String> response = postCollectionGet(answerCollectionName, ANSWER_COLLECTION_DESC, entity);
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             return answers;
         }
@@ -418,6 +283,15 @@ public class CET4UserTestRecordChromaService {
                 }
             }
         }
+
+        // 合并尚在后写缓冲中的答案（刚提交、还未落到 ChromaDB）
+        for (CET4ChromaWriteBehindBuffer.PendingRecord pendingRecord
+                : writeBehindBuffer.pendingRecords(answerCollectionName, meta -> matchesTest(meta, testEnId, examPaperEnId))) {
+            Object segmentId = pendingRecord.metadata().get("segment_id");
+            if (segmentId != null) {
+                answers.put(String.valueOf(segmentId), pendingRecord.document());
+            }
+        }
         
         return answers;
     }
@@ -428,9 +302,6 @@ public class CET4UserTestRecordChromaService {
     private Map<String, Map<String, Object>> fetchAIGradesByTestId(Long testEnId, Long examPaperEnId) throws Exception {
         Map<String, Map<String, Object>> grades = new HashMap<>();
         
-        String collectionId = ensureGradeCollectionId();
-        String url = collectionGetUrl(collectionId);
-        
         Map<String, Object> requestBody = new LinkedHashMap<>();
         requestBody.put("limit", 1000);
         requestBody.put("include", List.of("documents", "metadatas"));
@@ -440,7 +311,7 @@ public class CET4UserTestRecordChromaService {
         String jsonBody = objectMapper.writeValueAsString(requestBody);
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
         
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, entity, String.class);
+        ResponseEntity<String> response = postCollectionGet(gradeCollectionName, GRADE_COLLECTION_DESC, entity);
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             return grades;
         }
@@ -475,10 +346,99 @@ public class CET4UserTestRecordChromaService {
                 }
             }
         }
+
+        for (CET4ChromaWriteBehindBuffer.PendingRecord pendingRecord
+                : writeBehindBuffer.pendingRecords(gradeCollectionName, meta -> matchesTest(meta, testEnId, examPaperEnId))) {
+            Object segmentId = pendingRecord.metadata().get("segment_id");
+            if (segmentId == null) {
+                continue;
+            }
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> aiGradeData = objectMapper.readValue(pendingRecord.document(), Map.class);
+                grades.put(String.valueOf(segmentId), aiGradeData);
+            } catch (Exception e) {
+                logger.warn("解析AI评分JSON失败: {}", e.getMessage());
+            }
+        }
         
         return grades;
     }
+
+    private boolean matchesTest(Map<String, Object> metadata, Long testEnId, Long examPaperEnId) {
+        return String.valueOf(testEnId).equals(String.valueOf(metadata.get("test_en_id")))
+                && String.valueOf(examPaperEnId).equals(String.valueOf(metadata.get("exam_paper_en_id")));
+    }
     
+    /**
+     * 按 answer_id 精确查询单条学生答案（先查后写缓冲，再查 ChromaDB），不存在时返回 null。
+     */
+    public String fetchUserAnswer(Long testEnId, Long examPaperEnId, String segmentId) throws Exception {
+        String answerId = examPaperEnId + "_" + segmentId + "_" + testEnId;
+        List<CET4ChromaWriteBehindBuffer.PendingRecord> pendingAnswers =
+                writeBehindBuffer.pendingRecords(answerCollectionName, meta -> answerId.equals(meta.get("answer_id")));
+        if (!pendingAnswers.isEmpty()) {
+            return pendingAnswers.get(0).document();
+        }
+        return fetchDocumentById(answerCollectionName, answerId);
+    }
+
+    /**
+     * 按 grade_id 精确查询单条AI评分结果（先查后写缓冲，再查 ChromaDB），不存在时返回 null。
+     */
+    public Map<String, Object> fetchAIGrade(Long testEnId, Long examPaperEnId, String segmentId) throws Exception {
+        String gradeId = examPaperEnId + "_" + segmentId + "_" + testEnId;
+        List<CET4ChromaWriteBehindBuffer.PendingRecord> pendingGrades =
+                writeBehindBuffer.pendingRecords(gradeCollectionName, meta -> gradeId.equals(meta.get("grade_id")));
+        if (!pendingGrades.isEmpty()) {
+            return parseGradeDocument(pendingGrades.get(0).document());
+        }
+        return parseGradeDocument(fetchDocumentById(gradeCollectionName, gradeId));
+    }
+
+    /**
+     * 按ID取单条文档；集合尚不存在或文档不存在时返回 null
+     */
+    private String fetchDocumentById(String collectionName, String id) throws Exception {
+        if (collectionResolver.resolve(collectionName) == null) {
+            return null;
+        }
+        Map<String, Object> requestBody = new LinkedHashMap<>();
+        requestBody.put("ids", List.of(id));
+        requestBody.put("include", List.of("documents"));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> entity = new HttpEntity<>(objectMapper.writeValueAsString(requestBody), headers);
+
+        return collectionResolver.withCollectionId(collectionName, false, null, collectionId -> {
+            ResponseEntity<String> response = restTemplate.exchange(
+                    URI.create(collectionGetUrl(collectionId)), HttpMethod.POST, entity, String.class);
+            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+                return null;
+            }
+            com.fasterxml.jackson.databind.JsonNode documents = objectMapper.readTree(response.getBody()).path("documents");
+            if (!documents.isArray() || documents.isEmpty() || documents.get(0).isNull()) {
+                return null;
+            }
+            return documents.get(0).asText("");
+        });
+    }
+
+    private Map<String, Object> parseGradeDocument(String aiGradeJson) {
+        if (aiGradeJson == null || aiGradeJson.isEmpty()) {
+            return null;
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> aiGradeData = objectMapper.readValue(aiGradeJson, Map.class);
+            return aiGradeData;
+        } catch (Exception e) {
+            logger.warn("解析AI评分JSON失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * 构建查询数据的URL
      */
@@ -0,0 +1,132 @@
+package seucxxy.csd.backend.cet4.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordDetailEn;
+import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordSegmentEn;
+import seucxxy.csd.backend.cet4.mapper.CET4UserWrongQuestionEnMapper;
+import seucxxy.csd.backend.cet4.mapper.CET4UserWrongSegmentEnMapper;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 交卷时维护错题索引：答错的客观题写入 user_wrong_question_en（专项训练抽题，按 (用户, 题型) 分配连续序号），
+ * 正确率低于 100 的片段写入 user_wrong_segment_en（错题列表）并维护用户错题数，片段得分变更时同步增删。
+ * 索引写入失败只记日志，不影响交卷：在调用方事务中以保存点执行，失败只回滚索引部分，无外层事务时单独成一个事务。
+ */
+@Service
+public class CET4WrongQuestionIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CET4WrongQuestionIndexService.class);
+
+    private final CET4UserWrongQuestionEnMapper wrongQuestionMapper;
+    private final CET4UserWrongSegmentEnMapper wrongSegmentMapper;
+
+    public CET4WrongQuestionIndexService(CET4UserWrongQuestionEnMapper wrongQuestionMapper,
+                                         CET4UserWrongSegmentEnMapper wrongSegmentMapper) {
+        this.wrongQuestionMapper = wrongQuestionMapper;
+        this.wrongSegmentMapper = wrongSegmentMapper;
+    }
+
+    /**
+     * @param details 已写入 user_test_record_detail_en（带主键）的答题明细，只记录答错的客观题
+     */
+    @Transactional(propagation = Propagation.NESTED)
+    public void recordWrongAnswers(Long userId, List<CET4UserTestRecordDetailEn> details) {
+        // 与 wrong_question_index.sql 回填条件一致：写作、翻译不进入错题索引；
+        // 标准答案与用户答案都非 NULL 且不相等才算答错（未作答记为空串，算答错）
+        Map<String, List<CET4UserTestRecordDetailEn>> wrongByType = details.stream()
+                .filter(d -> d.getId() != null && d.getQuestionsType() != null)
+                .filter(d -> !isWritingOrTranslation(d.getQuestionsType()))
+                .filter(d -> d.getCorrectAnswer() != null && d.getUserAnswer() != null
+                        && !d.getCorrectAnswer().equals(d.getUserAnswer()))
+                .collect(Collectors.groupingBy(CET4UserTestRecordDetailEn::getQuestionsType, LinkedHashMap::new, Collectors.toList()));
+        if (wrongByType.isEmpty()) {
+            return;
+        }
+        try {
+            wrongByType.forEach((questionType, wrong) -> appendWrongAnswers(userId, questionType, wrong));
+        } catch (Exception e) {
+            // 错题与序号计数一起回滚，避免序号出现空洞
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            logger.warn("写入错题索引失败 userId={}: {}", userId, e.getMessage());
+        }
+    }
+
+    /**
+     * 锁住计数行，跳过已写入的明细，其余从当前错题数起连续编号
+     */
+    private void appendWrongAnswers(Long userId, String questionType, List<CET4UserTestRecordDetailEn> wrong) {
+        wrongQuestionMapper.ensureQuestionCount(userId, questionType);
+        Integer count = wrongQuestionMapper.lockQuestionCount(userId, questionType);
+        int base = count == null ? 0 : count;
+        Set<Long> existing = Set.copyOf(wrongQuestionMapper.findExistingDetailIds(
+                wrong.stream().map(CET4UserTestRecordDetailEn::getId).toList()));
+        List<CET4UserTestRecordDetailEn> fresh = wrong.stream()
+                .filter(d -> !existing.contains(d.getId()))
+                .toList();
+        if (fresh.isEmpty()) {
+            return;
+        }
+        wrongQuestionMapper.batchInsert(userId, questionType, base, fresh);
+        wrongQuestionMapper.updateQuestionCount(userId, questionType, base + fresh.size());
+    }
+
+    /**
+     * 与 wrong_question_index.sql 回填中的题型排除条件一一对应
+     */
+    private static boolean isWritingOrTranslation(String questionType) {
+        String qtUpper = questionType.toUpperCase();
+        return "WRITING".equals(qtUpper) || qtUpper.contains("写作")
+                || "TRANSLATION".equals(qtUpper) || qtUpper.contains("翻译");
+    }
+
+    /**
+     * 片段得分写入或变更后同步错题列表与错题数，交卷、异步评分、重新评分都经这里：
+     * 正确率低于 100 的片段新增或覆盖，达到 100 的片段从列表移除，错题数按实际增删行数调整。
+     *
+     * @param segments 已写入 user_test_record_segment_en 的片段统计
+     */
+    @Transactional(propagation = Propagation.NESTED)
+    public void syncWrongSegments(Long userId, List<CET4UserTestRecordSegmentEn> segments) {
+        List<CET4UserTestRecordSegmentEn> valid = segments.stream()
+                .filter(s -> s.getCorrectAnswersPercent() != null)
+                .toList();
+        if (valid.isEmpty()) {
+            return;
+        }
+        try {
+            wrongSegmentMapper.ensureWrongCount(userId);
+            wrongSegmentMapper.lockWrongCount(userId);
+            List<CET4UserTestRecordSegmentEn> correct = valid.stream()
+                    .filter(s -> s.getCorrectAnswersPercent() >= 100)
+                    .toList();
+            int removed = correct.isEmpty() ? 0 : wrongSegmentMapper.deleteWrongSegments(userId, correct);
+            List<CET4UserTestRecordSegmentEn> fresh = valid.stream()
+                    .filter(s -> s.getCorrectAnswersPercent() < 100)
+                    .filter(s -> wrongSegmentMapper.updateWrongSegment(s) == 0)
+                    .toList();
+            int inserted = fresh.isEmpty() ? 0 : wrongSegmentMapper.insertWrongSegments(fresh);
+            if (inserted != removed) {
+                wrongSegmentMapper.incrementWrongCount(userId, inserted - removed);
+            }
+        } catch (Exception e) {
+            // 列表与计数一起回滚，避免计数漂移
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            logger.warn("同步错题列表失败 userId={}: {}", userId, e.getMessage());
+        }
+    }
+
+    public int countWrongSegments(Long userId) {
+        Integer count = wrongSegmentMapper.findWrongCount(userId);
+        return count == null ? 0 : count;
+    }
+}
@@ -10,15 +10,20 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.cet4.dto.CET4WrongQuestionPage;
 import seucxxy.csd.backend.cet4.dto.CET4WrongQuestionRecordDTO;
 import seucxxy.csd.backend.cet4.entity.CET4UserTestRecordDetailEn;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordDetailEnMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordEnMapper;
 import seucxxy.csd.backend.cet4.mapper.CET4UserTestRecordSegmentEnMapper;
+import seucxxy.csd.backend.cet4.mapper.CET4UserWrongSegmentEnMapper;
+import seucxxy.csd.backend.common.service.ChromaCollectionResolver;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 错题服务
@@ -30,15 +35,14 @@ public class CET4WrongQuestionService {
     private static final Logger logger = LoggerFactory.getLogger(CET4WrongQuestionService.class);
 
     private final CET4UserTestRecordSegmentEnMapper segmentMapper;
+    private final CET4UserWrongSegmentEnMapper wrongSegmentMapper;
+    private final CET4WrongQuestionIndexService wrongQuestionIndexService;
     private final CET4UserTestRecordDetailEnMapper detailMapper;
     private final CET4UserTestRecordEnMapper testRecordMapper;
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
-    
-    // Collection ID缓存
-    private final AtomicReference<String> collectionIdCache = new AtomicReference<>();
-    private final AtomicReference<String> answerCollectionIdCache = new AtomicReference<>();
-    private final AtomicReference<String> gradeCollectionIdCache = new AtomicReference<>();
+    private final ChromaCollectionResolver collectionResolver;
+    private final CET4UserTestRecordChromaService userTestRecordChromaService;
 
     @Value("${chromadb.base-url:http://localhost:8000/api/v2}")
     private String chromaBaseUrl;
@@ -51,25 +55,27 @@ public class CET4WrongQuestionService {
 
     @Value("${chromadb.collection.eng-exam-papers:eng_exam_papers_cet4}")
     private String chromaCollectionName;
-    
-    @Value("${chromadb.collection.user-test-record:user_test_record_cet4}")
-    private String answerCollectionName;
-    
-    @Value("${chromadb.collection.user-test-grade-record:user_test_grade_record_cet4}")
-    private String gradeCollectionName;
 
     @Autowired
     public CET4WrongQuestionService(
             CET4UserTestRecordSegmentEnMapper segmentMapper,
+            CET4UserWrongSegmentEnMapper wrongSegmentMapper,
+            CET4WrongQuestionIndexService wrongQuestionIndexService,
             CET4UserTestRecordDetailEnMapper detailMapper,
             CET4UserTestRecordEnMapper testRecordMapper,
             RestTemplate restTemplate,
-            ObjectMapper objectMapper) {
+            ObjectMapper objectMapper,
+            ChromaCollectionResolver collectionResolver,
+            CET4UserTestRecordChromaService userTestRecordChromaService) {
         this.segmentMapper = segmentMapper;
+        this.wrongSegmentMapper = wrongSegmentMapper;
+        this.wrongQuestionIndexService = wrongQuestionIndexService;
         this.detailMapper = detailMapper;
         this.testRecordMapper = testRecordMapper;
         this.restTemplate = restTemplate;
         this.objectMapper = objectMapper;
+        this.collectionResolver = collectionResolver;
+        this.userTestRecordChromaService = userTestRecordChromaService;
     }
 
     /**
@@ -100,49 +106,85 @@ public class CET4WrongQuestionService {
     }
 
     /**
-     * 获取用户错题总数
+     * 获取用户错题总数（交卷时增量维护，不再联表统计）
      * 
      * @param userId 用户ID
      * @return 错题总数
      */
     public int countWrongQuestions(Long userId) {
-        return segmentMapper.countWrongQuestionsByUserId(userId);
+        return wrongQuestionIndexService.countWrongSegments(userId);
     }
 
     /**
      * 分页获取用户错题列表
+     * 带游标时从上一页最后一条之后继续（keyset），耗时与页码无关；不带游标时按页码跳过，兼容旧的翻页方式。
      * 
      * @param userId 用户ID
      * @param sortBy 排序依据: "time" 或 "percent"
      * @param sortOrder 排序顺序: "ASC" 或 "DESC"
-     * @param page 页码（从1开始）
+     * @param page 页码（从1开始），带游标时忽略
      * @param pageSize 每页大小
-     * @return 错题记录列表
+     * @param cursor 上一页返回的 nextCursor，可为空
+     * @return 本页错题及下一页游标
      */
-    public List<CET4WrongQuestionRecordDTO> getWrongQuestionsWithPagination(
-            Long userId, String sortBy, String sortOrder, int page, int pageSize) {
-        // 验证sortOrder参数
-        if (!"ASC".equalsIgnoreCase(sortOrder) && !"DESC".equalsIgnoreCase(sortOrder)) {
-            sortOrder = "DESC"; // 默认倒序
-        }
-        
-        // 计算偏移量
-        int offset = (page - 1) * pageSize;
-        
-        List<CET4WrongQuestionRecordDTO> result;
-        
-        if ("time".equalsIgnoreCase(sortBy)) {
-            result = segmentMapper.findWrongQuestionsByUserIdOrderByTimeWithPagination(
-                    userId, sortOrder, pageSize, offset);
-        } else if ("percent".equalsIgnoreCase(sortBy)) {
-            result = segmentMapper.findWrongQuestionsByUserIdOrderByPercentWithPagination(
-                    userId, sortOrder, pageSize, offset);
+    public CET4WrongQuestionPage getWrongQuestionsPage(
+            Long userId, String sortBy, String sortOrder, int page, int pageSize, String cursor) {
+        boolean byPercent = "percent".equalsIgnoreCase(sortBy);
+        String order;
+        if (!byPercent && !"time".equalsIgnoreCase(sortBy)) {
+            order = "DESC";
         } else {
-            result = segmentMapper.findWrongQuestionsByUserIdOrderByTimeWithPagination(
-                    userId, "DESC", pageSize, offset);
+            order = "ASC".equalsIgnoreCase(sortOrder) ? "ASC" : "DESC";
+        }
+        String sortKey = byPercent ? "percent" : "time";
+
+        CET4WrongQuestionRecordDTO after = decodeCursor(cursor, sortKey, order);
+        int offset = after == null ? (page - 1) * pageSize : 0;
+        // 多取一条用于判断是否还有下一页
+        List<CET4WrongQuestionRecordDTO> rows = byPercent
+                ? wrongSegmentMapper.findPageOrderByPercent(userId, order, after, pageSize + 1, offset)
+                : wrongSegmentMapper.findPageOrderByTime(userId, order, after, pageSize + 1, offset);
+
+        if (rows.size() <= pageSize) {
+            return new CET4WrongQuestionPage(rows, null);
+        }
+        List<CET4WrongQuestionRecordDTO> records = new ArrayList<>(rows.subList(0, pageSize));
+        return new CET4WrongQuestionPage(records, encodeCursor(records.get(records.size() - 1), sortKey, order));
+    }
+
+    /**
+     * 游标内容：排序方式|排序顺序|考试时间|考试ID|正确率|片段ID，Base64URL 编码
+     */
+    private String encodeCursor(CET4WrongQuestionRecordDTO last, String sortKey, String order) {
+        String raw = String.join("|",
+                sortKey,
+                order,
+                String.valueOf(last.getTestEnTime()),
+                String.valueOf(last.getTestEnId()),
+                String.valueOf(last.getCorrectAnswersPercent()),
+                last.getSegmentId());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private CET4WrongQuestionRecordDTO decodeCursor(String cursor, String sortKey, String order) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 6);
+            if (parts.length != 6 || !sortKey.equals(parts[0]) || !order.equals(parts[1])) {
+                throw new IllegalArgumentException("分页游标与排序方式不一致");
+            }
+            CET4WrongQuestionRecordDTO after = new CET4WrongQuestionRecordDTO();
+            after.setTestEnTime(LocalDateTime.parse(parts[2]));
+            after.setTestEnId(Long.valueOf(parts[3]));
+            after.setCorrectAnswersPercent(Double.valueOf(parts[4]));
+            after.setSegmentId(parts[5]);
+            return after;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
         }
-        
-        return result;
     }
 
     /**
@@ -235,9 +277,12 @@ public class CET4WrongQuestionService {
     private Map<String, Object> queryQuestionFromChroma(Long examPaperEnId, String segmentId) throws Exception {
         logger.info("从ChromaDB查询题目 - examPaperEnId: {}, segmentId: {}", examPaperEnId, segmentId);
 
-        // 1. 获取collection ID
-        String collectionId = ensureCollectionId();
-        
+        // 1. 通过共享解析器获取collection ID（集合ID失效时自动刷新重试）
+        return collectionResolver.withCollectionId(chromaCollectionName, false, null,
+                collectionId -> queryQuestionFromCollection(collectionId, examPaperEnId, segmentId));
+    }
+
+    private Map<String, Object> queryQuestionFromCollection(String collectionId, Long examPaperEnId, String segmentId) throws Exception {
         // 2. 构建查询URL - 使用正确的API路径
         String getUrl = chromaBaseUrl + "/tenants/" + chromaTenant + "/databases/" + chromaDatabase 
                 + "/collections/" + collectionId + "/get";
@@ -306,62 +351,6 @@ public class CET4WrongQuestionService {
         return documentData;
     }
     
-    /**
-     * 确保collection存在并返回ID
-     */
-    private String ensureCollectionId() throws Exception {
-        String cached = collectionIdCache.get();
-        if (cached != null) {
-            return cached;
-        }
-        
-        synchronized (collectionIdCache) {
-            cached = collectionIdCache.get();
-            if (cached != null) {
-                return cached;
-            }
-            
-            String collectionId = fetchCollectionId();
-            if (collectionId == null) {
-                throw new RuntimeException("ChromaDB集合不存在: " + chromaCollectionName);
-            }
-            
-            collectionIdCache.set(collectionId);
-            return collectionId;
-        }
-    }
-    
-    /**
-     * 获取collection ID
-     */
-    private String fetchCollectionId() throws Exception {
-        String url = chromaBaseUrl + "/tenants/" + chromaTenant + "/databases/" + chromaDatabase + "/collections";
-        
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-        
-        try {
-            ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.GET, entity, String.class);
-            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-                return null;
-            }
-            
-            JsonNode collections = objectMapper.readTree(response.getBody());
-            if (collections.isArray()) {
-                for (JsonNode collection : collections) {
-                    if (chromaCollectionName.equals(collection.get("name").asText())) {
-                        return collection.get("id").asText();
-                    }
-                }
-            }
-        } catch (Exception e) {
-            logger.error("获取ChromaDB集合失败: {}", e.getMessage(), e);
-            throw e;
-        }
-        return null;
-    }
-    
     /**
      * 从ChromaDB查询主观题(写作/翻译)的学生答案和AI评分
      */
@@ -375,174 +364,24 @@ public class CET4WrongQuestionService {
         logger.info("从ChromaDB查询主观题答案 - testEnId: {}, examPaperEnId: {}, segmentId: {}", testEnId, examPaperEnId, segmentId);
         
         try {
-            // 1. 从user_test_record_cet4集合查询学生答案
-            String answerCollectionId = fetchAnswerCollectionId();
-            if (answerCollectionId != null) {
-                String userAnswer = queryUserAnswerFromChroma(answerCollectionId, testEnId, examPaperEnId, segmentId);
-                if (userAnswer != null) {
-                    result.put("userAnswer", userAnswer);
-                    logger.info("✅ 查询到学生答案,长度: {}", userAnswer.length());
-                }
+            // 1. 从user_test_record_cet4集合查询学生答案（含尚在后写缓冲中的记录）
+            String userAnswer = userTestRecordChromaService.fetchUserAnswer(testEnId, examPaperEnId, segmentId);
+            if (userAnswer != null) {
+                result.put("userAnswer", userAnswer);
+                logger.info("✅ 查询到学生答案,长度: {}", userAnswer.length());
             }
-            
-            // 2. 从user_test_grade_record_cet4集合查询AI评分
-            String gradeCollectionId = fetchGradeCollectionId();
-            if (gradeCollectionId != null) {
-                Map<String, Object> aiGrade = queryAIGradeFromChroma(gradeCollectionId, testEnId, examPaperEnId, segmentId);
-                if (aiGrade != null) {
-                    result.putAll(aiGrade);
-                    logger.info("✅ 查询到AI评分: {}", aiGrade.get("score"));
-                }
+
+            // 2. 从user_test_grade_record_cet4集合查询AI评分（含尚在后写缓冲中的记录）
+            Map<String, Object> aiGrade = userTestRecordChromaService.fetchAIGrade(testEnId, examPaperEnId, segmentId);
+            if (aiGrade != null) {
+                result.putAll(aiGrade);
+                logger.info("✅ 查询到AI评分: {}", aiGrade.get("score"));
             }
-            
+
         } catch (Exception e) {
             logger.error("查询主观题答案失败: {}", e.getMessage(), e);
         }
         
         return result;
     }
-    
-    /**
-     * 获取答案集合ID
-     */
-    private String fetchAnswerCollectionId() throws Exception {
-        return fetchCollectionIdByName("user_test_record_cet4");
-    }
-    
-    /**
-     * 获取评分集合ID
-     */
-    private String fetchGradeCollectionId() throws Exception {
-        return fetchCollectionIdByName("user_test_grade_record_cet4");
-    }
-    
-    /**
-     * 根据集合名称获取集合ID
-     */
-    private String fetchCollectionIdByName(String collectionName) throws Exception {
-        String url = chromaBaseUrl + "/tenants/" + chromaTenant + "/databases/" + chromaDatabase + "/collections";
-        
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-        
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.GET, entity, String.class);
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            return null;
-        }
-        
-        JsonNode collections = objectMapper.readTree(response.getBody());
-        if (collections.isArray()) {
-            for (JsonNode collection : collections) {
-                if (collectionName.equals(collection.get("name").asText())) {
-                    return collection.get("id").asText();
-                }
-            }
-        }
-        return null;
-    }
-    
-    /**
-     * 从ChromaDB查询学生答案
-     */
-    private String queryUserAnswerFromChroma(String collectionId, Long testEnId, Long examPaperEnId, String segmentId) throws Exception {
-        String getUrl = chromaBaseUrl + "/tenants/" + chromaTenant + "/databases/" + chromaDatabase 
-                + "/collections/" + collectionId + "/get";
-        
-        Map<String, Object> requestBody = new LinkedHashMap<>();
-        requestBody.put("limit", 1);
-        requestBody.put("include", Arrays.asList("documents", "metadatas"));
-        
-        // where条件
-        Map<String, Object> cond1 = new LinkedHashMap<>();
-        cond1.put("test_en_id", testEnId.intValue());
-        
-        Map<String, Object> cond2 = new LinkedHashMap<>();
-        cond2.put("exam_paper_en_id", examPaperEnId.intValue());
-        
-        Map<String, Object> cond3 = new LinkedHashMap<>();
-        cond3.put("segment_id", segmentId);
-        
-        Map<String, Object> whereClause = new LinkedHashMap<>();
-        whereClause.put("$and", Arrays.asList(cond1, cond2, cond3));
-        requestBody.put("where", whereClause);
-        
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(requestBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-        
-        logger.debug("查询学生答案URL: {}", getUrl);
-        logger.debug("查询条件: {}", jsonBody);
-        
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(getUrl), HttpMethod.POST, entity, String.class);
-        
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            return null;
-        }
-        
-        JsonNode root = objectMapper.readTree(response.getBody());
-        JsonNode documents = root.path("documents");
-        
-        if (documents.isArray() && documents.size() > 0) {
-            return documents.get(0).asText();
-        }
-        
-        return null;
-    }
-    
-    /**
-     * 从ChromaDB查询AI评分结果
-     */
-    private Map<String, Object> queryAIGradeFromChroma(String collectionId, Long testEnId, Long examPaperEnId, String segmentId) throws Exception {
-        String getUrl = chromaBaseUrl + "/tenants/" + chromaTenant + "/databases/" + chromaDatabase 
-                + "/collections/" + collectionId + "/get";
-        
-        Map<String, Object> requestBody = new LinkedHashMap<>();
-        requestBody.put("limit", 1);
-        requestBody.put("include", Arrays.asList("documents", "metadatas"));
-        
-        // where条件
-        Map<String, Object> cond1 = new LinkedHashMap<>();
-        cond1.put("test_en_id", testEnId.intValue());
-        
-        Map<String, Object> cond2 = new LinkedHashMap<>();
-        cond2.put("exam_paper_en_id", examPaperEnId.intValue());
-        
-        Map<String, Object> cond3 = new LinkedHashMap<>();
-        cond3.put("segment_id", segmentId);
-        
-        Map<String, Object> whereClause = new LinkedHashMap<>();
-        whereClause.put("$and", Arrays.asList(cond1, cond2, cond3));
-        requestBody.put("where", whereClause);
-        
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(requestBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-        
-        logger.debug("查询AI评分URL: {}", getUrl);
-        logger.debug("查询条件: {}", jsonBody);
-        
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(getUrl), HttpMethod.POST, entity, String.class);
-        
-        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
-            return null;
-        }
-        
-        JsonNode root = objectMapper.readTree(response.getBody());
-        JsonNode documents = root.path("documents");
-        
-        if (documents.isArray() && documents.size() > 0) {
-            String aiGradeJson = documents.get(0).asText();
-            if (aiGradeJson != null && !aiGradeJson.isEmpty()) {
-                return objectMapper.readValue(
-                    aiGradeJson,
-                    new TypeReference<Map<String, Object>>() {}
-                );
-            }
-        }
-        
-        return null;
-    }
 }
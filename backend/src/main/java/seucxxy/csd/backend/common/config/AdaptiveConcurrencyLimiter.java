@@ -0,0 +1,212 @@
+package seucxxy.csd.backend.common.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个下游的自适应并发限制（AIMD）。
+ * 调用成功且并发已用到一半以上时上限缓慢加一（每轮约 +1），遇到限流、5xx 或超时时上限按比例下调；
+ * 超出上限的调用按用户分队列，放行时在各用户之间轮转，避免单个用户的大批量任务占满名额。
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** 用户 → 等待队列，按轮转顺序排列 */
+    private final Map<String, ArrayDeque<Waiter>> waiters = new LinkedHashMap<>();
+    private double limit;
+    private int inFlight;
+    private int queued;
+
+    private final Timer queueTimer;
+    private final Counter timeoutCounter;
+    private final Counter droppedCounter;
+
+    public AdaptiveConcurrencyLimiter(String name,
+                                      int initialLimit,
+                                      int minLimit,
+                                      int maxLimit,
+                                      double backoffRatio,
+                                      MeterRegistry meterRegistry) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = Math.min(0.99, Math.max(0.1, backoffRatio));
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        Gauge.builder("http.client.limiter.limit", this, AdaptiveConcurrencyLimiter::currentLimit)
+                .description("下游当前并发上限")
+                .tag("downstream", name)
+                .register(meterRegistry);
+        Gauge.builder("http.client.limiter.in_flight", this, AdaptiveConcurrencyLimiter::inFlight)
+                .description("下游当前在途请求数")
+                .tag("downstream", name)
+                .register(meterRegistry);
+        Gauge.builder("http.client.limiter.queued", this, AdaptiveConcurrencyLimiter::queued)
+                .description("等待下游并发名额的请求数")
+                .tag("downstream", name)
+                .register(meterRegistry);
+        this.queueTimer = Timer.builder("http.client.limiter.queue_time")
+                .description("等待下游并发名额的耗时")
+                .tag("downstream", name)
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("http.client.limiter.timeouts")
+                .description("排队超时被拒绝的请求数")
+                .tag("downstream", name)
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("http.client.limiter.dropped")
+                .description("触发并发上限下调的调用数（限流、5xx、超时）")
+                .tag("downstream", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取一个并发名额。
+     *
+     * @return 是否在超时前拿到名额
+     */
+    public boolean acquire(String user, long timeoutMs) throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (queued == 0 && inFlight < (int) limit) {
+                inFlight++;
+                queueTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return true;
+            }
+            Waiter waiter = new Waiter(lock.newCondition());
+            waiters.computeIfAbsent(user, k -> new ArrayDeque<>()).addLast(waiter);
+            queued++;
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            try {
+                while (!waiter.granted && remaining > 0) {
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // 名额已分配但调用方放弃，归还给下一个等待者
+                    inFlight--;
+                    grantWaiting();
+                } else {
+                    removeWaiter(user, waiter);
+                }
+                throw e;
+            }
+            if (!waiter.granted) {
+                removeWaiter(user, waiter);
+            }
+            queueTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (!waiter.granted) {
+                timeoutCounter.increment();
+            }
+            return waiter.granted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还名额并反馈本次调用结果。
+     *
+     * @param dropped 是否因下游过载失败（限流、5xx、超时）
+     */
+    public void release(boolean dropped) {
+        lock.lock();
+        try {
+            int inFlightAtCompletion = inFlight;
+            inFlight = Math.max(0, inFlight - 1);
+            if (dropped) {
+                droppedCounter.increment();
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (inFlightAtCompletion * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            grantWaiting();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void grantWaiting() {
+        while (inFlight < (int) limit && !waiters.isEmpty()) {
+            Iterator<Map.Entry<String, ArrayDeque<Waiter>>> iterator = waiters.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Waiter>> head = iterator.next();
+            iterator.remove();
+            Waiter waiter = head.getValue().pollFirst();
+            if (!head.getValue().isEmpty()) {
+                // 该用户还有等待者，排到队尾，下一个名额给其他用户
+                waiters.put(head.getKey(), head.getValue());
+            }
+            if (waiter == null) {
+                continue;
+            }
+            queued--;
+            inFlight++;
+            waiter.granted = true;
+            waiter.condition.signal();
+        }
+    }
+
+    private void removeWaiter(String user, Waiter waiter) {
+        ArrayDeque<Waiter> queue = waiters.get(user);
+        if (queue != null && queue.remove(waiter)) {
+            queued--;
+            if (queue.isEmpty()) {
+                waiters.remove(user);
+            }
+        }
+    }
+
+    private double currentLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Waiter {
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+}
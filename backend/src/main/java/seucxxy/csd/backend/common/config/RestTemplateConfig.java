@@ -1,15 +1,272 @@
 package seucxxy.csd.backend.common.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.common.util.DownstreamUserContext;
 
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 共享 RestTemplate：基于 Apache HttpClient 连接池，开启 keep-alive，
+ * 并按下游（Coze、ChromaDB、Python 分析服务、音频服务）分别设置读超时。
+ * 连接池占用通过 http.client.pool.* 指标上报，请求耗时由 Boot 自动记录为 http.client.requests。
+ * 各下游另有自适应并发限制（{@link AdaptiveConcurrencyLimiter}），指标为 http.client.limiter.*。
+ */
 @Configuration
 public class RestTemplateConfig {
 
+    @Value("${http.client.max-total:200}")
+    private int maxTotal;
+
+    @Value("${http.client.max-per-route:50}")
+    private int maxPerRoute;
+
+    @Value("${http.client.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${http.client.connection-request-timeout-ms:10000}")
+    private long connectionRequestTimeoutMs;
+
+    @Value("${http.client.keep-alive-seconds:60}")
+    private long keepAliveSeconds;
+
+    @Value("${http.client.read-timeout-ms.default:60000}")
+    private long defaultReadTimeoutMs;
+
+    @Value("${http.client.read-timeout-ms.coze:300000}")
+    private long cozeReadTimeoutMs;
+
+    @Value("${http.client.read-timeout-ms.chroma:60000}")
+    private long chromaReadTimeoutMs;
+
+    @Value("${http.client.read-timeout-ms.python:300000}")
+    private long pythonReadTimeoutMs;
+
+    @Value("${http.client.read-timeout-ms.audio:600000}")
+    private long audioReadTimeoutMs;
+
+    @Value("${coze.api.url:https://api.coze.cn/v1/workflow/run}")
+    private String cozeApiUrl;
+
+    @Value("${chromadb.base-url:http://localhost:8000/api/v2}")
+    private String chromaBaseUrl;
+
+    @Value("${python.service.base-url:http://localhost:5000}")
+    private String pythonBaseUrl;
+
+    @Value("${http.client.limiter.enabled:true}")
+    private boolean limiterEnabled;
+
+    @Value("${http.client.limiter.queue-timeout-ms:120000}")
+    private long limiterQueueTimeoutMs;
+
+    @Value("${http.client.limiter.backoff-ratio:0.9}")
+    private double limiterBackoffRatio;
+
+    @Value("${http.client.limiter.coze.initial:8}")
+    private int cozeInitialLimit;
+
+    @Value("${http.client.limiter.coze.max:32}")
+    private int cozeMaxLimit;
+
+    @Value("${http.client.limiter.deepseek.initial:8}")
+    private int deepseekInitialLimit;
+
+    @Value("${http.client.limiter.deepseek.max:32}")
+    private int deepseekMaxLimit;
+
+    @Value("${http.client.limiter.chroma.initial:16}")
+    private int chromaInitialLimit;
+
+    @Value("${http.client.limiter.chroma.max:64}")
+    private int chromaMaxLimit;
+
+    @Value("${http.client.limiter.audio.initial:4}")
+    private int audioInitialLimit;
+
+    @Value("${http.client.limiter.audio.max:8}")
+    private int audioMaxLimit;
+
+    @Value("${http.client.limiter.min:1}")
+    private int limiterMinLimit;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager httpClientConnectionManager(MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager manager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(5))
+                        .setTimeToLive(TimeValue.ofMinutes(5))
+                        .build())
+                .build();
+        registerPoolGauge(meterRegistry, manager, "http.client.pool.leased", PoolStats::getLeased);
+        registerPoolGauge(meterRegistry, manager, "http.client.pool.available", PoolStats::getAvailable);
+        registerPoolGauge(meterRegistry, manager, "http.client.pool.pending", PoolStats::getPending);
+        registerPoolGauge(meterRegistry, manager, "http.client.pool.max", PoolStats::getMax);
+        return manager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient pooledHttpClient(PoolingHttpClientConnectionManager connectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofSeconds(keepAliveSeconds))
+                .evictIdleConnections(TimeValue.ofSeconds(keepAliveSeconds))
+                .evictExpiredConnections()
+                .build();
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
-        // 不设置超时，保持与默认行为一致
-        return new RestTemplate();
+    public RestTemplate restTemplate(RestTemplateBuilder builder,
+                                     CloseableHttpClient pooledHttpClient,
+                                     MeterRegistry meterRegistry) {
+        Map<String, ClientHttpRequestFactory> routes = new LinkedHashMap<>();
+        // 音频服务与 Python 分析服务同端口，需先匹配更具体的前缀
+        routes.put(trimSlash(pythonBaseUrl) + "/api/audio", requestFactory(pooledHttpClient, audioReadTimeoutMs));
+        routes.put(trimSlash(pythonBaseUrl), requestFactory(pooledHttpClient, pythonReadTimeoutMs));
+        routes.put(trimSlash(chromaBaseUrl), requestFactory(pooledHttpClient, chromaReadTimeoutMs));
+        routes.put(originOf(cozeApiUrl), requestFactory(pooledHttpClient, cozeReadTimeoutMs));
+        ClientHttpRequestFactory fallback = requestFactory(pooledHttpClient, defaultReadTimeoutMs);
+        builder = builder.requestFactory(() -> new RoutingRequestFactory(routes, fallback));
+        if (limiterEnabled) {
+            // 与 routes 相同的前缀顺序；Python 服务（非音频）即 DeepSeek 生成/解析
+            Map<String, AdaptiveConcurrencyLimiter> limiters = new LinkedHashMap<>();
+            limiters.put(trimSlash(pythonBaseUrl) + "/api/audio", limiter("audio", audioInitialLimit, audioMaxLimit, meterRegistry));
+            limiters.put(trimSlash(pythonBaseUrl), limiter("deepseek", deepseekInitialLimit, deepseekMaxLimit, meterRegistry));
+            limiters.put(trimSlash(chromaBaseUrl), limiter("chroma", chromaInitialLimit, chromaMaxLimit, meterRegistry));
+            limiters.put(originOf(cozeApiUrl), limiter("coze", cozeInitialLimit, cozeMaxLimit, meterRegistry));
+            builder = builder.additionalInterceptors(new ConcurrencyLimitInterceptor(limiters, limiterQueueTimeoutMs));
+        }
+        return builder.build();
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(String name, int initialLimit, int maxLimit, MeterRegistry meterRegistry) {
+        return new AdaptiveConcurrencyLimiter(name, initialLimit, limiterMinLimit, maxLimit, limiterBackoffRatio, meterRegistry);
+    }
+
+    private HttpComponentsClientHttpRequestFactory requestFactory(CloseableHttpClient httpClient, long readTimeoutMs) {
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        factory.setConnectionRequestTimeout(Duration.ofMillis(connectionRequestTimeoutMs));
+        factory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+        return factory;
+    }
+
+    private void registerPoolGauge(MeterRegistry registry,
+                                   PoolingHttpClientConnectionManager manager,
+                                   String name,
+                                   ToDoubleFunction<PoolStats> value) {
+        Gauge.builder(name, manager, m -> value.applyAsDouble(m.getTotalStats()))
+                .register(registry);
+    }
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private static String originOf(String url) {
+        URI uri = URI.create(url);
+        return uri.getScheme() + "://" + uri.getRawAuthority();
+    }
+
+    /**
+     * 所有出站调用按下游经过自适应并发限制，排队超时以 IOException 失败（RestTemplate 包装为 ResourceAccessException）。
+     */
+    private static final class ConcurrencyLimitInterceptor implements ClientHttpRequestInterceptor {
+
+        private final Map<String, AdaptiveConcurrencyLimiter> limiters;
+        private final long queueTimeoutMs;
+
+        private ConcurrencyLimitInterceptor(Map<String, AdaptiveConcurrencyLimiter> limiters, long queueTimeoutMs) {
+            this.limiters = limiters;
+            this.queueTimeoutMs = queueTimeoutMs;
+        }
+
+        @Override
+        public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+                throws IOException {
+            AdaptiveConcurrencyLimiter limiter = resolve(request.getURI().toString());
+            if (limiter == null) {
+                return execution.execute(request, body);
+            }
+            try {
+                if (!limiter.acquire(DownstreamUserContext.current(), queueTimeoutMs)) {
+                    throw new IOException("下游 " + limiter.getName() + " 并发已满，排队超时");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("等待下游 " + limiter.getName() + " 并发名额被中断", e);
+            }
+            boolean dropped = true;
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                int status = response.getStatusCode().value();
+                dropped = status == 429 || status >= 500;
+                return response;
+            } finally {
+                limiter.release(dropped);
+            }
+        }
+
+        private AdaptiveConcurrencyLimiter resolve(String target) {
+            for (Map.Entry<String, AdaptiveConcurrencyLimiter> entry : limiters.entrySet()) {
+                if (target.startsWith(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 按 URL 前缀选择对应下游的请求工厂（共享同一个连接池，仅超时不同）。
+     */
+    private static final class RoutingRequestFactory implements ClientHttpRequestFactory {
+
+        private final Map<String, ClientHttpRequestFactory> routes;
+        private final ClientHttpRequestFactory fallback;
+
+        private RoutingRequestFactory(Map<String, ClientHttpRequestFactory> routes, ClientHttpRequestFactory fallback) {
+            this.routes = routes;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+            String target = uri.toString();
+            for (Map.Entry<String, ClientHttpRequestFactory> route : routes.entrySet()) {
+                if (target.startsWith(route.getKey())) {
+                    return route.getValue().createRequest(uri, httpMethod);
+                }
+            }
+            return fallback.createRequest(uri, httpMethod);
+        }
     }
-}
\ No newline at end of file
+}
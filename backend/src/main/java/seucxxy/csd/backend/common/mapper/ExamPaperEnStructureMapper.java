@@ -6,6 +6,7 @@ import org.apache.ibatis.annotations.Select;
 import seucxxy.csd.backend.common.dto.QuestionTypeScoreConf;
 
 import java.util.List;
+import java.util.Map;
 
 @Mapper
 public interface ExamPaperEnStructureMapper {
@@ -39,4 +40,17 @@ public interface ExamPaperEnStructureMapper {
      */
     @Select("SELECT subject_en_id FROM exam_paper_en_structure WHERE question_type = #{questionType} LIMIT 1")
     Integer findSubjectEnIdByQuestionType(@Param("questionType") String questionType);
-}
\ No newline at end of file
+
+    /**
+     * 题型与学科ID的全部组合，顺序与 {@link #listQuestionTypes} 的扫描顺序一致
+     */
+    @Select("SELECT question_type AS questionType, subject_en_id AS subjectEnId FROM exam_paper_en_structure")
+    List<Map<String, Object>> listQuestionTypeSubjects();
+
+    /**
+     * 题型/学科组合的内容指纹（行数:行校验和之和），用于判断内存目录是否过期
+     */
+    @Select("SELECT CONCAT(COUNT(*), ':', COALESCE(SUM(CRC32(CONCAT_WS('|', question_type, subject_en_id))), 0)) " +
+            "FROM exam_paper_en_structure")
+    String fingerprint();
+}
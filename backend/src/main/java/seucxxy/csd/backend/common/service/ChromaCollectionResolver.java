@@ -0,0 +1,239 @@
+package seucxxy.csd.backend.common.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ChromaDB 集合名 → 集合ID 解析器，供所有 Chroma 相关服务共用。
+ * 每个集合名缓存一个解析中的 future：未命中时由第一个线程在锁外拉取集合列表（顺带缓存其余名称）或 get_or_create，
+ * 同一集合名的并发未命中等待同一个 future，只发一次请求；不同集合名的解析互不阻塞。
+ * 按集合ID访问 Chroma 的调用都应经过 {@link #withCollectionId}：遇到 404（集合被删除重建）时失效缓存并重试一次。
+ */
+@Service
+public class ChromaCollectionResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChromaCollectionResolver.class);
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final Map<String, CompletableFuture<String>> collectionIds = new ConcurrentHashMap<>();
+
+    @Value("${chromadb.base-url:http://localhost:8000/api/v2}")
+    private String chromaBaseUrl;
+
+    @Value("${chromadb.tenant:default_tenant}")
+    private String tenant;
+
+    @Value("${chromadb.database:default_database}")
+    private String database;
+
+    public ChromaCollectionResolver(RestTemplate restTemplate, ObjectMapper objectMapper) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 集合回调，参数为解析得到的集合ID。
+     */
+    @FunctionalInterface
+    public interface CollectionCall<T> {
+        T apply(String collectionId) throws Exception;
+    }
+
+    /**
+     * 返回集合ID，集合不存在时返回 null。
+     */
+    public String resolve(String collectionName) throws JsonProcessingException {
+        return load(collectionName, name -> {
+            Map<String, String> listed = listCollections();
+            listed.forEach((otherName, id) -> {
+                if (!otherName.equals(name)) {
+                    collectionIds.putIfAbsent(otherName, CompletableFuture.completedFuture(id));
+                }
+            });
+            return listed.get(name);
+        });
+    }
+
+    /**
+     * 返回集合ID，集合不存在时抛出异常。
+     */
+    public String require(String collectionName) throws JsonProcessingException {
+        String collectionId = resolve(collectionName);
+        if (collectionId == null) {
+            throw new IllegalStateException(
+                    String.format("ChromaDB 集合不存在: %s (tenant=%s, database=%s)", collectionName, tenant, database));
+        }
+        return collectionId;
+    }
+
+    /**
+     * 返回集合ID，集合不存在时创建（单次 get_or_create 请求）。
+     */
+    public String resolveOrCreate(String collectionName, String description) throws JsonProcessingException {
+        while (true) {
+            // 等到的可能是另一线程按列表解析、结果为不存在的 future，此时自己再 get_or_create
+            String collectionId = load(collectionName, name -> getOrCreate(name, description));
+            if (collectionId != null) {
+                return collectionId;
+            }
+        }
+    }
+
+    /**
+     * 以集合ID执行一次 Chroma 调用；若返回 404 说明缓存的ID已失效，刷新后重试一次。
+     */
+    public <T> T withCollectionId(String collectionName, boolean createIfMissing, String description,
+                                  CollectionCall<T> call) throws Exception {
+        String collectionId = createIfMissing ? resolveOrCreate(collectionName, description) : require(collectionName);
+        try {
+            return call.apply(collectionId);
+        } catch (HttpClientErrorException.NotFound e) {
+            logger.warn("ChromaDB 集合 {} (id={}) 返回 404，刷新集合ID后重试", collectionName, collectionId);
+            invalidate(collectionName, collectionId);
+            String refreshed = createIfMissing ? resolveOrCreate(collectionName, description) : require(collectionName);
+            return call.apply(refreshed);
+        }
+    }
+
+    public void invalidate(String collectionName) {
+        collectionIds.remove(collectionName);
+    }
+
+    /**
+     * 仅当缓存的仍是失效的ID时移除，避免把其他线程刚刷新的结果清掉
+     */
+    private void invalidate(String collectionName, String staleId) {
+        CompletableFuture<String> cached = collectionIds.get(collectionName);
+        if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()
+                && staleId.equals(cached.getNow(null))) {
+            collectionIds.remove(collectionName, cached);
+        }
+    }
+
+    public String collectionsBaseUrl() {
+        return String.format("%s/tenants/%s/databases/%s/collections",
+                trimTrailingSlash(Objects.requireNonNull(chromaBaseUrl, "chromadb.base-url 未配置")),
+                Objects.requireNonNull(tenant, "chromadb.tenant 未配置"),
+                Objects.requireNonNull(database, "chromadb.database 未配置"));
+    }
+
+    /**
+     * 同一集合名的并发未命中只加载一次，HTTP 请求在 Map 的锁外执行；加载结果为 null 或失败时不缓存
+     */
+    private String load(String collectionName, CollectionLoader loader) throws JsonProcessingException {
+        CompletableFuture<String> cached = collectionIds.get(collectionName);
+        if (cached == null) {
+            CompletableFuture<String> loading = new CompletableFuture<>();
+            cached = collectionIds.putIfAbsent(collectionName, loading);
+            if (cached == null) {
+                try {
+                    String collectionId = loader.load(collectionName);
+                    if (collectionId == null) {
+                        collectionIds.remove(collectionName, loading);
+                    }
+                    loading.complete(collectionId);
+                    return collectionId;
+                } catch (JsonProcessingException | RuntimeException e) {
+                    collectionIds.remove(collectionName, loading);
+                    loading.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        }
+        return await(cached);
+    }
+
+    private String await(CompletableFuture<String> future) throws JsonProcessingException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JsonProcessingException jsonException) {
+                throw jsonException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface CollectionLoader {
+        String load(String collectionName) throws JsonProcessingException;
+    }
+
+    private Map<String, String> listCollections() throws JsonProcessingException {
+        Map<String, String> listed = new HashMap<>();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        ResponseEntity<String> response = restTemplate.exchange(
+                URI.create(collectionsBaseUrl()), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            logger.warn("获取 ChromaDB 集合列表失败，status={}", response.getStatusCode());
+            return listed;
+        }
+        JsonNode collections = objectMapper.readTree(response.getBody());
+        if (!collections.isArray()) {
+            return listed;
+        }
+        for (JsonNode collection : collections) {
+            String name = collection.path("name").asText("");
+            String id = collection.path("id").asText("");
+            if (!name.isEmpty() && !id.isEmpty()) {
+                listed.put(name, id);
+            }
+        }
+        return listed;
+    }
+
+    private String getOrCreate(String collectionName, String description) throws JsonProcessingException {
+        Map<String, Object> requestBody = new LinkedHashMap<>();
+        requestBody.put("name", collectionName);
+        requestBody.put("metadata", Collections.singletonMap("description", description));
+        requestBody.put("get_or_create", true);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> entity = new HttpEntity<>(objectMapper.writeValueAsString(requestBody), headers);
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                URI.create(collectionsBaseUrl()), HttpMethod.POST, entity, String.class);
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            throw new IllegalStateException("创建 ChromaDB 集合失败: " + collectionName);
+        }
+        String collectionId = objectMapper.readTree(response.getBody()).path("id").asText("");
+        if (collectionId.isEmpty()) {
+            throw new IllegalStateException("创建 ChromaDB 集合后未返回ID: " + collectionName);
+        }
+        logger.info("ChromaDB 集合就绪: {} (id: {})", collectionName, collectionId);
+        return collectionId;
+    }
+
+    private String trimTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
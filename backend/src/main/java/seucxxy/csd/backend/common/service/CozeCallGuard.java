@@ -0,0 +1,321 @@
+package seucxxy.csd.backend.common.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Coze 工作流调用的重试与熔断，供所有 Coze 调用方共用。
+ * <ul>
+ *     <li>重试间隔为指数退避加全抖动，避免上游抖动时各单元同时重试；</li>
+ *     <li>每个工作流一个熔断器：连续失败达到阈值后打开，打开期间直接失败，由调用方走 DeepSeek/Python 降级；
+ *     冷却结束后放行一个探测请求，成功即恢复；</li>
+ *     <li>每个工作流一个重试预算：每次调用存入固定比例的令牌，每次重试消耗一个，预算耗尽时不再重试；</li>
+ *     <li>对冲模式下降级结果已胜出时（{@link CozeHedgingService#isCurrentCallCancelled()}），不再继续重试。</li>
+ * </ul>
+ */
+@Service
+public class CozeCallGuard {
+
+    private static final Logger logger = LoggerFactory.getLogger(CozeCallGuard.class);
+
+    /**
+     * 单次尝试，参数为尝试序号（从 1 开始）。抛出异常或返回 null 视为本次失败。
+     * 抛出 {@link ContentRejectedException} 时仍会重试，但不计入熔断失败。
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+        T call(int attemptNumber) throws Exception;
+    }
+
+    /**
+     * 工作流已正常响应、但输出内容解析或校验不通过（如 JSON 格式错误、题目数量不符）。
+     * 说明上游可用，只按普通失败重试，不计入熔断器的连续失败次数。
+     */
+    public static class ContentRejectedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ContentRejectedException(String message) {
+            super(message);
+        }
+
+        public ContentRejectedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+    private final int failureThreshold;
+    private final long openDurationMs;
+    private final double retryBudgetRatio;
+    private final double retryBudgetMax;
+    private final Map<String, WorkflowState> states = new ConcurrentHashMap<>();
+
+    public CozeCallGuard(MeterRegistry meterRegistry,
+                         @Value("${coze.resilience.max-attempts:4}") int maxAttempts,
+                         @Value("${coze.resilience.backoff-base-ms:500}") long baseBackoffMs,
+                         @Value("${coze.resilience.backoff-max-ms:8000}") long maxBackoffMs,
+                         @Value("${coze.resilience.breaker.failure-threshold:5}") int failureThreshold,
+                         @Value("${coze.resilience.breaker.open-ms:30000}") long openDurationMs,
+                         @Value("${coze.resilience.retry-budget.ratio:0.2}") double retryBudgetRatio,
+                         @Value("${coze.resilience.retry-budget.max:20}") double retryBudgetMax) {
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseBackoffMs = Math.max(0, baseBackoffMs);
+        this.maxBackoffMs = Math.max(this.baseBackoffMs, maxBackoffMs);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMs = Math.max(0, openDurationMs);
+        this.retryBudgetRatio = Math.max(0, retryBudgetRatio);
+        this.retryBudgetMax = Math.max(0, retryBudgetMax);
+    }
+
+    /**
+     * 按重试、熔断、预算策略执行一次 Coze 调用。
+     *
+     * @param workflowId 工作流ID，熔断器与重试预算按它隔离
+     * @param attempt    单次尝试
+     * @return 第一次成功的结果
+     * @throws RuntimeException 熔断打开、预算耗尽或达到最大尝试次数时抛出，cause 为最后一次失败原因
+     */
+    public <T> T execute(String workflowId, Attempt<T> attempt) {
+        WorkflowState state = states.computeIfAbsent(workflowId, WorkflowState::new);
+        state.depositRetryToken();
+        Exception lastException = null;
+        for (int attemptNumber = 1; attemptNumber <= maxAttempts; attemptNumber++) {
+            // 先扣预算、退避，再占用半开探测名额，避免探测名额在等待或放弃重试时被占住
+            if (attemptNumber > 1) {
+                if (CozeHedgingService.isCurrentCallCancelled()) {
+                    logger.info("对冲降级已返回结果，停止Coze重试 workflow_id={}", workflowId);
+                    break;
+                }
+                if (!state.withdrawRetryToken()) {
+                    state.budgetExhaustedCounter.increment();
+                    logger.warn("Coze重试预算已耗尽，不再重试 workflow_id={}", workflowId);
+                    break;
+                }
+                state.retryCounter.increment();
+                sleepBackoff(attemptNumber - 1);
+                if (CozeHedgingService.isCurrentCallCancelled()) {
+                    logger.info("对冲降级已返回结果，停止Coze重试 workflow_id={}", workflowId);
+                    break;
+                }
+            }
+            int permit = state.tryAcquire();
+            if (permit == WorkflowState.REJECTED) {
+                state.rejectedCounter.increment();
+                throw new RuntimeException("Coze工作流熔断中，暂不调用 workflow_id=" + workflowId, lastException);
+            }
+            try {
+                T result = attempt.call(attemptNumber);
+                if (result != null) {
+                    state.onSuccess();
+                    return result;
+                }
+                lastException = new IllegalStateException("Coze返回结果为空");
+                state.onFailure();
+            } catch (ContentRejectedException e) {
+                lastException = e;
+                state.onContentRejected();
+            } catch (Exception e) {
+                lastException = e;
+                // 对冲降级胜出后被中断的调用不代表 Coze 故障，不计入熔断
+                if (!CozeHedgingService.isCurrentCallCancelled()) {
+                    state.onFailure();
+                }
+            } finally {
+                if (permit == WorkflowState.PROBE) {
+                    state.releaseProbe();
+                }
+            }
+            logger.warn("Coze调用失败 workflow_id={} (第{}次): {}", workflowId, attemptNumber,
+                    lastException.getMessage());
+        }
+        throw new RuntimeException("Coze工作流调用失败 workflow_id=" + workflowId, lastException);
+    }
+
+    /**
+     * 熔断器当前是否打开（打开期间调用方可直接走降级）。
+     */
+    public boolean isOpen(String workflowId) {
+        WorkflowState state = states.get(workflowId);
+        return state != null && state.stateCode() == WorkflowState.OPEN;
+    }
+
+    private void sleepBackoff(int retryNumber) {
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(retryNumber - 1, 20));
+        if (ceiling <= 0) {
+            return;
+        }
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Coze重试等待被中断", e);
+        }
+    }
+
+    /**
+     * 单个工作流的熔断状态与重试预算。
+     */
+    private final class WorkflowState {
+
+        static final int CLOSED = 0;
+        static final int OPEN = 1;
+        static final int HALF_OPEN = 2;
+
+        /** tryAcquire 结果：拒绝 / 普通放行 / 半开探测 */
+        static final int REJECTED = 0;
+        static final int PERMITTED = 1;
+        static final int PROBE = 2;
+
+        private final String workflowId;
+        private int state = CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private boolean probeInFlight;
+        private double retryTokens;
+
+        private final Counter retryCounter;
+        private final Counter rejectedCounter;
+        private final Counter budgetExhaustedCounter;
+        private final Counter failureCounter;
+        private final Counter successCounter;
+        private final Counter contentRejectedCounter;
+
+        WorkflowState(String workflowId) {
+            this.workflowId = workflowId;
+            this.retryTokens = retryBudgetMax;
+            this.retryCounter = Counter.builder("coze.retries")
+                    .description("Coze调用重试次数")
+                    .tag("workflow", workflowId)
+                    .register(meterRegistry);
+            this.rejectedCounter = Counter.builder("coze.breaker.rejected")
+                    .description("熔断打开期间被直接拒绝的调用次数")
+                    .tag("workflow", workflowId)
+                    .register(meterRegistry);
+            this.budgetExhaustedCounter = Counter.builder("coze.retry_budget.exhausted")
+                    .description("因重试预算耗尽而放弃重试的次数")
+                    .tag("workflow", workflowId)
+                    .register(meterRegistry);
+            this.failureCounter = Counter.builder("coze.attempts")
+                    .description("Coze单次尝试结果")
+                    .tag("workflow", workflowId)
+                    .tag("outcome", "failure")
+                    .register(meterRegistry);
+            this.successCounter = Counter.builder("coze.attempts")
+                    .description("Coze单次尝试结果")
+                    .tag("workflow", workflowId)
+                    .tag("outcome", "success")
+                    .register(meterRegistry);
+            this.contentRejectedCounter = Counter.builder("coze.attempts")
+                    .description("Coze单次尝试结果")
+                    .tag("workflow", workflowId)
+                    .tag("outcome", "content_rejected")
+                    .register(meterRegistry);
+            Gauge.builder("coze.breaker.state", this, WorkflowState::stateCode)
+                    .description("熔断器状态：0 关闭，1 打开，2 半开")
+                    .tag("workflow", workflowId)
+                    .register(meterRegistry);
+            Gauge.builder("coze.retry_budget.tokens", this, WorkflowState::tokens)
+                    .description("剩余重试预算")
+                    .tag("workflow", workflowId)
+                    .register(meterRegistry);
+        }
+
+        synchronized int tryAcquire() {
+            if (state == OPEN) {
+                if (System.currentTimeMillis() - openedAt < openDurationMs) {
+                    return REJECTED;
+                }
+                state = HALF_OPEN;
+                probeInFlight = false;
+            }
+            if (state == HALF_OPEN) {
+                if (probeInFlight) {
+                    return REJECTED;
+                }
+                probeInFlight = true;
+                return PROBE;
+            }
+            return PERMITTED;
+        }
+
+        synchronized void onSuccess() {
+            successCounter.increment();
+            if (state != CLOSED) {
+                logger.info("Coze熔断恢复 workflow_id={}", workflowId);
+            }
+            state = CLOSED;
+            consecutiveFailures = 0;
+            probeInFlight = false;
+        }
+
+        /**
+         * 上游有响应但内容不合格：上游可用，按恢复处理，不计连续失败
+         */
+        synchronized void onContentRejected() {
+            contentRejectedCounter.increment();
+            if (state != CLOSED) {
+                logger.info("Coze熔断恢复 workflow_id={}（上游有响应，输出内容校验未通过）", workflowId);
+            }
+            state = CLOSED;
+            consecutiveFailures = 0;
+            probeInFlight = false;
+        }
+
+        /**
+         * 探测请求结束后释放探测名额（成功/失败处理中已释放时为空操作），异常退出时也不会占住名额
+         */
+        synchronized void releaseProbe() {
+            if (state == HALF_OPEN) {
+                probeInFlight = false;
+            }
+        }
+
+        synchronized void onFailure() {
+            failureCounter.increment();
+            consecutiveFailures++;
+            if (state == HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                if (state != OPEN) {
+                    logger.warn("Coze熔断打开 workflow_id={}，连续失败{}次，{}ms 内直接降级",
+                            workflowId, consecutiveFailures, openDurationMs);
+                }
+                state = OPEN;
+                openedAt = System.currentTimeMillis();
+                probeInFlight = false;
+            }
+        }
+
+        synchronized void depositRetryToken() {
+            retryTokens = Math.min(retryBudgetMax, retryTokens + retryBudgetRatio);
+        }
+
+        synchronized boolean withdrawRetryToken() {
+            if (retryTokens < 1) {
+                return false;
+            }
+            retryTokens -= 1;
+            return true;
+        }
+
+        synchronized int stateCode() {
+            return state;
+        }
+
+        synchronized double tokens() {
+            return retryTokens;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package seucxxy.csd.backend.common.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coze 与 DeepSeek/Python 降级之间的对冲请求（可选开启）。
+ * 关闭时与原逻辑一致：Coze 失败后再调用降级；开启后 Coze 超过其近期耗时的指定分位数仍未返回时，
+ * 并行发起降级调用，取先返回的有效结果。全局在途对冲数有上限，名额用完时退回为串行降级。
+ * 对冲计时从 Coze 调用在线程池中真正开始执行时算起。降级结果胜出后 Coze 调用被标记为已取消并中断其线程：
+ * {@link CozeCallGuard} 不再继续重试，等待限流名额或退避中的调用立即结束；
+ * 虚拟线程模式下阻塞在 socket 读上的请求会随中断关闭连接。平台线程上已发出的 HTTP 读取无法被中断，
+ * 仍会占用线程与下游并发名额直到响应返回或读超时，之后不再重试。
+ */
+@Service
+public class CozeHedgingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CozeHedgingService.class);
+
+    private final Executor hedgeExecutor;
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayMs;
+    private final long initialDelayMs;
+    private final int minSamples;
+    private final int window;
+    private final Semaphore hedgePermits;
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    /** 当前线程上正在执行的对冲主调用的取消标记，非对冲线程为 null */
+    private static final ThreadLocal<AtomicBoolean> CURRENT_CANCELLED = new ThreadLocal<>();
+
+    private final Counter launchedCounter;
+    private final Counter fallbackWonCounter;
+    private final Counter skippedCounter;
+
+    public CozeHedgingService(@Qualifier("cozeHedgeExecutor") Executor hedgeExecutor,
+                              MeterRegistry meterRegistry,
+                              @Value("${coze.hedge.enabled:false}") boolean enabled,
+                              @Value("${coze.hedge.percentile:0.95}") double percentile,
+                              @Value("${coze.hedge.min-delay-ms:5000}") long minDelayMs,
+                              @Value("${coze.hedge.initial-delay-ms:60000}") long initialDelayMs,
+                              @Value("${coze.hedge.min-samples:20}") int minSamples,
+                              @Value("${coze.hedge.window:200}") int window,
+                              @Value("${coze.hedge.max-in-flight:4}") int maxInFlight) {
+        this.hedgeExecutor = hedgeExecutor;
+        this.enabled = enabled;
+        this.percentile = Math.min(1.0, Math.max(0.0, percentile));
+        this.minDelayMs = Math.max(0, minDelayMs);
+        this.initialDelayMs = Math.max(this.minDelayMs, initialDelayMs);
+        this.minSamples = Math.max(1, minSamples);
+        this.window = Math.max(this.minSamples, window);
+        this.hedgePermits = new Semaphore(Math.max(1, maxInFlight));
+        this.launchedCounter = Counter.builder("coze.hedge.launched")
+                .description("发起的对冲降级调用次数")
+                .register(meterRegistry);
+        this.fallbackWonCounter = Counter.builder("coze.hedge.fallback_won")
+                .description("对冲中降级结果先返回的次数")
+                .register(meterRegistry);
+        this.skippedCounter = Counter.builder("coze.hedge.skipped")
+                .description("在途对冲已满、未能发起对冲的次数")
+                .register(meterRegistry);
+        int permits = Math.max(1, maxInFlight);
+        Gauge.builder("coze.hedge.in_flight", hedgePermits, s -> permits - s.availablePermits())
+                .description("当前在途对冲调用数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 调用 Coze，失败或慢时使用降级结果。
+     *
+     * @param workflowId Coze 工作流ID，耗时分位数按它统计
+     * @param primary    Coze 调用，抛异常或返回 null 视为失败
+     * @param fallback   降级调用，其结果（包括 null 与异常）原样交给调用方
+     */
+    public <T> T call(String workflowId, Callable<T> primary, Callable<T> fallback) throws Exception {
+        if (!enabled) {
+            T result = callPrimaryQuietly(workflowId, primary);
+            return result != null ? result : fallback.call();
+        }
+
+        PrimaryCall primaryCall = new PrimaryCall();
+        CompletableFuture<Void> primaryStarted = new CompletableFuture<>();
+        CompletableFuture<T> primaryFuture = CompletableFuture.supplyAsync(() -> {
+            primaryCall.attach();
+            primaryStarted.complete(null);
+            CURRENT_CANCELLED.set(primaryCall.cancelled);
+            try {
+                return unchecked(() -> callPrimaryQuietly(workflowId, primary));
+            } finally {
+                CURRENT_CANCELLED.remove();
+                primaryCall.detach();
+            }
+        }, hedgeExecutor);
+        long delayMs = hedgeDelayMs(workflowId);
+        try {
+            // 在线程池中排队的时间不计入对冲延迟
+            primaryStarted.get();
+            T result = primaryFuture.get(delayMs, TimeUnit.MILLISECONDS);
+            return result != null ? result : fallback.call();
+        } catch (TimeoutException e) {
+            // Coze 已慢于近期分位数，尝试对冲
+        }
+
+        if (!hedgePermits.tryAcquire()) {
+            skippedCounter.increment();
+            T result = join(primaryFuture);
+            return result != null ? result : fallback.call();
+        }
+        launchedCounter.increment();
+        logger.info("Coze超过{}ms未返回，并行发起降级调用 workflow_id={}", delayMs, workflowId);
+        CompletableFuture<T> fallbackFuture;
+        try {
+            fallbackFuture = CompletableFuture.supplyAsync(() -> unchecked(fallback), hedgeExecutor);
+        } catch (RuntimeException e) {
+            hedgePermits.release();
+            throw e;
+        }
+        fallbackFuture.whenComplete((r, e) -> hedgePermits.release());
+
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        primaryFuture.thenAccept(r -> {
+            if (r != null) {
+                winner.complete(r);
+            }
+        });
+        fallbackFuture.thenAccept(r -> {
+            if (r != null && winner.complete(r)) {
+                fallbackWonCounter.increment();
+                // 降级已胜出：Coze 侧不再重试，并中断仍在执行的调用
+                primaryCall.cancel();
+            }
+        });
+        CompletableFuture.allOf(primaryFuture.exceptionally(e -> null), fallbackFuture).whenComplete((v, e) -> {
+            if (winner.isDone()) {
+                return;
+            }
+            T fromPrimary = primaryFuture.isCompletedExceptionally() ? null : primaryFuture.getNow(null);
+            if (fromPrimary != null) {
+                winner.complete(fromPrimary);
+                return;
+            }
+            T fromFallback = fallbackFuture.isCompletedExceptionally() ? null : fallbackFuture.getNow(null);
+            if (e != null && fromFallback == null) {
+                winner.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                winner.complete(fromFallback);
+            }
+        });
+        return join(winner);
+    }
+
+    private <T> T callPrimaryQuietly(String workflowId, Callable<T> primary) {
+        long start = System.nanoTime();
+        try {
+            T result = primary.call();
+            if (result != null) {
+                latencies.computeIfAbsent(workflowId, k -> new LatencyWindow(window))
+                        .record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            return result;
+        } catch (Exception e) {
+            if (isCurrentCallCancelled()) {
+                logger.info("降级结果已返回，放弃Coze调用 workflow_id={}", workflowId);
+            } else {
+                logger.warn("Coze调用失败，转入降级 workflow_id={}: {}", workflowId, e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 当前线程上的 Coze 主调用是否已因对冲降级胜出而取消（不在对冲线程上时恒为 false）。
+     */
+    public static boolean isCurrentCallCancelled() {
+        AtomicBoolean cancelled = CURRENT_CANCELLED.get();
+        return cancelled != null && cancelled.get();
+    }
+
+    private long hedgeDelayMs(String workflowId) {
+        LatencyWindow latencyWindow = latencies.get(workflowId);
+        if (latencyWindow == null) {
+            return initialDelayMs;
+        }
+        long value = latencyWindow.percentile(percentile, minSamples);
+        return value < 0 ? initialDelayMs : Math.max(minDelayMs, value);
+    }
+
+    private static <T> T unchecked(Callable<T> callable) {
+        try {
+            return callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception ex) {
+                throw ex;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 一次对冲中的 Coze 主调用：记录执行线程，降级胜出时设置取消标记并中断该线程。
+     * 执行线程登记与中断在同一把锁内，调用结束注销后不会再被中断，残留的中断状态在注销时清除，不影响线程池中的下一个任务。
+     */
+    private static final class PrimaryCall {
+
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        private Thread thread;
+
+        synchronized void attach() {
+            thread = Thread.currentThread();
+        }
+
+        void detach() {
+            synchronized (this) {
+                thread = null;
+            }
+            Thread.interrupted();
+        }
+
+        synchronized void cancel() {
+            cancelled.set(true);
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 最近若干次成功调用的耗时（毫秒），环形覆盖。
+     */
+    private static final class LatencyWindow {
+
+        private final long[] samples;
+        private int next;
+        private int count;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * 样本不足时返回 -1。
+         */
+        synchronized long percentile(double p, int minSamples) {
+            if (count < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
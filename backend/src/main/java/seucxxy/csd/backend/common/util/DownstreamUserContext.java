@@ -0,0 +1,61 @@
+package seucxxy.csd.backend.common.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import seucxxy.csd.backend.common.entity.User;
+
+/**
+ * 当前线程发起下游调用时所代表的用户，用于下游并发限流按用户公平排队。
+ * 请求线程直接从会话中取用户；线程池任务由 AsyncConfig 的 TaskDecorator 在提交时传递。
+ */
+public final class DownstreamUserContext {
+
+    public static final String SYSTEM = "system";
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private DownstreamUserContext() {
+    }
+
+    /**
+     * 当前用户标识，取不到时返回 {@link #SYSTEM}。
+     */
+    public static String current() {
+        String user = CURRENT.get();
+        if (user != null) {
+            return user;
+        }
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes servletAttributes) {
+            HttpServletRequest request = servletAttributes.getRequest();
+            HttpSession session = request.getSession(false);
+            if (session != null && session.getAttribute("user") instanceof User sessionUser && sessionUser.getId() != null) {
+                return String.valueOf(sessionUser.getId());
+            }
+        }
+        return SYSTEM;
+    }
+
+    /**
+     * 包装任务，使其在执行线程上沿用提交线程的用户标识。
+     */
+    public static Runnable propagate(Runnable task) {
+        String user = current();
+        return () -> {
+            String previous = CURRENT.get();
+            CURRENT.set(user);
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package seucxxy.csd.backend.common.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 带失效代数的 Caffeine 读穿缓存，用于"读远端 + 写后整体失效"的场景。
+ * 每个条目记录开始加载时的代数，{@link #invalidateAll()} 使代数加一；代数落后的条目视为未命中。
+ * 写入方在远端写入前后各调用一次 {@link #invalidateAll()}，与写入并发、读到旧数据的加载结果就不会在写入完成后继续被命中。
+ * 同一 key 的并发未命中由 Caffeine 合并为一次加载。
+ */
+public final class GenerationalCache<K, V> {
+
+    /**
+     * 加载回调。
+     */
+    @FunctionalInterface
+    public interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+
+    private record Entry<V>(long generation, V value) {
+    }
+
+    private static final class LoadFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LoadFailure(Exception cause) {
+            super(cause);
+        }
+    }
+
+    private final Cache<K, Entry<V>> cache;
+    private final Predicate<V> cacheable;
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param cacheable 加载结果是否写入缓存（如空结果不缓存）
+     */
+    public GenerationalCache(long maxSize, Duration ttl, Predicate<V> cacheable,
+                             MeterRegistry meterRegistry, String metricName) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.cacheable = cacheable;
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, metricName);
+    }
+
+    /**
+     * 读缓存，未命中或条目代数落后时由 loader 加载
+     */
+    public <E extends Exception> V get(K key, Loader<V, E> loader) throws E {
+        Loaded<V> loaded = new Loaded<>();
+        Entry<V> entry = getOrLoad(key, loader, loaded);
+        if (entry != null && entry.generation() != generation.get()) {
+            cache.asMap().remove(key, entry);
+            if (!loaded.done) {
+                // 写入完成前缓存的旧条目，重新加载
+                entry = getOrLoad(key, loader, loaded);
+                if (entry != null && entry.generation() != generation.get()) {
+                    cache.asMap().remove(key, entry);
+                }
+            }
+        }
+        return entry != null ? entry.value() : loaded.value;
+    }
+
+    /**
+     * 整体失效：代数加一并清空
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    private static final class Loaded<V> {
+        private boolean done;
+        private V value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> Entry<V> getOrLoad(K key, Loader<V, E> loader, Loaded<V> loaded) throws E {
+        try {
+            return cache.get(key, k -> {
+                long startGeneration = generation.get();
+                V value;
+                try {
+                    value = loader.load();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new LoadFailure(e);
+                }
+                loaded.done = true;
+                loaded.value = value;
+                return cacheable.test(value) ? new Entry<>(startGeneration, value) : null;
+            });
+        } catch (LoadFailure e) {
+            throw (E) e.getCause();
+        }
+    }
+}
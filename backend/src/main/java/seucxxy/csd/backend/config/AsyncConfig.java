@@ -1,46 +1,251 @@
 package seucxxy.csd.backend.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import seucxxy.csd.backend.common.util.DownstreamUserContext;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 
+/**
+ * 异步任务与并发扇出共用的线程池。
+ * 所有线程池均为 ThreadPoolTaskExecutor，actuator 会按 bean 名自动上报
+ * executor.active / executor.queued / executor.pool.size 等指标；
+ * 拒绝次数额外记在 executor.rejected（队列满时由调用线程执行，起到限流作用）。
+ * executor.virtual-threads.enabled=true 且运行在 JDK 21+ 时，I/O 型线程池切换为虚拟线程。
+ * 同时开启 @Scheduled，用于 ChromaDB 后写缓冲等后台定时刷新。
+ * 提交任务时传递当前用户标识（{@link DownstreamUserContext}），供下游并发限流按用户公平排队。
+ */
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(AsyncConfig.class);
+
+    private final MeterRegistry meterRegistry;
+    private final boolean virtualThreads;
+    private final int virtualConcurrencyLimit;
+
+    public AsyncConfig(MeterRegistry meterRegistry,
+                       @Value("${executor.virtual-threads.enabled:false}") boolean virtualThreadsEnabled,
+                       @Value("${executor.virtual-threads.concurrency-limit:256}") int virtualConcurrencyLimit) {
+        this.meterRegistry = meterRegistry;
+        this.virtualConcurrencyLimit = Math.max(1, virtualConcurrencyLimit);
+        boolean supported = Runtime.version().feature() >= 21;
+        if (virtualThreadsEnabled && !supported) {
+            logger.warn("已开启 executor.virtual-threads.enabled，但当前 JDK {} 不支持虚拟线程，继续使用平台线程池",
+                    Runtime.version().feature());
+        }
+        this.virtualThreads = virtualThreadsEnabled && supported;
+    }
+
     @Bean(name = "paperGenTaskExecutor")
     public Executor paperGenTaskExecutor() {
+        if (virtualThreads) {
+            return virtualExecutor("paper-gen-task-", virtualConcurrencyLimit);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(4);
         executor.setMaxPoolSize(8);
         executor.setQueueCapacity(100);
         executor.setThreadNamePrefix("paper-gen-task-");
+        executor.setTaskDecorator(DownstreamUserContext::propagate);
         executor.initialize();
         return executor;
     }
 
     @Bean(name = "intensiveTaskExecutor")
     public Executor intensiveTaskExecutor() {
+        if (virtualThreads) {
+            return virtualExecutor("intensive-task-", virtualConcurrencyLimit);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(4);
         executor.setMaxPoolSize(8);
         executor.setQueueCapacity(100);
         executor.setThreadNamePrefix("intensive-task-");
+        executor.setTaskDecorator(DownstreamUserContext::propagate);
         executor.initialize();
         return executor;
     }
 
     @Bean(name = "paperAnalysisTaskExecutor")
     public Executor paperAnalysisTaskExecutor() {
+        if (virtualThreads) {
+            return virtualExecutor("paper-analysis-task-", virtualConcurrencyLimit);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(4);
         executor.setMaxPoolSize(8);
         executor.setQueueCapacity(100);
         executor.setThreadNamePrefix("paper-analysis-task-");
+        executor.setTaskDecorator(DownstreamUserContext::propagate);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 试卷解析：PDF 逐页 OCR。OCR 为 CPU 密集型，始终使用平台线程。
+     */
+    @Bean(name = "ocrExecutor")
+    public Executor ocrExecutor(@Value("${analysis.concurrent.ocr-pool:4}") int poolSize) {
+        return fanOutExecutor("ocrExecutor", "ocr-", poolSize, 64);
+    }
+
+    /**
+     * 试卷解析：各部分 Coze 工作流调用。
+     */
+    @Bean(name = "analysisCozeExecutor")
+    public Executor analysisCozeExecutor(@Value("${analysis.concurrent.coze-pool:8}") int poolSize) {
+        return ioFanOutExecutor("analysisCozeExecutor", "analysis-coze-", poolSize, 100);
+    }
+
+    /**
+     * 模拟卷生成：按片段并发调用 Coze。
+     */
+    @Bean(name = "paperGenUnitExecutor")
+    public Executor paperGenUnitExecutor(@Value("${executor.paper-gen-unit.pool-size:8}") int poolSize) {
+        return ioFanOutExecutor("paperGenUnitExecutor", "paper-gen-unit-", poolSize, 200);
+    }
+
+    /**
+     * 专项训练：按题目并发生成。
+     */
+    @Bean(name = "intensiveUnitExecutor")
+    public Executor intensiveUnitExecutor(@Value("${executor.intensive-unit.pool-size:8}") int poolSize) {
+        return ioFanOutExecutor("intensiveUnitExecutor", "intensive-unit-", poolSize, 200);
+    }
+
+    /**
+     * 听力音频合成。
+     */
+    @Bean(name = "listeningAudioExecutor")
+    public Executor listeningAudioExecutor(@Value("${executor.listening-audio.pool-size:4}") int poolSize) {
+        return ioFanOutExecutor("listeningAudioExecutor", "listening-audio-", poolSize, 100);
+    }
+
+    /**
+     * 交卷后写作/翻译 AI 评分。
+     */
+    @Bean(name = "gradingExecutor")
+    public Executor gradingExecutor(@Value("${executor.grading.pool-size:8}") int poolSize) {
+        return ioFanOutExecutor("gradingExecutor", "grading-", poolSize, 200);
+    }
+
+    /**
+     * 交卷后主观题评分任务的调度线程：每个任务占一个线程等待其写作/翻译评分（在 gradingExecutor 中执行）完成。
+     * 任务已持久化，队列满时直接丢弃，由 CET4SubjectiveGradingJobService 的定时扫描补领，不阻塞交卷请求。
+     */
+    @Bean(name = "subjectiveGradingJobExecutor")
+    public Executor subjectiveGradingJobExecutor(@Value("${grading.job.pool-size:8}") int poolSize,
+                                                 @Value("${grading.job.queue-capacity:500}") int queueCapacity) {
+        int size = Math.max(1, poolSize);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("grading-job-");
+        executor.setRejectedExecutionHandler(countingAbort("subjectiveGradingJobExecutor"));
+        executor.setTaskDecorator(DownstreamUserContext::propagate);
         executor.initialize();
         return executor;
     }
+
+    /**
+     * 教师批量重新评分任务的调度线程，与交卷评分任务分开，批量任务再多也不占用交卷评分的调度线程。
+     * 任务已持久化，队列满时直接丢弃，由 CET4BulkGradingService 的定时扫描补领。
+     */
+    @Bean(name = "bulkGradingJobExecutor")
+    public Executor bulkGradingJobExecutor(@Value("${grading.bulk.pool-size:2}") int poolSize,
+                                           @Value("${grading.bulk.queue-capacity:20}") int queueCapacity) {
+        int size = Math.max(1, poolSize);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("bulk-grading-");
+        executor.setRejectedExecutionHandler(countingAbort("bulkGradingJobExecutor"));
+        executor.setTaskDecorator(DownstreamUserContext::propagate);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Coze 对冲请求：开启对冲时 Coze 主调用与并行的降级调用都在这里执行，调用方只负责等待结果。
+     */
+    @Bean(name = "cozeHedgeExecutor")
+    public Executor cozeHedgeExecutor(@Value("${coze.hedge.pool-size:16}") int poolSize) {
+        return ioFanOutExecutor("cozeHedgeExecutor", "coze-hedge-", poolSize, 200);
+    }
+
+    /**
+     * 以阻塞 HTTP 调用（Coze、ChromaDB、Python 服务）为主的扇出线程池。
+     * 开启虚拟线程模式时改为每任务一个虚拟线程，阻塞等待 HTTP 响应不再占用平台线程；
+     * 并发数受 executor.virtual-threads.concurrency-limit 约束，超出时提交方阻塞等待。
+     */
+    private Executor ioFanOutExecutor(String name, String threadPrefix, int poolSize, int queueCapacity) {
+        if (virtualThreads) {
+            return virtualExecutor(threadPrefix, virtualConcurrencyLimit);
+        }
+        return fanOutExecutor(name, threadPrefix, poolSize, queueCapacity);
+    }
+
+    private Executor virtualExecutor(String threadPrefix, int concurrencyLimit) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadPrefix);
+        executor.setVirtualThreads(true);
+        executor.setTaskDecorator(DownstreamUserContext::propagate);
+        executor.setConcurrencyLimit(concurrencyLimit);
+        executor.setTaskTerminationTimeout(30_000);
+        return executor;
+    }
+
+    private ThreadPoolTaskExecutor fanOutExecutor(String name, String threadPrefix, int poolSize, int queueCapacity) {
+        int size = Math.max(1, poolSize);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix(threadPrefix);
+        executor.setRejectedExecutionHandler(countingCallerRuns(name));
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.setTaskDecorator(DownstreamUserContext::propagate);
+        executor.initialize();
+        return executor;
+    }
+
+    private RejectedExecutionHandler countingAbort(String name) {
+        Counter rejected = Counter.builder("executor.rejected")
+                .description("队列已满被拒绝的任务数")
+                .tag("name", name)
+                .register(meterRegistry);
+        ThreadPoolExecutor.AbortPolicy delegate = new ThreadPoolExecutor.AbortPolicy();
+        return (task, pool) -> {
+            rejected.increment();
+            delegate.rejectedExecution(task, pool);
+        };
+    }
+
+    private RejectedExecutionHandler countingCallerRuns(String name) {
+        Counter rejected = Counter.builder("executor.rejected")
+                .description("队列已满、改由调用线程执行的任务数")
+                .tag("name", name)
+                .register(meterRegistry);
+        ThreadPoolExecutor.CallerRunsPolicy delegate = new ThreadPoolExecutor.CallerRunsPolicy();
+        return (task, pool) -> {
+            rejected.increment();
+            delegate.rejectedExecution(task, pool);
+        };
+    }
 }
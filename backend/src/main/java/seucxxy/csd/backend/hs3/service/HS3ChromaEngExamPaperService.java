@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.validation.constraints.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,12 +16,14 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.common.service.ChromaCollectionResolver;
+import seucxxy.csd.backend.common.util.GenerationalCache;
 
 import java.net.URI;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * HS3高考英语试卷ChromaDB存储服务
@@ -34,7 +37,7 @@ public class HS3ChromaEngExamPaperService {
 
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final AtomicReference<String> collectionIdCache = new AtomicReference<>();
+    private final ChromaCollectionResolver collectionResolver;
 
     @Value("${chromadb.base-url:http://localhost:8000/api/v2}")
     private String chromaBaseUrl;
@@ -48,8 +51,19 @@ public class HS3ChromaEngExamPaperService {
     @Value("${chromadb.collection.eng-exam-papers-hs3:eng_exam_papers_hs3}")
     private String collectionName;
 
-    public HS3ChromaEngExamPaperService(RestTemplate restTemplate) {
+    /** 试卷大题缓存：key 为 "试卷编号|试卷名称"，value 为不可变快照 */
+    private final GenerationalCache<String, List<Map<String, Object>>> paperSegmentsCache;
+
+    public HS3ChromaEngExamPaperService(RestTemplate restTemplate,
+                                        ChromaCollectionResolver collectionResolver,
+                                        MeterRegistry meterRegistry,
+                                        @Value("${chromadb.paper-cache.max-size:256}") long cacheMaxSize,
+                                        @Value("${chromadb.paper-cache.ttl-minutes:30}") long cacheTtlMinutes) {
         this.restTemplate = restTemplate;
+        this.collectionResolver = collectionResolver;
+        // 空结果不缓存
+        this.paperSegmentsCache = new GenerationalCache<>(cacheMaxSize, Duration.ofMinutes(cacheTtlMinutes),
+                segments -> !segments.isEmpty(), meterRegistry, "hs3.paper.segments");
     }
 
     /**
@@ -142,47 +156,51 @@ public class HS3ChromaEngExamPaperService {
         logger.info("试卷ID: {}, 试卷名称: {}, 大题数量: {}", examPaperId, examPaperName, ids.size());
         logger.info("================================================");
 
-        String collectionId = ensureCollectionId();
-        String url = collectionAddUrl(collectionId);
-        
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         String jsonBody = objectMapper.writeValueAsString(requestBody);
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
 
-        // 最多尝试10次，失败则抛错返回前端，提示智能体平台不可用
-        final int maxAttempts = 10;
-        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
-            long start = System.currentTimeMillis();
-            try {
-                ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
-                long elapsed = System.currentTimeMillis() - start;
-
-                if (!response.getStatusCode().is2xxSuccessful()) {
-                    logger.error("HS3试卷存储到ChromaDB失败，attempt={}，status={}，body={}，耗时={}ms", 
-                            attempt, response.getStatusCode(), safeBody(response), elapsed);
-                    throw new RuntimeException("ChromaDB 存储失败: " + response.getStatusCode());
-                }
-
-                logger.info("HS3试卷成功存储到ChromaDB，共 {} 个大题，耗时={}ms，status={}，bodyLen={}，attempt={}",
-                        ids.size(), elapsed, response.getStatusCodeValue(), 
-                        response.getBody() == null ? 0 : response.getBody().length(), attempt);
-                return; // 成功即返回
-            } catch (Exception ex) {
-                long elapsed = System.currentTimeMillis() - start;
-                logger.error("HS3试卷存储到ChromaDB异常，attempt={}，耗时={}ms，url={}，error={}", 
-                        attempt, elapsed, url, ex.getMessage(), ex);
-                if (attempt == maxAttempts) {
-                    // 达到最大重试次数仍失败，抛出明确异常供前端提示
-                    throw new RuntimeException("智能体平台不可用，已重试" + maxAttempts + "次仍失败", ex);
-                }
+        // 写入前后各失效一次，写入期间加载到的旧大题不会在写入完成后被命中
+        paperSegmentsCache.invalidateAll();
+        try {
+            // 最多尝试10次，失败则抛错返回前端，提示智能体平台不可用
+            final int maxAttempts = 10;
+            for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                long start = System.currentTimeMillis();
                 try {
-                    Thread.sleep(1000L * attempt); // 线性退避，避免频繁打满
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException("智能体平台不可用，重试被中断", ie);
+                    ResponseEntity<String> response = withCollection(collectionId ->
+                            restTemplate.postForEntity(collectionAddUrl(collectionId), entity, String.class));
+                    long elapsed = System.currentTimeMillis() - start;
+
+                    if (!response.getStatusCode().is2xxSuccessful()) {
+                        logger.error("HS3试卷存储到ChromaDB失败，attempt={}，status={}，body={}，耗时={}ms", 
+                                attempt, response.getStatusCode(), safeBody(response), elapsed);
+                        throw new RuntimeException("ChromaDB 存储失败: " + response.getStatusCode());
+                    }
+
+                    logger.info("HS3试卷成功存储到ChromaDB，共 {} 个大题，耗时={}ms，status={}，bodyLen={}，attempt={}",
+                            ids.size(), elapsed, response.getStatusCodeValue(), 
+                            response.getBody() == null ? 0 : response.getBody().length(), attempt);
+                    return; // 成功即返回
+                } catch (Exception ex) {
+                    long elapsed = System.currentTimeMillis() - start;
+                    logger.error("HS3试卷存储到ChromaDB异常，attempt={}，耗时={}ms，collection={}，error={}", 
+                            attempt, elapsed, collectionName, ex.getMessage(), ex);
+                    if (attempt == maxAttempts) {
+                        // 达到最大重试次数仍失败，抛出明确异常供前端提示
+                        throw new RuntimeException("智能体平台不可用，已重试" + maxAttempts + "次仍失败", ex);
+                    }
+                    try {
+                        Thread.sleep(1000L * attempt); // 线性退避，避免频繁打满
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("智能体平台不可用，重试被中断", ie);
+                    }
                 }
             }
+        } finally {
+            paperSegmentsCache.invalidateAll();
         }
     }
 
@@ -194,63 +212,16 @@ public class HS3ChromaEngExamPaperService {
     }
 
     /**
-     * 确保集合存在，返回集合ID
+     * 以集合ID执行调用（集合不存在时创建）；集合被删除重建（404）时由解析器刷新缓存的ID并重试一次
      */
-    private String ensureCollectionId() throws JsonProcessingException {
-        String cached = collectionIdCache.get();
-        if (cached != null && !cached.isEmpty()) {
-            return cached;
-        }
-
-        // 1. 检查集合是否存在
-        String listUrl = collectionsBaseUrl();
-        ResponseEntity<String> listResponse = restTemplate.getForEntity(listUrl, String.class);
-        
-        if (listResponse.getStatusCode().is2xxSuccessful() && listResponse.getBody() != null) {
-            JsonNode collections = objectMapper.readTree(listResponse.getBody());
-            if (collections.isArray()) {
-                for (JsonNode col : collections) {
-                    String name = col.path("name").asText("");
-                    if (collectionName.equals(name)) {
-                        String id = col.path("id").asText("");
-                        if (!id.isEmpty()) {
-                            collectionIdCache.set(id);
-                            logger.info("找到现有集合: {}, id: {}", collectionName, id);
-                            return id;
-                        }
-                    }
-                }
-            }
-        }
-
-        // 2. 创建集合
-        logger.info("集合 {} 不存在，开始创建...", collectionName);
-        Map<String, Object> createBody = new LinkedHashMap<>();
-        createBody.put("name", collectionName);
-        
-        Map<String, Object> metadata = new LinkedHashMap<>();
-        metadata.put("description", "HS3高考英语试卷存储集合");
-        createBody.put("metadata", metadata);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        String jsonBody = objectMapper.writeValueAsString(createBody);
-        HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-
-        ResponseEntity<String> createResponse = restTemplate.postForEntity(listUrl, entity, String.class);
-        if (!createResponse.getStatusCode().is2xxSuccessful() || createResponse.getBody() == null) {
-            throw new RuntimeException("创建集合失败");
-        }
-
-        JsonNode created = objectMapper.readTree(createResponse.getBody());
-        String id = created.path("id").asText("");
-        if (id.isEmpty()) {
-            throw new RuntimeException("创建集合后未返回ID");
+    private <T> T withCollection(ChromaCollectionResolver.CollectionCall<T> call) throws JsonProcessingException {
+        try {
+            return collectionResolver.withCollectionId(collectionName, true, "HS3高考英语试卷存储集合", call);
+        } catch (JsonProcessingException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("访问 ChromaDB 集合失败: " + collectionName, e);
         }
-
-        collectionIdCache.set(id);
-        logger.info("集合创建成功: {}, id: {}", collectionName, id);
-        return id;
     }
 
     /**
@@ -298,7 +269,7 @@ public class HS3ChromaEngExamPaperService {
 
     /**
      * 根据试卷ID或名称从 ChromaDB 获取已存储的 HS3 试卷大题
-     * 返回的列表元素包含 document (原始JSON字符串) 和 metadata
+     * 返回的列表元素包含 document (原始JSON字符串)、documentNode (预解析的只读 JsonNode，解析失败时不存在) 和 metadata
      */
     public List<Map<String, Object>> fetchExamPaperSegments(String examPaperId, String examPaperName) throws JsonProcessingException {
         String normalizedId = normalizeString(examPaperId);
@@ -307,8 +278,22 @@ public class HS3ChromaEngExamPaperService {
             throw new IllegalArgumentException("试卷编号和试卷名称至少提供一个");
         }
 
-        String collectionId = ensureCollectionId();
-        String url = collectionGetUrl(collectionId);
+        String cacheKey = normalizedId + "|" + normalizedName;
+        List<Map<String, Object>> cached =
+                paperSegmentsCache.get(cacheKey, () -> loadExamPaperSegments(normalizedId, normalizedName));
+        // 调用方会读写返回的 Map，逐条浅拷贝；documentNode 只读共享
+        List<Map<String, Object>> copy = new ArrayList<>(cached.size());
+        for (Map<String, Object> segment : cached) {
+            Map<String, Object> record = new LinkedHashMap<>(segment);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> metadata = (Map<String, Object>) segment.get("metadata");
+            record.put("metadata", new LinkedHashMap<>(metadata));
+            copy.add(record);
+        }
+        return copy;
+    }
+
+    private List<Map<String, Object>> loadExamPaperSegments(String normalizedId, String normalizedName) throws JsonProcessingException {
 
         Map<String, Object> requestBody = new LinkedHashMap<>();
         requestBody.put("limit", 1000);
@@ -320,7 +305,8 @@ public class HS3ChromaEngExamPaperService {
         String jsonBody = objectMapper.writeValueAsString(requestBody);
         HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
 
-        ResponseEntity<String> response = restTemplate.exchange(URI.create(url), HttpMethod.POST, entity, String.class);
+        ResponseEntity<String> response = withCollection(collectionId ->
+                restTemplate.exchange(URI.create(collectionGetUrl(collectionId)), HttpMethod.POST, entity, String.class));
         if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
             logger.warn("从 ChromaDB 查询 HS3 试卷单元失败，status={}", response.getStatusCode());
             return Collections.emptyList();
@@ -358,13 +344,28 @@ public class HS3ChromaEngExamPaperService {
             }
 
             Map<String, Object> record = new LinkedHashMap<>();
-            record.put("document", documents.get(i).asText(""));
-            Map<String, Object> metadata = jsonNodeToMap(metaNode);
-            record.put("metadata", metadata);
-            records.add(record);
+            String document = documents.get(i).asText("");
+            record.put("document", document);
+            JsonNode documentNode = parseDocumentQuietly(document);
+            if (documentNode != null) {
+                record.put("documentNode", documentNode);
+            }
+            record.put("metadata", Collections.unmodifiableMap(jsonNodeToMap(metaNode)));
+            records.add(Collections.unmodifiableMap(record));
         }
 
-        return records;
+        return Collections.unmodifiableList(records);
+    }
+
+    private JsonNode parseDocumentQuietly(String document) {
+        if (document == null || document.isBlank()) {
+            return null;
+        }
+        try {
+            return objectMapper.readTree(document);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
     }
 
     private String extractExamPaperId(JsonNode metaNode) {
@@ -33,8 +33,8 @@ public class HS3CozeAIGradingService {
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
 
-    public HS3CozeAIGradingService() {
-        this.restTemplate = new RestTemplate();
+    public HS3CozeAIGradingService(RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
         this.objectMapper = new ObjectMapper();
     }
 
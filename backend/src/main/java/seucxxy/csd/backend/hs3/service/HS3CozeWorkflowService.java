@@ -12,6 +12,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.common.service.CozeCallGuard;
 
 import java.io.FileWriter;
 import java.io.IOException;
@@ -54,9 +55,11 @@ public class HS3CozeWorkflowService {
 
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final CozeCallGuard cozeCallGuard;
 
-    public HS3CozeWorkflowService(RestTemplate restTemplate) {
+    public HS3CozeWorkflowService(RestTemplate restTemplate, CozeCallGuard cozeCallGuard) {
         this.restTemplate = restTemplate;
+        this.cozeCallGuard = cozeCallGuard;
         this.objectMapper = new ObjectMapper();
     }
 
@@ -97,52 +100,35 @@ public class HS3CozeWorkflowService {
                     HS3_PAPER_ANALYSIS_WORKFLOW_ID, inputFile.length(), topics != null ? topics.size() : 0);
         }
 
-        int maxAttempts = 10;
-        Exception lastException = null;
-
-        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
-            try {
+        String partInfo = partName != null ? " (Part: " + partName + ")" : "";
+        try {
+            return cozeCallGuard.execute(HS3_PAPER_ANALYSIS_WORKFLOW_ID, attempt -> {
                 List<Map<String, Object>> result = callCozeWorkflowOnce(inputFile, topicsJson, attempt, partName);
 
                 // 验证segment数量是否符合预期（根据图数据库结构）
                 String segmentCountCheckResult = checkSegmentCount(result, partName);
                 if (segmentCountCheckResult != null) {
-                    String partInfo = partName != null ? " (Part: " + partName + ")" : "";
-                    logger.warn("[HS3 Coze] segment数量检查不通过{}: {}，立即重试 (attempt {}/{})", 
-                            partInfo, segmentCountCheckResult, attempt, maxAttempts);
-                    if (attempt < maxAttempts) {
-                        // 立即重试，不等待
-                        continue;
-                    }
-                    throw new RuntimeException(segmentCountCheckResult + "，已重试" + maxAttempts + "次");
+                    logger.warn("[HS3 Coze] segment数量检查不通过{}: {} (attempt {})",
+                            partInfo, segmentCountCheckResult, attempt);
+                    throw new CozeCallGuard.ContentRejectedException(segmentCountCheckResult);
                 }
 
                 // 检查七选五、完形填空、语法填空的option_content是否为空
                 String optionCheckResult = checkOptionContent(result);
                 if (optionCheckResult != null) {
-                    String partInfo = partName != null ? " (Part: " + partName + ")" : "";
-                    logger.warn("[HS3 Coze] option_content检查不通过{}: {}，立即重试 (attempt {}/{})", 
-                            partInfo, optionCheckResult, attempt, maxAttempts);
-                    if (attempt < maxAttempts) {
-                        // 立即重试，不等待
-                        continue;
-                    }
-                    throw new RuntimeException("智能体平台不可用：" + optionCheckResult + "，已重试" + maxAttempts + "次");
+                    logger.warn("[HS3 Coze] option_content检查不通过{}: {} (attempt {})",
+                            partInfo, optionCheckResult, attempt);
+                    throw new CozeCallGuard.ContentRejectedException("智能体平台不可用：" + optionCheckResult);
                 }
 
-                logger.info("[HS3 Coze] 试卷解析成功{}, 返回 {} 个片段", 
-                        partName != null ? " (Part: " + partName + ")" : "", result != null ? result.size() : 0);
+                logger.info("[HS3 Coze] 试卷解析成功{}, 返回 {} 个片段",
+                        partInfo, result != null ? result.size() : 0);
                 return result;
-            } catch (Exception e) {
-                lastException = e;
-                logger.warn("[HS3 Coze] 第{}次调用失败{}: {}", attempt, 
-                        partName != null ? " (Part: " + partName + ")" : "", e.getMessage());
-                // 立即重试，不等待
-            }
+            });
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new RuntimeException("Coze试卷解析失败" + partInfo + "：" + cause.getMessage(), e);
         }
-
-        throw new RuntimeException("Coze试卷解析失败" + (partName != null ? " (Part: " + partName + ")" : "") + 
-                "，已重试" + maxAttempts + "次", lastException);
     }
     
     /**
@@ -323,7 +309,7 @@ public class HS3CozeWorkflowService {
         // 提取 output 字段
         JsonNode outputNode = dataJsonNode.path("output");
         if (outputNode.isMissingNode()) {
-            throw new RuntimeException("Coze工作流返回的output字段缺失");
+            throw new CozeCallGuard.ContentRejectedException("Coze工作流返回的output字段缺失");
         }
 
         String outputStr;
@@ -336,7 +322,7 @@ public class HS3CozeWorkflowService {
         }
 
         if (outputStr.isEmpty()) {
-            throw new RuntimeException("Coze工作流返回的output为空");
+            throw new CozeCallGuard.ContentRejectedException("Coze工作流返回的output为空");
         }
 
         // 修复可能的JSON格式问题
@@ -402,7 +388,7 @@ public class HS3CozeWorkflowService {
         } catch (Exception parseException) {
             logger.error("[HS3 Coze] 解析output JSON失败: {}", parseException.getMessage());
             logger.debug("[HS3 Coze] output内容: {}", outputStr.substring(0, Math.min(500, outputStr.length())));
-            throw new RuntimeException("解析Coze返回的JSON失败: " + parseException.getMessage(), parseException);
+            throw new CozeCallGuard.ContentRejectedException("解析Coze返回的JSON失败: " + parseException.getMessage(), parseException);
         }
 
         return result;
@@ -45,7 +45,12 @@ public class HS3ListeningAudioService {
     private static final String HS3_LISTENING_AUDIO_WORKFLOW_ID = "7583942885047255055";
 
     // Python服务地址
-    private static final String AUDIO_SERVICE_URL = "http://localhost:5000/api/audio";
+    @Value("${python.service.base-url:http://localhost:5000}")
+    private String pythonBaseUrl;
+
+    private String audioServiceUrl() {
+        return pythonBaseUrl + "/api/audio";
+    }
 
     /**
      * 根据前端传入的多个听力segment生成完整音频
@@ -266,7 +271,7 @@ public class HS3ListeningAudioService {
      * 调用Python服务合成音频
      */
     private String synthesizeCombinedAudio(List<Map<String, Object>> segments) throws Exception {
-        String url = AUDIO_SERVICE_URL + "/synthesize-combined";
+        String url = audioServiceUrl() + "/synthesize-combined";
 
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("segments", segments);
@@ -298,7 +303,7 @@ public class HS3ListeningAudioService {
         logger.info("[HS3-ListeningAudio] Python returned audio_url: '{}'", audioUrl);
         
         if (audioUrl.startsWith("/api/audio/")) {
-            audioUrl = "http://localhost:5000" + audioUrl;
+            audioUrl = pythonBaseUrl + audioUrl;
         }
         
         logger.info("[HS3-ListeningAudio] Final complete audioUrl: '{}'", audioUrl);
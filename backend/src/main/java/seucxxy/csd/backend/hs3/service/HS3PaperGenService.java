@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import seucxxy.csd.backend.common.util.DownstreamUserContext;
 import seucxxy.csd.backend.hs3.entity.HS3ExamPaperEn;
 import seucxxy.csd.backend.hs3.mapper.HS3ExamPaperEnMapper;
 import seucxxy.csd.backend.hs3.mapper.HS3TopicMapper;
@@ -11,6 +12,7 @@ import seucxxy.csd.backend.hs3.mapper.HS3TopicMapper;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -84,6 +86,8 @@ public class HS3PaperGenService {
         // 6. 并行调用Coze生成新题目
         int poolSize = Math.max(1, Math.min(templateSegments.size(), Runtime.getRuntime().availableProcessors()));
         ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        // 沿用当前用户标识，下游并发限流按用户公平排队
+        Executor userAwareExecutor = task -> executor.execute(DownstreamUserContext.propagate(task));
         List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
         AtomicInteger unitIndex = new AtomicInteger(0);
 
@@ -95,7 +99,7 @@ public class HS3PaperGenService {
 
                 CompletableFuture<Map<String, Object>> future = CompletableFuture.supplyAsync(
                         () -> generateSingleSegment(segmentSnapshot, topic, effectiveSource, currentIndex),
-                        executor
+                        userAwareExecutor
                 );
                 futures.add(future);
             }
@@ -11,6 +11,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.common.service.CozeCallGuard;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -45,14 +46,16 @@ public class HS3PaperGenerationCommonService {
 
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final CozeCallGuard cozeCallGuard;
 
-    public HS3PaperGenerationCommonService(RestTemplate restTemplate) {
+    public HS3PaperGenerationCommonService(RestTemplate restTemplate, CozeCallGuard cozeCallGuard) {
         this.restTemplate = restTemplate;
+        this.cozeCallGuard = cozeCallGuard;
         this.objectMapper = new ObjectMapper();
     }
 
     /**
-     * 调用Coze工作流生成题目（带重试机制）
+     * 调用Coze工作流生成题目（退避重试、熔断）
      * 
      * 高考版本的8个参数：
      * - inputExamPaperSamp: 样本试卷内容
@@ -72,35 +75,13 @@ public class HS3PaperGenerationCommonService {
                                                  String sectionNumber,
                                                  String segmentNumber,
                                                  String questionNumberStart) throws Exception {
-        int maxAttempts = 10;
-        Exception lastException = null;
-
-        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
-            try {
-                Map<String, Object> result = callCozeWorkflowOnce(
-                        topic, inputExamPaperSamp, partName, partNumber,
-                        sectionName, sectionNumber, segmentNumber, questionNumberStart, attempt);
-                
-                // 检查output是否为空
-                Object output = result.get("output");
-                if (output != null) {
-                    return result;
-                }
-                
-                // output为空，继续重试
-                System.out.println("[HS3 Coze] ⚠️ output为空，继续重试 (attempt " + attempt + "/" + maxAttempts + ")");
-                
-            } catch (Exception e) {
-                lastException = e;
-                System.out.println("[HS3 Coze] ❌ 第" + attempt + "次调用失败: " + e.getMessage());
-                
-                if (attempt < maxAttempts) {
-                    Thread.sleep(2000);
-                }
-            }
-        }
-
-        throw new RuntimeException("Coze工作流调用失败，已重试" + maxAttempts + "次", lastException);
+        return cozeCallGuard.execute(HS3_COZE_WORKFLOW_ID, attempt -> {
+            Map<String, Object> result = callCozeWorkflowOnce(
+                    topic, inputExamPaperSamp, partName, partNumber,
+                    sectionName, sectionNumber, segmentNumber, questionNumberStart, attempt);
+            // output为空视为失败，继续重试
+            return result.get("output") != null ? result : null;
+        });
     }
 
     /**
@@ -211,21 +192,21 @@ public class HS3PaperGenerationCommonService {
         // 提取 output 字段
         JsonNode outputNode = dataJsonNode.get("output");
         if (outputNode == null || outputNode.isMissingNode()) {
-            throw new RuntimeException("Coze工作流返回的output字段缺失");
+            throw new CozeCallGuard.ContentRejectedException("Coze工作流返回的output字段缺失");
         }
 
         if (!outputNode.isTextual()) {
-            throw new RuntimeException("Coze工作流返回的output字段不是字符串，实际类型: " + outputNode.getNodeType());
+            throw new CozeCallGuard.ContentRejectedException("Coze工作流返回的output字段不是字符串，实际类型: " + outputNode.getNodeType());
         }
 
         String outputStr = outputNode.asText();
         if (outputStr.isEmpty()) {
-            throw new RuntimeException("Coze工作流返回的output字段为空字符串");
+            throw new CozeCallGuard.ContentRejectedException("Coze工作流返回的output字段为空字符串");
         }
 
         // 检查是否为 "wrong JSON"
         if ("wrong JSON".equalsIgnoreCase(outputStr.trim())) {
-            throw new RuntimeException("Coze工作流返回格式错误: wrong JSON");
+            throw new CozeCallGuard.ContentRejectedException("Coze工作流返回格式错误: wrong JSON");
         }
 
         // 修复 JSON 字符串
@@ -238,7 +219,7 @@ public class HS3PaperGenerationCommonService {
         } catch (Exception e) {
             // JSON解析失败，抛出异常触发重试
             logger.warn("[HS3 Coze] JSON解析失败，将触发重试: {}", e.getMessage());
-            throw new RuntimeException("Coze返回的JSON格式错误，需要重试: " + e.getMessage(), e);
+            throw new CozeCallGuard.ContentRejectedException("Coze返回的JSON格式错误，需要重试: " + e.getMessage(), e);
         }
 
         // 提取answers
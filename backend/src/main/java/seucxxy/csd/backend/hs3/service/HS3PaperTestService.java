@@ -106,12 +106,14 @@ public class HS3PaperTestService {
                 String partName = (String) metadata.get("part_name");
                 String sectionName = (String) metadata.get("section_name");
 
-                JsonNode docNode;
-                try {
-                    docNode = objectMapper.readTree(document);
-                } catch (Exception e) {
-                    logger.error("[HS3-Submit] 解析document失败: {}", e.getMessage());
-                    continue;
+                JsonNode docNode = segmentData.get("documentNode") instanceof JsonNode node ? node : null;
+                if (docNode == null) {
+                    try {
+                        docNode = objectMapper.readTree(document);
+                    } catch (Exception e) {
+                        logger.error("[HS3-Submit] 解析document失败: {}", e.getMessage());
+                        continue;
+                    }
                 }
 
                 // 从part_name和section_name确定题型
@@ -0,0 +1,71 @@
+package seucxxy.csd.backend.cet4.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 交卷判分微基准：编译答案单次遍历 vs 原逐题判分，100 / 1000 道客观题。
+ * 不随单元测试运行。mvn test-compile 后在 IDE 中运行本类 main 方法，或：
+ * <pre>
+ * mvn dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main CET4AnswerScoringBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CET4AnswerScoringBenchmark {
+
+    @Param({"100", "1000"})
+    public int questionCount;
+
+    private final CET4AnswerMapper answerMapper = new CET4AnswerMapper();
+    private List<Map<String, Object>> questions;
+    private Map<String, Object> answers;
+    private CET4AnswerScoringEngine engine;
+    private CET4AnswerScoringEngine.CompiledAnswerKey answerKey;
+
+    @Setup
+    public void setUp() throws Exception {
+        questions = CET4AnswerScoringFixtures.paper(questionCount, 42);
+        answers = CET4AnswerScoringFixtures.answers(questions, 7);
+        engine = new CET4AnswerScoringEngine(answerMapper, new SimpleMeterRegistry(), 16, 30);
+        answerKey = engine.answerKey(1L, () -> questions);
+    }
+
+    @Benchmark
+    public CET4AnswerScoringEngine.ScoreSheet compiledKey() {
+        return engine.score(answerKey, answers);
+    }
+
+    @Benchmark
+    public CET4AnswerScoringFixtures.LegacyResult legacyPerQuestion() {
+        return CET4AnswerScoringFixtures.legacyScore(questions, answers, answerMapper);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CET4AnswerScoringBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
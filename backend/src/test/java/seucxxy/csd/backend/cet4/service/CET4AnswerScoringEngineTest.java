@@ -0,0 +1,142 @@
+package seucxxy.csd.backend.cet4.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static seucxxy.csd.backend.cet4.service.CET4AnswerScoringFixtures.question;
+
+/**
+ * 编译答案判分与原逐题判分的结果一致。
+ */
+class CET4AnswerScoringEngineTest {
+
+    private final CET4AnswerMapper answerMapper = new CET4AnswerMapper();
+    private final CET4AnswerScoringEngine engine =
+            new CET4AnswerScoringEngine(answerMapper, new SimpleMeterRegistry(), 16, 30);
+    private final AtomicLong nextPaperId = new AtomicLong(1000);
+
+    @Test
+    void generatedPapersMatchLegacyScoring() throws Exception {
+        for (int size : new int[]{1, 7, 100, 1000}) {
+            for (long seed = 1; seed <= 5; seed++) {
+                List<Map<String, Object>> questions = CET4AnswerScoringFixtures.paper(size, seed);
+                assertMatchesLegacy(questions, CET4AnswerScoringFixtures.answers(questions, seed * 31));
+            }
+        }
+    }
+
+    @Test
+    void emptyPaperIsNotCached() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CET4AnswerScoringEngine.CompiledAnswerKey key = engine.answerKey(1L, () -> {
+            loads.incrementAndGet();
+            return new ArrayList<>();
+        });
+        engine.answerKey(1L, () -> {
+            loads.incrementAndGet();
+            return new ArrayList<>();
+        });
+        assertEquals(2, loads.get());
+        assertEquals(0, key.size());
+        assertEquals(0, key.segmentCount());
+        assertEquals(0, engine.score(key, Map.of("listening", Map.of("1", "A"))).correctNumber());
+    }
+
+    @Test
+    void compiledKeyIsCachedPerPaper() throws Exception {
+        List<Map<String, Object>> questions = CET4AnswerScoringFixtures.paper(10, 1);
+        AtomicInteger loads = new AtomicInteger();
+        CET4AnswerScoringEngine.CompiledAnswerKey first = engine.answerKey(2L, () -> {
+            loads.incrementAndGet();
+            return questions;
+        });
+        CET4AnswerScoringEngine.CompiledAnswerKey second = engine.answerKey(2L, () -> {
+            loads.incrementAndGet();
+            return questions;
+        });
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void emptyAnswersMatchLegacyScoring() throws Exception {
+        List<Map<String, Object>> questions = CET4AnswerScoringFixtures.paper(30, 3);
+        assertMatchesLegacy(questions, Collections.emptyMap());
+        assertMatchesLegacy(questions, Map.of("listening", Map.of(), "sectionA", "not a map"));
+    }
+
+    @Test
+    void multiChoiceAnswersMustMatchExactly() throws Exception {
+        List<Map<String, Object>> questions = List.of(
+                question("ReadingPassage", "seg-c", 1, "AC"),
+                question("ReadingPassage", "seg-c", 2, "BD"),
+                question("ReadingPassage", "seg-c", 3, "AB"),
+                question("ReadingPassage", "seg-c", 4, "CD"));
+        Map<String, Object> answers = Map.of("sectionC", Map.of(
+                "seg-c-1", "AC",
+                "seg-c-2", "DB",
+                "seg-c-3", "A",
+                "4", "CD"));
+        CET4AnswerScoringEngine.ScoreSheet sheet = assertMatchesLegacy(questions, answers);
+        assertEquals(2, sheet.correctNumber());
+    }
+
+    @Test
+    void unknownQuestionsCountTowardsSegmentButNeverScore() throws Exception {
+        List<Map<String, Object>> questions = List.of(
+                question("NewsReport", "seg-a", 1, "A"),
+                question("UnknownType", "seg-a", 2, "B"),
+                question("UnknownType", "seg-x", 3, "C"));
+        // 试卷中不存在的题号、未知的答题分组都被忽略
+        Map<String, Object> answers = Map.of(
+                "listening", Map.of("seg-a-1", "A", "seg-a-99", "B", "2", "B"),
+                "unknown", Map.of("seg-x-3", "C"));
+        CET4AnswerScoringEngine.ScoreSheet sheet = assertMatchesLegacy(questions, answers);
+        assertEquals(1, sheet.correctNumber());
+    }
+
+    @Test
+    void subjectiveAnswersFallBackToSharedAnswerField() throws Exception {
+        List<Map<String, Object>> questions = List.of(
+                question("Writing", "seg-w", 1, null),
+                question("Translation", "seg-t", 2, null));
+        Map<String, Object> answers = Map.of(
+                "writing", Map.of("answer", "essay"),
+                "translation", Map.of("seg-t", "text", "answer", "ignored"));
+        CET4AnswerScoringEngine.ScoreSheet sheet = assertMatchesLegacy(questions, answers);
+        assertEquals("essay", sheet.userAnswer(0));
+        assertEquals("text", sheet.userAnswer(1));
+    }
+
+    private CET4AnswerScoringEngine.ScoreSheet assertMatchesLegacy(List<Map<String, Object>> questions,
+                                                                   Map<String, Object> answers) throws Exception {
+        CET4AnswerScoringEngine.CompiledAnswerKey key = engine.answerKey(nextPaperId.incrementAndGet(), () -> questions);
+        CET4AnswerScoringEngine.ScoreSheet sheet = engine.score(key, answers);
+        CET4AnswerScoringFixtures.LegacyResult legacy = CET4AnswerScoringFixtures.legacyScore(questions, answers, answerMapper);
+
+        assertEquals(questions.size(), key.size());
+        for (int i = 0; i < key.size(); i++) {
+            assertEquals(legacy.userAnswers().get(i), sheet.userAnswer(i), "question " + i);
+        }
+        assertEquals(legacy.correctNumber(), sheet.correctNumber());
+        assertEquals(legacy.segmentTotal().size(), key.segmentCount());
+        for (int s = 0; s < key.segmentCount(); s++) {
+            String segmentId = key.segment(s);
+            assertTrue(legacy.segmentTotal().containsKey(segmentId), segmentId);
+            assertEquals(legacy.segmentTotal().get(segmentId), key.segmentTotal(s), segmentId);
+            assertEquals(legacy.segmentCorrect().getOrDefault(segmentId, 0), sheet.segmentCorrect(s), segmentId);
+            assertEquals(legacy.segmentType().get(segmentId), key.segmentType(s), segmentId);
+        }
+        return sheet;
+    }
+}
@@ -0,0 +1,161 @@
+package seucxxy.csd.backend.cet4.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 判分引擎测试与基准共用：生成试卷题目和答案，以及编译答案之前逐题判分的原实现（作为对照）。
+ */
+final class CET4AnswerScoringFixtures {
+
+    private static final String[] OBJECTIVE_TYPES = {
+            "NewsReport", "Conversation", "ListeningPassage", "BlankedCloze", "Matching", "ReadingPassage"};
+    private static final int QUESTIONS_PER_SEGMENT = 5;
+
+    private CET4AnswerScoringFixtures() {
+    }
+
+    /**
+     * 原实现的判分结果：各题用户答案（与题目下标一致）、答对总数与按片段的统计
+     */
+    record LegacyResult(List<String> userAnswers,
+                        int correctNumber,
+                        Map<String, Integer> segmentCorrect,
+                        Map<String, Integer> segmentTotal,
+                        Map<String, String> segmentType) {
+    }
+
+    static Map<String, Object> question(String type, String segmentId, int number, String correctAnswer) {
+        Map<String, Object> q = new HashMap<>();
+        q.put("type", type);
+        q.put("segment_id", segmentId);
+        q.put("number", number);
+        q.put("correctAnswer", correctAnswer);
+        q.put("document", "{\"segment\":\"" + segmentId + "\"}");
+        return q;
+    }
+
+    /**
+     * objectiveCount 道客观题（每 5 道一个片段，题型轮换），末尾加一道写作和一道翻译
+     */
+    static List<Map<String, Object>> paper(int objectiveCount, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> questions = new ArrayList<>(objectiveCount + 2);
+        for (int i = 0; i < objectiveCount; i++) {
+            int segment = i / QUESTIONS_PER_SEGMENT;
+            String type = OBJECTIVE_TYPES[segment % OBJECTIVE_TYPES.length];
+            String correct = String.valueOf((char) ('A' + random.nextInt(4)));
+            questions.add(question(type, "seg-" + segment, i + 1, correct));
+        }
+        questions.add(question("Writing", "seg-writing", objectiveCount + 1, null));
+        questions.add(question("Translation", "seg-translation", objectiveCount + 2, null));
+        return questions;
+    }
+
+    /**
+     * 按前端的提交格式生成答案：多数按 "片段ID-题号" 作答，部分只按题号、答错或未作答
+     */
+    static Map<String, Object> answers(List<Map<String, Object>> questions, long seed) {
+        Random random = new Random(seed);
+        Map<String, Object> answers = new LinkedHashMap<>();
+        for (Map<String, Object> q : questions) {
+            String type = (String) q.get("type");
+            String group = groupKey(type);
+            if (group == null) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> groupMap = (Map<String, Object>) answers.computeIfAbsent(group, k -> new LinkedHashMap<>());
+            String segmentId = (String) q.get("segment_id");
+            if ("Writing".equals(type) || "Translation".equals(type)) {
+                groupMap.put(segmentId, "answer for " + segmentId);
+                continue;
+            }
+            int number = (Integer) q.get("number");
+            String correct = (String) q.get("correctAnswer");
+            int roll = random.nextInt(10);
+            if (roll < 7) {
+                groupMap.put(segmentId + "-" + number, correct);
+            } else if (roll == 7) {
+                groupMap.put(segmentId + "-" + number, correct.equals("A") ? "B" : "A");
+            } else if (roll == 8) {
+                groupMap.put(String.valueOf(number), correct);
+            }
+        }
+        return answers;
+    }
+
+    /**
+     * 编译答案之前的逐题判分：每道题各自取一次答题分组 Map、拼接答案键，片段统计再遍历一遍题目
+     */
+    static LegacyResult legacyScore(List<Map<String, Object>> questions, Map<String, Object> answers,
+                                    CET4AnswerMapper answerMapper) {
+        List<String> userAnswers = new ArrayList<>(questions.size());
+        int correctNumber = 0;
+        for (Map<String, Object> question : questions) {
+            int questionNumber = (Integer) question.get("number");
+            String questionType = (String) question.get("type");
+            String correctAnswer = (String) question.get("correctAnswer");
+            String segmentId = (String) question.get("segment_id");
+            if (questionType.equals("Writing") || questionType.equals("Translation")) {
+                Map<String, Object> subjective = answerMapper.getChildAnswerMap(answers, groupKey(questionType));
+                userAnswers.add(subjective.containsKey(segmentId)
+                        ? String.valueOf(subjective.get(segmentId))
+                        : String.valueOf(subjective.getOrDefault("answer", "")));
+                continue;
+            }
+            String group = groupKey(questionType);
+            String userAnswer = "";
+            if (group != null) {
+                userAnswer = lookup(answerMapper.getChildAnswerMap(answers, group), segmentId, questionNumber);
+                if (!userAnswer.trim().isEmpty() && !"null".equals(userAnswer) && userAnswer.equals(correctAnswer)) {
+                    correctNumber++;
+                }
+            }
+            userAnswers.add(userAnswer);
+        }
+
+        Map<String, Integer> segmentCorrect = new HashMap<>();
+        Map<String, Integer> segmentTotal = new HashMap<>();
+        Map<String, String> segmentType = new HashMap<>();
+        for (Map<String, Object> question : questions) {
+            String segmentId = (String) question.get("segment_id");
+            String questionType = (String) question.get("type");
+            if ("Writing".equals(questionType) || "Translation".equals(questionType)) continue;
+            int questionNumber = (Integer) question.get("number");
+            String correctAnswer = (String) question.get("correctAnswer");
+            segmentType.put(segmentId, questionType);
+            segmentTotal.merge(segmentId, 1, Integer::sum);
+            String group = groupKey(questionType);
+            String userAnswer = group == null ? "" : lookup(answerMapper.getChildAnswerMap(answers, group), segmentId, questionNumber);
+            if (!userAnswer.trim().isEmpty() && userAnswer.equals(correctAnswer)) {
+                segmentCorrect.merge(segmentId, 1, Integer::sum);
+            }
+        }
+        return new LegacyResult(userAnswers, correctNumber, segmentCorrect, segmentTotal, segmentType);
+    }
+
+    private static String lookup(Map<String, Object> groupAnswers, String segmentId, int questionNumber) {
+        String userAnswer = String.valueOf(groupAnswers.getOrDefault(segmentId + "-" + questionNumber, ""));
+        if (userAnswer.trim().isEmpty() || "null".equals(userAnswer)) {
+            userAnswer = String.valueOf(groupAnswers.getOrDefault(String.valueOf(questionNumber), ""));
+        }
+        return userAnswer;
+    }
+
+    private static String groupKey(String questionType) {
+        return switch (questionType) {
+            case "NewsReport", "Conversation", "ListeningPassage" -> "listening";
+            case "BlankedCloze" -> "sectionA";
+            case "Matching" -> "sectionB";
+            case "ReadingPassage" -> "sectionC";
+            case "Writing" -> "writing";
+            case "Translation" -> "translation";
+            default -> null;
+        };
+    }
+}
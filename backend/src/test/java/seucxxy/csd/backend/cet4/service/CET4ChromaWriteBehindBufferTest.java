@@ -0,0 +1,126 @@
+package seucxxy.csd.backend.cet4.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestTemplate;
+import seucxxy.csd.backend.common.service.ChromaCollectionResolver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 后写日志的重放顺序与跨重启的轮转序号（不连 ChromaDB，只验证本地日志）。
+ */
+class CET4ChromaWriteBehindBufferTest {
+
+    private static final String COLLECTION = "answers";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path spillDir;
+
+    @Test
+    void replaysRotatedJournalsInSequenceOrderThenCurrentJournal() throws IOException {
+        // 序号 10 的字典序排在 9 之前，重放必须按数值
+        write("inflight-9.jsonl", line("1", "v1"), line("2", "v1"));
+        write("inflight-10.jsonl", line("1", "v2"));
+        write("journal.jsonl", line("2", "v3"), line("3", "v1"));
+
+        CET4ChromaWriteBehindBuffer buffer = newBuffer(10);
+
+        assertEquals(Map.of("1", "v2", "2", "v3", "3", "v1"), pendingDocuments(buffer));
+        // 当前日志移为下一个序号，不覆盖已有的轮转日志
+        assertEquals(List.of("inflight-0000000000000000011.jsonl", "inflight-10.jsonl", "inflight-9.jsonl", "journal.jsonl"),
+                fileNames());
+    }
+
+    @Test
+    void latestVersionSurvivesRepeatedRestarts() throws IOException {
+        CET4ChromaWriteBehindBuffer first = newBuffer(10);
+        assertTrue(first.enqueue(record("1", "v1")));
+
+        CET4ChromaWriteBehindBuffer second = newBuffer(10);
+        assertEquals(Map.of("1", "v1"), pendingDocuments(second));
+        assertTrue(second.enqueue(record("1", "v2")));
+
+        CET4ChromaWriteBehindBuffer third = newBuffer(10);
+        assertTrue(third.enqueue(record("1", "v3")));
+        assertTrue(third.enqueue(record("2", "v1")));
+
+        CET4ChromaWriteBehindBuffer fourth = newBuffer(10);
+        assertEquals(Map.of("1", "v3", "2", "v1"), pendingDocuments(fourth));
+        assertEquals(List.of("inflight-0000000000000000001.jsonl", "inflight-0000000000000000002.jsonl",
+                "inflight-0000000000000000003.jsonl", "journal.jsonl"), fileNames());
+    }
+
+    @Test
+    void skipsTruncatedLastLineAndForeignFiles() throws IOException {
+        write("journal.jsonl", line("1", "v1"), "{\"collectionName\":\"answers\",\"id\":");
+        write("inflight-backup.jsonl", line("1", "stale"));
+
+        CET4ChromaWriteBehindBuffer buffer = newBuffer(10);
+
+        assertEquals(Map.of("1", "v1"), pendingDocuments(buffer));
+        assertTrue(Files.exists(spillDir.resolve("inflight-backup.jsonl")));
+    }
+
+    @Test
+    void enqueueRejectsNewKeysWhenFullButAcceptsUpdates() throws IOException {
+        CET4ChromaWriteBehindBuffer buffer = newBuffer(1);
+        assertTrue(buffer.enqueue(record("1", "v1")));
+        assertFalse(buffer.enqueue(record("2", "v1")));
+        assertTrue(buffer.enqueue(record("1", "v2")));
+        assertEquals(Map.of("1", "v2"), pendingDocuments(buffer));
+    }
+
+    @Test
+    void inflightSeqIgnoresForeignNames() {
+        assertEquals(9, CET4ChromaWriteBehindBuffer.inflightSeq(Path.of("inflight-9.jsonl")));
+        assertEquals(11, CET4ChromaWriteBehindBuffer.inflightSeq(Path.of("inflight-0000000000000000011.jsonl")));
+        assertEquals(-1, CET4ChromaWriteBehindBuffer.inflightSeq(Path.of("inflight-backup.jsonl")));
+        assertEquals(-1, CET4ChromaWriteBehindBuffer.inflightSeq(Path.of("journal.jsonl")));
+        assertEquals(-1, CET4ChromaWriteBehindBuffer.inflightSeq(Path.of("inflight-9.jsonl.bak")));
+    }
+
+    private CET4ChromaWriteBehindBuffer newBuffer(int capacity) throws IOException {
+        RestTemplate restTemplate = new RestTemplate();
+        return new CET4ChromaWriteBehindBuffer(restTemplate, new ChromaCollectionResolver(restTemplate, MAPPER),
+                new SimpleMeterRegistry(), spillDir.toString(), capacity, 100, 1);
+    }
+
+    private static CET4ChromaWriteBehindBuffer.PendingRecord record(String id, String document) {
+        return new CET4ChromaWriteBehindBuffer.PendingRecord(COLLECTION, "学生答案", id, document, Map.of("userId", 1));
+    }
+
+    private static String line(String id, String document) throws IOException {
+        return MAPPER.writeValueAsString(record(id, document));
+    }
+
+    private void write(String fileName, String... lines) throws IOException {
+        Files.writeString(spillDir.resolve(fileName), String.join("\n", lines) + "\n", StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> pendingDocuments(CET4ChromaWriteBehindBuffer buffer) {
+        return buffer.pendingRecords(COLLECTION, metadata -> true).stream()
+                .collect(Collectors.toMap(CET4ChromaWriteBehindBuffer.PendingRecord::id,
+                        CET4ChromaWriteBehindBuffer.PendingRecord::document));
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(spillDir)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package seucxxy.csd.backend.cet4.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import seucxxy.csd.backend.cet4.mapper.CET4TaskMapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 任务进度的合并：同一任务只写最新（最大）进度，所有任务在一个批次内写入。
+ */
+class CET4TaskProgressAggregatorTest {
+
+    private final SqlSessionFactory sqlSessionFactory = mock(SqlSessionFactory.class);
+    private final SqlSession session = mock(SqlSession.class);
+    private final CET4TaskMapper taskMapper = mock(CET4TaskMapper.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final CET4TaskProgressAggregator aggregator = new CET4TaskProgressAggregator(sqlSessionFactory, registry);
+
+    @BeforeEach
+    void wireSession() {
+        when(sqlSessionFactory.openSession(ExecutorType.BATCH, false)).thenReturn(session);
+        when(session.getMapper(CET4TaskMapper.class)).thenReturn(taskMapper);
+    }
+
+    @Test
+    void coalescesUpdatesPerTaskIntoOneBatch() {
+        aggregator.submit(1L, 10, "单元1完成");
+        aggregator.submit(1L, 30, "单元3完成");
+        // 乱序到达的旧进度不会回退，提示信息为空时沿用上一条
+        aggregator.submit(1L, 20, null);
+        aggregator.submit(2L, 50, "单元5完成");
+
+        aggregator.flush();
+
+        verify(sqlSessionFactory, times(1)).openSession(ExecutorType.BATCH, false);
+        verify(taskMapper).updateProgress(1L, 30, "单元3完成");
+        verify(taskMapper).updateProgress(2L, 50, "单元5完成");
+        verify(taskMapper, times(2)).updateProgress(anyLong(), anyInt(), anyString());
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).flushStatements();
+        inOrder.verify(session).commit();
+        inOrder.verify(session).close();
+        assertEquals(4.0, registry.get("task.progress.submitted").counter().count());
+        assertEquals(2.0, registry.get("task.progress.written").counter().count());
+    }
+
+    @Test
+    void flushWithNothingPendingOpensNoSession() {
+        aggregator.flush();
+        aggregator.submit(1L, 10, "单元1完成");
+        aggregator.flush();
+        aggregator.flush();
+
+        verify(sqlSessionFactory, times(1)).openSession(ExecutorType.BATCH, false);
+    }
+
+    @Test
+    void discardDropsPendingProgress() {
+        aggregator.submit(1L, 10, "单元1完成");
+        aggregator.submit(2L, 20, "单元2完成");
+        aggregator.discard(1L);
+        aggregator.submit(null, 99, "无任务ID");
+
+        aggregator.flush();
+
+        verify(taskMapper, never()).updateProgress(1L, 10, "单元1完成");
+        verify(taskMapper).updateProgress(2L, 20, "单元2完成");
+    }
+
+    @Test
+    void failedBatchIsDroppedNotRetried() {
+        doThrow(new RuntimeException("db down")).when(session).flushStatements();
+        aggregator.submit(1L, 10, "单元1完成");
+
+        aggregator.flush();
+        aggregator.flush();
+
+        verify(sqlSessionFactory, times(1)).openSession(ExecutorType.BATCH, false);
+        verify(session).close();
+        assertEquals(0.0, registry.get("task.progress.written").counter().count());
+    }
+}
@@ -0,0 +1,130 @@
+package seucxxy.csd.backend.cet4.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import seucxxy.csd.backend.cet4.dto.CET4WrongQuestionPage;
+import seucxxy.csd.backend.cet4.dto.CET4WrongQuestionRecordDTO;
+import seucxxy.csd.backend.cet4.mapper.CET4UserWrongSegmentEnMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 错题分页游标：下一页从上一页最后一条之后继续，游标与排序方式绑定。
+ */
+class CET4WrongQuestionServiceTest {
+
+    private static final Long USER_ID = 7L;
+
+    private final CET4UserWrongSegmentEnMapper wrongSegmentMapper = mock(CET4UserWrongSegmentEnMapper.class);
+    private final CET4WrongQuestionService service = new CET4WrongQuestionService(
+            null, wrongSegmentMapper, null, null, null, null, null, null, null);
+
+    @Test
+    void cursorResumesAfterLastRecordOfPreviousPage() {
+        LocalDateTime time = LocalDateTime.of(2024, 6, 15, 9, 30, 5, 123_456_000);
+        List<CET4WrongQuestionRecordDTO> firstRows = List.of(
+                row(3L, "seg-a", 0.5, time.plusMinutes(1)),
+                row(2L, "seg|with|bars", 0.25, time),
+                row(1L, "seg-c", 0.75, time.minusMinutes(1)));
+        when(wrongSegmentMapper.findPageOrderByTime(eq(USER_ID), eq("DESC"), isNull(), eq(3), eq(20)))
+                .thenReturn(firstRows);
+
+        CET4WrongQuestionPage first = service.getWrongQuestionsPage(USER_ID, "time", "desc", 11, 2, null);
+        assertEquals(2, first.records().size());
+        assertNotNull(first.nextCursor());
+
+        when(wrongSegmentMapper.findPageOrderByTime(eq(USER_ID), eq("DESC"), any(), eq(3), eq(0)))
+                .thenReturn(List.of(firstRows.get(2)));
+        // 带游标时忽略页码
+        CET4WrongQuestionPage second = service.getWrongQuestionsPage(USER_ID, "time", "DESC", 99, 2, first.nextCursor());
+        assertEquals(1, second.records().size());
+        assertNull(second.nextCursor());
+
+        ArgumentCaptor<CET4WrongQuestionRecordDTO> after = ArgumentCaptor.forClass(CET4WrongQuestionRecordDTO.class);
+        verify(wrongSegmentMapper).findPageOrderByTime(eq(USER_ID), eq("DESC"), after.capture(), eq(3), eq(0));
+        assertEquals(2L, after.getValue().getTestEnId());
+        assertEquals("seg|with|bars", after.getValue().getSegmentId());
+        assertEquals(0.25, after.getValue().getCorrectAnswersPercent());
+        assertEquals(time, after.getValue().getTestEnTime());
+    }
+
+    @Test
+    void percentSortCarriesItsOwnCursor() {
+        LocalDateTime time = LocalDateTime.of(2024, 1, 1, 0, 0);
+        when(wrongSegmentMapper.findPageOrderByPercent(eq(USER_ID), eq("ASC"), isNull(), eq(2), eq(1)))
+                .thenReturn(List.of(row(5L, "seg-a", 0.1, time), row(4L, "seg-b", 0.2, time)));
+
+        CET4WrongQuestionPage first = service.getWrongQuestionsPage(USER_ID, "percent", "asc", 2, 1, null);
+        assertNotNull(first.nextCursor());
+
+        when(wrongSegmentMapper.findPageOrderByPercent(eq(USER_ID), eq("ASC"), any(), eq(2), eq(0)))
+                .thenReturn(new ArrayList<>());
+        service.getWrongQuestionsPage(USER_ID, "percent", "ASC", 1, 1, first.nextCursor());
+
+        ArgumentCaptor<CET4WrongQuestionRecordDTO> after = ArgumentCaptor.forClass(CET4WrongQuestionRecordDTO.class);
+        verify(wrongSegmentMapper).findPageOrderByPercent(eq(USER_ID), eq("ASC"), after.capture(), eq(2), eq(0));
+        assertEquals(5L, after.getValue().getTestEnId());
+        assertEquals(0.1, after.getValue().getCorrectAnswersPercent());
+    }
+
+    @Test
+    void cursorFromAnotherSortIsRejected() {
+        LocalDateTime time = LocalDateTime.of(2024, 1, 1, 0, 0);
+        when(wrongSegmentMapper.findPageOrderByTime(eq(USER_ID), eq("DESC"), isNull(), eq(2), anyInt()))
+                .thenReturn(List.of(row(5L, "seg-a", 0.1, time), row(4L, "seg-b", 0.2, time)));
+        String cursor = service.getWrongQuestionsPage(USER_ID, "time", "DESC", 1, 1, null).nextCursor();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> service.getWrongQuestionsPage(USER_ID, "percent", "DESC", 1, 1, cursor));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.getWrongQuestionsPage(USER_ID, "time", "ASC", 1, 1, cursor));
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        for (String cursor : List.of("not base64!", encode("time|DESC"), encode("time|DESC|yesterday|1|0.5|seg"),
+                encode("time|DESC|2024-01-01T00:00|x|0.5|seg"))) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> service.getWrongQuestionsPage(USER_ID, "time", "DESC", 1, 10, cursor), cursor);
+            assertEquals("无效的分页游标", e.getMessage());
+        }
+    }
+
+    @Test
+    void blankCursorFallsBackToPageOffset() {
+        when(wrongSegmentMapper.findPageOrderByTime(eq(USER_ID), eq("DESC"), isNull(), eq(11), eq(20)))
+                .thenReturn(new ArrayList<>());
+        CET4WrongQuestionPage page = service.getWrongQuestionsPage(USER_ID, "unknown", "ASC", 3, 10, " ");
+        assertEquals(0, page.records().size());
+        assertNull(page.nextCursor());
+    }
+
+    private static CET4WrongQuestionRecordDTO row(Long testEnId, String segmentId, Double percent, LocalDateTime time) {
+        CET4WrongQuestionRecordDTO dto = new CET4WrongQuestionRecordDTO();
+        dto.setTestEnId(testEnId);
+        dto.setSegmentId(segmentId);
+        dto.setCorrectAnswersPercent(percent);
+        dto.setTestEnTime(time);
+        return dto;
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,152 @@
+package seucxxy.csd.backend.common.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AIMD 并发上限的调整与按用户轮转的排队放行。
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void acquireTimesOutWhenLimitReached() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 2, 0.5, registry);
+        assertTrue(limiter.acquire("u1", 10));
+        assertTrue(limiter.acquire("u1", 10));
+        assertFalse(limiter.acquire("u2", 20));
+        assertEquals(1.0, registry.get("http.client.limiter.timeouts").counter().count());
+        assertEquals(0.0, gauge("queued"));
+        assertEquals(2.0, gauge("in_flight"));
+
+        limiter.release(false);
+        assertTrue(limiter.acquire("u2", 10));
+    }
+
+    @Test
+    void dropShrinksLimitDownToMinimum() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 10, 2, 10, 0.5, registry);
+        assertTrue(limiter.acquire("u1", 10));
+        limiter.release(true);
+        assertEquals(5.0, gauge("limit"));
+        assertTrue(limiter.acquire("u1", 10));
+        limiter.release(true);
+        assertEquals(2.5, gauge("limit"));
+        assertTrue(limiter.acquire("u1", 10));
+        limiter.release(true);
+        assertEquals(2.0, gauge("limit"));
+        assertEquals(3.0, registry.get("http.client.limiter.dropped").counter().count());
+    }
+
+    @Test
+    void successGrowsLimitOnlyWhenHalfUsed() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 4, 1, 10, 0.5, registry);
+        assertTrue(limiter.acquire("u1", 10));
+        assertTrue(limiter.acquire("u1", 10));
+        // 结束时在途 2，达到上限一半：+1/limit
+        limiter.release(false);
+        assertEquals(4.25, gauge("limit"));
+        // 结束时在途 1，不足一半：不变
+        limiter.release(false);
+        assertEquals(4.25, gauge("limit"));
+    }
+
+    @Test
+    void successNeverExceedsMaximum() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 2, 0.5, registry);
+        assertTrue(limiter.acquire("u1", 10));
+        assertTrue(limiter.acquire("u1", 10));
+        limiter.release(false);
+        limiter.release(false);
+        assertEquals(2.0, gauge("limit"));
+    }
+
+    @Test
+    void waitersAreGrantedRoundRobinAcrossUsers() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 0.5, registry);
+        assertTrue(limiter.acquire("holder", 10));
+
+        BlockingQueue<String> granted = new LinkedBlockingQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        String[][] arrivals = {{"A", "A1"}, {"A", "A2"}, {"A", "A3"}, {"B", "B1"}};
+        for (String[] arrival : arrivals) {
+            Thread thread = new Thread(() -> {
+                try {
+                    if (limiter.acquire(arrival[0], 5_000)) {
+                        granted.add(arrival[1]);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            // 等上一个进入队列，保证入队顺序
+            awaitGauge("queued", threads.size());
+        }
+
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < arrivals.length; i++) {
+            limiter.release(false);
+            String next = granted.poll(5, TimeUnit.SECONDS);
+            order.add(next);
+        }
+        for (Thread thread : threads) {
+            thread.join(5_000);
+        }
+        assertEquals(List.of("A1", "B1", "A2", "A3"), order);
+        assertEquals(0.0, gauge("queued"));
+    }
+
+    @Test
+    void interruptedWaiterLeavesQueueWithoutLeakingPermit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 0.5, registry);
+        assertTrue(limiter.acquire("holder", 10));
+
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire("u1", 10_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        waiter.start();
+        awaitGauge("queued", 1);
+        waiter.interrupt();
+        waiter.join(5_000);
+
+        assertTrue(interrupted.get());
+        assertEquals(0.0, gauge("queued"));
+        assertEquals(1.0, gauge("in_flight"));
+        limiter.release(false);
+        assertEquals(0.0, gauge("in_flight"));
+        assertTrue(limiter.acquire("u2", 10));
+    }
+
+    private double gauge(String suffix) {
+        return registry.get("http.client.limiter." + suffix).tag("downstream", "test").gauge().value();
+    }
+
+    private void awaitGauge(String suffix, double expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (gauge(suffix) != expected) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError(suffix + " 未达到 " + expected + "，当前 " + gauge(suffix));
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package seucxxy.csd.backend.common.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 熔断器的打开、半开探测与恢复，以及重试预算。
+ */
+class CozeCallGuardTest {
+
+    private static final String WORKFLOW = "wf";
+    private static final long OPEN_MS = 50;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void breakerOpensAtThresholdAndRejectsWithoutCalling() {
+        CozeCallGuard guard = breaker();
+        openBreaker(guard);
+        assertTrue(guard.isOpen(WORKFLOW));
+
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, n -> {
+            calls.incrementAndGet();
+            return "ok";
+        }));
+        assertEquals(0, calls.get());
+        assertEquals(1.0, registry.get("coze.breaker.rejected").tag("workflow", WORKFLOW).counter().count());
+    }
+
+    @Test
+    void halfOpenAllowsSingleProbeAndClosesOnSuccess() throws Exception {
+        CozeCallGuard guard = breaker();
+        openBreaker(guard);
+        Thread.sleep(OPEN_MS + 30);
+
+        CountDownLatch probing = new CountDownLatch(1);
+        CountDownLatch finishProbe = new CountDownLatch(1);
+        AtomicReference<String> probeResult = new AtomicReference<>();
+        Thread probe = new Thread(() -> probeResult.set(guard.execute(WORKFLOW, n -> {
+            probing.countDown();
+            finishProbe.await(5, TimeUnit.SECONDS);
+            return "probe";
+        })));
+        probe.start();
+        assertTrue(probing.await(5, TimeUnit.SECONDS));
+        assertEquals(2.0, breakerState());
+
+        // 探测进行中，其他调用直接拒绝
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, n -> {
+            calls.incrementAndGet();
+            return "ok";
+        }));
+        assertEquals(0, calls.get());
+
+        finishProbe.countDown();
+        probe.join(5_000);
+        assertEquals("probe", probeResult.get());
+        assertFalse(guard.isOpen(WORKFLOW));
+        assertEquals(0.0, breakerState());
+        assertEquals("ok", guard.execute(WORKFLOW, n -> "ok"));
+    }
+
+    @Test
+    void failedProbeReopensBreaker() throws Exception {
+        CozeCallGuard guard = breaker();
+        openBreaker(guard);
+        Thread.sleep(OPEN_MS + 30);
+
+        // 半开状态下一次失败即重新打开，不需要再累计到阈值
+        assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, n -> {
+            throw new IllegalStateException("down");
+        }));
+        assertTrue(guard.isOpen(WORKFLOW));
+
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, n -> {
+            calls.incrementAndGet();
+            return "ok";
+        }));
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    void contentRejectedProbeClosesBreaker() throws Exception {
+        CozeCallGuard guard = breaker();
+        openBreaker(guard);
+        Thread.sleep(OPEN_MS + 30);
+
+        assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, n -> {
+            throw new CozeCallGuard.ContentRejectedException("bad json");
+        }));
+        assertFalse(guard.isOpen(WORKFLOW));
+        assertEquals(0.0, breakerState());
+    }
+
+    @Test
+    void contentRejectedDoesNotCountTowardsThreshold() {
+        CozeCallGuard guard = breaker();
+        for (int i = 0; i < 5; i++) {
+            assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, n -> {
+                throw new CozeCallGuard.ContentRejectedException("bad json");
+            }));
+        }
+        assertFalse(guard.isOpen(WORKFLOW));
+    }
+
+    @Test
+    void nullResultCountsAsFailure() {
+        CozeCallGuard guard = breaker();
+        for (int i = 0; i < 2; i++) {
+            assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, n -> null));
+        }
+        assertTrue(guard.isOpen(WORKFLOW));
+    }
+
+    @Test
+    void retriesStopWhenBudgetExhausted() {
+        // 预算上限 1、不再存入：第一次调用重试一次后耗尽，第二次调用不再重试
+        CozeCallGuard guard = new CozeCallGuard(registry, 3, 0, 0, 100, OPEN_MS, 0, 1);
+        AtomicInteger attempts = new AtomicInteger();
+        CozeCallGuard.Attempt<String> failing = n -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("down");
+        };
+
+        assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, failing));
+        assertEquals(2, attempts.get());
+
+        attempts.set(0);
+        assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, failing));
+        assertEquals(1, attempts.get());
+        assertEquals(2.0, registry.get("coze.retry_budget.exhausted").tag("workflow", WORKFLOW).counter().count());
+        assertEquals(1.0, registry.get("coze.retries").tag("workflow", WORKFLOW).counter().count());
+    }
+
+    @Test
+    void retrySucceedsWithinBudget() {
+        CozeCallGuard guard = new CozeCallGuard(registry, 3, 0, 0, 100, OPEN_MS, 0.2, 5);
+        assertEquals("ok", guard.execute(WORKFLOW, n -> {
+            if (n < 3) {
+                throw new IllegalStateException("down");
+            }
+            return "ok";
+        }));
+        assertEquals(2.0, registry.get("coze.retries").tag("workflow", WORKFLOW).counter().count());
+    }
+
+    /**
+     * 每次调用只尝试一次、连续失败 2 次打开、打开 {@link #OPEN_MS} 毫秒
+     */
+    private CozeCallGuard breaker() {
+        return new CozeCallGuard(registry, 1, 0, 0, 2, OPEN_MS, 0, 0);
+    }
+
+    private void openBreaker(CozeCallGuard guard) {
+        for (int i = 0; i < 2; i++) {
+            assertThrows(RuntimeException.class, () -> guard.execute(WORKFLOW, n -> {
+                throw new IllegalStateException("down");
+            }));
+        }
+    }
+
+    private double breakerState() {
+        return registry.get("coze.breaker.state").tag("workflow", WORKFLOW).gauge().value();
+    }
+}
@@ -0,0 +1,153 @@
+package seucxxy.csd.backend.common.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对冲请求：关闭时串行降级，开启后慢调用触发降级并在降级胜出时取消 Coze 主调用。
+ */
+class CozeHedgingServiceTest {
+
+    private static final String WORKFLOW = "wf";
+    private static final long HEDGE_DELAY_MS = 50;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void disabledFallsBackOnlyAfterPrimaryFails() throws Exception {
+        CozeHedgingService hedging = hedging(false, 4);
+        AtomicInteger fallbackCalls = new AtomicInteger();
+
+        assertEquals("coze", hedging.call(WORKFLOW, () -> "coze", () -> {
+            fallbackCalls.incrementAndGet();
+            return "fallback";
+        }));
+        assertEquals(0, fallbackCalls.get());
+
+        assertEquals("fallback", hedging.call(WORKFLOW, () -> {
+            throw new IllegalStateException("down");
+        }, () -> {
+            fallbackCalls.incrementAndGet();
+            return "fallback";
+        }));
+        assertEquals(1, fallbackCalls.get());
+    }
+
+    @Test
+    void fastPrimaryDoesNotLaunchHedge() throws Exception {
+        CozeHedgingService hedging = hedging(true, 4);
+        AtomicInteger fallbackCalls = new AtomicInteger();
+
+        assertEquals("coze", hedging.call(WORKFLOW, () -> "coze", () -> {
+            fallbackCalls.incrementAndGet();
+            return "fallback";
+        }));
+        assertEquals(0, fallbackCalls.get());
+        assertEquals(0.0, registry.get("coze.hedge.launched").counter().count());
+    }
+
+    @Test
+    void fallbackWinsAndCancelsSlowPrimary() throws Exception {
+        CozeHedgingService hedging = hedging(true, 4);
+        CountDownLatch primaryDone = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean cancelledSeen = new AtomicBoolean();
+
+        String result = hedging.call(WORKFLOW, () -> {
+            try {
+                Thread.sleep(10_000);
+                return "coze";
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                cancelledSeen.set(CozeHedgingService.isCurrentCallCancelled());
+                throw e;
+            } finally {
+                primaryDone.countDown();
+            }
+        }, () -> "fallback");
+
+        assertEquals("fallback", result);
+        assertTrue(primaryDone.await(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+        assertTrue(cancelledSeen.get());
+        assertEquals(1.0, registry.get("coze.hedge.launched").counter().count());
+        assertEquals(1.0, registry.get("coze.hedge.fallback_won").counter().count());
+        assertFalse(CozeHedgingService.isCurrentCallCancelled());
+    }
+
+    @Test
+    void slowPrimaryStillWinsWhenFallbackReturnsNull() throws Exception {
+        CozeHedgingService hedging = hedging(true, 4);
+
+        String result = hedging.call(WORKFLOW, () -> {
+            Thread.sleep(HEDGE_DELAY_MS * 3);
+            return "coze";
+        }, () -> null);
+
+        assertEquals("coze", result);
+        assertEquals(1.0, registry.get("coze.hedge.launched").counter().count());
+        assertEquals(0.0, registry.get("coze.hedge.fallback_won").counter().count());
+    }
+
+    @Test
+    void hedgeSkippedWhenNoPermitsLeft() throws Exception {
+        CozeHedgingService hedging = hedging(true, 1);
+        CountDownLatch releaseFirstFallback = new CountDownLatch(1);
+        CountDownLatch firstFallbackStarted = new CountDownLatch(1);
+
+        // 第一次调用的降级一直占着唯一的对冲名额
+        Thread first = new Thread(() -> {
+            try {
+                hedging.call(WORKFLOW, () -> {
+                    Thread.sleep(HEDGE_DELAY_MS * 4);
+                    return "coze";
+                }, () -> {
+                    firstFallbackStarted.countDown();
+                    releaseFirstFallback.await(5, TimeUnit.SECONDS);
+                    return null;
+                });
+            } catch (Exception ignored) {
+                // 只用来占住名额
+            }
+        });
+        first.start();
+        assertTrue(firstFallbackStarted.await(5, TimeUnit.SECONDS));
+
+        AtomicInteger fallbackCalls = new AtomicInteger();
+        String result = hedging.call(WORKFLOW, () -> {
+            Thread.sleep(HEDGE_DELAY_MS * 2);
+            return "coze";
+        }, () -> {
+            fallbackCalls.incrementAndGet();
+            return "fallback";
+        });
+        releaseFirstFallback.countDown();
+        first.join(5_000);
+
+        assertEquals("coze", result);
+        assertEquals(0, fallbackCalls.get());
+        assertEquals(1.0, registry.get("coze.hedge.skipped").counter().count());
+    }
+
+    private CozeHedgingService hedging(boolean enabled, int maxInFlight) {
+        return new CozeHedgingService(executor, registry, enabled, 0.95, 0, HEDGE_DELAY_MS, 20, 200, maxInFlight);
+    }
+}
@@ -0,0 +1,23 @@
+-- ============================================
+-- CET4 主观题异步评分任务表
+-- 说明：交卷时客观题当场判分并返回暂定成绩，写作/翻译的 AI 评分作为后台任务执行，
+--       任务持久化在本表，与考试记录在同一事务中写入；服务重启或执行中断后由定时扫描重新领取
+-- 数据库：MySQL 5.7+
+-- ============================================
+
+CREATE TABLE IF NOT EXISTS `cet4_subjective_grading_job` (
+    `test_en_id` BIGINT NOT NULL COMMENT '考试记录ID，一次交卷一个评分任务',
+    `user_id` BIGINT NOT NULL COMMENT '用户ID',
+    `status` VARCHAR(16) NOT NULL COMMENT 'PENDING / RUNNING / SUCCEEDED / FAILED',
+    `attempts` INT NOT NULL DEFAULT 0 COMMENT '已领取执行次数',
+    `claim_token` VARCHAR(64) DEFAULT NULL COMMENT '本次领取的标识，续期、释放和完成时校验，超时被他人重新领取后旧执行者的写入不生效',
+    `payload_json` MEDIUMTEXT NOT NULL COMMENT '评分所需的答案与题目',
+    `message` VARCHAR(512) DEFAULT NULL COMMENT '状态说明或失败原因',
+    `provisional_score` DOUBLE DEFAULT NULL COMMENT '交卷时的暂定成绩（仅客观题）',
+    `final_score` DOUBLE DEFAULT NULL COMMENT '评分完成后的最终成绩',
+    `created_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `updated_at` DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '最近一次状态变更时间，RUNNING 超时判定依据',
+    `completed_at` DATETIME DEFAULT NULL COMMENT '完成时间',
+    PRIMARY KEY (`test_en_id`),
+    KEY `idx_status_updated` (`status`, `updated_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='CET4主观题异步评分任务';
@@ -0,0 +1,95 @@
+-- ============================================
+-- CET4 错题索引表
+-- 说明：1) 专项训练从错题库抽题时在 [0, 错题数) 内随机取序号，按 (user_id, questions_type, ord) 定位，
+--          不再对 user_test_record_detail_en 与 user_test_record_en 的联表结果 ORDER BY RAND()；
+--          ord 为每个 (用户, 题型) 内连续的序号，写入时接在末尾（错题不删除），保证均匀抽样
+--       2) 错题列表按片段冗余存储，交卷时写入，列表按游标（keyset）分页；错题数按用户增量计数
+-- 数据库：MySQL 8.0+（错题列表的降序索引需要 8.0）
+-- ============================================
+
+-- 1. 错题索引表：交卷时写入答错的客观题
+CREATE TABLE IF NOT EXISTS `user_wrong_question_en` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键',
+    `user_id` BIGINT NOT NULL COMMENT '用户ID',
+    `questions_type` VARCHAR(64) NOT NULL COMMENT '题型',
+    `detail_id` BIGINT NOT NULL COMMENT 'user_test_record_detail_en.id',
+    `test_en_id` BIGINT NOT NULL COMMENT '考试记录ID',
+    `segment_id` VARCHAR(64) NOT NULL COMMENT '题目所属片段ID',
+    `questions_en_number` INT NOT NULL COMMENT '题号',
+    `ord` INT NOT NULL COMMENT '该用户该题型错题内的连续序号，取值 [0, question_count)',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_detail_id` (`detail_id`),
+    UNIQUE KEY `uk_user_type_ord` (`user_id`, `questions_type`, `ord`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='CET4错题索引表';
+
+-- 错题序号计数：每个 (用户, 题型) 一行，写入错题时先锁住这一行再分配序号
+CREATE TABLE IF NOT EXISTS `user_wrong_question_count_en` (
+    `user_id` BIGINT NOT NULL COMMENT '用户ID',
+    `questions_type` VARCHAR(64) NOT NULL COMMENT '题型',
+    `question_count` INT NOT NULL DEFAULT 0 COMMENT '错题数，即下一个可分配的序号',
+    PRIMARY KEY (`user_id`, `questions_type`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='CET4错题索引序号计数';
+
+-- 2. 回填历史错题，需在新版本上线前执行一次。判定与交卷时 CET4WrongQuestionIndexService 一致：
+--    标准答案与用户答案都非 NULL 且不相等（按字节比较，与 Java 的 equals 一致，不受排序规则忽略大小写影响）；题型为 Writing / Translation（不区分大小写）或含“写作”“翻译”的不进入索引
+INSERT IGNORE INTO `user_wrong_question_en`
+    (`user_id`, `questions_type`, `detail_id`, `test_en_id`, `segment_id`, `questions_en_number`, `ord`)
+SELECT r.user_id, d.questions_type, d.id, d.test_en_id, d.segment_id, d.questions_en_number,
+       ROW_NUMBER() OVER (PARTITION BY r.user_id, d.questions_type ORDER BY d.id) - 1
+FROM user_test_record_detail_en d
+INNER JOIN user_test_record_en r ON d.test_en_id = r.test_en_id
+WHERE d.correct_answer IS NOT NULL AND d.user_answer IS NOT NULL
+  AND CAST(d.correct_answer AS BINARY) != CAST(d.user_answer AS BINARY)
+  AND d.questions_type IS NOT NULL
+  AND UPPER(d.questions_type) NOT IN ('WRITING', 'TRANSLATION')
+  AND d.questions_type NOT LIKE '%写作%'
+  AND d.questions_type NOT LIKE '%翻译%';
+
+INSERT INTO `user_wrong_question_count_en` (`user_id`, `questions_type`, `question_count`)
+SELECT user_id, questions_type, COUNT(*) FROM user_wrong_question_en GROUP BY user_id, questions_type
+ON DUPLICATE KEY UPDATE `question_count` = VALUES(`question_count`);
+
+-- 3. 错题列表表：正确率低于 100 的片段，冗余考试时间和试卷名，列表查询不再联表
+CREATE TABLE IF NOT EXISTS `user_wrong_segment_en` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键',
+    `user_id` BIGINT NOT NULL COMMENT '用户ID',
+    `test_en_id` BIGINT NOT NULL COMMENT '考试记录ID',
+    `segment_id` VARCHAR(64) NOT NULL COMMENT '片段ID',
+    `question_type` VARCHAR(64) DEFAULT NULL COMMENT '题型',
+    `correct_answers_number` INT DEFAULT NULL COMMENT '答对题数',
+    `number_of_questions` INT DEFAULT NULL COMMENT '总题数',
+    `correct_answers_percent` DOUBLE NOT NULL COMMENT '正确率',
+    `score` DOUBLE DEFAULT NULL COMMENT '片段得分',
+    `test_en_time` DATETIME NOT NULL COMMENT '考试时间',
+    `exam_paper_en_name` VARCHAR(255) DEFAULT NULL COMMENT '试卷名称',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_test_segment` (`test_en_id`, `segment_id`),
+    -- 按时间排序（正序、倒序共用）
+    KEY `idx_user_time` (`user_id`, `test_en_time`, `test_en_id`, `segment_id`),
+    -- 按正确率倒序、时间倒序（反向扫描）
+    KEY `idx_user_percent` (`user_id`, `correct_answers_percent`, `test_en_time`, `test_en_id`, `segment_id`),
+    -- 按正确率正序、时间倒序
+    KEY `idx_user_percent_time_desc` (`user_id`, `correct_answers_percent`, `test_en_time` DESC, `test_en_id` DESC, `segment_id` DESC)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='CET4错题列表表';
+
+-- 4. 用户错题数：写入错题列表时增量累加
+CREATE TABLE IF NOT EXISTS `user_wrong_count_en` (
+    `user_id` BIGINT NOT NULL COMMENT '用户ID',
+    `wrong_count` INT NOT NULL DEFAULT 0 COMMENT '错题片段数',
+    PRIMARY KEY (`user_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='CET4用户错题数';
+
+-- 5. 回填历史错题列表与错题数
+INSERT IGNORE INTO `user_wrong_segment_en`
+    (`user_id`, `test_en_id`, `segment_id`, `question_type`, `correct_answers_number`, `number_of_questions`,
+     `correct_answers_percent`, `score`, `test_en_time`, `exam_paper_en_name`)
+SELECT r.user_id, s.test_en_id, s.segment_id, s.question_type, s.correct_answers_number, s.number_of_questions,
+       s.correct_answers_percent, s.score, r.test_en_time, p.exam_paper_en_name
+FROM user_test_record_segment_en s
+INNER JOIN user_test_record_en r ON s.test_en_id = r.test_en_id
+INNER JOIN exam_paper_en p ON r.exam_paper_en_id = p.id
+WHERE s.correct_answers_percent < 100;
+
+INSERT INTO `user_wrong_count_en` (`user_id`, `wrong_count`)
+SELECT user_id, COUNT(*) FROM user_wrong_segment_en GROUP BY user_id
+ON DUPLICATE KEY UPDATE `wrong_count` = VALUES(`wrong_count`);
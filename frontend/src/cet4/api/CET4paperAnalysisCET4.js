@@ -84,6 +84,9 @@ export default {
   storePart2C(payload) {
     return api.post('/part2/c/chroma', payload);
   },
+  storePaper(payload) {
+    return api.post('/exam-paper/chroma', payload);
+  },
   queryExamPaperUnits(params) {
     return api.get('/exam-paper/units', { params });
   },
@@ -129,6 +129,36 @@ export const storePart2CInChromaCET4 = async (payload) => {
   }
 };
 
+// 整卷保存：各部分按单独保存接口归类，一次请求写入 ChromaDB
+export const storePaperInChromaCET4 = async (parts) => {
+  const batchKeys = new Map([
+    [storeWritingInChromaCET4, 'writing'],
+    [storePart2ABInChromaCET4, 'part2AB'],
+    [storePart2CInChromaCET4, 'part2C'],
+    [storeSectionAInChromaCET4, 'sectionA'],
+    [storeSectionBInChromaCET4, 'sectionB'],
+    [storeSectionCInChromaCET4, 'sectionC'],
+    [storeTranslationInChromaCET4, 'translation'],
+  ]);
+  const payload = {};
+  parts.forEach((part) => {
+    const key = batchKeys.get(part.save);
+    if (!key) {
+      throw new Error(`未知的试卷部分类型：${part.type}`);
+    }
+    (payload[key] = payload[key] || []).push(part.payload);
+  });
+  try {
+    const response = await paperAnalysisApiCET4.storePaper(payload);
+    return response.data;
+  } catch (error) {
+    if (error.response && error.response.status === 401) {
+      throw new Error('当前未登录或会话已过期，请重新登录。');
+    }
+    throw new Error(error.response?.data?.message || '写入 ChromaDB 失败，请稍后重试');
+  }
+};
+
 export const queryExamPaperUnitsCET4 = async (examPaperId, examPaperName) => {
   try {
     const params = {};